@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableList;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -41,9 +42,10 @@ public class AbstractQueryResult<S extends SObject, Q> {
     private final Q queryLocator;
 
     /**
-     * An unmodifiable defensive copy of sObjects is stored to preserve the immutability of the resulting object in case
-     * the list is referenced elsewhere. The individual sobjects in the source list MUST NOT be modified after being
-     * passed in as part of the sObjects list.
+     * The result takes ownership of sObjects rather than copying it: it is exposed through an unmodifiable view, so
+     * neither the list nor the sobjects in it may be modified by the caller after being passed in. Lists that are
+     * already unmodifiable, such as a {@link LazyRecordList} whose records are decoded on first access, are used as
+     * is.
      *
      * @param isDone    true if this is the last batch of sobjects
      * @param sObjects  the list of sobjects for this result
@@ -53,10 +55,14 @@ public class AbstractQueryResult<S extends SObject, Q> {
     protected AbstractQueryResult(boolean isDone, @Nonnull List<S> sObjects, @Nullable Q qLocator, int totalSize) {
         this.done = isDone;
         this.totalSize = totalSize;
-        this.sObjects = ImmutableList.copyOf(sObjects);
+        this.sObjects = isUnmodifiable(sObjects) ? sObjects : Collections.unmodifiableList(sObjects);
         this.queryLocator = qLocator;
     }
 
+    private static boolean isUnmodifiable(List<?> list) {
+        return list instanceof LazyRecordList || list instanceof ImmutableList;
+    }
+
     public int getTotalSize() {
         return totalSize;
     }
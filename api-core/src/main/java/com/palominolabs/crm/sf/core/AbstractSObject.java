@@ -92,6 +92,20 @@ public abstract class AbstractSObject<T, U extends SObject> implements SObject {
         return new HashMap<String, String>(this.fields);
     }
 
+    @Override
+    public synchronized <E extends Exception> void forEachField(@Nonnull FieldVisitor<E> visitor) throws E {
+        for (Map.Entry<String, String> entry : this.fields.entrySet()) {
+            visitor.visitField(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void copyFieldsTo(@Nonnull SObject target) {
+        for (Map.Entry<String, String> entry : this.fields.entrySet()) {
+            target.setField(entry.getKey(), entry.getValue());
+        }
+    }
+
     @Override
     public synchronized void setAllFields(@Nonnull Map<String, String> newFields) {
         for (Map.Entry<String, String> entry : newFields.entrySet()) {
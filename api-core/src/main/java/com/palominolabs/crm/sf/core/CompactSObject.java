@@ -0,0 +1,325 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An sObject that can't be changed, which is what query and retrieve results are. Since nothing can change, reads
+ * don't need to lock. Use toMutable() on the connector's sObject type to get a copy that can be changed, e.g. to
+ * update it.
+ *
+ * Field values are kept in an array indexed by a {@link FieldTable}, which records read from the same response share,
+ * instead of in a HashMap of their own like {@link AbstractSObject}.
+ *
+ * @param <T> the type of relationship query result
+ * @param <U> the type to expose for sub objects
+ */
+@Immutable
+public abstract class CompactSObject<T, U extends SObject> implements SObject {
+
+    @Nullable
+    private final Id id;
+
+    @Nonnull
+    private final String type;
+
+    @Nonnull
+    private final FieldTable fieldTable;
+
+    /**
+     * value of each field in the table, or FieldTable.UNSET. Never modified.
+     */
+    @Nonnull
+    private final String[] values;
+
+    @Nonnull
+    private final Map<String, T> relationshipQueryResults;
+
+    @Nonnull
+    private final Map<String, U> relationshipSubObjects;
+
+    /**
+     * @param type                     the sf type string
+     * @param id                       the id, or null
+     * @param fieldTable               table of the record's field names, e.g. from a {@link FieldTable.Cache}
+     * @param fieldNames               the names fieldTable was made or looked up for
+     * @param fieldValues              the value of each of fieldNames
+     * @param relationshipQueryResults subquery results by relationship name, or null if there are none
+     * @param relationshipSubObjects   sub objects by relationship name, or null if there are none
+     */
+    protected CompactSObject(@Nonnull String type, @Nullable Id id, @Nonnull FieldTable fieldTable,
+            @Nonnull List<String> fieldNames, @Nonnull List<String> fieldValues,
+            @Nullable Map<String, T> relationshipQueryResults, @Nullable Map<String, U> relationshipSubObjects) {
+        this.type = type;
+        this.id = id;
+        this.fieldTable = fieldTable;
+        this.values = fieldTable.toValues(fieldNames, fieldValues);
+        this.relationshipQueryResults = relationshipQueryResults == null ? ImmutableMap.<String, T>of() :
+                ImmutableMap.copyOf(relationshipQueryResults);
+        this.relationshipSubObjects = relationshipSubObjects == null ? ImmutableMap.<String, U>of() :
+                ImmutableMap.copyOf(relationshipSubObjects);
+    }
+
+    /**
+     * @param builder the builder to take the type, id, fields and relationships from
+     */
+    protected CompactSObject(@Nonnull Builder<T, U, ?> builder) {
+        this(builder.type, builder.id, builder.getFieldTable(), builder.fieldNames, builder.fieldValues,
+                builder.relationshipQueryResults, builder.relationshipSubObjects);
+    }
+
+    @Override
+    @Nullable
+    public Id getId() {
+        return this.id;
+    }
+
+    @Override
+    @Nonnull
+    public String getType() {
+        return this.type;
+    }
+
+    @Override
+    @Nullable
+    public String getField(@Nonnull String name) {
+        int index = this.fieldTable.indexOf(name);
+        if (index < 0) {
+            return null;
+        }
+
+        String value = this.values[index];
+        //noinspection StringEquality
+        return value == FieldTable.UNSET ? null : value;
+    }
+
+    @Override
+    public boolean isFieldSet(@Nonnull String fieldName) {
+        int index = this.fieldTable.indexOf(fieldName);
+        //noinspection StringEquality
+        return index >= 0 && this.values[index] != FieldTable.UNSET;
+    }
+
+    @Override
+    @Nonnull
+    public Map<String, String> getAllFields() {
+        Map<String, String> fields = new HashMap<String, String>(this.values.length * 4 / 3 + 1);
+
+        List<String> names = this.fieldTable.getNames();
+        for (int i = 0; i < this.values.length; i++) {
+            //noinspection StringEquality
+            if (this.values[i] != FieldTable.UNSET) {
+                fields.put(names.get(i), this.values[i]);
+            }
+        }
+
+        return fields;
+    }
+
+    @Override
+    public <E extends Exception> void forEachField(@Nonnull FieldVisitor<E> visitor) throws E {
+        List<String> names = this.fieldTable.getNames();
+        for (int i = 0; i < this.values.length; i++) {
+            //noinspection StringEquality
+            if (this.values[i] != FieldTable.UNSET) {
+                visitor.visitField(names.get(i), this.values[i]);
+            }
+        }
+    }
+
+    @Override
+    public void copyFieldsTo(@Nonnull SObject target) {
+        List<String> names = this.fieldTable.getNames();
+        for (int i = 0; i < this.values.length; i++) {
+            //noinspection StringEquality
+            if (this.values[i] != FieldTable.UNSET) {
+                target.setField(names.get(i), this.values[i]);
+            }
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setField(@Nonnull String name, @Nullable String value) {
+        throw immutable();
+    }
+
+    /**
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setAllFields(@Nonnull Map<String, String> newFields) {
+        throw immutable();
+    }
+
+    /**
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    @Nullable
+    public String removeField(@Nonnull String key) {
+        throw immutable();
+    }
+
+    /**
+     * @return map of relationship names to query results (which may need queryMore(), etc)
+     * @see AbstractSObject#getRelationshipQueryResults()
+     */
+    @Nonnull
+    public Map<String, T> getRelationshipQueryResults() {
+        return this.relationshipQueryResults;
+    }
+
+    /**
+     * @return map of relationship names to sub objects
+     * @see AbstractSObject#getRelationshipSubObjects()
+     */
+    @Nonnull
+    public Map<String, U> getRelationshipSubObjects() {
+        return this.relationshipSubObjects;
+    }
+
+    private UnsupportedOperationException immutable() {
+        return new UnsupportedOperationException(
+                "This " + this.type + " is immutable; use toMutable() to get a copy that can be changed");
+    }
+
+    /**
+     * Collects the type, id, fields and relationships of an immutable sObject. Can keep being used after build().
+     *
+     * @param <T> the type of relationship query result
+     * @param <U> the type to expose for sub objects
+     * @param <S> the type of sObject built
+     */
+    @NotThreadSafe
+    public abstract static class Builder<T, U extends SObject, S extends CompactSObject<T, U>> {
+
+        @Nonnull
+        private final String type;
+
+        @Nullable
+        private final Id id;
+
+        private final List<String> fieldNames = Lists.newArrayList();
+
+        private final List<String> fieldValues = Lists.newArrayList();
+
+        private final Map<String, T> relationshipQueryResults = Maps.newLinkedHashMap();
+
+        private final Map<String, U> relationshipSubObjects = Maps.newLinkedHashMap();
+
+        @Nullable
+        private FieldTable.Cache fieldTables;
+
+        /**
+         * @param type the sf type string
+         * @param id   the id, or null
+         */
+        protected Builder(@Nonnull String type, @Nullable Id id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        /**
+         * @param name  field name
+         * @param value value, which may be null. Setting a field more than once keeps the last value.
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder<T, U, S> setField(@Nonnull String name, @Nullable String value) {
+            this.fieldNames.add(name);
+            this.fieldValues.add(value);
+            return this;
+        }
+
+        /**
+         * @param fields field names and values
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder<T, U, S> setAllFields(@Nonnull Map<String, String> fields) {
+            for (Map.Entry<String, String> entry : fields.entrySet()) {
+                setField(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * @param relationshipName the relationship name
+         * @param queryResult      the query result for that relationship subquery
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder<T, U, S> setRelationshipQueryResult(@Nonnull String relationshipName, @Nonnull T queryResult) {
+            this.relationshipQueryResults.put(relationshipName, queryResult);
+            return this;
+        }
+
+        /**
+         * @param relationshipName the relationship name
+         * @param subObject        the sub object
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder<T, U, S> setRelationshipSubObject(@Nonnull String relationshipName, @Nonnull U subObject) {
+            this.relationshipSubObjects.put(relationshipName, subObject);
+            return this;
+        }
+
+        /**
+         * Share field tables with the other sObjects built with the same cache, e.g. when building many sObjects with
+         * the same fields.
+         *
+         * @param fieldTables cache to get field tables from
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder<T, U, S> setFieldTables(@Nonnull FieldTable.Cache fieldTables) {
+            this.fieldTables = fieldTables;
+            return this;
+        }
+
+        /**
+         * @return a new sObject with what has been set so far
+         */
+        @Nonnull
+        public abstract S build();
+
+        @Nonnull
+        private FieldTable getFieldTable() {
+            return this.fieldTables == null ? FieldTable.of(this.fieldNames) : this.fieldTables.get(this.fieldNames);
+        }
+    }
+}
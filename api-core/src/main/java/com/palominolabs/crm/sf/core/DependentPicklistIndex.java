@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The entries of a dependent picklist that are valid for each value of its controlling field, worked out once from
+ * the validFor bits of every entry so that looking up the entries for a controlling value doesn't have to scan them
+ * all.
+ *
+ * A controlling value is identified by its index among the controlling picklist's entries. If the controlling field
+ * is a checkbox, index 0 is unchecked and index 1 is checked.
+ *
+ * @param <E> the picklist entry type
+ */
+@Immutable
+public final class DependentPicklistIndex<E> {
+
+    /**
+     * valid dependent entries, indexed by controlling index, each in picklist order
+     */
+    private final ImmutableList<ImmutableList<E>> validEntries;
+
+    private DependentPicklistIndex(ImmutableList<ImmutableList<E>> validEntries) {
+        this.validEntries = validEntries;
+    }
+
+    /**
+     * @param dependentEntries the entries of the dependent picklist, in picklist order
+     * @param validFor         gets the validFor bits of an entry
+     * @param <E>              the picklist entry type
+     *
+     * @return the index
+     */
+    @Nonnull
+    public static <E> DependentPicklistIndex<E> of(@Nonnull List<E> dependentEntries,
+            @Nonnull Function<? super E, ImmutableBitSet> validFor) {
+        List<ImmutableList.Builder<E>> builders = new ArrayList<ImmutableList.Builder<E>>();
+
+        for (E entry : dependentEntries) {
+            ImmutableBitSet bits = validFor.apply(entry);
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                while (builders.size() <= i) {
+                    builders.add(ImmutableList.<E>builder());
+                }
+                builders.get(i).add(entry);
+            }
+        }
+
+        ImmutableList.Builder<ImmutableList<E>> validEntries = ImmutableList.builder();
+        for (ImmutableList.Builder<E> builder : builders) {
+            validEntries.add(builder.build());
+        }
+
+        return new DependentPicklistIndex<E>(validEntries.build());
+    }
+
+    /**
+     * @param controllingIndex the index of a value of the controlling field
+     *
+     * @return the dependent entries that are valid for that value, in picklist order. Empty if there are none.
+     */
+    @Nonnull
+    public List<E> getValidEntries(int controllingIndex) {
+        checkArgument(controllingIndex >= 0, "Controlling index must not be negative, was %s", controllingIndex);
+
+        if (controllingIndex >= this.validEntries.size()) {
+            return ImmutableList.of();
+        }
+
+        return this.validEntries.get(controllingIndex);
+    }
+}
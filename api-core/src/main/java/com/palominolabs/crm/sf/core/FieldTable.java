@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The field names of a set of records, each mapped to the index of its value in a record's value array. Every record on
+ * a page of query results usually has the same fields, so the records can share one table and each only hold its
+ * values, rather than every record having its own hash table with its own copies of the names.
+ *
+ * @see CompactSObject
+ */
+@Immutable
+public final class FieldTable {
+
+    /**
+     * Marks a value slot whose field isn't set, as distinct from a field that is set to null. Compared by identity.
+     */
+    @SuppressWarnings("RedundantStringConstructorCall")
+    static final String UNSET = new String("<unset>");
+
+    private final ImmutableList<String> names;
+
+    private final ImmutableMap<String, Integer> indexes;
+
+    private FieldTable(@Nonnull ImmutableList<String> names, @Nonnull ImmutableMap<String, Integer> indexes) {
+        this.names = names;
+        this.indexes = indexes;
+    }
+
+    /**
+     * @param fieldNames field names in the order their values will be stored. If a name appears more than once, only
+     *                   its first position is used.
+     *
+     * @return a table of the names
+     */
+    @Nonnull
+    public static FieldTable of(@Nonnull List<String> fieldNames) {
+        Map<String, Integer> indexes = new LinkedHashMap<String, Integer>();
+        for (String fieldName : fieldNames) {
+            if (!indexes.containsKey(fieldName)) {
+                indexes.put(fieldName, indexes.size());
+            }
+        }
+
+        return new FieldTable(ImmutableList.copyOf(indexes.keySet()), ImmutableMap.copyOf(indexes));
+    }
+
+    /**
+     * @return the number of fields
+     */
+    public int size() {
+        return this.names.size();
+    }
+
+    /**
+     * @param fieldName a field name
+     *
+     * @return the index of its value, or -1 if the field isn't in the table
+     */
+    public int indexOf(@Nonnull String fieldName) {
+        Integer index = this.indexes.get(fieldName);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return the field names, in the order of their values
+     */
+    @Nonnull
+    public List<String> getNames() {
+        return this.names;
+    }
+
+    /**
+     * @param fieldNames  names of the fields a record was read with, in order: the names this table was made or
+     *                    looked up for.
+     * @param fieldValues the value of each of fieldNames. A name that appears more than once gets its last value.
+     *
+     * @return a value array for this table. Fields of the table that aren't in fieldNames are unset.
+     */
+    @Nonnull
+    String[] toValues(@Nonnull List<String> fieldNames, @Nonnull List<String> fieldValues) {
+        String[] values = new String[this.names.size()];
+
+        if (fieldNames.size() == values.length) {
+            // the usual case: the table was made from these very names, so the positions match
+            return fieldValues.toArray(values);
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = UNSET;
+        }
+        for (int i = 0; i < fieldNames.size(); i++) {
+            values[indexOf(fieldNames.get(i))] = fieldValues.get(i);
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "FieldTable" + this.names;
+    }
+
+    /**
+     * Hands out one table per distinct list of field names, so that all the records read from one response share
+     * tables. Use one cache per response; it holds on to every table it has handed out.
+     */
+    @NotThreadSafe
+    public static final class Cache {
+
+        private final Map<List<String>, FieldTable> tables = new HashMap<List<String>, FieldTable>();
+
+        /**
+         * the last table handed out, which very likely fits the next record too
+         */
+        @Nullable
+        private FieldTable lastTable;
+
+        /**
+         * @param fieldNames field names in the order a record had them
+         *
+         * @return a table for exactly those names
+         */
+        @Nonnull
+        public FieldTable get(@Nonnull List<String> fieldNames) {
+            // names read from a parser are usually the same String instances from record to record, so this is cheap
+            if (this.lastTable != null && fieldNames.equals(this.lastTable.getNames())) {
+                return this.lastTable;
+            }
+
+            FieldTable table = this.tables.get(fieldNames);
+            if (table == null) {
+                ImmutableList<String> key = ImmutableList.copyOf(fieldNames);
+                table = FieldTable.of(key);
+                this.tables.put(key, table);
+            }
+
+            this.lastTable = table;
+            return table;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Receives an sObject's fields one at a time from {@link SObject#forEachField(FieldVisitor)}.
+ *
+ * @param <E> the type of exception visiting a field may throw
+ */
+public interface FieldVisitor<E extends Exception> {
+
+    /**
+     * @param name  field name
+     * @param value field value, which may be null
+     *
+     * @throws E if the field can't be handled; no further fields are visited
+     */
+    void visitField(@Nonnull String name, @Nullable String value) throws E;
+}
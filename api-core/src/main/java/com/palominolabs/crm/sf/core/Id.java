@@ -23,16 +23,33 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Represents an SF record Id. Remember to use .equals(Id otherID) to check equality.
+ *
+ * Ids are compared by their 15 character, case-sensitive form, which is computed once up front, so that using Ids as
+ * hash keys doesn't allocate. An 18 character Id's case is restored from its checksum suffix first, so an 18 character
+ * Id that has been through something case-insensitive still equals the original.
  */
 @Immutable
 public final class Id {
 
+    /**
+     * the characters of the 18 character checksum suffix, indexed by the uppercase bits of each 5 character chunk
+     */
+    private static final String CHECKSUM_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ012345";
+
     /**
      * the sf record id string
      */
     @Nonnull
     private final String idStr;
 
+    /**
+     * the 15 character case-sensitive id. Transient, like hash, because it is derived from idStr.
+     */
+    @Nonnull
+    private final transient String key;
+
+    private final transient int hash;
+
     /**
      * @param id the sf record id to wrap. Must not be null. It can be 15 or 18 characters long, but it will be
      *           truncated to 15 characters either way.
@@ -44,28 +61,40 @@ public final class Id {
             throw new IllegalArgumentException(
                     "Salesforce Ids must be either 15 or 18 characters, was <" + id + "> (" + id.length() + ")");
         }
+
+        this.key = id.length() == 15 ? id : to15(id);
+        this.hash = this.key.hashCode();
     }
 
     @Nonnull
     public String getKeyPrefix() {
-        return idStr.substring(0, 3);
+        return key.substring(0, 3);
     }
     
     /**
      * @return Return the case-insensitive, 18 character id, if this object was constructed with an 18 character id.
      *          If the object was constructed with a 15 character ID, then this returns the same as getIdStr()
+     * @see #getCaseSafeId()
      */
     @Nonnull
     public String getFullId(){
     	return this.idStr;
     }
 
+    /**
+     * @return the 18 character, case-insensitive id, computed from the 15 character id however this Id was created
+     */
+    @Nonnull
+    public String getCaseSafeId() {
+        return to18(this.key);
+    }
+
     /**
      * @return 15-character, case-sensitive id string
      */
     @Nonnull
     public String getIdStr() {
-        return this.idStr.substring(0, 15);
+        return this.key;
     }
 
     /**
@@ -74,19 +103,78 @@ public final class Id {
     @Override
     @Nonnull
     public String toString() {
-        return this.getIdStr();
+        return this.key;
     }
 
     @Override
     public boolean equals(Object other) {
         if (other instanceof Id) {
-            return this.getIdStr().equals(((Id) other).getIdStr());
+            Id otherId = (Id) other;
+            return this.hash == otherId.hash && this.key.equals(otherId.key);
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return this.getIdStr().hashCode();
+        return this.hash;
+    }
+
+    /**
+     * Ids deserialized by reflection (e.g. by XStream) only have idStr set, so derive the rest.
+     *
+     * @return an equivalent, fully initialized Id
+     */
+    private Object readResolve() {
+        return new Id(this.idStr);
+    }
+
+    /**
+     * @param id15 a 15 character, case-sensitive id
+     *
+     * @return the 18 character id: id15 plus a suffix encoding which of its letters are uppercase
+     */
+    @Nonnull
+    static String to18(@Nonnull String id15) {
+        StringBuilder builder = new StringBuilder(18).append(id15);
+
+        for (int chunk = 0; chunk < 3; chunk++) {
+            int flags = 0;
+            for (int i = 0; i < 5; i++) {
+                char c = id15.charAt(chunk * 5 + i);
+                if (c >= 'A' && c <= 'Z') {
+                    flags |= 1 << i;
+                }
+            }
+            builder.append(CHECKSUM_CHARS.charAt(flags));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * @param id18 an 18 character id, whose letters may have had their case changed
+     *
+     * @return the 15 character, case-sensitive id. If the suffix isn't a checksum, the first 15 characters as they are.
+     */
+    @Nonnull
+    static String to15(@Nonnull String id18) {
+        char[] chars = new char[15];
+        id18.getChars(0, 15, chars, 0);
+
+        for (int chunk = 0; chunk < 3; chunk++) {
+            int flags = CHECKSUM_CHARS.indexOf(Character.toUpperCase(id18.charAt(15 + chunk)));
+            if (flags < 0) {
+                return id18.substring(0, 15);
+            }
+
+            for (int i = 0; i < 5; i++) {
+                int index = chunk * 5 + i;
+                chars[index] = (flags & (1 << i)) == 0 ? Character.toLowerCase(chars[index]) :
+                        Character.toUpperCase(chars[index]);
+            }
+        }
+
+        return new String(chars);
     }
 }
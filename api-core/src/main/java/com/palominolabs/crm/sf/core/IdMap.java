@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import com.google.common.collect.AbstractIterator;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Iterator;
+
+/**
+ * A map keyed by Id that stores each key as two packed longs in an open addressing table, like {@link IdSet}. Null
+ * values are not allowed, so that get() returning null always means the key isn't present.
+ *
+ * The map must not be modified while its keys or values are being iterated.
+ *
+ * @param <V> the value type
+ */
+@NotThreadSafe
+public final class IdMap<V> {
+
+    @Nonnull
+    private final IdTable table;
+
+    public IdMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize number of entries the map should hold without growing
+     */
+    public IdMap(int expectedSize) {
+        this.table = new IdTable(expectedSize, true);
+    }
+
+    /**
+     * @param id    the key
+     * @param value the value
+     *
+     * @return the previous value for the key, or null if there wasn't one
+     *
+     * @throws IllegalArgumentException if the id has characters other than letters and digits
+     */
+    @CheckForNull
+    public V put(@Nonnull Id id, @Nonnull V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not allowed");
+        }
+
+        int slot = this.table.add(id);
+        if (slot < 0) {
+            this.table.setValue(~slot, value);
+            return null;
+        }
+
+        V previous = valueAt(slot);
+        this.table.setValue(slot, value);
+        return previous;
+    }
+
+    /**
+     * @param id the key
+     *
+     * @return the value for the key, or null if there isn't one
+     */
+    @CheckForNull
+    public V get(@Nonnull Id id) {
+        int slot = this.table.find(id);
+        return slot < 0 ? null : valueAt(slot);
+    }
+
+    public boolean containsKey(@Nonnull Id id) {
+        return this.table.find(id) >= 0;
+    }
+
+    /**
+     * @param id the key
+     *
+     * @return the value that was removed, or null if there wasn't one
+     */
+    @CheckForNull
+    public V remove(@Nonnull Id id) {
+        int slot = this.table.find(id);
+        if (slot < 0) {
+            return null;
+        }
+
+        V previous = valueAt(slot);
+        this.table.remove(slot);
+        return previous;
+    }
+
+    public int size() {
+        return this.table.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        this.table.clear();
+    }
+
+    /**
+     * @return the keys, in no particular order. A new Id is created for each key.
+     */
+    @Nonnull
+    public Iterable<Id> keys() {
+        return new Iterable<Id>() {
+            @Override
+            public Iterator<Id> iterator() {
+                return new SlotIterator<Id>() {
+                    @Override
+                    Id get(int slot) {
+                        return table.getId(slot);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return the values, in the same order as {@link #keys()}
+     */
+    @Nonnull
+    public Iterable<V> values() {
+        return new Iterable<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @Override
+                    V get(int slot) {
+                        return valueAt(slot);
+                    }
+                };
+            }
+        };
+    }
+
+    @Nullable
+    private V valueAt(int slot) {
+        @SuppressWarnings("unchecked")
+        V value = (V) this.table.getValue(slot);
+        return value;
+    }
+
+    private abstract class SlotIterator<T> extends AbstractIterator<T> {
+        private int slot = -1;
+
+        @Override
+        protected T computeNext() {
+            this.slot = table.nextSlot(this.slot);
+            return this.slot < 0 ? endOfData() : get(this.slot);
+        }
+
+        abstract T get(int slot);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import com.google.common.collect.AbstractIterator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Iterator;
+
+/**
+ * A set of Ids that stores each Id as two packed longs in an open addressing table, for when a HashSet of Ids (a node,
+ * an Id and two Strings per element) would be too big, e.g. to dedupe or diff millions of Ids.
+ *
+ * Ids are compared the same way {@link Id#equals(Object)} does. Iteration creates a new Id for each element, in no
+ * particular order, and the set must not be modified while it is being iterated.
+ */
+@NotThreadSafe
+public final class IdSet implements Iterable<Id> {
+
+    @Nonnull
+    private IdTable table;
+
+    public IdSet() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize number of Ids the set should hold without growing
+     */
+    public IdSet(int expectedSize) {
+        this.table = new IdTable(expectedSize, false);
+    }
+
+    /**
+     * @param id id to add
+     *
+     * @return true if the set didn't already contain the id
+     *
+     * @throws IllegalArgumentException if the id has characters other than letters and digits
+     */
+    public boolean add(@Nonnull Id id) {
+        return this.table.add(id) < 0;
+    }
+
+    /**
+     * @param ids ids to add
+     *
+     * @return true if the set changed
+     */
+    public boolean addAll(@Nonnull Iterable<Id> ids) {
+        boolean changed = false;
+        for (Id id : ids) {
+            changed |= add(id);
+        }
+        return changed;
+    }
+
+    public boolean contains(@Nonnull Id id) {
+        return this.table.find(id) >= 0;
+    }
+
+    /**
+     * @param id id to remove
+     *
+     * @return true if the set contained the id
+     */
+    public boolean remove(@Nonnull Id id) {
+        int slot = this.table.find(id);
+        if (slot < 0) {
+            return false;
+        }
+
+        this.table.remove(slot);
+        return true;
+    }
+
+    /**
+     * @param ids ids to remove
+     *
+     * @return true if the set changed
+     */
+    public boolean removeAll(@Nonnull Iterable<Id> ids) {
+        boolean changed = false;
+        for (Id id : ids) {
+            changed |= remove(id);
+        }
+        return changed;
+    }
+
+    /**
+     * Remove every id that isn't in another set.
+     *
+     * @param other the ids to keep
+     *
+     * @return true if the set changed
+     */
+    public boolean retainAll(@Nonnull IdSet other) {
+        IdTable retained = new IdTable(Math.min(size(), other.size()), false);
+        for (int slot = this.table.nextSlot(-1); slot >= 0; slot = this.table.nextSlot(slot)) {
+            Id id = this.table.getId(slot);
+            if (other.contains(id)) {
+                retained.add(id);
+            }
+        }
+
+        boolean changed = retained.size() != size();
+        this.table = retained;
+        return changed;
+    }
+
+    public int size() {
+        return this.table.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        this.table.clear();
+    }
+
+    @Nonnull
+    @Override
+    public Iterator<Id> iterator() {
+        final IdTable iterated = this.table;
+        return new AbstractIterator<Id>() {
+            private int slot = -1;
+
+            @Override
+            protected Id computeNext() {
+                this.slot = iterated.nextSlot(this.slot);
+                return this.slot < 0 ? endOfData() : iterated.getId(this.slot);
+            }
+        };
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Open addressing hash table of Ids, each packed into two longs, with an optional value per Id. Backs {@link IdSet} and
+ * {@link IdMap}.
+ *
+ * A 15 character Id is 15 base 62 digits: the first 6 (key prefix, pod and reserved character) fit in 36 bits and the
+ * last 9 in 54 bits, so an entry takes 16 bytes (plus a reference for a value) instead of a HashMap node, an Id, and
+ * two Strings. Slots are probed linearly, and removal shifts later entries back rather than leaving tombstones.
+ */
+@NotThreadSafe
+final class IdTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /**
+     * high part of the packed id plus 1, so that 0 marks an empty slot
+     */
+    private long[] highs;
+
+    private long[] lows;
+
+    /**
+     * value for each slot, or null if this table has no values
+     */
+    @Nullable
+    private Object[] values;
+
+    private final boolean hasValues;
+
+    private int size;
+
+    private int mask;
+
+    /**
+     * size at which the table grows
+     */
+    private int threshold;
+
+    /**
+     * @param expectedSize number of Ids the table should hold without growing
+     * @param hasValues    true to keep a value per Id
+     */
+    IdTable(int expectedSize, boolean hasValues) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size must not be negative: " + expectedSize);
+        }
+
+        this.hasValues = hasValues;
+
+        int capacity = MIN_CAPACITY;
+        while (capacity < MAX_CAPACITY && capacity * 3L / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @param id an id
+     *
+     * @return the slot the id is in, or -1 if it isn't in the table
+     */
+    int find(@Nonnull Id id) {
+        String key = id.getIdStr();
+        long high = decode(key, 0, 6);
+        long low = decode(key, 6, 15);
+        if (high < 0 || low < 0) {
+            // can't have been added
+            return -1;
+        }
+
+        int slot = probe(high, low);
+        return slot >= 0 ? slot : -1;
+    }
+
+    /**
+     * @param id an id
+     *
+     * @return the slot the id is in, or the bitwise complement of the slot it was just put in
+     *
+     * @throws IllegalArgumentException if the id has characters other than letters and digits
+     */
+    int add(@Nonnull Id id) {
+        String key = id.getIdStr();
+        long high = decode(key, 0, 6);
+        long low = decode(key, 6, 15);
+        if (high < 0 || low < 0) {
+            throw new IllegalArgumentException("Id <" + key + "> isn't base 62");
+        }
+
+        int slot = probe(high, low);
+        if (slot >= 0) {
+            return slot;
+        }
+
+        if (this.size >= this.threshold) {
+            grow();
+            slot = probe(high, low);
+        }
+
+        int newSlot = ~slot;
+        this.highs[newSlot] = high + 1;
+        this.lows[newSlot] = low;
+        this.size++;
+        return slot;
+    }
+
+    @Nullable
+    Object getValue(int slot) {
+        //noinspection ConstantConditions
+        return this.values[slot];
+    }
+
+    void setValue(int slot, @Nullable Object value) {
+        //noinspection ConstantConditions
+        this.values[slot] = value;
+    }
+
+    /**
+     * Empty a slot, moving entries that probed past it back so that they can still be found.
+     *
+     * @param slot an occupied slot
+     */
+    void remove(int slot) {
+        int hole = slot;
+        int next = slot;
+
+        while (true) {
+            next = (next + 1) & this.mask;
+            if (this.highs[next] == 0) {
+                break;
+            }
+
+            int home = home(this.highs[next] - 1, this.lows[next]);
+            // an entry whose home is cyclically in (hole, next] is already as close to it as it can get
+            boolean cannotMove = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (cannotMove) {
+                continue;
+            }
+
+            this.highs[hole] = this.highs[next];
+            this.lows[hole] = this.lows[next];
+            if (this.values != null) {
+                this.values[hole] = this.values[next];
+            }
+            hole = next;
+        }
+
+        this.highs[hole] = 0;
+        this.lows[hole] = 0;
+        if (this.values != null) {
+            this.values[hole] = null;
+        }
+        this.size--;
+    }
+
+    void clear() {
+        allocate(MIN_CAPACITY);
+        this.size = 0;
+    }
+
+    /**
+     * @param slot a slot, or -1 to start at the beginning
+     *
+     * @return the first occupied slot after it, or -1 if there are no more
+     */
+    int nextSlot(int slot) {
+        for (int i = slot + 1; i < this.highs.length; i++) {
+            if (this.highs[i] != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param slot an occupied slot
+     *
+     * @return the id in the slot
+     */
+    @Nonnull
+    Id getId(int slot) {
+        char[] chars = new char[15];
+        encode(this.highs[slot] - 1, chars, 0, 6);
+        encode(this.lows[slot], chars, 6, 15);
+        return new Id(new String(chars));
+    }
+
+    /**
+     * @return the slot holding the entry, or the bitwise complement of the empty slot where it would go
+     */
+    private int probe(long high, long low) {
+        long storedHigh = high + 1;
+        int slot = home(high, low);
+
+        while (this.highs[slot] != 0) {
+            if (this.highs[slot] == storedHigh && this.lows[slot] == low) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+
+        return ~slot;
+    }
+
+    private int home(long high, long low) {
+        long hash = high * 0x9E3779B97F4A7C15L + low;
+        hash ^= hash >>> 29;
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= hash >>> 32;
+        return (int) hash & this.mask;
+    }
+
+    private void grow() {
+        if (this.highs.length == MAX_CAPACITY) {
+            throw new IllegalStateException("Id table can't grow past " + this.size + " ids");
+        }
+
+        long[] oldHighs = this.highs;
+        long[] oldLows = this.lows;
+        Object[] oldValues = this.values;
+
+        allocate(oldHighs.length << 1);
+
+        for (int i = 0; i < oldHighs.length; i++) {
+            if (oldHighs[i] == 0) {
+                continue;
+            }
+
+            int slot = ~probe(oldHighs[i] - 1, oldLows[i]);
+            this.highs[slot] = oldHighs[i];
+            this.lows[slot] = oldLows[i];
+            if (oldValues != null) {
+                //noinspection ConstantConditions
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.highs = new long[capacity];
+        this.lows = new long[capacity];
+        this.values = this.hasValues ? new Object[capacity] : null;
+        this.mask = capacity - 1;
+        this.threshold = capacity / 4 * 3;
+    }
+
+    /**
+     * @return the base 62 value of chars [start, end) of the key, or -1 if one of them isn't a letter or digit
+     */
+    private static long decode(String key, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = key.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'A' && c <= 'Z') {
+                digit = c - 'A' + 10;
+            } else if (c >= 'a' && c <= 'z') {
+                digit = c - 'a' + 36;
+            } else {
+                return -1;
+            }
+            value = value * 62 + digit;
+        }
+        return value;
+    }
+
+    private static void encode(long value, char[] chars, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            int digit = (int) (value % 62);
+            value /= 62;
+            if (digit < 10) {
+                chars[i] = (char) ('0' + digit);
+            } else if (digit < 36) {
+                chars[i] = (char) ('A' + digit - 10);
+            } else {
+                chars[i] = (char) ('a' + digit - 36);
+            }
+        }
+    }
+}
@@ -17,18 +17,23 @@
 package com.palominolabs.crm.sf.core;
 
 import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
 import java.util.BitSet;
 
 /**
  * A simple immutable bit set implementation. Easy constant-time access to a sequence of bits.
+ *
+ * The bits are kept in words the same way BitSet does, so bit i is bit (i % 64) of word (i / 64).
  */
 @Immutable
 public final class ImmutableBitSet {
 
+    private static final long[] NO_WORDS = new long[0];
+
     /**
-     * the underlying bit set (never modified)
+     * the bits (never modified). The last word, if any, is never 0, so equal bit sets have equal arrays.
      */
-    private final BitSet bitSet;
+    private final long[] words;
 
     /**
      * Create an immutable bit set that contains the values in the specified BitSet object. A defensive copy of the data
@@ -41,11 +46,32 @@ public final class ImmutableBitSet {
             throw new NullPointerException("Can't provide a null BitSet");
         }
 
-        this.bitSet = new BitSet(origBitSet.length());
+        // BitSet.toLongArray() would be simpler, but it needs Java 7. This only visits the set bits.
+        long[] bits = new long[(origBitSet.length() + 63) >>> 6];
+        for (int i = origBitSet.nextSetBit(0); i >= 0; i = origBitSet.nextSetBit(i + 1)) {
+            bits[i >>> 6] |= 1L << i;
+        }
+
+        this.words = bits;
+    }
+
+    private ImmutableBitSet(long[] words) {
+        this.words = words;
+    }
 
-        for (int i = 0; i < origBitSet.length(); i++) {
-            this.bitSet.set(i, origBitSet.get(i));
+    /**
+     * @param words the bits, as described for the field, except that it may end with 0 words. Ownership of the array
+     *              passes to the bit set.
+     *
+     * @return a bit set of the words
+     */
+    static ImmutableBitSet ofWords(long[] words) {
+        int count = words.length;
+        while (count > 0 && words[count - 1] == 0) {
+            count--;
         }
+
+        return new ImmutableBitSet(count == 0 ? NO_WORDS : count == words.length ? words : Arrays.copyOf(words, count));
     }
 
     /**
@@ -57,19 +83,78 @@ public final class ImmutableBitSet {
      */
     @SuppressWarnings("BooleanMethodNameMustStartWithQuestion")
     public boolean get(int i) {
-        return this.bitSet.get(i);
+        if (i < 0) {
+            throw new IndexOutOfBoundsException("bitIndex < 0: " + i);
+        }
+
+        int wordIndex = i >>> 6;
+        return wordIndex < this.words.length && (this.words[wordIndex] & (1L << i)) != 0;
+    }
+
+    /**
+     * This has the same semantics as {@link BitSet#nextSetBit(int)}.
+     *
+     * @param fromIndex the index to start checking from (inclusive)
+     *
+     * @return the index of the next set bit, or -1 if there is none
+     */
+    public int nextSetBit(int fromIndex) {
+        if (fromIndex < 0) {
+            throw new IndexOutOfBoundsException("fromIndex < 0: " + fromIndex);
+        }
+
+        int wordIndex = fromIndex >>> 6;
+        if (wordIndex >= this.words.length) {
+            return -1;
+        }
+
+        long word = this.words[wordIndex] & (-1L << fromIndex);
+        while (word == 0) {
+            if (++wordIndex == this.words.length) {
+                return -1;
+            }
+            word = this.words[wordIndex];
+        }
+
+        return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * @return the number of set bits
+     */
+    public int cardinality() {
+        int count = 0;
+        for (long word : this.words) {
+            count += Long.bitCount(word);
+        }
+        return count;
     }
 
     /**
      * @return the length of the bit set
      */
     public int length() {
-        return this.bitSet.length();
+        if (this.words.length == 0) {
+            return 0;
+        }
+
+        int last = this.words.length - 1;
+        return (last << 6) + 64 - Long.numberOfLeadingZeros(this.words[last]);
     }
 
+    /**
+     * @return the same format as {@link BitSet#toString()}
+     */
     @Override
     public String toString() {
-        return this.bitSet.toString();
+        StringBuilder buf = new StringBuilder("{");
+        for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)) {
+            if (buf.length() > 1) {
+                buf.append(", ");
+            }
+            buf.append(i);
+        }
+        return buf.append('}').toString();
     }
 
     @Override
@@ -84,11 +169,18 @@ public final class ImmutableBitSet {
 
         ImmutableBitSet other = (ImmutableBitSet) o;
 
-        return other.bitSet.equals(this.bitSet);
+        return Arrays.equals(other.words, this.words);
     }
 
+    /**
+     * @return the same hash code as a BitSet with the same bits
+     */
     @Override
     public int hashCode() {
-        return this.bitSet.hashCode();
+        long h = 1234;
+        for (int i = this.words.length; --i >= 0; ) {
+            h ^= this.words[i] * (i + 1);
+        }
+        return (int) ((h >> 32) ^ h);
     }
 }
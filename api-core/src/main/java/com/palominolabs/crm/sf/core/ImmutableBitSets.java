@@ -16,8 +16,6 @@
 
 package com.palominolabs.crm.sf.core;
 
-import java.util.BitSet;
-
 public class ImmutableBitSets {
     private ImmutableBitSets() {
     }
@@ -35,24 +33,21 @@ public class ImmutableBitSets {
      * @return bit set
      */
     public static ImmutableBitSet parseValidForBytes(byte[] validForBytes) {
-        BitSet validForBitSet;
-
-        int numBits = validForBytes.length * 8;
-
-        validForBitSet = new BitSet(numBits);
-
-        for (int i = 0; i < numBits; i++) {
-            // the byte to pull the bit from
-            int byteIndex = i / 8;
-            // the position in that byte for the requested bit -- bits are reversed in each byte
-            int bitIndexInByte = 7 - (i % 8);
-
-            byte b = validForBytes[byteIndex];
-            boolean bit = ((b >> bitIndexInByte) & 1) == 1;
-
-            validForBitSet.set(i, bit);
+        long[] words = new long[(validForBytes.length + 7) / 8];
+
+        for (int wordIndex = 0; wordIndex < words.length; wordIndex++) {
+            // read the word's 8 bytes big-endian, padding past the end with 0s
+            long bigEndian = 0;
+            for (int byteIndex = wordIndex * 8; byteIndex < wordIndex * 8 + 8; byteIndex++) {
+                int b = byteIndex < validForBytes.length ? validForBytes[byteIndex] & 0xFF : 0;
+                bigEndian = (bigEndian << 8) | b;
+            }
+
+            // reversing all 64 bits both puts the first byte in the low order position and reverses the bits inside
+            // each byte, so the first bit of the stream becomes bit 0
+            words[wordIndex] = Long.reverse(bigEndian);
         }
 
-        return new ImmutableBitSet(validForBitSet);
+        return ImmutableBitSet.ofWords(words);
     }
 }
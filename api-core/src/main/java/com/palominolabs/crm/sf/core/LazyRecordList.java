@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An unmodifiable list of records that are only decoded from their raw form (e.g. the bytes of a response page) when
+ * they are first accessed, whether by {@link #get(int)} or by iteration. A caller that only needs the size, or stops
+ * after the first few records, never pays to decode the rest.
+ *
+ * Each record is decoded at most once, so every access to an index returns the same instance. Records that have
+ * already been decoded are read without locking; decoding happens while holding the list's lock. Once every record has
+ * been decoded, {@link #releaseSource()} is called so the raw form can be dropped.
+ *
+ * Since List methods can't throw checked exceptions, a record that can't be decoded causes an IllegalStateException
+ * with the decoding failure as its cause.
+ *
+ * @param <S> the SObject type
+ */
+@ThreadSafe
+public abstract class LazyRecordList<S extends SObject> extends AbstractList<S> implements RandomAccess {
+
+    private final AtomicReferenceArray<S> records;
+
+    @GuardedBy("this")
+    private int decodedCount = 0;
+
+    /**
+     * @param size the number of records
+     */
+    protected LazyRecordList(int size) {
+        this.records = new AtomicReferenceArray<S>(size);
+    }
+
+    @Nonnull
+    @Override
+    public final S get(int index) {
+        S record = this.records.get(index);
+        if (record != null) {
+            return record;
+        }
+
+        return decodeOnce(index);
+    }
+
+    @Override
+    public final int size() {
+        return this.records.length();
+    }
+
+    /**
+     * Decode the record at index. Called with the list's lock held, and at most once per index.
+     *
+     * @param index index of the record
+     *
+     * @return the record
+     *
+     * @throws IOException if the record could not be decoded
+     */
+    @Nonnull
+    protected abstract S decode(int index) throws IOException;
+
+    /**
+     * Called with the list's lock held once every record has been decoded, after which decode() will not be called
+     * again. Does nothing by default.
+     */
+    protected void releaseSource() {
+    }
+
+    @Nonnull
+    private synchronized S decodeOnce(int index) {
+        // another thread may have decoded it while this one waited for the lock
+        S record = this.records.get(index);
+        if (record != null) {
+            return record;
+        }
+
+        try {
+            record = decode(index);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't decode record " + index, e);
+        }
+
+        this.records.set(index, record);
+        this.decodedCount++;
+        if (this.decodedCount == size()) {
+            releaseSource();
+        }
+
+        return record;
+    }
+}
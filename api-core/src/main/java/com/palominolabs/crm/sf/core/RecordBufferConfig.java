@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.File;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Settings for a {@link SpillingRecordBuffer}.
+ */
+@Immutable
+public final class RecordBufferConfig {
+
+    private final long heapLimitBytes;
+
+    @Nullable
+    private final File spillDirectory;
+
+    /**
+     * @param heapLimitBytes how many bytes of encoded records to keep on the heap before spilling to temp files
+     * @param spillDirectory directory to create temp files in, or null for the default temp directory
+     */
+    public RecordBufferConfig(long heapLimitBytes, @Nullable File spillDirectory) {
+        checkArgument(heapLimitBytes >= 0, "Heap limit must not be negative, was %s", heapLimitBytes);
+        this.heapLimitBytes = heapLimitBytes;
+        this.spillDirectory = spillDirectory;
+    }
+
+    public long getHeapLimitBytes() {
+        return this.heapLimitBytes;
+    }
+
+    @CheckForNull
+    public File getSpillDirectory() {
+        return this.spillDirectory;
+    }
+}
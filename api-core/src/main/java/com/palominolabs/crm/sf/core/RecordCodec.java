@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Converts records to and from the binary form a {@link SpillingRecordBuffer} stores them in.
+ *
+ * @param <S> the SObject type
+ */
+public interface RecordCodec<S extends SObject> {
+
+    /**
+     * @param record the record to write
+     * @param output where to write it
+     */
+    void write(@Nonnull S record, @Nonnull RecordOutput output);
+
+    /**
+     * @param input positioned at the start of a record written by {@link #write(SObject, RecordOutput)}
+     *
+     * @return the record
+     */
+    @Nonnull
+    S read(@Nonnull RecordInput input);
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import com.google.common.base.Charsets;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads back what a {@link RecordOutput} wrote, in the same order.
+ */
+@NotThreadSafe
+public final class RecordInput {
+
+    private final List<FieldTable> tables;
+
+    private ByteBuffer buffer;
+
+    private byte[] scratch = new byte[256];
+
+    /**
+     * @param tables the field tables written by the buffer's RecordOutput
+     */
+    RecordInput(@Nonnull List<FieldTable> tables) {
+        this.tables = tables;
+    }
+
+    public int readInt() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = this.buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    public boolean readBoolean() {
+        return this.buffer.get() != 0;
+    }
+
+    @CheckForNull
+    public String readString() {
+        int lengthPlusOne = readInt();
+        if (lengthPlusOne == 0) {
+            return null;
+        }
+
+        int length = lengthPlusOne - 1;
+        if (this.buffer.hasArray()) {
+            int position = this.buffer.position();
+            this.buffer.position(position + length);
+            return new String(this.buffer.array(), this.buffer.arrayOffset() + position, length, Charsets.UTF_8);
+        }
+
+        if (this.scratch.length < length) {
+            this.scratch = new byte[Math.max(length, this.scratch.length * 2)];
+        }
+        this.buffer.get(this.scratch, 0, length);
+        return new String(this.scratch, 0, length, Charsets.UTF_8);
+    }
+
+    @CheckForNull
+    public Id readId() {
+        byte first = this.buffer.get();
+        if (first == 0) {
+            return null;
+        }
+
+        char[] chars = new char[RecordOutput.ID_LENGTH];
+        chars[0] = (char) first;
+        for (int i = 1; i < chars.length; i++) {
+            chars[i] = (char) this.buffer.get();
+        }
+        return new Id(new String(chars));
+    }
+
+    /**
+     * Read fields written by {@link RecordOutput#writeFields(SObject)}.
+     *
+     * @param fieldValues list to add the values to, in the order of the returned table's names
+     *
+     * @return the field table of the record
+     */
+    @Nonnull
+    public FieldTable readFields(@Nonnull List<String> fieldValues) {
+        FieldTable table = this.tables.get(readInt());
+        for (int i = 0; i < table.size(); i++) {
+            fieldValues.add(readString());
+        }
+        return table;
+    }
+
+    /**
+     * @param buffer the records to read next, from its position to its limit
+     */
+    void setBuffer(@Nonnull ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import com.google.common.base.Charsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Writes the binary form of a record for a {@link RecordCodec}.
+ *
+ * Ints are written as varints, so small counts and lengths take one byte. Strings are UTF-8, prefixed with their
+ * length. Field names aren't written at all: each distinct set of names is kept once, on the heap, by the buffer, and
+ * a record's fields are written as the index of its set of names followed by the values.
+ */
+@NotThreadSafe
+public final class RecordOutput {
+
+    /**
+     * Ids are always the same length once in their 15 character form
+     */
+    static final int ID_LENGTH = 15;
+
+    private final Map<List<String>, Integer> tableIndexes;
+
+    private final List<FieldTable> tables;
+
+    private final List<String> fieldNames = new ArrayList<String>();
+
+    private final List<String> fieldValues = new ArrayList<String>();
+
+    private final FieldVisitor<RuntimeException> fieldCollector = new FieldVisitor<RuntimeException>() {
+        @Override
+        public void visitField(@Nonnull String name, @Nullable String value) {
+            fieldNames.add(name);
+            fieldValues.add(value);
+        }
+    };
+
+    private byte[] bytes = new byte[256];
+
+    private int length = 0;
+
+    /**
+     * @param tableIndexes index in tables of each set of field names written so far
+     * @param tables       the field tables written so far, shared with the RecordInputs that read them back
+     */
+    RecordOutput(@Nonnull Map<List<String>, Integer> tableIndexes, @Nonnull List<FieldTable> tables) {
+        this.tableIndexes = tableIndexes;
+        this.tables = tables;
+    }
+
+    /**
+     * @param value a non-negative int
+     */
+    public void writeInt(int value) {
+        checkArgument(value >= 0, "Only non-negative ints can be written, was %s", value);
+
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            this.bytes[this.length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.bytes[this.length++] = (byte) value;
+    }
+
+    public void writeBoolean(boolean value) {
+        ensureCapacity(1);
+        this.bytes[this.length++] = (byte) (value ? 1 : 0);
+    }
+
+    /**
+     * @param value a string, or null
+     */
+    public void writeString(@Nullable String value) {
+        if (value == null) {
+            writeInt(0);
+            return;
+        }
+
+        byte[] utf8 = value.getBytes(Charsets.UTF_8);
+        writeInt(utf8.length + 1);
+        ensureCapacity(utf8.length);
+        System.arraycopy(utf8, 0, this.bytes, this.length, utf8.length);
+        this.length += utf8.length;
+    }
+
+    /**
+     * @param id an id, or null
+     */
+    public void writeId(@Nullable Id id) {
+        if (id == null) {
+            ensureCapacity(1);
+            this.bytes[this.length++] = 0;
+            return;
+        }
+
+        // none of the characters of an id are 0, so the first byte doubles as the null marker
+        String key = id.toString();
+        ensureCapacity(ID_LENGTH);
+        for (int i = 0; i < ID_LENGTH; i++) {
+            this.bytes[this.length++] = (byte) key.charAt(i);
+        }
+    }
+
+    /**
+     * Write the fields that are set on a record, in the order {@link SObject#forEachField(FieldVisitor)} visits them.
+     *
+     * @param sObject the record
+     */
+    public void writeFields(@Nonnull SObject sObject) {
+        this.fieldNames.clear();
+        this.fieldValues.clear();
+        sObject.forEachField(this.fieldCollector);
+
+        Integer tableIndex = this.tableIndexes.get(this.fieldNames);
+        if (tableIndex == null) {
+            FieldTable table = FieldTable.of(this.fieldNames);
+            tableIndex = this.tables.size();
+            this.tables.add(table);
+            this.tableIndexes.put(table.getNames(), tableIndex);
+        }
+
+        writeInt(tableIndex);
+        for (String value : this.fieldValues) {
+            writeString(value);
+        }
+    }
+
+    /**
+     * Start a new record, discarding what was written for the last one.
+     */
+    void reset() {
+        this.length = 0;
+    }
+
+    @Nonnull
+    byte[] getBytes() {
+        //noinspection ReturnOfCollectionOrArrayField
+        return this.bytes;
+    }
+
+    int getLength() {
+        return this.length;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (this.length + needed > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.length + needed));
+        }
+    }
+}
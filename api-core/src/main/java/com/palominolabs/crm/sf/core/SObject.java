@@ -84,6 +84,25 @@ public interface SObject {
     @Nonnull
     Map<String, String> getAllFields();
 
+    /**
+     * Call the visitor with each field, in no particular order, without copying the fields first. The visitor must not
+     * change this sObject.
+     *
+     * @param visitor the visitor
+     * @param <E>     the type of exception the visitor may throw
+     *
+     * @throws E if the visitor throws it
+     */
+    <E extends Exception> void forEachField(@Nonnull FieldVisitor<E> visitor) throws E;
+
+    /**
+     * Set every field of this sObject on another one -- equivalent to target.setAllFields(getAllFields()), but
+     * without the copy. Don't copy between two sObjects in both directions at the same time.
+     *
+     * @param target the sObject to set the fields on
+     */
+    void copyFieldsTo(@Nonnull SObject target);
+
     /**
      * Add every field specified in the map -- equivalent to addinbg them one by one. Make sure that the newFields map
      * is not being concurrently modified during this method call.
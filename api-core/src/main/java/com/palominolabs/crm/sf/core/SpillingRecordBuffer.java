@@ -0,0 +1,401 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An append-only collection of records that can grow past the heap. Records are stored in the binary form written by
+ * a {@link RecordCodec}, which is much smaller than the records themselves: the first {@link
+ * RecordBufferConfig#getHeapLimitBytes()} bytes of it are kept on the heap, and everything after that is appended to
+ * temp files. The files are memory-mapped to be read, so the OS pages them in and out as needed rather than the records
+ * taking up heap.
+ *
+ * The buffer can be iterated over any number of times, in the order the records were added. Each iteration decodes
+ * the records again, so hold on to the ones that are needed for longer. Adding records during an iteration causes
+ * that iteration to fail with a ConcurrentModificationException.
+ *
+ * The temp files are deleted on close, so a buffer must be closed once it is no longer needed.
+ *
+ * @param <S> the SObject type
+ */
+@NotThreadSafe
+public final class SpillingRecordBuffer<S extends SObject> implements Iterable<S>, Closeable {
+
+    /**
+     * bytes in a heap chunk, unless the heap limit or a single record calls for a different size
+     */
+    private static final int HEAP_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * a new temp file is started once the current one would grow past this, which keeps each mapping well under the
+     * 2 GB a single mapping can hold
+     */
+    private static final long SPILL_FILE_SIZE = 64L * 1024 * 1024;
+
+    private final RecordCodec<S> codec;
+
+    private final long heapLimitBytes;
+
+    @Nullable
+    private final File spillDirectory;
+
+    /**
+     * shared by output and every RecordInput
+     */
+    private final List<FieldTable> fieldTables = new ArrayList<FieldTable>();
+
+    private final RecordOutput output;
+
+    private final List<HeapChunk> heapChunks = new ArrayList<HeapChunk>();
+
+    private final List<SpillFile> spillFiles = new ArrayList<SpillFile>();
+
+    private long heapBytes = 0;
+
+    private long spilledBytes = 0;
+
+    private int size = 0;
+
+    /**
+     * changes whenever a record is added
+     */
+    private int modCount = 0;
+
+    private boolean closed = false;
+
+    /**
+     * @param codec  converts records to and from their binary form
+     * @param config heap limit and temp file location
+     */
+    public SpillingRecordBuffer(@Nonnull RecordCodec<S> codec, @Nonnull RecordBufferConfig config) {
+        this.codec = codec;
+        this.heapLimitBytes = config.getHeapLimitBytes();
+        this.spillDirectory = config.getSpillDirectory();
+        this.output = new RecordOutput(new HashMap<List<String>, Integer>(), this.fieldTables);
+    }
+
+    /**
+     * @param record the record to add
+     *
+     * @throws IOException if the record had to be spilled and the temp file couldn't be written
+     */
+    public void add(@Nonnull S record) throws IOException {
+        checkOpen();
+
+        this.output.reset();
+        this.codec.write(record, this.output);
+        byte[] bytes = this.output.getBytes();
+        int length = this.output.getLength();
+
+        // once anything has been spilled, everything after it is too, so the records stay in order
+        if (this.spillFiles.isEmpty() && this.heapBytes + length <= this.heapLimitBytes) {
+            appendToHeap(bytes, length);
+            this.heapBytes += length;
+        } else {
+            appendToSpillFile(bytes, length);
+            this.spilledBytes += length;
+        }
+
+        this.size++;
+        this.modCount++;
+    }
+
+    /**
+     * @param records the records to add, in order
+     *
+     * @throws IOException if a record had to be spilled and the temp file couldn't be written
+     */
+    public void addAll(@Nonnull Iterable<? extends S> records) throws IOException {
+        for (S record : records) {
+            add(record);
+        }
+    }
+
+    /**
+     * @return the number of records added
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return bytes of encoded records held on the heap
+     */
+    public long getHeapBytes() {
+        return this.heapBytes;
+    }
+
+    /**
+     * @return bytes of encoded records written to temp files
+     */
+    public long getSpilledBytes() {
+        return this.spilledBytes;
+    }
+
+    /**
+     * @return an iterator over the records in the order they were added
+     *
+     * @throws IllegalStateException if the buffer is closed or the temp files couldn't be mapped
+     */
+    @Nonnull
+    @Override
+    public Iterator<S> iterator() {
+        checkOpen();
+
+        List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+        for (HeapChunk chunk : this.heapChunks) {
+            segments.add(ByteBuffer.wrap(chunk.bytes, 0, chunk.used));
+        }
+
+        try {
+            for (SpillFile spillFile : this.spillFiles) {
+                segments.add(spillFile.map());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't map the spilled records", e);
+        }
+
+        return new RecordIterator(segments);
+    }
+
+    /**
+     * Delete the temp files. Safe to call more than once.
+     *
+     * @throws IOException if a temp file couldn't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.heapChunks.clear();
+
+        IOException failure = null;
+        for (SpillFile spillFile : this.spillFiles) {
+            try {
+                spillFile.delete();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        this.spillFiles.clear();
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("The buffer has been closed");
+        }
+    }
+
+    private void appendToHeap(byte[] bytes, int length) {
+        HeapChunk chunk = this.heapChunks.isEmpty() ? null : this.heapChunks.get(this.heapChunks.size() - 1);
+
+        if (chunk == null || chunk.bytes.length - chunk.used < length) {
+            long chunkSize = Math.min(HEAP_CHUNK_SIZE, this.heapLimitBytes - this.heapBytes);
+            chunk = new HeapChunk((int) Math.max(chunkSize, length));
+            this.heapChunks.add(chunk);
+        }
+
+        System.arraycopy(bytes, 0, chunk.bytes, chunk.used, length);
+        chunk.used += length;
+    }
+
+    private void appendToSpillFile(byte[] bytes, int length) throws IOException {
+        SpillFile spillFile = this.spillFiles.isEmpty() ? null : this.spillFiles.get(this.spillFiles.size() - 1);
+
+        if (spillFile == null || (spillFile.length > 0 && spillFile.length + length > SPILL_FILE_SIZE)) {
+            if (spillFile != null) {
+                spillFile.finish();
+            }
+            spillFile = new SpillFile(File.createTempFile("sf-records", ".bin", this.spillDirectory));
+            this.spillFiles.add(spillFile);
+        }
+
+        spillFile.write(bytes, length);
+    }
+
+    private static final class HeapChunk {
+        private final byte[] bytes;
+
+        private int used = 0;
+
+        private HeapChunk(int size) {
+            this.bytes = new byte[size];
+        }
+    }
+
+    /**
+     * A temp file being appended to through a buffered stream, and mapped when the records are read.
+     */
+    private static final class SpillFile {
+        private final File file;
+
+        /**
+         * null once the file is finished
+         */
+        @Nullable
+        private OutputStream out;
+
+        private long length = 0;
+
+        /**
+         * the most recent mapping of the file, or null if it hasn't been read yet
+         */
+        @Nullable
+        private MappedByteBuffer mapped;
+
+        private SpillFile(File file) throws IOException {
+            this.file = file;
+            this.out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        }
+
+        private void write(byte[] bytes, int length) throws IOException {
+            //noinspection ConstantConditions
+            this.out.write(bytes, 0, length);
+            this.length += length;
+        }
+
+        /**
+         * Stop appending to the file.
+         *
+         * @throws IOException if the file couldn't be written
+         */
+        private void finish() throws IOException {
+            if (this.out != null) {
+                this.out.close();
+                this.out = null;
+            }
+        }
+
+        /**
+         * @return a read-only view of the whole file as written so far
+         *
+         * @throws IOException if the file couldn't be written or mapped
+         */
+        @Nonnull
+        private ByteBuffer map() throws IOException {
+            if (this.out != null) {
+                this.out.flush();
+            }
+
+            if (this.mapped == null || this.mapped.capacity() < this.length) {
+                RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+                try {
+                    // the mapping stays valid after the channel is closed
+                    this.mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.length);
+                } finally {
+                    raf.close();
+                }
+            }
+
+            return this.mapped.duplicate();
+        }
+
+        private void delete() throws IOException {
+            this.mapped = null;
+            try {
+                finish();
+            } finally {
+                // a file that is still mapped can't be deleted on some platforms
+                if (!this.file.delete()) {
+                    this.file.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    private final class RecordIterator implements Iterator<S> {
+
+        private final List<ByteBuffer> segments;
+
+        private final RecordInput input = new RecordInput(fieldTables);
+
+        private final int expectedModCount = modCount;
+
+        private int segmentIndex = 0;
+
+        @CheckForNull
+        private ByteBuffer segment;
+
+        private RecordIterator(List<ByteBuffer> segments) {
+            this.segments = segments;
+        }
+
+        @Override
+        public boolean hasNext() {
+            checkForModification();
+
+            while (this.segment == null || !this.segment.hasRemaining()) {
+                if (this.segmentIndex == this.segments.size()) {
+                    return false;
+                }
+                this.segment = this.segments.get(this.segmentIndex++);
+                this.input.setBuffer(this.segment);
+            }
+
+            return true;
+        }
+
+        @Nonnull
+        @Override
+        public S next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return codec.read(this.input);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Records can't be removed from the buffer");
+        }
+
+        private void checkForModification() {
+            if (modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException("Records were added during iteration");
+            }
+            checkOpen();
+        }
+    }
+}
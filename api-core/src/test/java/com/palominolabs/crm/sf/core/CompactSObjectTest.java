@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class CompactSObjectTest {
+
+    @Test
+    public void testCacheSharesTables() {
+        FieldTable.Cache cache = new FieldTable.Cache();
+
+        FieldTable table = cache.get(Arrays.asList("Name", "Email"));
+        assertSame(table, cache.get(Arrays.asList("Name", "Email")));
+        FieldTable other = cache.get(Arrays.asList("Name"));
+        assertSame(table, cache.get(Arrays.asList("Name", "Email")));
+        assertSame(other, cache.get(Arrays.asList("Name")));
+
+        assertEquals(2, table.size());
+        assertEquals(1, table.indexOf("Email"));
+        assertEquals(-1, table.indexOf("Phone"));
+    }
+
+    @Test
+    public void testFields() {
+        TestSObject sObject = sObject(Arrays.asList("Name", "Email"), Arrays.asList("Tom", null));
+
+        assertEquals("Tom", sObject.getField("Name"));
+        assertTrue(sObject.isFieldSet("Email"));
+        assertNull(sObject.getField("Email"));
+        assertFalse(sObject.isFieldSet("Phone"));
+        assertNull(sObject.getField("Phone"));
+
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("Name", "Tom");
+        expected.put("Email", null);
+        assertEquals(expected, sObject.getAllFields());
+
+        // getAllFields is a copy
+        sObject.getAllFields().clear();
+        assertEquals(expected, sObject.getAllFields());
+    }
+
+    @Test
+    public void testCannotChange() {
+        TestSObject sObject = sObject(Arrays.asList("Name"), Arrays.asList("Tom"));
+
+        try {
+            sObject.setField("Name", "Liz");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals("This Contact is immutable; use toMutable() to get a copy that can be changed",
+                    e.getMessage());
+        }
+
+        try {
+            sObject.removeField("Name");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        assertEquals("Tom", sObject.getField("Name"));
+    }
+
+    @Test
+    public void testDuplicateFieldNameKeepsLastValue() {
+        // the SOAP API repeats Id as a field
+        TestSObject sObject = sObject(Arrays.asList("Id", "Id", "Name"), Arrays.asList("a", "b", "Tom"));
+
+        assertEquals("b", sObject.getField("Id"));
+        assertEquals(2, sObject.getAllFields().size());
+    }
+
+    @Test
+    public void testBuilder() {
+        FieldTable.Cache cache = new FieldTable.Cache();
+        TestSObject.Builder builder = new TestSObject.Builder();
+        builder.setFieldTables(cache).setField("Name", "Tom").setField("Email", "t@example.com")
+                .setRelationshipQueryResult("Cases", "cases");
+
+        TestSObject first = builder.build();
+        TestSObject second = builder.setField("Name", "Liz").build();
+
+        assertEquals("Tom", first.getField("Name"));
+        assertEquals("Liz", second.getField("Name"));
+        assertEquals("t@example.com", second.getField("Email"));
+        assertEquals("cases", first.getRelationshipQueryResults().get("Cases"));
+        assertTrue(first.getRelationshipSubObjects().isEmpty());
+    }
+
+    @Test
+    public void testCopyFieldsTo() {
+        TestSObject sObject = sObject(Arrays.asList("Name", "Email"), Arrays.asList("Tom", null));
+        MutableSObject copy = new MutableSObject();
+
+        sObject.copyFieldsTo(copy);
+
+        assertEquals(sObject.getAllFields(), copy.getAllFields());
+    }
+
+    @Test
+    public void testForEachField() {
+        TestSObject sObject = sObject(Arrays.asList("Name", "Email"), Arrays.asList("Tom", null));
+        MutableSObject mutable = new MutableSObject();
+        sObject.copyFieldsTo(mutable);
+
+        assertEquals(sObject.getAllFields(), visitAll(sObject));
+        assertEquals(sObject.getAllFields(), visitAll(mutable));
+    }
+
+    @Test
+    public void testForEachFieldStopsOnException() {
+        TestSObject sObject = sObject(Arrays.asList("Name", "Email"), Arrays.asList("Tom", null));
+        final List<String> visited = new ArrayList<String>();
+
+        try {
+            sObject.forEachField(new FieldVisitor<IOException>() {
+                @Override
+                public void visitField(@Nonnull String name, @Nullable String value) throws IOException {
+                    visited.add(name);
+                    throw new IOException("boom");
+                }
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals("boom", e.getMessage());
+        }
+
+        assertEquals(Arrays.asList("Name"), visited);
+    }
+
+    private static Map<String, String> visitAll(SObject sObject) {
+        final Map<String, String> fields = new HashMap<String, String>();
+        sObject.forEachField(new FieldVisitor<RuntimeException>() {
+            @Override
+            public void visitField(@Nonnull String name, @Nullable String value) {
+                fields.put(name, value);
+            }
+        });
+        return fields;
+    }
+
+    private static TestSObject sObject(List<String> names, List<String> values) {
+        return new TestSObject(new FieldTable.Cache().get(names), names, values);
+    }
+
+    private static final class TestSObject extends CompactSObject<Object, SObject> {
+        private TestSObject(FieldTable table, List<String> names, List<String> values) {
+            super("Contact", null, table, names, values, null, null);
+        }
+
+        private TestSObject(Builder builder) {
+            super(builder);
+        }
+
+        private static final class Builder extends CompactSObject.Builder<Object, SObject, TestSObject> {
+            private Builder() {
+                super("Contact", null);
+            }
+
+            @Nonnull
+            @Override
+            public TestSObject build() {
+                return new TestSObject(this);
+            }
+        }
+    }
+
+    private static final class MutableSObject extends AbstractSObject<Object, SObject> {
+        private MutableSObject() {
+            super("Contact", null);
+        }
+    }
+}
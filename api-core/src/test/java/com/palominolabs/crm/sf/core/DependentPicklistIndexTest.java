@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import com.google.common.base.Function;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DependentPicklistIndexTest {
+
+    private static final Function<String, ImmutableBitSet> VALID_FOR = new Function<String, ImmutableBitSet>() {
+        @Override
+        public ImmutableBitSet apply(String entry) {
+            // entries are named after their validFor bits, e.g. "101"
+            long[] words = new long[1];
+            for (int i = 0; i < entry.length(); i++) {
+                if (entry.charAt(i) == '1') {
+                    words[0] |= 1L << i;
+                }
+            }
+            return ImmutableBitSet.ofWords(words);
+        }
+    };
+
+    @Test
+    public void testValidEntries() {
+        DependentPicklistIndex<String> index =
+                DependentPicklistIndex.of(Arrays.asList("100", "011", "000", "111"), VALID_FOR);
+
+        assertEquals(Arrays.asList("100", "111"), index.getValidEntries(0));
+        assertEquals(Arrays.asList("011", "111"), index.getValidEntries(1));
+        assertEquals(Arrays.asList("011", "111"), index.getValidEntries(2));
+        assertEquals(Collections.emptyList(), index.getValidEntries(3));
+    }
+
+    @Test
+    public void testEmpty() {
+        DependentPicklistIndex<String> index = DependentPicklistIndex.of(Collections.<String>emptyList(), VALID_FOR);
+
+        assertEquals(Collections.emptyList(), index.getValidEntries(0));
+    }
+
+    @Test
+    public void testUnmodifiable() {
+        List<String> entries = DependentPicklistIndex.of(Arrays.asList("1"), VALID_FOR).getValidEntries(0);
+
+        try {
+            entries.add("0");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNegativeIndex() {
+        try {
+            DependentPicklistIndex.of(Arrays.asList("1"), VALID_FOR).getValidEntries(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Controlling index must not be negative, was -1", e.getMessage());
+        }
+    }
+}
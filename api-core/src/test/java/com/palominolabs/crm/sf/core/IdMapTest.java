@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class IdMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        IdMap<String> map = new IdMap<String>();
+
+        assertNull(map.put(new Id("0035000000km1ov"), "Tom"));
+        assertEquals("Tom", map.put(new Id("0035000000km1ovAAA"), "Liz"));
+        assertEquals("Liz", map.get(new Id("0035000000km1ov")));
+        assertTrue(map.containsKey(new Id("0035000000km1ov")));
+        assertNull(map.get(new Id("0035000000km1ow")));
+
+        assertEquals("Liz", map.remove(new Id("0035000000km1ov")));
+        assertNull(map.remove(new Id("0035000000km1ov")));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testValuesSurviveGrowthAndRemoval() {
+        Map<Id, Integer> expected = new HashMap<Id, Integer>();
+        IdMap<Integer> map = new IdMap<Integer>();
+
+        for (int i = 0; i < 3000; i++) {
+            Id id = new Id(String.format("003500000%06d", i));
+            expected.put(id, i);
+            map.put(id, i);
+        }
+        for (int i = 0; i < 3000; i += 3) {
+            Id id = new Id(String.format("003500000%06d", i));
+            assertEquals(expected.remove(id), map.remove(id));
+        }
+
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.keySet(), Sets.newHashSet(map.keys()));
+
+        Iterator<Id> keys = map.keys().iterator();
+        for (Integer value : map.values()) {
+            Id key = keys.next();
+            assertEquals(expected.get(key), value);
+        }
+        assertFalse(keys.hasNext());
+        assertEquals(expected.size(), Lists.newArrayList(map.values()).size());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class IdSetTest {
+
+    @Test
+    public void testAddContainsRemove() {
+        IdSet set = new IdSet();
+
+        assertTrue(set.add(new Id("0035000000km1ov")));
+        assertFalse(set.add(new Id("0035000000km1ovAAA")));
+        assertTrue(set.contains(new Id("0035000000km1ov")));
+        assertFalse(set.contains(new Id("0035000000KM1OV")));
+        assertEquals(1, set.size());
+
+        assertTrue(set.remove(new Id("0035000000km1ov")));
+        assertFalse(set.remove(new Id("0035000000km1ov")));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testIterationRoundTrips() {
+        Set<Id> ids = new HashSet<Id>(Arrays.asList(new Id("001A0000006Vm9r"), new Id("zzzzzzzzzzzzzzz"),
+                new Id("000000000000000"), new Id("0015000000WWD7b")));
+
+        IdSet set = new IdSet();
+        set.addAll(ids);
+
+        assertEquals(ids, Sets.newHashSet(set));
+    }
+
+    @Test
+    public void testMatchesHashSetThroughGrowthAndRemoval() {
+        Random random = new Random(42);
+        Set<Id> expected = new HashSet<Id>();
+        IdSet set = new IdSet();
+
+        for (int i = 0; i < 20000; i++) {
+            // a small range of counters so that adds and removes collide
+            Id id = new Id(String.format("003500000%06d", random.nextInt(5000)));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id), set.remove(id));
+            } else {
+                assertEquals(expected.add(id), set.add(id));
+            }
+        }
+
+        assertEquals(expected.size(), set.size());
+        assertEquals(expected, Sets.newHashSet(set));
+    }
+
+    @Test
+    public void testRetainAll() {
+        IdSet set = new IdSet();
+        set.add(new Id("0035000000km1ov"));
+        set.add(new Id("0035000000km1ow"));
+        IdSet other = new IdSet();
+        other.add(new Id("0035000000km1ow"));
+        other.add(new Id("0035000000km1ox"));
+
+        assertTrue(set.retainAll(other));
+        assertEquals(Sets.newHashSet(new Id("0035000000km1ow")), Sets.newHashSet(set));
+        assertFalse(set.retainAll(other));
+    }
+
+    @Test
+    public void testRejectsNonBase62() {
+        IdSet set = new IdSet();
+        assertFalse(set.contains(new Id("0035000000km1o-")));
+        try {
+            set.add(new Id("0035000000km1o-"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Id <0035000000km1o-> isn't base 62", e.getMessage());
+        }
+    }
+}
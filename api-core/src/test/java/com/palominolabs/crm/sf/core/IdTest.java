@@ -20,6 +20,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -100,5 +101,25 @@ public final class IdTest {
         assertEquals(longId, id.getFullId());
         assertEquals(18, id.getFullId().length());
     }
-}
 
+    @Test
+    public void testCaseSafeId() {
+        assertEquals("001A0000006Vm9rIAC", new Id("001A0000006Vm9r").getCaseSafeId());
+        assertEquals("001A0000006Vm9rIAC", new Id("001A0000006Vm9rIAC").getCaseSafeId());
+    }
+
+    @Test
+    public void testCaseRestoredFromChecksum() {
+        Id id = new Id("001a0000006vm9riac");
+
+        assertEquals("001A0000006Vm9r", id.getIdStr());
+        assertEquals(new Id("001A0000006Vm9r"), id);
+        assertEquals(new Id("001A0000006Vm9r").hashCode(), id.hashCode());
+    }
+
+    @Test
+    public void testGetIdStrDoesNotAllocate() {
+        Id id = new Id("001A0000006Vm9rIAC");
+        assertSame(id.getIdStr(), id.getIdStr());
+    }
+}
@@ -19,6 +19,7 @@ package com.palominolabs.crm.sf.core;
 import org.junit.Test;
 
 import java.util.BitSet;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -124,4 +125,62 @@ public class ImmutableBitSetTest {
         //noinspection ObjectEqualsNull
         assertFalse(ibset.equals(null));
     }
+
+    @Test
+    public void testMatchesBitSet() {
+        Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            BitSet bset = new BitSet();
+            int bits = random.nextInt(300);
+            for (int i = 0; i < bits; i++) {
+                if (random.nextInt(4) == 0) {
+                    bset.set(i);
+                }
+            }
+
+            ImmutableBitSet ibset = new ImmutableBitSet(bset);
+
+            assertEquals(bset.length(), ibset.length());
+            assertEquals(bset.cardinality(), ibset.cardinality());
+            assertEquals(bset.toString(), ibset.toString());
+            assertEquals(bset.hashCode(), ibset.hashCode());
+            for (int i = 0; i <= bits + 64; i++) {
+                assertEquals(bset.get(i), ibset.get(i));
+                assertEquals(bset.nextSetBit(i), ibset.nextSetBit(i));
+            }
+        }
+    }
+
+    @Test
+    public void testParseValidForBytes() {
+        // the first bit of the stream is the high order bit of the first byte
+        ImmutableBitSet ibset = ImmutableBitSets.parseValidForBytes(
+                new byte[]{(byte) 0x80, 0, 0, 0, 0, 0, 0, 0x01, 0x40, 0, 0});
+
+        assertEquals("{0, 63, 65}", ibset.toString());
+        assertEquals(66, ibset.length());
+    }
+
+    @Test
+    public void testParseValidForBytesMatchesBitByBit() {
+        Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            byte[] bytes = new byte[random.nextInt(40)];
+            random.nextBytes(bytes);
+
+            BitSet expected = new BitSet();
+            for (int i = 0; i < bytes.length * 8; i++) {
+                expected.set(i, ((bytes[i / 8] >> (7 - (i % 8))) & 1) == 1);
+            }
+
+            assertEquals(new ImmutableBitSet(expected), ImmutableBitSets.parseValidForBytes(bytes));
+        }
+    }
+
+    @Test
+    public void testTrailingZeroBytesDontAffectEquality() {
+        assertEquals(ImmutableBitSets.parseValidForBytes(new byte[]{(byte) 0x80}),
+                ImmutableBitSets.parseValidForBytes(new byte[]{(byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0, 0}));
+        assertEquals(new ImmutableBitSet(new BitSet()), ImmutableBitSets.parseValidForBytes(new byte[16]));
+    }
 }
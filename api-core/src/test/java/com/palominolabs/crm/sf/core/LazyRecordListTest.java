@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class LazyRecordListTest {
+
+    @Test
+    public void testSizeDoesNotDecode() {
+        TestList list = new TestList("Tom", "Dick", "Harry");
+
+        assertEquals(3, list.size());
+        assertTrue(list.decoded.isEmpty());
+    }
+
+    @Test
+    public void testDecodesOnceOnFirstAccess() {
+        TestList list = new TestList("Tom", "Dick", "Harry");
+
+        SObject dick = list.get(1);
+        assertEquals("Dick", dick.getField("Name"));
+        assertSame(dick, list.get(1));
+        assertEquals(Arrays.asList(1), list.decoded);
+    }
+
+    @Test
+    public void testIterationStopsDecoding() {
+        TestList list = new TestList("Tom", "Dick", "Harry");
+
+        Iterator<SObject> iterator = list.iterator();
+        assertEquals("Tom", iterator.next().getField("Name"));
+
+        assertEquals(Arrays.asList(0), list.decoded);
+        assertFalse(list.released);
+    }
+
+    @Test
+    public void testReleasesSourceOnceAllDecoded() {
+        TestList list = new TestList("Tom", "Dick", "Harry");
+
+        List<String> names = new ArrayList<String>();
+        for (SObject sObject : list) {
+            names.add(sObject.getField("Name"));
+        }
+
+        assertEquals(Arrays.asList("Tom", "Dick", "Harry"), names);
+        assertTrue(list.released);
+
+        // still readable afterwards
+        assertEquals("Harry", list.get(2).getField("Name"));
+        assertEquals(3, list.decoded.size());
+    }
+
+    @Test
+    public void testDecodingFailure() {
+        TestList list = new TestList("Tom", null);
+
+        assertEquals("Tom", list.get(0).getField("Name"));
+        try {
+            list.get(1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Couldn't decode record 1", e.getMessage());
+            assertEquals("Malformed record", e.getCause().getMessage());
+        }
+        assertFalse(list.released);
+    }
+
+    @Test
+    public void testOutOfRange() {
+        try {
+            new TestList("Tom").get(1);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUnmodifiable() {
+        TestList list = new TestList("Tom");
+
+        try {
+            list.add(new TestSObject());
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testQueryResultTakesOwnership() {
+        TestList list = new TestList("Tom", "Dick");
+
+        assertSame(list, new TestQueryResult(list).getSObjects());
+        assertTrue(list.decoded.isEmpty());
+
+        List<SObject> owned = new ArrayList<SObject>(list);
+        List<SObject> sObjects = new TestQueryResult(owned).getSObjects();
+        assertEquals(owned, sObjects);
+        try {
+            sObjects.remove(0);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Decodes each name into a record with a Name field; a null name fails to decode.
+     */
+    private static final class TestList extends LazyRecordList<SObject> {
+
+        private final String[] names;
+
+        private final List<Integer> decoded = new ArrayList<Integer>();
+
+        private boolean released = false;
+
+        private TestList(String... names) {
+            super(names.length);
+            this.names = names;
+        }
+
+        @Nonnull
+        @Override
+        protected SObject decode(int index) throws IOException {
+            if (this.names[index] == null) {
+                throw new IOException("Malformed record");
+            }
+
+            this.decoded.add(index);
+            TestSObject sObject = new TestSObject();
+            sObject.setField("Name", this.names[index]);
+            return sObject;
+        }
+
+        @Override
+        protected void releaseSource() {
+            this.released = true;
+        }
+    }
+
+    private static final class TestSObject extends AbstractSObject<Object, SObject> {
+        private TestSObject() {
+            super("Contact", null);
+        }
+    }
+
+    private static final class TestQueryResult extends AbstractQueryResult<SObject, Object> {
+        private TestQueryResult(List<SObject> sObjects) {
+            super(true, sObjects, null, sObjects.size());
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.core;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class SpillingRecordBufferTest {
+
+    private File spillDirectory;
+
+    @Before
+    public void setUp() {
+        this.spillDirectory = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : listSpillFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(this.spillDirectory.delete());
+    }
+
+    @Test
+    public void testHeapOnly() throws IOException {
+        SpillingRecordBuffer<SObject> buffer = newBuffer(1024 * 1024);
+        buffer.addAll(contacts(100));
+
+        assertEquals(100, buffer.size());
+        assertEquals(0, buffer.getSpilledBytes());
+        assertTrue(buffer.getHeapBytes() > 0);
+        assertEquals(0, listSpillFiles().length);
+        assertContacts(100, buffer);
+
+        buffer.close();
+    }
+
+    @Test
+    public void testSpillsPastHeapLimit() throws IOException {
+        SpillingRecordBuffer<SObject> buffer = newBuffer(500);
+        buffer.addAll(contacts(1000));
+
+        assertEquals(1000, buffer.size());
+        assertTrue(buffer.getHeapBytes() <= 500);
+        assertTrue(buffer.getSpilledBytes() > 0);
+        assertEquals(1, listSpillFiles().length);
+
+        // iterable any number of times, including after adding more
+        assertContacts(1000, buffer);
+        assertContacts(1000, buffer);
+        buffer.addAll(contacts(1000).subList(0, 1));
+        assertEquals(1001, buffer.size());
+        Iterator<SObject> iterator = buffer.iterator();
+        for (int i = 0; i < 1000; i++) {
+            iterator.next();
+        }
+        assertEquals("Contact 0", iterator.next().getField("LastName"));
+        assertFalse(iterator.hasNext());
+
+        buffer.close();
+        assertEquals(0, listSpillFiles().length);
+    }
+
+    @Test
+    public void testNothingOnHeap() throws IOException {
+        SpillingRecordBuffer<SObject> buffer = newBuffer(0);
+        buffer.addAll(contacts(10));
+
+        assertEquals(0, buffer.getHeapBytes());
+        assertContacts(10, buffer);
+
+        buffer.close();
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        SpillingRecordBuffer<SObject> buffer = newBuffer(0);
+
+        assertEquals(0, buffer.size());
+        assertFalse(buffer.iterator().hasNext());
+
+        buffer.close();
+    }
+
+    @Test
+    public void testAddDuringIteration() throws IOException {
+        SpillingRecordBuffer<SObject> buffer = newBuffer(1024);
+        buffer.addAll(contacts(2));
+
+        Iterator<SObject> iterator = buffer.iterator();
+        iterator.next();
+        buffer.add(contacts(1).get(0));
+        try {
+            iterator.next();
+            fail();
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+
+        buffer.close();
+    }
+
+    @Test
+    public void testClosed() throws IOException {
+        SpillingRecordBuffer<SObject> buffer = newBuffer(0);
+        buffer.addAll(contacts(1));
+        buffer.close();
+        buffer.close();
+
+        try {
+            buffer.iterator();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("The buffer has been closed", e.getMessage());
+        }
+
+        try {
+            buffer.add(contacts(1).get(0));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("The buffer has been closed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testNegativeHeapLimit() {
+        try {
+            new RecordBufferConfig(-1, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private SpillingRecordBuffer<SObject> newBuffer(long heapLimitBytes) {
+        return new SpillingRecordBuffer<SObject>(new TestCodec(),
+                new RecordBufferConfig(heapLimitBytes, this.spillDirectory));
+    }
+
+    private File[] listSpillFiles() {
+        return this.spillDirectory.listFiles();
+    }
+
+    /**
+     * @return contacts with a null field, a non-ascii field, and the id only on every other one
+     */
+    private static List<SObject> contacts(int count) {
+        List<SObject> contacts = new ArrayList<SObject>();
+        for (int i = 0; i < count; i++) {
+            TestSObject contact = new TestSObject(i % 2 == 0 ? new Id("0035000000km1oh") : null);
+            contact.setField("LastName", "Contact " + i);
+            contact.setField("FirstName", "Rosé");
+            contact.setField("Email", null);
+            contacts.add(contact);
+        }
+        return contacts;
+    }
+
+    private static void assertContacts(int count, SpillingRecordBuffer<SObject> buffer) {
+        int i = 0;
+        for (SObject contact : buffer) {
+            assertEquals(i % 2 == 0 ? new Id("0035000000km1oh") : null, contact.getId());
+            assertEquals("Contact", contact.getType());
+            assertEquals("Contact " + i, contact.getField("LastName"));
+            assertEquals("Rosé", contact.getField("FirstName"));
+            assertTrue(contact.isFieldSet("Email"));
+            assertNull(contact.getField("Email"));
+            assertEquals(3, contact.getAllFields().size());
+            i++;
+        }
+        assertEquals(count, i);
+    }
+
+    private static final class TestCodec implements RecordCodec<SObject> {
+        @Override
+        public void write(@Nonnull SObject record, @Nonnull RecordOutput output) {
+            output.writeString(record.getType());
+            output.writeId(record.getId());
+            output.writeFields(record);
+        }
+
+        @Nonnull
+        @Override
+        public SObject read(@Nonnull RecordInput input) {
+            assertEquals("Contact", input.readString());
+            TestSObject sObject = new TestSObject(input.readId());
+
+            List<String> values = new ArrayList<String>();
+            FieldTable table = input.readFields(values);
+            for (int i = 0; i < table.size(); i++) {
+                sObject.setField(table.getNames().get(i), values.get(i));
+            }
+            return sObject;
+        }
+    }
+
+    private static final class TestSObject extends AbstractSObject<Object, SObject> {
+        private TestSObject(Id id) {
+            super("Contact", id);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.base.Charsets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to read a page of query results, eagerly and lazily, depending on how much of it the caller uses.
+ *
+ * The eager benchmarks decode every record up front, as the parser does by default. The lazy ones only scan the page
+ * for where each record starts, and decode a record when it is accessed: *TotalSize reads only the total size,
+ * *FirstTen reads the first ten records, and *All reads every record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class QueryPageDecodeBenchmark {
+
+    /**
+     * the usual query page size
+     */
+    private static final int PAGE_SIZE = 2000;
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    @Param({"10", "50"})
+    public int fieldCount;
+
+    private byte[] page;
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder("{\"totalSize\":").append(PAGE_SIZE)
+                .append(",\"done\":true,\"records\":[");
+
+        for (int record = 0; record < PAGE_SIZE; record++) {
+            if (record > 0) {
+                json.append(',');
+            }
+            json.append("{\"attributes\":{\"type\":\"Account\",\"url\":\"/services/data/v28.0/sobjects/Account/")
+                    .append(String.format("001500000%06d", record))
+                    .append("\"},\"Id\":\"")
+                    .append(String.format("001500000%06d", record))
+                    .append('"');
+            for (int i = 0; i < fieldCount; i++) {
+                json.append(",\"Field").append(i).append("__c\":\"Value of a typical text field ").append(i)
+                        .append('"');
+            }
+            json.append('}');
+        }
+
+        this.page = json.append("]}").toString().getBytes(Charsets.UTF_8);
+    }
+
+    @Benchmark
+    public int eagerTotalSize() throws IOException {
+        return parseEagerly().getTotalSize();
+    }
+
+    @Benchmark
+    public void eagerFirstTen(Blackhole blackhole) throws IOException {
+        consume(parseEagerly().getSObjects(), 10, blackhole);
+    }
+
+    @Benchmark
+    public void eagerAll(Blackhole blackhole) throws IOException {
+        consume(parseEagerly().getSObjects(), PAGE_SIZE, blackhole);
+    }
+
+    @Benchmark
+    public int lazyTotalSize() throws IOException {
+        return SObjectJsonParser.parseQueryResultLazily(this.page).getTotalSize();
+    }
+
+    @Benchmark
+    public void lazyFirstTen(Blackhole blackhole) throws IOException {
+        consume(SObjectJsonParser.parseQueryResultLazily(this.page).getSObjects(), 10, blackhole);
+    }
+
+    @Benchmark
+    public void lazyAll(Blackhole blackhole) throws IOException {
+        consume(SObjectJsonParser.parseQueryResultLazily(this.page).getSObjects(), PAGE_SIZE, blackhole);
+    }
+
+    private RestQueryResult parseEagerly() throws IOException {
+        JsonParser parser = FACTORY.createParser(this.page);
+        try {
+            return SObjectJsonParser.parseQueryResult(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static void consume(List<RestSObject> records, int count, Blackhole blackhole) {
+        for (int i = 0; i < count; i++) {
+            blackhole.consume(records.get(i));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of getting an org's client from a RestConnectionPoolImpl, which every REST call does, as the number of
+ * threads grows. Each thread uses a connection for one of several orgs.
+ *
+ * synchronizedClient is how the pool used to do it: every lookup for every org took the pool's lock and allocated a
+ * new client. Run main() to compare the two at 1, 2, 4 and 8 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class RestConnectionPoolBenchmark {
+
+    private static final int ORGS = 16;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private RestConnectionPoolImpl<Integer> pool;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final HttpClient httpClient = HttpClients.createDefault();
+
+    private final Object lock = new Object();
+
+    private final Map<Integer, String> hosts = new HashMap<Integer, String>();
+
+    @Setup
+    public void setUp() {
+        pool = new RestConnectionPoolImpl<Integer>(new MetricRegistry());
+        for (int i = 0; i < ORGS; i++) {
+            pool.configureOrg(i, "na" + i + ".salesforce.com", "token" + i);
+            hosts.put(i, "na" + i + ".salesforce.com");
+        }
+    }
+
+    @Benchmark
+    public HttpApiClient pooledClient(ThreadState state) {
+        return state.connection.getHttpApiClient();
+    }
+
+    @Benchmark
+    public HttpApiClient synchronizedClient(ThreadState state) {
+        synchronized (lock) {
+            return new HttpApiClient(hosts.get(state.orgId), "token", objectMapper, httpClient);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            new Runner(new OptionsBuilder()
+                    .include(RestConnectionPoolBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private int orgId;
+
+        private RestConnectionImpl connection;
+
+        @Setup
+        public void setUp(RestConnectionPoolBenchmark benchmark) {
+            orgId = THREAD_COUNT.getAndIncrement() % ORGS;
+            connection = (RestConnectionImpl) benchmark.pool.getRestConnection(orgId);
+        }
+    }
+}
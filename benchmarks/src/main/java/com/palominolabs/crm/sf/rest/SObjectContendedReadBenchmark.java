@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.palominolabs.crm.sf.core.Id;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Several threads reading the same record at once, as when reporting threads share query results.
+ *
+ * The mutable benchmarks read a RestSObjectImpl, whose accessors all take its lock; the immutable ones read the
+ * CompactRestSObject that queries return, which doesn't lock. readEveryField reads each field with getField();
+ * copyAllFields calls getAllFields().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+@Fork(1)
+public class SObjectContendedReadBenchmark {
+
+    @Param({"10", "100"})
+    public int fieldCount;
+
+    private final List<String> fieldNames = new ArrayList<String>();
+
+    private RestSObjectImpl mutable;
+
+    private CompactRestSObject immutable;
+
+    @Setup
+    public void setUp() {
+        Id id = new Id("0015000000WWD7b");
+        CompactRestSObject.Builder builder = CompactRestSObject.builder("Account", id);
+
+        for (int i = 0; i < fieldCount; i++) {
+            String name = "Field" + i + "__c";
+            fieldNames.add(name);
+            builder.setField(name, "Value of a typical text field " + i);
+        }
+
+        immutable = builder.build();
+        mutable = immutable.toMutable();
+    }
+
+    @Benchmark
+    public int mutableReadEveryField() {
+        return readEveryField(mutable);
+    }
+
+    @Benchmark
+    public int immutableReadEveryField() {
+        return readEveryField(immutable);
+    }
+
+    @Benchmark
+    public Map<String, String> mutableCopyAllFields() {
+        return mutable.getAllFields();
+    }
+
+    @Benchmark
+    public Map<String, String> immutableCopyAllFields() {
+        return immutable.getAllFields();
+    }
+
+    private int readEveryField(RestSObject sObject) {
+        int length = 0;
+        for (int i = 0; i < fieldNames.size(); i++) {
+            length += sObject.getField(fieldNames.get(i)).length();
+        }
+        return length;
+    }
+}
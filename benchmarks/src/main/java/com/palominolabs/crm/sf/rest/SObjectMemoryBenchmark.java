@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.palominolabs.crm.sf.core.FieldTable;
+import com.palominolabs.crm.sf.core.Id;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory used by a page of query results.
+ *
+ * Each benchmark builds a page of records from field names and values that have already been read, the way the
+ * response parser does, and keeps all of it, so gc.alloc.rate.norm from -prof gc divided by the page size is the
+ * number of bytes each record takes beyond its value Strings (which are the same either way). hashMapPage is how
+ * records used to be built: one RestSObjectImpl with its own HashMap per record. compactPage is what the parser builds
+ * now: immutable records that share a FieldTable and keep their values in an array.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class SObjectMemoryBenchmark {
+
+    /**
+     * the usual query page size
+     */
+    private static final int PAGE_SIZE = 2000;
+
+    @Param({"10", "50", "200"})
+    public int fieldCount;
+
+    private final List<String> fieldNames = new ArrayList<String>();
+
+    private final List<List<String>> pageValues = new ArrayList<List<String>>();
+
+    private final List<Id> ids = new ArrayList<Id>();
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < fieldCount; i++) {
+            fieldNames.add("Field" + i + "__c");
+        }
+
+        for (int record = 0; record < PAGE_SIZE; record++) {
+            ids.add(new Id(String.format("001500000%06d", record)));
+
+            List<String> values = new ArrayList<String>(fieldCount);
+            for (int i = 0; i < fieldCount; i++) {
+                values.add("Value of a typical text field " + i);
+            }
+            pageValues.add(values);
+        }
+    }
+
+    @Benchmark
+    public List<RestSObject> hashMapPage() {
+        List<RestSObject> page = new ArrayList<RestSObject>(PAGE_SIZE);
+
+        for (int record = 0; record < PAGE_SIZE; record++) {
+            RestSObjectImpl sObject = RestSObjectImpl.getNewWithId("Account", ids.get(record));
+            List<String> values = pageValues.get(record);
+            for (int i = 0; i < fieldCount; i++) {
+                sObject.setField(fieldNames.get(i), values.get(i));
+            }
+            page.add(sObject);
+        }
+
+        return page;
+    }
+
+    @Benchmark
+    public List<RestSObject> compactPage() {
+        List<RestSObject> page = new ArrayList<RestSObject>(PAGE_SIZE);
+        FieldTable.Cache fieldTables = new FieldTable.Cache();
+
+        for (int record = 0; record < PAGE_SIZE; record++) {
+            page.add(new CompactRestSObject("Account", ids.get(record), fieldTables.get(fieldNames), fieldNames,
+                    pageValues.get(record), null, null));
+        }
+
+        return page;
+    }
+}
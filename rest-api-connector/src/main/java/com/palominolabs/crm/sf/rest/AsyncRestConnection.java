@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.SObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+
+/**
+ * The non-blocking counterpart of {@link RestConnection}. Each method hands its request to the connection's executor
+ * and returns immediately; no thread is tied up while waiting for the response.
+ *
+ * A failed future's cause is the exception the equivalent RestConnection method would have thrown, e.g. an {@link
+ * ApiException} for an error response, or a {@link RequestLimitException} if the org's allowance is used up. Listeners
+ * without an executor of their own usually run on the executor the connection was created with, but may run on one of
+ * the pool's few I/O threads if the request fails, so they must not block.
+ */
+@ThreadSafe
+public interface AsyncRestConnection {
+
+    @Nonnull
+    ListenableFuture<SaveResult> create(SObject sObject);
+
+    @Nonnull
+    ListenableFuture<Void> delete(String sObjectType, Id id);
+
+    @Nonnull
+    ListenableFuture<DescribeGlobalResult> describeGlobal();
+
+    @Nonnull
+    ListenableFuture<SObjectDescription> describeSObject(String sObjectType);
+
+    @Nonnull
+    ListenableFuture<BasicSObjectMetadataResult> getBasicObjectInfo(String sObjectType);
+
+    @Nonnull
+    ListenableFuture<RestQueryResult> query(String soql);
+
+    @Nonnull
+    ListenableFuture<RestQueryResult> queryMore(RestQueryLocator queryLocator);
+
+    @Nonnull
+    ListenableFuture<SObject> retrieve(String sObjectType, Id id, List<String> fields);
+
+    @Nonnull
+    ListenableFuture<List<SObject>> search(String sosl);
+
+    @Nonnull
+    ListenableFuture<Void> update(SObject sObject);
+
+    @Nonnull
+    ListenableFuture<UpsertResult> upsert(SObject sObject, String externalIdField);
+}
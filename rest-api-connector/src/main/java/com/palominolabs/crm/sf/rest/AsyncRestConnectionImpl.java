@@ -0,0 +1,544 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.SObject;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.client.HttpAsyncClient;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Builds requests and handles responses with the same code as the blocking RestConnectionImpl (and records into its
+ * timers); only the execution in between is different.
+ *
+ * Requests go through the org's limiter like blocking ones do. Waiting for a permit happens on the executor, and the
+ * permit is released as soon as the response arrives. The async client buffers each response body before completing,
+ * so handling a response never waits on the network, but parsing it is still handed to the executor so that the few
+ * I/O threads shared by every org are only ever busy with I/O.
+ *
+ * Failed requests are sent again just as blocking ones are: once with a refreshed token if the token was rejected, and
+ * otherwise as the org's retrier allows. Backing off and waiting for a refresh also happen on the executor. If the org
+ * caches describes, describes are made with the blocking connection on the executor so that they share its cache.
+ */
+@ThreadSafe
+final class AsyncRestConnectionImpl implements AsyncRestConnection {
+
+    private static final ResponseHandler<Void> IGNORE_BODY = new ResponseHandler<Void>() {
+        @Override
+        public Void handle(@Nonnull HttpApiClient client, @Nonnull HttpUriRequest request,
+                @Nonnull HttpResponse response) throws IOException {
+            client.handleResponseForString(request, response);
+            return null;
+        }
+    };
+
+    /**
+     * Runs listeners in the thread that completes the future
+     */
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(@Nonnull Runnable command) {
+            command.run();
+        }
+    };
+
+    private final RestConnectionImpl syncConnection;
+
+    private final HttpApiClientProvider httpApiClientProvider;
+
+    private final HttpAsyncClient asyncClient;
+
+    private final Executor executor;
+
+    /**
+     * @param syncConnection        blocking connection to share response handling and timers with
+     * @param httpApiClientProvider provides clients to build requests and handle responses with
+     * @param asyncClient           a started client
+     * @param executor              executor to wait for the limiter and handle responses on
+     */
+    AsyncRestConnectionImpl(RestConnectionImpl syncConnection, HttpApiClientProvider httpApiClientProvider,
+            HttpAsyncClient asyncClient, Executor executor) {
+        this.syncConnection = syncConnection;
+        this.httpApiClientProvider = httpApiClientProvider;
+        this.asyncClient = asyncClient;
+        this.executor = executor;
+    }
+
+    @Nonnull
+    @Override
+    public ListenableFuture<SaveResult> create(final SObject sObject) {
+        return execute(syncConnection.createTimer, new RequestFactory() {
+            @Nonnull
+            @Override
+            public HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newCreateRequest(sObject);
+            }
+        }, new ResponseHandler<SaveResult>() {
+            @Nonnull
+            @Override
+            public SaveResult handle(@Nonnull HttpApiClient client, @Nonnull HttpUriRequest request,
+                    @Nonnull HttpResponse response) throws IOException {
+                return syncConnection.getSaveResult(client.handleResponseForString(request, response));
+            }
+        });
+    }
+
+    @Nonnull
+    @Override
+    public ListenableFuture<Void> delete(final String sObjectType, final Id id) {
+        return execute(syncConnection.deleteTimer, new RequestFactory() {
+            @Nonnull
+            @Override
+            public HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newDeleteRequest(sObjectType, id);
+            }
+        }, IGNORE_BODY);
+    }
+
+    @Nonnull
+    @Override
+    public ListenableFuture<DescribeGlobalResult> describeGlobal() {
+        if (this.httpApiClientProvider.getClient().getDescribeCache() != null) {
+            // the cache fetches and revalidates with blocking calls
+            return submit(new Callable<DescribeGlobalResult>() {
+                @Override
+                public DescribeGlobalResult call() throws IOException {
+                    return syncConnection.describeGlobal();
+                }
+            });
+        }
+
+        return execute(syncConnection.describeGlobalTimer, new RequestFactory() {
+            @Nonnull
+            @Override
+            public HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newDescribeGlobalRequest();
+            }
+        }, new ResponseHandler<DescribeGlobalResult>() {
+            @Nonnull
+            @Override
+            public DescribeGlobalResult handle(@Nonnull HttpApiClient client, @Nonnull HttpUriRequest request,
+                    @Nonnull HttpResponse response) throws IOException {
+                return syncConnection.getDescribeGlobalResult(client.handleResponseForString(request, response));
+            }
+        });
+    }
+
+    @Nonnull
+    @Override
+    public ListenableFuture<SObjectDescription> describeSObject(final String sObjectType) {
+        if (this.httpApiClientProvider.getClient().getDescribeCache() != null) {
+            // the cache fetches and revalidates with blocking calls
+            return submit(new Callable<SObjectDescription>() {
+                @Override
+                public SObjectDescription call() throws IOException {
+                    return syncConnection.describeSObject(sObjectType);
+                }
+            });
+        }
+
+        return execute(syncConnection.describeSObjectTimer, new RequestFactory() {
+            @Nonnull
+            @Override
+            public HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newDescribeSObjectRequest(sObjectType);
+            }
+        }, new ResponseHandler<SObjectDescription>() {
+            @Nonnull
+            @Override
+            public SObjectDescription handle(@Nonnull HttpApiClient client, @Nonnull HttpUriRequest request,
+                    @Nonnull HttpResponse response) throws IOException {
+                return syncConnection.getSObjectDescription(client.handleResponseForString(request, response));
+            }
+        });
+    }
+
+    @Nonnull
+    @Override
+    public ListenableFuture<BasicSObjectMetadataResult> getBasicObjectInfo(final String sObjectType) {
+        return execute(syncConnection.basicSObjectInfoTimer, new RequestFactory() {
+            @Nonnull
+            @Override
+            public HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newBasicSObjectInfoRequest(sObjectType);
+            }
+        }, new ResponseHandler<BasicSObjectMetadataResult>() {
+            @Nonnull
+            @Override
+            public BasicSObjectMetadataResult handle(@Nonnull HttpApiClient client, @Nonnull HttpUriRequest request,
+                    @Nonnull HttpResponse response) throws IOException {
+                return syncConnection.getBasicObjectInfoResult(client.handleResponseForString(request, response));
+            }
+        });
+    }
+
+    @Nonnull
+    @Override
+    public ListenableFuture<RestQueryResult> query(final String soql) {
+        return execute(syncConnection.queryTimer, new RequestFactory() {
+            @Nonnull
+            @Override
+            public HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newQueryRequest(soql);
+            }
+        }, new JsonHandlerAdapter<RestQueryResult>(RestConnectionImpl.QUERY_RESULT_HANDLER));
+    }
+
+    @Nonnull
+    @Override
+    public ListenableFuture<RestQueryResult> queryMore(final RestQueryLocator queryLocator) {
+        return execute(syncConnection.queryMoreTimer, new RequestFactory() {
+            @Nonnull
+            @Override
+            public HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newQueryMoreRequest(queryLocator);
+            }
+        }, new JsonHandlerAdapter<RestQueryResult>(RestConnectionImpl.QUERY_RESULT_HANDLER));
+    }
+
+    @Nonnull
+    @Override
+    public ListenableFuture<SObject> retrieve(final String sObjectType, final Id id, final List<String> fields) {
+        return execute(syncConnection.retrieveTimer, new RequestFactory() {
+            @Nonnull
+            @Override
+            public HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newRetrieveRequest(sObjectType, id, fields);
+            }
+        }, new JsonHandlerAdapter<SObject>(RestConnectionImpl.SOBJECT_HANDLER));
+    }
+
+    @Nonnull
+    @Override
+    public ListenableFuture<List<SObject>> search(final String sosl) {
+        return execute(syncConnection.searchTimer, new RequestFactory() {
+            @Nonnull
+            @Override
+            public HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newSearchRequest(sosl);
+            }
+        }, new JsonHandlerAdapter<List<SObject>>(RestConnectionImpl.SOBJECT_LIST_HANDLER));
+    }
+
+    @Nonnull
+    @Override
+    public ListenableFuture<Void> update(final SObject sObject) {
+        return execute(syncConnection.updateTimer, new RequestFactory() {
+            @Nonnull
+            @Override
+            public HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newUpdateRequest(sObject);
+            }
+        }, IGNORE_BODY);
+    }
+
+    @Nonnull
+    @Override
+    public ListenableFuture<UpsertResult> upsert(final SObject sObject, final String externalIdField) {
+        return execute(syncConnection.upsertTimer, new RequestFactory() {
+            @Nonnull
+            @Override
+            public HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newUpsertRequest(sObject, externalIdField);
+            }
+        }, new ResponseHandler<UpsertResult>() {
+            @Nonnull
+            @Override
+            public UpsertResult handle(@Nonnull HttpApiClient client, @Nonnull HttpUriRequest request,
+                    @Nonnull HttpResponse response) throws IOException {
+                client.handleResponseForString(request, response);
+                return RestConnectionImpl.getUpsertResult(response.getStatusLine().getStatusCode());
+            }
+        });
+    }
+
+    /**
+     * @param timer          timer to record the request in
+     * @param requestFactory creates the request
+     * @param handler        handles the response
+     * @param <T>            the result type
+     *
+     * @return a future for the handled response. Cancelling it aborts the request.
+     */
+    @Nonnull
+    private <T> ListenableFuture<T> execute(@Nonnull final Timer timer, @Nonnull RequestFactory requestFactory,
+            @Nonnull ResponseHandler<T> handler) {
+        HttpApiClient client = this.httpApiClientProvider.getClient();
+
+        HttpUriRequest request;
+        try {
+            request = requestFactory.newRequest(client);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        client.prepareRequest(request);
+
+        final Call<T> call = new Call<T>(client, request, handler);
+        final Timer.Context context = timer.time();
+        call.result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                context.stop();
+                Future<HttpResponse> responseFuture = call.responseFuture;
+                if (call.result.isCancelled() && responseFuture != null) {
+                    responseFuture.cancel(true);
+                }
+            }
+        }, SAME_THREAD);
+
+        // waiting for the limiter blocks, so it isn't done on the caller's thread
+        call.sendOnExecutor();
+
+        return call.result;
+    }
+
+    /**
+     * Run a blocking call on the executor.
+     */
+    @Nonnull
+    private <T> ListenableFuture<T> submit(@Nonnull Callable<T> callable) {
+        ListenableFutureTask<T> task = ListenableFutureTask.create(callable);
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return task;
+    }
+
+    /**
+     * The attempts to send one request. Only one attempt is in flight at a time, and each step hands off to the next
+     * through the executor or the async client, so the fields don't need a lock.
+     */
+    private final class Call<T> {
+
+        private final HttpApiClient client;
+
+        private final HttpUriRequest request;
+
+        private final ResponseHandler<T> handler;
+
+        private final SettableFuture<T> result = SettableFuture.create();
+
+        /**
+         * the current attempt's response, or null before the first is sent
+         */
+        @Nullable
+        private volatile Future<HttpResponse> responseFuture;
+
+        private String token;
+
+        private boolean refreshedToken = false;
+
+        private int attempt = 1;
+
+        private Call(@Nonnull HttpApiClient client, @Nonnull HttpUriRequest request,
+                @Nonnull ResponseHandler<T> handler) {
+            this.client = client;
+            this.request = request;
+            this.handler = handler;
+            this.token = client.getOAuthToken();
+        }
+
+        private void sendOnExecutor() {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        send();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.result.setException(e);
+            }
+        }
+
+        /**
+         * Wait for the org's limiter, then start an attempt. Runs on the executor.
+         */
+        private void send() {
+            if (this.result.isCancelled()) {
+                return;
+            }
+
+            try {
+                this.client.acquirePermit();
+            } catch (IOException e) {
+                onFailure(e);
+                return;
+            }
+
+            FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(final HttpResponse response) {
+                    client.releasePermit();
+
+                    try {
+                        // the body is already buffered, but parsing a large one would hold up every other org's I/O
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                handle(response);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        result.setException(e);
+                    }
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    client.releasePermit();
+
+                    if (!(ex instanceof IOException)) {
+                        result.setException(ex);
+                        return;
+                    }
+
+                    try {
+                        // deciding whether to retry may mean waiting for a token refresh or a backoff
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                onFailure((IOException) ex);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        result.setException(ex);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    client.releasePermit();
+                    result.cancel(false);
+                }
+            };
+
+            try {
+                this.responseFuture = asyncClient.execute(this.request, callback);
+            } catch (RuntimeException e) {
+                // e.g. the pool's async client has been closed
+                this.client.releasePermit();
+                this.result.setException(e);
+            }
+        }
+
+        /**
+         * Runs on the executor.
+         */
+        private void handle(@Nonnull HttpResponse response) {
+            T value;
+            try {
+                value = this.handler.handle(this.client, this.request, response);
+            } catch (IOException e) {
+                onFailure(e);
+                return;
+            } catch (RuntimeException e) {
+                this.result.setException(e);
+                return;
+            }
+
+            OrgRequestRetrier retrier = this.client.getRetrier();
+            if (retrier != null) {
+                retrier.onSuccess();
+            }
+            this.result.set(value);
+        }
+
+        /**
+         * Send the request again if a blocking call would: once with a refreshed token if the token was rejected, and
+         * otherwise after a backoff if the retrier allows it. Runs on the executor.
+         */
+        private void onFailure(@Nonnull IOException e) {
+            if (this.result.isCancelled()) {
+                return;
+            }
+
+            try {
+                if (!this.refreshedToken) {
+                    String refreshed = this.client.refreshRejectedToken(this.request, e, this.token);
+                    if (refreshed != null) {
+                        this.refreshedToken = true;
+                        this.token = refreshed;
+                        send();
+                        return;
+                    }
+                }
+
+                OrgRequestRetrier retrier = this.client.getRetrier();
+                if (retrier == null || !retrier.shouldRetry(this.request, e, this.attempt)) {
+                    this.result.setException(e);
+                    return;
+                }
+
+                HttpApiClient.sleep(retrier.getBackoffMillis(this.attempt));
+            } catch (IOException failure) {
+                this.result.setException(failure);
+                return;
+            }
+
+            this.attempt++;
+            send();
+        }
+    }
+
+    private interface RequestFactory {
+        @Nonnull
+        HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException;
+    }
+
+    private interface ResponseHandler<T> {
+        T handle(@Nonnull HttpApiClient client, @Nonnull HttpUriRequest request, @Nonnull HttpResponse response)
+                throws IOException;
+    }
+
+    /**
+     * Handles a response with the same JsonResponseHandler the blocking connection uses.
+     */
+    private static final class JsonHandlerAdapter<T> implements ResponseHandler<T> {
+        private final JsonResponseHandler<? extends T> jsonHandler;
+
+        private JsonHandlerAdapter(JsonResponseHandler<? extends T> jsonHandler) {
+            this.jsonHandler = jsonHandler;
+        }
+
+        @Nonnull
+        @Override
+        public T handle(@Nonnull HttpApiClient client, @Nonnull HttpUriRequest request,
+                @Nonnull HttpResponse response) throws IOException {
+            return client.handleResponse(request, response, this.jsonHandler);
+        }
+    }
+}
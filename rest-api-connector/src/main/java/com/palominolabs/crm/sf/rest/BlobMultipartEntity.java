@@ -0,0 +1,177 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * A multipart/form-data request body of an sObject's fields as JSON followed by the contents of one of its blob
+ * fields, which is how Salesforce takes binary content for ContentVersion, Document and Attachment without base64
+ * encoding it into the JSON.
+ *
+ * The fields are small and are generated up front, but the blob is copied from its file or stream onto the connection
+ * a buffer at a time as the request is sent, so memory use doesn't depend on its size. A body from a file is
+ * repeatable since the file is opened again for each attempt; one from a stream can only be sent once.
+ */
+@NotThreadSafe
+final class BlobMultipartEntity extends AbstractHttpEntity {
+
+    private static final byte[] CRLF = "\r\n".getBytes(Charsets.US_ASCII);
+
+    private final byte[] head;
+
+    private final byte[] tail;
+
+    @CheckForNull
+    private final File file;
+
+    @CheckForNull
+    private final InputStream stream;
+
+    /**
+     * length of the blob, or -1 if it isn't known
+     */
+    private final long blobLength;
+
+    private boolean streamConsumed = false;
+
+    /**
+     * @param fieldsPartName name of the part with the fields
+     * @param fieldsJson     the fields as UTF-8 JSON
+     * @param blobField      the blob field, which is also the name of the part with its contents
+     * @param fileName       file name to send with the contents
+     * @param file           file to read the contents from, or null if they are read from stream
+     * @param stream         stream to read the contents from, or null if they are read from file. It is not closed.
+     * @param blobLength     length of the contents, or -1 if it isn't known, in which case the body is sent chunked
+     */
+    private BlobMultipartEntity(@Nonnull String fieldsPartName, @Nonnull byte[] fieldsJson, @Nonnull String blobField,
+            @Nonnull String fileName, @Nullable File file, @Nullable InputStream stream, long blobLength) {
+        String boundary = "sf-api-connector-" + UUID.randomUUID();
+        setContentType("multipart/form-data; boundary=" + boundary);
+
+        ByteArrayOutputStream headBytes = new ByteArrayOutputStream();
+        writeAscii(headBytes, "--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + fieldsPartName +
+                "\"\r\nContent-Type: " + ContentType.APPLICATION_JSON + "\r\n\r\n");
+        headBytes.write(fieldsJson, 0, fieldsJson.length);
+        headBytes.write(CRLF, 0, CRLF.length);
+        // the file name may be any unicode, so the part headers are UTF-8 like the fields
+        writeUtf8(headBytes, "--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + blobField +
+                "\"; filename=\"" + fileName.replace("\"", "%22") + "\"\r\nContent-Type: " +
+                ContentType.APPLICATION_OCTET_STREAM.getMimeType() + "\r\n\r\n");
+        this.head = headBytes.toByteArray();
+
+        this.tail = ("\r\n--" + boundary + "--\r\n").getBytes(Charsets.US_ASCII);
+        this.file = file;
+        this.stream = stream;
+        this.blobLength = blobLength;
+    }
+
+    @Nonnull
+    static BlobMultipartEntity fromFile(@Nonnull String fieldsPartName, @Nonnull byte[] fieldsJson,
+            @Nonnull String blobField, @Nonnull String fileName, @Nonnull File file) {
+        return new BlobMultipartEntity(fieldsPartName, fieldsJson, blobField, fileName, file, null, file.length());
+    }
+
+    @Nonnull
+    static BlobMultipartEntity fromStream(@Nonnull String fieldsPartName, @Nonnull byte[] fieldsJson,
+            @Nonnull String blobField, @Nonnull String fileName, @Nonnull InputStream stream, long length) {
+        return new BlobMultipartEntity(fieldsPartName, fieldsJson, blobField, fileName, null, stream, length);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return this.file != null;
+    }
+
+    @Override
+    public long getContentLength() {
+        if (this.blobLength < 0) {
+            return -1;
+        }
+        return this.head.length + this.blobLength + this.tail.length;
+    }
+
+    /**
+     * The blob may be far too large to read back into memory, and a stream can only be read once, so requests are only
+     * ever sent with writeTo().
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        throw new UnsupportedOperationException("Multipart bodies can only be written, not read back");
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(outstream);
+        counter.write(this.head);
+
+        if (this.file != null) {
+            InputStream in = new FileInputStream(this.file);
+            try {
+                ByteStreams.copy(in, counter);
+            } finally {
+                in.close();
+            }
+        } else {
+            if (this.streamConsumed) {
+                throw new IOException("The content stream has already been sent and can't be sent again");
+            }
+            this.streamConsumed = true;
+            //noinspection ConstantConditions
+            ByteStreams.copy(this.stream, counter);
+        }
+
+        counter.write(this.tail);
+
+        long expectedLength = getContentLength();
+        if (expectedLength >= 0 && counter.getCount() != expectedLength) {
+            throw new IOException("Request body was " + counter.getCount() + " bytes but " + expectedLength +
+                    " were expected; did the content change while it was being sent?");
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return this.stream != null && !this.streamConsumed;
+    }
+
+    private static void writeAscii(@Nonnull ByteArrayOutputStream out, @Nonnull String str) {
+        byte[] bytes = str.getBytes(Charsets.US_ASCII);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeUtf8(@Nonnull ByteArrayOutputStream out, @Nonnull String str) {
+        byte[] bytes = str.getBytes(Charsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a blob download fails after part of it has already been written. It isn't retried, since the bytes
+ * already written can't be taken back; the caller has to discard them and start over.
+ */
+public class BlobTransferException extends IOException {
+
+    private final long bytesTransferred;
+
+    public BlobTransferException(String message, long bytesTransferred, Throwable cause) {
+        super(message, cause);
+        this.bytesTransferred = bytesTransferred;
+    }
+
+    /**
+     * @return how many bytes had been written when the download failed
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+}
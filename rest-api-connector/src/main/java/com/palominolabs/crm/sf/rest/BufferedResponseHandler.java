@@ -0,0 +1,39 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+
+/**
+ * Consumes the body of a successful response after it has been read into memory, for handlers that keep the raw body
+ * to decode parts of it later.
+ *
+ * @param <T> the type read from the response body
+ */
+interface BufferedResponseHandler<T> {
+
+    /**
+     * @param body the whole response body. The handler may keep it; nothing else refers to it.
+     *
+     * @return the value read from the response body
+     *
+     * @throws IOException if the body did not have the expected structure
+     */
+    @Nonnull
+    T handle(@Nonnull byte[] body) throws IOException;
+}
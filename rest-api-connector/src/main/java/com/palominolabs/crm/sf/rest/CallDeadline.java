@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.google.common.base.Ticker;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which a call must finish.
+ */
+@Immutable
+final class CallDeadline {
+
+    private final Ticker ticker;
+
+    private final long deadlineNanos;
+
+    /**
+     * @param timeout how long from now the deadline is
+     * @param unit    unit of timeout
+     * @param ticker  time source
+     */
+    CallDeadline(long timeout, @Nonnull TimeUnit unit, @Nonnull Ticker ticker) {
+        this.ticker = ticker;
+        this.deadlineNanos = ticker.read() + unit.toNanos(timeout);
+    }
+
+    /**
+     * @return nanos until the deadline, or 0 if it has passed
+     */
+    long getRemainingNanos() {
+        return Math.max(0, this.deadlineNanos - this.ticker.read());
+    }
+
+    boolean isExpired() {
+        return this.deadlineNanos - this.ticker.read() <= 0;
+    }
+
+    /**
+     * @return millis until the deadline, for use as an HttpClient timeout. At least 1, since 0 means no timeout.
+     */
+    int getRemainingTimeoutMillis() {
+        long millis = TimeUnit.NANOSECONDS.toMillis(getRemainingNanos());
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, millis));
+    }
+
+    /**
+     * @param activity what was being done, e.g. "sending GET https://..."
+     *
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    void check(@Nonnull String activity) throws DeadlineExceededException {
+        if (isExpired()) {
+            throw newException(activity, null);
+        }
+    }
+
+    @Nonnull
+    DeadlineExceededException newException(@Nonnull String activity, @Nullable Throwable cause) {
+        String message = "Deadline passed while " + activity;
+        return cause == null ? new DeadlineExceededException(message) : new DeadlineExceededException(message, cause);
+    }
+}
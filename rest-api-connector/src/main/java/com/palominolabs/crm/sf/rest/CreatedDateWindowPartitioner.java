@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Partitions a query by CreatedDate into windows of the same length. Unlike {@link IdRangePartitioner} this works for
+ * queries across a relationship or of objects whose Ids aren't spread evenly, but needs an index on CreatedDate to be
+ * fast, which Salesforce has for most objects.
+ *
+ * The first window also matches every record created before start and the last window every record created after end.
+ */
+@Immutable
+public final class CreatedDateWindowPartitioner implements QueryPartitioner {
+
+    private final ImmutableList<String> conditions;
+
+    /**
+     * @param start      start of the first window
+     * @param end        end of the last window. Must not be before start.
+     * @param partitions how many windows to split into. Window boundaries are whole seconds, so there may be fewer
+     *                   windows if start and end are less than that many seconds apart.
+     */
+    public CreatedDateWindowPartitioner(@Nonnull Date start, @Nonnull Date end, int partitions) {
+        checkArgument(partitions > 0, "Partitions must be at least 1, was %s", partitions);
+        checkArgument(!end.before(start), "End <%s> is before start <%s>", end, start);
+
+        // SimpleDateFormat isn't thread safe
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        long span = end.getTime() - start.getTime();
+        long secondMillis = TimeUnit.SECONDS.toMillis(1);
+
+        List<String> boundaries = Lists.newArrayList();
+        for (int i = 1; i < partitions; i++) {
+            long boundary = start.getTime() + (long) ((double) span * i / partitions);
+            boundary -= boundary % secondMillis;
+            if (boundary <= start.getTime()) {
+                continue;
+            }
+
+            String literal = format.format(new Date(boundary));
+            if (boundaries.isEmpty() || !boundaries.get(boundaries.size() - 1).equals(literal)) {
+                boundaries.add(literal);
+            }
+        }
+
+        this.conditions = PartitionedQueries.getRangeConditions("CreatedDate", boundaries);
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getConditions() {
+        return this.conditions;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Counter;
+import com.google.common.base.Ticker;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parsed describe results for one org, keyed by sObject type.
+ *
+ * Two threads that miss on the same key at the same time will both fetch it; describes change rarely enough that this
+ * isn't worth coordinating.
+ */
+@ThreadSafe
+final class DescribeCache {
+
+    /**
+     * key for describeGlobal(). sObject types are never empty.
+     */
+    static final String GLOBAL_KEY = "";
+
+    private final long ttlNanos;
+
+    private final Ticker ticker;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter revalidations;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * @param config        cache settings
+     * @param ticker        time source for TTLs
+     * @param hits          counter for results used without a request
+     * @param misses        counter for results that were downloaded and parsed
+     * @param revalidations counter for expired results that Salesforce confirmed were unchanged
+     */
+    DescribeCache(@Nonnull DescribeCacheConfig config, @Nonnull Ticker ticker, @Nonnull Counter hits,
+            @Nonnull Counter misses, @Nonnull Counter revalidations) {
+        this.ttlNanos = config.getTtlNanos();
+        this.ticker = ticker;
+        this.hits = hits;
+        this.misses = misses;
+        this.revalidations = revalidations;
+    }
+
+    /**
+     * @param key     sObject type, or GLOBAL_KEY
+     * @param type    the type of result stored under key
+     * @param fetcher fetches and parses the result if the cached one is missing or expired
+     * @param <T>     the type of result
+     *
+     * @return the cached result if it is fresh or unchanged, otherwise the newly fetched result
+     *
+     * @throws IOException if the result needed to be fetched and couldn't be
+     */
+    @Nonnull
+    <T> T get(@Nonnull String key, @Nonnull Class<T> type, @Nonnull Fetcher<T> fetcher) throws IOException {
+        Entry entry = this.entries.get(key);
+
+        if (entry != null && this.ticker.read() - entry.fetchedAt < this.ttlNanos) {
+            this.hits.inc();
+            return type.cast(entry.value);
+        }
+
+        Response response = entry == null ? fetcher.fetch(null, null) : fetcher.fetch(entry.lastModified, entry.eTag);
+
+        if (response.notModified) {
+            if (entry == null) {
+                throw new IOException("Got 304 Not Modified for <" + key + "> without a conditional request");
+            }
+
+            this.revalidations.inc();
+            this.entries.put(key, new Entry(entry.value, entry.lastModified, entry.eTag, this.ticker.read()));
+            return type.cast(entry.value);
+        }
+
+        this.misses.inc();
+        T value = fetcher.parse(response.body);
+        this.entries.put(key, new Entry(value, response.lastModified, response.eTag, this.ticker.read()));
+        return value;
+    }
+
+    /**
+     * Discard every cached result, so the next call for each downloads it in full.
+     */
+    void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * Fetches and parses one describe.
+     *
+     * @param <T> the type of result
+     */
+    interface Fetcher<T> {
+
+        /**
+         * @param lastModified Last-Modified of the cached result, or null if there isn't one
+         * @param eTag         ETag of the cached result, or null if there isn't one
+         *
+         * @return the response
+         *
+         * @throws IOException on error
+         */
+        @Nonnull
+        Response fetch(@Nullable String lastModified, @Nullable String eTag) throws IOException;
+
+        /**
+         * @param body body of a response that wasn't 304
+         *
+         * @return the parsed result
+         *
+         * @throws IOException on error
+         */
+        @Nonnull
+        T parse(@Nullable String body) throws IOException;
+    }
+
+    /**
+     * The result of a conditional describe request.
+     */
+    @Immutable
+    static final class Response {
+
+        private static final Response NOT_MODIFIED = new Response(true, null, null, null);
+
+        private final boolean notModified;
+
+        @CheckForNull
+        private final String body;
+
+        @CheckForNull
+        private final String lastModified;
+
+        @CheckForNull
+        private final String eTag;
+
+        private Response(boolean notModified, @Nullable String body, @Nullable String lastModified,
+                @Nullable String eTag) {
+            this.notModified = notModified;
+            this.body = body;
+            this.lastModified = lastModified;
+            this.eTag = eTag;
+        }
+
+        @Nonnull
+        static Response getNotModified() {
+            return NOT_MODIFIED;
+        }
+
+        /**
+         * @param body         response body
+         * @param lastModified value to send as If-Modified-Since to revalidate, or null
+         * @param eTag         value to send as If-None-Match to revalidate, or null
+         *
+         * @return a response with a new result
+         */
+        @Nonnull
+        static Response getModified(@Nullable String body, @Nullable String lastModified, @Nullable String eTag) {
+            return new Response(false, body, lastModified, eTag);
+        }
+    }
+
+    @Immutable
+    private static final class Entry {
+
+        private final Object value;
+
+        @CheckForNull
+        private final String lastModified;
+
+        @CheckForNull
+        private final String eTag;
+
+        private final long fetchedAt;
+
+        private Entry(Object value, @Nullable String lastModified, @Nullable String eTag, long fetchedAt) {
+            this.value = value;
+            this.lastModified = lastModified;
+            this.eTag = eTag;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
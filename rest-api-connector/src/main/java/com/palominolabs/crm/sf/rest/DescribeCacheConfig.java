@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Opts a RestConnectionPool in to caching describeGlobal() and describeSObject() results per org.
+ *
+ * A cached result is returned as is until it is older than the TTL. After that, the next call asks Salesforce whether
+ * the describe has changed (If-Modified-Since, and If-None-Match when Salesforce has provided an ETag). If it hasn't,
+ * the cached result is used again for another TTL without downloading or parsing anything.
+ */
+@Immutable
+public final class DescribeCacheConfig {
+
+    private final long ttlNanos;
+
+    /**
+     * @param ttl  how long to use a cached describe without checking whether it has changed. 0 checks every time,
+     *             which still saves downloading and parsing describes that haven't changed.
+     * @param unit unit of ttl
+     */
+    public DescribeCacheConfig(long ttl, TimeUnit unit) {
+        checkArgument(ttl >= 0, "TTL must not be negative, was %s", ttl);
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    public long getTtlNanos() {
+        return this.ttlNanos;
+    }
+}
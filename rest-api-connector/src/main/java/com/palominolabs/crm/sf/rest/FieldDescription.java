@@ -17,10 +17,16 @@
 package com.palominolabs.crm.sf.rest;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
+import com.palominolabs.crm.sf.core.DependentPicklistIndex;
+import com.palominolabs.crm.sf.core.ImmutableBitSet;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.util.ArrayList;
 import java.util.List;
@@ -28,6 +34,14 @@ import java.util.List;
 @Immutable
 public final class FieldDescription {
 
+    private static final Function<PicklistEntry, ImmutableBitSet> VALID_FOR =
+            new Function<PicklistEntry, ImmutableBitSet>() {
+                @Override
+                public ImmutableBitSet apply(PicklistEntry entry) {
+                    return entry.getValidFor();
+                }
+            };
+
     private final int length;
     private final String name;
     private final String type;
@@ -72,6 +86,12 @@ public final class FieldDescription {
     private final boolean permissionable;
     private final boolean displayLocationInDecimal;
 
+    /**
+     * built on first use. Two threads may both build it, which is harmless since it's immutable.
+     */
+    @Nullable
+    private transient volatile DependentPicklistIndex<PicklistEntry> dependentPicklistIndex;
+
     @JsonCreator
     FieldDescription(
             @JsonProperty("length") int length,
@@ -320,6 +340,23 @@ public final class FieldDescription {
         return dependentPicklist;
     }
 
+    /**
+     * Built the first time it's needed and kept, so a cached describe only builds it once.
+     *
+     * @return the picklist values that are valid for each value of the controlling field. Empty if this isn't a
+     *         dependent picklist.
+     */
+    @JsonIgnore
+    @Nonnull
+    public DependentPicklistIndex<PicklistEntry> getDependentPicklistIndex() {
+        DependentPicklistIndex<PicklistEntry> index = this.dependentPicklistIndex;
+        if (index == null) {
+            index = DependentPicklistIndex.of(this.picklistValues, VALID_FOR);
+            this.dependentPicklistIndex = index;
+        }
+        return index;
+    }
+
     public boolean isWriteRequiresMasterRead() {
         return writeRequiresMasterRead;
     }
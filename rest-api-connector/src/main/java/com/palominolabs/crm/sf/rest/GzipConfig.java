@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import javax.annotation.concurrent.Immutable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Opts a RestConnectionPool in to gzip compression of REST request and response bodies.
+ */
+@Immutable
+public final class GzipConfig {
+
+    /**
+     * Below about this size, the gzip header and trailer make compression a net loss.
+     */
+    public static final int DEFAULT_MIN_REQUEST_BODY_SIZE = 1024;
+
+    private final int minRequestBodySize;
+
+    /**
+     * Compress request bodies of at least {@link #DEFAULT_MIN_REQUEST_BODY_SIZE} bytes.
+     */
+    public GzipConfig() {
+        this(DEFAULT_MIN_REQUEST_BODY_SIZE);
+    }
+
+    /**
+     * @param minRequestBodySize create, update and upsert bodies of at least this many bytes (before compression) are
+     *                           sent compressed. Use Integer.MAX_VALUE to only compress responses.
+     */
+    public GzipConfig(int minRequestBodySize) {
+        checkArgument(minRequestBodySize >= 0, "Min request body size must not be negative, was %s",
+                minRequestBodySize);
+        this.minRequestBodySize = minRequestBodySize;
+    }
+
+    /**
+     * @return the smallest request body, in bytes, that will be compressed
+     */
+    public int getMinRequestBodySize() {
+        return this.minRequestBodySize;
+    }
+}
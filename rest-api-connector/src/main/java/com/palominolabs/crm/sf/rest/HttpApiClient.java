@@ -16,25 +16,35 @@
 
 package com.palominolabs.crm.sf.rest;
 
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.palominolabs.crm.sf.core.CompactSObject;
+import com.palominolabs.crm.sf.core.FieldVisitor;
 import com.palominolabs.crm.sf.core.Id;
 import com.palominolabs.crm.sf.core.SObject;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.Configurable;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
@@ -45,14 +55,19 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A lightweight wrapper around HTTP that handles errors and makes requests to the SF Rest endpoint urls.
@@ -61,8 +76,31 @@ import java.util.Map;
 final class HttpApiClient {
 
     static final String API_VERSION = "28.0";
+
+    /**
+     * The composite resources only exist in this version and later
+     */
+    static final String COMPOSITE_API_VERSION = "34.0";
+
+    /**
+     * The sObject Collections resource (including upsert) only exists in this version and later
+     */
+    static final String SOBJECT_COLLECTIONS_API_VERSION = "46.0";
+
+    private static final String SOBJECT_COLLECTIONS_PATH =
+            "/services/data/v" + SOBJECT_COLLECTIONS_API_VERSION + "/composite/sobjects";
+
+    private static final String DATA_PATH = "/services/data/";
     static final TypeReference<List<ApiErrorImpl>> API_ERRORS_TYPE = new TypeReference<List<ApiErrorImpl>>() { };
     private static final String UPLOAD_CONTENT_TYPE = "application/json";
+    private static final String QUERY_OPTIONS_HEADER = "Sforce-Query-Options";
+    private static final int BLOB_BUFFER_SIZE = 8192;
+
+    /**
+     * Multipart names of the part with the fields, for the types whose docs give one other than entity_content
+     */
+    private static final ImmutableMap<String, String> FIELDS_PART_NAMES =
+            ImmutableMap.of("Document", "entity_document", "Attachment", "entity_attachment");
 
     private static final Logger logger = LoggerFactory.getLogger(HttpApiClient.class);
 
@@ -70,197 +108,1271 @@ final class HttpApiClient {
     private final String host;
 
     @Nonnull
-    private final String oauthToken;
+    private final String oauthToken;
+
+    @Nonnull
+    private final ObjectMapper objectMapper;
+
+    @Nonnull
+    private final HttpClient client;
+
+    /**
+     * null if gzip is not in use
+     */
+    @Nullable
+    private final HttpCompression compression;
+
+    /**
+     * null if requests to the org are not limited
+     */
+    @Nullable
+    private final OrgRequestLimiter limiter;
+
+    /**
+     * null if failed requests are not retried
+     */
+    @Nullable
+    private final OrgRequestRetrier retrier;
+
+    /**
+     * null if describes are not cached
+     */
+    @Nullable
+    private final DescribeCache describeCache;
+
+    /**
+     * null if rejected tokens are not refreshed
+     */
+    @Nullable
+    private final OrgTokenRefresher tokenRefresher;
+
+    /**
+     * null if sizes and time breakdowns are not recorded
+     */
+    @Nullable
+    private final OrgHttpMetrics metrics;
+
+    /**
+     * null if calls are not bounded
+     */
+    @Nullable
+    private final CallDeadline deadline;
+
+    HttpApiClient(@Nonnull String host, @Nonnull String oauthToken, @Nonnull ObjectMapper objectMapper,
+            @Nonnull HttpClient client) {
+        this(builder(host, oauthToken, objectMapper, client));
+    }
+
+    private HttpApiClient(@Nonnull Builder builder) {
+        this.host = builder.host;
+        this.oauthToken = builder.oauthToken;
+        this.objectMapper = builder.objectMapper;
+        this.client = builder.client;
+        this.compression = builder.compression;
+        this.limiter = builder.limiter;
+        this.retrier = builder.retrier;
+        this.describeCache = builder.describeCache;
+        this.tokenRefresher = builder.tokenRefresher;
+        this.metrics = builder.metrics;
+        this.deadline = null;
+    }
+
+    private HttpApiClient(@Nonnull HttpApiClient original, @Nonnull String oauthToken,
+            @Nullable CallDeadline deadline) {
+        this.host = original.host;
+        this.oauthToken = oauthToken;
+        this.objectMapper = original.objectMapper;
+        this.client = original.client;
+        this.compression = original.compression;
+        this.limiter = original.limiter;
+        this.retrier = original.retrier;
+        this.describeCache = original.describeCache;
+        this.tokenRefresher = original.tokenRefresher;
+        this.metrics = original.metrics;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param host         host to connect to
+     * @param oauthToken   oauth token
+     * @param objectMapper object mapper
+     * @param client       http client
+     *
+     * @return a builder for a client that doesn't compress, limit, retry, cache, refresh or record anything until
+     * told to
+     */
+    @Nonnull
+    static Builder builder(@Nonnull String host, @Nonnull String oauthToken, @Nonnull ObjectMapper objectMapper,
+            @Nonnull HttpClient client) {
+        return new Builder(host, oauthToken, objectMapper, client);
+    }
+
+    @Nonnull
+    String getHost() {
+        return host;
+    }
+
+    @Nonnull
+    String getOAuthToken() {
+        return oauthToken;
+    }
+
+    @CheckForNull
+    DescribeCache getDescribeCache() {
+        return describeCache;
+    }
+
+    @CheckForNull
+    OrgTokenRefresher getTokenRefresher() {
+        return tokenRefresher;
+    }
+
+    @CheckForNull
+    HttpCompression getCompression() {
+        return compression;
+    }
+
+    @CheckForNull
+    OrgRequestLimiter getLimiter() {
+        return limiter;
+    }
+
+    @CheckForNull
+    OrgRequestRetrier getRetrier() {
+        return retrier;
+    }
+
+    @CheckForNull
+    OrgHttpMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the most requests the limiter lets be in flight at once, or Integer.MAX_VALUE if there's no limiter
+     */
+    int getMaxConcurrentRequests() {
+        return this.limiter == null ? Integer.MAX_VALUE : this.limiter.getMaxConcurrentRequests();
+    }
+
+    /**
+     * @param newOAuthToken the token to use instead
+     *
+     * @return a client that is the same as this one except for its token
+     */
+    @Nonnull
+    HttpApiClient withOAuthToken(@Nonnull String newOAuthToken) {
+        return new HttpApiClient(this, newOAuthToken, this.deadline);
+    }
+
+    /**
+     * @param newDeadline the deadline for every call made with the returned client
+     *
+     * @return a client that is the same as this one except that its calls fail with a DeadlineExceededException once
+     * the deadline passes
+     */
+    @Nonnull
+    HttpApiClient withDeadline(@Nonnull CallDeadline newDeadline) {
+        return new HttpApiClient(this, this.oauthToken, newDeadline);
+    }
+
+    @CheckForNull
+    String describeGlobal() throws IOException {
+        return executeRequestForString("describeGlobal", newDescribeGlobalRequest());
+    }
+
+    @CheckForNull
+    String describeSObject(String sObjectType) throws IOException {
+        return executeRequestForString("describeSObject", newDescribeSObjectRequest(sObjectType));
+    }
+
+    @Nonnull
+    DescribeCache.Response describeGlobal(@Nullable String lastModified, @Nullable String eTag) throws IOException {
+        return executeConditionalRequest("describeGlobal", newDescribeGlobalRequest(), lastModified, eTag);
+    }
+
+    @Nonnull
+    DescribeCache.Response describeSObject(String sObjectType, @Nullable String lastModified, @Nullable String eTag)
+            throws IOException {
+        return executeConditionalRequest("describeSObject", newDescribeSObjectRequest(sObjectType), lastModified, eTag);
+    }
+
+    @CheckForNull
+    String basicSObjectInfo(String sObjectType) throws IOException {
+        return executeRequestForString("getBasicSObjectInfo", newBasicSObjectInfoRequest(sObjectType));
+    }
+
+    @CheckForNull
+    String create(SObject sObject) throws IOException {
+        return executeRequestForString("create", newCreateRequest(sObject));
+    }
+
+    /**
+     * @param sObject   the sObject to create, without the blob field set
+     * @param blobField the blob field
+     * @param fileName  file name to send with the contents
+     * @param file      file to read the contents from
+     *
+     * @return response body
+     *
+     * @throws IOException on error
+     */
+    @CheckForNull
+    String createWithBlob(SObject sObject, String blobField, String fileName, File file) throws IOException {
+        return executeRequestForString("createWithBlob", newCreateWithBlobRequest(sObject,
+                BlobMultipartEntity.fromFile(getFieldsPartName(sObject.getType()), getSObjectFieldsJson(sObject),
+                        blobField, fileName, file)));
+    }
+
+    /**
+     * @param sObject   the sObject to create, without the blob field set
+     * @param blobField the blob field
+     * @param fileName  file name to send with the contents
+     * @param content   stream to read the contents from. It is not closed.
+     * @param length    length of the contents, or -1 if it isn't known
+     *
+     * @return response body
+     *
+     * @throws IOException on error
+     */
+    @CheckForNull
+    String createWithBlob(SObject sObject, String blobField, String fileName, InputStream content, long length)
+            throws IOException {
+        return executeRequestForString("createWithBlob", newCreateWithBlobRequest(sObject,
+                BlobMultipartEntity.fromStream(getFieldsPartName(sObject.getType()), getSObjectFieldsJson(sObject),
+                        blobField, fileName, content, length)));
+    }
+
+    void delete(String sObjectType, Id id) throws IOException {
+        executeRequestForString("delete", newDeleteRequest(sObjectType, id));
+    }
+
+    @Nonnull
+    <T> T query(String soql, JsonResponseHandler<T> handler) throws IOException {
+        return executeRequest("query", newQueryRequest(soql), handler);
+    }
+
+    @Nonnull
+    <T> T query(String soql, RestQueryOptions options, JsonResponseHandler<T> handler) throws IOException {
+        return executeRequest("query", newQueryRequest(soql, options), handler);
+    }
+
+    @Nonnull
+    <T> T query(String soql, RestQueryOptions options, BufferedResponseHandler<T> handler) throws IOException {
+        return executeBufferedRequest("query", newQueryRequest(soql, options), handler);
+    }
+
+    @Nonnull
+    <T> T queryMore(RestQueryLocator queryLocator, JsonResponseHandler<T> handler) throws IOException {
+        return executeRequest("queryMore", newQueryMoreRequest(queryLocator), handler);
+    }
+
+    @Nonnull
+    <T> T queryMore(RestQueryLocator queryLocator, BufferedResponseHandler<T> handler) throws IOException {
+        return executeBufferedRequest("queryMore", newQueryMoreRequest(queryLocator), handler);
+    }
+
+    @Nonnull
+    <T> T search(String sosl, JsonResponseHandler<T> handler) throws IOException {
+        return executeRequest("search", newSearchRequest(sosl), handler);
+    }
+
+    @Nonnull
+    <T> T retrieve(String sObjectType, Id id, List<String> fields, JsonResponseHandler<T> handler)
+            throws IOException {
+        return executeRequest("retrieve", newRetrieveRequest(sObjectType, id, fields), handler);
+    }
+
+    /**
+     * @param sObjectType the sObject type, e.g. ContentVersion
+     * @param id          the record's id
+     * @param blobField   the blob field, e.g. VersionData
+     * @param out         stream to write the blob to. It is not closed.
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException on error. Failures after bytes have been written are BlobTransferExceptions and are not
+     *                     retried.
+     */
+    long retrieveBlob(String sObjectType, Id id, String blobField, final OutputStream out) throws IOException {
+        final HttpUriRequest request = newRetrieveBlobRequest(sObjectType, id, blobField);
+        return executeWithRetries("retrieveBlob", request, new ResponseProcessor<Long>() {
+            @Nonnull
+            @Override
+            public Long process(@Nonnull HttpResponse response) throws IOException {
+                return handleBlobResponse(request, response, out);
+            }
+        });
+    }
+
+    void update(SObject sObject) throws IOException {
+        executeRequestForString("update", newUpdateRequest(sObject));
+    }
+
+    /**
+     * @param sObject         sObject to upsert
+     * @param externalIdField field name of external id field
+     *
+     * @return http status code
+     *
+     * @throws IOException on error
+     */
+    int upsert(SObject sObject, String externalIdField) throws IOException {
+        ProcessedResponse processedResponse = executeRequest("upsert", newUpsertRequest(sObject, externalIdField));
+        return processedResponse.getHttpResponse().getStatusLine().getStatusCode();
+    }
+
+    @Nonnull
+    <T> T createCollection(List<? extends SObject> sObjects, boolean allOrNone, JsonResponseHandler<T> handler)
+            throws IOException {
+        return executeRequest("createCollection", newCreateCollectionRequest(sObjects, allOrNone), handler);
+    }
+
+    @Nonnull
+    <T> T updateCollection(List<? extends SObject> sObjects, boolean allOrNone, JsonResponseHandler<T> handler)
+            throws IOException {
+        return executeRequest("updateCollection", newUpdateCollectionRequest(sObjects, allOrNone), handler);
+    }
+
+    @Nonnull
+    <T> T upsertCollection(String sObjectType, String externalIdField, List<? extends SObject> sObjects,
+            boolean allOrNone, JsonResponseHandler<T> handler) throws IOException {
+        return executeRequest("upsertCollection",
+                newUpsertCollectionRequest(sObjectType, externalIdField, sObjects, allOrNone), handler);
+    }
+
+    @Nonnull
+    <T> T deleteCollection(List<Id> ids, boolean allOrNone, JsonResponseHandler<T> handler) throws IOException {
+        return executeRequest("deleteCollection", newDeleteCollectionRequest(ids, allOrNone), handler);
+    }
+
+    @Nonnull
+    <T> T compositeBatch(List<HttpUriRequest> subRequests, List<SObject> bodies, boolean haltOnError,
+            JsonResponseHandler<T> handler) throws IOException {
+        return executeRequest("compositeBatch", newCompositeBatchRequest(subRequests, bodies, haltOnError), handler);
+    }
+
+    /*
+     * The request factories and response handlers below are the halves of the operations above that don't depend on
+     * how the request is executed, so that they can be shared with AsyncRestConnectionImpl. A request must go through
+     * prepareRequest() before it is sent.
+     */
+
+    @Nonnull
+    HttpUriRequest newDescribeGlobalRequest() throws IOException {
+        return new HttpGet(getUri("/sobjects/"));
+    }
+
+    @Nonnull
+    HttpUriRequest newDescribeSObjectRequest(String sObjectType) throws IOException {
+        return new HttpGet(getUri("/sobjects/" + sObjectType + "/describe"));
+    }
+
+    @Nonnull
+    HttpUriRequest newBasicSObjectInfoRequest(String sObjectType) throws IOException {
+        return new HttpGet(getUri("/sobjects/" + sObjectType));
+    }
+
+    @Nonnull
+    HttpUriRequest newCreateRequest(SObject sObject) throws IOException {
+        HttpPost post = new HttpPost(getUri("/sobjects/" + sObject.getType() + "/"));
+        post.setEntity(getEntityForSObjectFieldsJson(sObject));
+        post.addHeader("Content-Type", UPLOAD_CONTENT_TYPE);
+        return post;
+    }
+
+    /**
+     * @param sObject the sObject to create
+     * @param entity  multipart body of the sObject's fields and the blob field's contents
+     *
+     * @return a request for the multipart form of the sObject resource. The body isn't compressed, since blobs are
+     * often compressed already and gzipping them would only cost time.
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    HttpUriRequest newCreateWithBlobRequest(SObject sObject, BlobMultipartEntity entity) throws IOException {
+        HttpPost post = new HttpPost(getUri("/sobjects/" + sObject.getType() + "/"));
+        post.setEntity(entity);
+        return post;
+    }
+
+    /**
+     * @param sObjectType the sObject type
+     *
+     * @return the name Salesforce expects for the part with the fields of a multipart create
+     */
+    @Nonnull
+    private static String getFieldsPartName(@Nonnull String sObjectType) {
+        String partName = FIELDS_PART_NAMES.get(sObjectType);
+        return partName == null ? "entity_content" : partName;
+    }
+
+    @Nonnull
+    HttpUriRequest newDeleteRequest(String sObjectType, Id id) throws IOException {
+        return new HttpDelete(getUri("/sobjects/" + sObjectType + "/" + id));
+    }
+
+    @Nonnull
+    HttpUriRequest newQueryRequest(String soql) throws IOException {
+        return new HttpGet(getUri("/query", new BasicNameValuePair("q", soql)));
+    }
+
+    @Nonnull
+    HttpUriRequest newQueryRequest(String soql, RestQueryOptions options) throws IOException {
+        HttpUriRequest request = newQueryRequest(soql);
+        request.addHeader(QUERY_OPTIONS_HEADER, options.getHeaderValue());
+        return request;
+    }
+
+    /**
+     * @param queryLocator locator of the next page. If it is from a query with options, they are sent again.
+     *
+     * @return a request for the next page
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    HttpUriRequest newQueryMoreRequest(RestQueryLocator queryLocator) throws IOException {
+        HttpUriRequest request = new HttpGet(getUriForPath(queryLocator.getContents()));
+        RestQueryOptions options = queryLocator.getOptions();
+        if (options != null) {
+            request.addHeader(QUERY_OPTIONS_HEADER, options.getHeaderValue());
+        }
+        return request;
+    }
+
+    @Nonnull
+    HttpUriRequest newSearchRequest(String sosl) throws IOException {
+        return new HttpGet(getUri("/search", new BasicNameValuePair("q", sosl)));
+    }
+
+    @Nonnull
+    HttpUriRequest newRetrieveRequest(String sObjectType, Id id, List<String> fields) throws IOException {
+        return new HttpGet(getUri("/sobjects/" + sObjectType + "/" + id,
+                new BasicNameValuePair("fields", StringUtils.join(fields, ","))));
+    }
+
+    @Nonnull
+    HttpUriRequest newRetrieveBlobRequest(String sObjectType, Id id, String blobField) throws IOException {
+        return new HttpGet(getUri("/sobjects/" + sObjectType + "/" + id + "/" + blobField));
+    }
+
+    @Nonnull
+    HttpUriRequest newUpdateRequest(SObject sObject) throws IOException {
+        HttpPatch patch = new HttpPatch(getUri("/sobjects/" + sObject.getType() + "/" + sObject.getId()));
+        patch.setEntity(getEntityForSObjectFieldsJson(sObject));
+        patch.addHeader("Content-Type", UPLOAD_CONTENT_TYPE);
+        return patch;
+    }
+
+    @Nonnull
+    HttpUriRequest newUpsertRequest(SObject sObject, String externalIdField) throws IOException {
+        HttpPatch patch =
+                new HttpPatch(getUri("/sobjects/" + sObject.getType() + "/" + externalIdField + "/" +
+                        sObject.getField(externalIdField)));
+        patch.setEntity(getEntityForSObjectFieldsJson(sObject));
+        patch.addHeader("Content-Type", UPLOAD_CONTENT_TYPE);
+        return patch;
+    }
+
+    @Nonnull
+    HttpUriRequest newCreateCollectionRequest(List<? extends SObject> sObjects, boolean allOrNone)
+            throws IOException {
+        HttpPost post = new HttpPost(getUriForPath(SOBJECT_COLLECTIONS_PATH));
+        post.setEntity(getEntityForJson(getCollectionBody(sObjects, allOrNone)));
+        post.addHeader("Content-Type", UPLOAD_CONTENT_TYPE);
+        return post;
+    }
+
+    @Nonnull
+    HttpUriRequest newUpdateCollectionRequest(List<? extends SObject> sObjects, boolean allOrNone)
+            throws IOException {
+        HttpPatch patch = new HttpPatch(getUriForPath(SOBJECT_COLLECTIONS_PATH));
+        patch.setEntity(getEntityForJson(getCollectionBody(sObjects, allOrNone)));
+        patch.addHeader("Content-Type", UPLOAD_CONTENT_TYPE);
+        return patch;
+    }
+
+    @Nonnull
+    HttpUriRequest newUpsertCollectionRequest(String sObjectType, String externalIdField,
+            List<? extends SObject> sObjects, boolean allOrNone) throws IOException {
+        HttpPatch patch =
+                new HttpPatch(getUriForPath(SOBJECT_COLLECTIONS_PATH + "/" + sObjectType + "/" + externalIdField));
+        patch.setEntity(getEntityForJson(getCollectionBody(sObjects, allOrNone)));
+        patch.addHeader("Content-Type", UPLOAD_CONTENT_TYPE);
+        return patch;
+    }
+
+    @Nonnull
+    HttpUriRequest newDeleteCollectionRequest(List<Id> ids, boolean allOrNone) throws IOException {
+        List<NameValuePair> params = Arrays.<NameValuePair>asList(
+                new BasicNameValuePair("ids", StringUtils.join(ids, ",")),
+                new BasicNameValuePair("allOrNone", Boolean.toString(allOrNone)));
+        return new HttpDelete(getUriForPath(SOBJECT_COLLECTIONS_PATH, params));
+    }
+
+    /**
+     * Bundle requests from the other factory methods into one composite batch request. Only their method, url and body
+     * are used.
+     *
+     * @param subRequests requests to bundle
+     * @param bodies      for each sub request, the sObject whose fields are the body of the request, or null
+     * @param haltOnError true to skip the remaining sub requests after one fails
+     *
+     * @return a request for the batch
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    HttpUriRequest newCompositeBatchRequest(@Nonnull List<HttpUriRequest> subRequests,
+            @Nonnull List<SObject> bodies, final boolean haltOnError) throws IOException {
+        final List<String> methods = Lists.newArrayListWithCapacity(subRequests.size());
+        final List<String> urls = Lists.newArrayListWithCapacity(subRequests.size());
+        final List<BodyFields> bodyFields = Lists.newArrayListWithCapacity(subRequests.size());
+
+        for (int i = 0; i < subRequests.size(); i++) {
+            HttpUriRequest subRequest = subRequests.get(i);
+            methods.add(subRequest.getMethod());
+            urls.add(getCompositeSubRequestUrl(subRequest.getURI()));
+
+            SObject body = bodies.get(i);
+            bodyFields.add(body == null ? null : snapshotFields(body));
+        }
+
+        HttpPost post = new HttpPost(getUriForPath("/services/data/v" + COMPOSITE_API_VERSION + "/composite/batch"));
+        post.setEntity(getEntityForJson(new JsonEntity.JsonBody() {
+            @Override
+            public void writeTo(@Nonnull JsonGenerator jsonGenerator) throws IOException {
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeBooleanField("haltOnError", haltOnError);
+                jsonGenerator.writeArrayFieldStart("batchRequests");
+
+                for (int i = 0; i < methods.size(); i++) {
+                    jsonGenerator.writeStartObject();
+                    jsonGenerator.writeStringField("method", methods.get(i));
+                    jsonGenerator.writeStringField("url", urls.get(i));
+
+                    BodyFields fields = bodyFields.get(i);
+                    if (fields != null) {
+                        jsonGenerator.writeFieldName("richInput");
+                        jsonGenerator.writeStartObject();
+                        fields.writeTo(jsonGenerator);
+                        jsonGenerator.writeEndObject();
+                    }
+                    jsonGenerator.writeEndObject();
+                }
+
+                jsonGenerator.writeEndArray();
+                jsonGenerator.writeEndObject();
+            }
+        }));
+        post.addHeader("Content-Type", UPLOAD_CONTENT_TYPE);
+        return post;
+    }
+
+    /**
+     * @param uri full uri of a request
+     *
+     * @return the uri as the composite api wants it in a sub request: relative to /services/data/
+     */
+    @Nonnull
+    static String getCompositeSubRequestUrl(@Nonnull URI uri) {
+        String path = uri.getRawPath();
+        if (path.startsWith(DATA_PATH)) {
+            path = path.substring(DATA_PATH.length());
+        }
+
+        return uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery();
+    }
+
+    /**
+     * Add the headers every request needs.
+     *
+     * @param request a request from one of the request factory methods
+     */
+    void prepareRequest(@Nonnull HttpUriRequest request) {
+        request.addHeader("Authorization", "OAuth " + this.oauthToken);
+        if (this.compression != null) {
+            this.compression.addAcceptEncoding(request);
+        }
+        if (this.metrics != null) {
+            this.metrics.recordRequestSize(request);
+        }
+    }
+
+    /**
+     * Unlike the other response handling, the body of a successful response is never buffered here: it is handed to
+     * the handler as it is read. Error responses are read in full so that the usual ApiException can be built.
+     *
+     * @param request  the request
+     * @param response the response to the request
+     * @param handler  handler for a successful response body
+     * @param <T>      the type the handler produces
+     *
+     * @return whatever the handler read from the response body
+     *
+     * @throws IOException if the response indicates an error, or if the handler fails
+     */
+    @Nonnull
+    <T> T handleResponse(@Nonnull HttpUriRequest request, @Nonnull HttpResponse response,
+            @Nonnull JsonResponseHandler<T> handler) throws IOException {
+        processResponse(response);
+
+        HttpEntity entity = response.getEntity();
+        try {
+            checkSuccessfulEntity(request, response, entity);
+
+            JsonParser parser = this.objectMapper.getFactory().createParser(entity.getContent());
+            try {
+                return handler.handle(parser);
+            } finally {
+                parser.close();
+            }
+        } finally {
+            // releases the connection even if the handler didn't read the whole body
+            EntityUtils.consume(entity);
+        }
+    }
+
+    /**
+     * Like {@link #handleResponse(HttpUriRequest, HttpResponse, JsonResponseHandler)}, but the whole body is read into
+     * memory before the handler gets it.
+     *
+     * @param request  the request
+     * @param response the response to the request
+     * @param handler  handler for a successful response body
+     * @param <T>      the type the handler produces
+     *
+     * @return whatever the handler read from the response body
+     *
+     * @throws IOException if the response indicates an error, or if the handler fails
+     */
+    @Nonnull
+    private <T> T handleBufferedResponse(@Nonnull HttpUriRequest request, @Nonnull HttpResponse response,
+            @Nonnull BufferedResponseHandler<T> handler) throws IOException {
+        processResponse(response);
+
+        HttpEntity entity = response.getEntity();
+        try {
+            checkSuccessfulEntity(request, response, entity);
+
+            return handler.handle(EntityUtils.toByteArray(entity));
+        } finally {
+            EntityUtils.consume(entity);
+        }
+    }
+
+    /**
+     * @param request  the request
+     * @param response the response to the request
+     * @param entity   the response's entity
+     *
+     * @throws IOException if the response indicates an error or has no body
+     */
+    private void checkSuccessfulEntity(@Nonnull HttpUriRequest request, @Nonnull HttpResponse response,
+            @Nullable HttpEntity entity) throws IOException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode < 200 || statusCode >= 300) {
+            throwApiExceptionIfInvalid(request.getURI().toString(), response,
+                    entity == null ? null : EntityUtils.toString(entity));
+        }
+
+        if (entity == null) {
+            throw new ResponseParseException("No response body for <" + request.getURI() + ">");
+        }
+    }
+
+    /**
+     * Copy the body of a successful response to the stream a buffer at a time, so memory use doesn't depend on the
+     * size of the blob. Error responses are read in full so that the usual ApiException can be built.
+     *
+     * @param request  the request
+     * @param response the response to the request
+     * @param out      stream to write the body to
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException if the response indicates an error, or a BlobTransferException if reading the body or
+     *                     writing it fails
+     */
+    private long handleBlobResponse(@Nonnull HttpUriRequest request, @Nonnull HttpResponse response,
+            @Nonnull OutputStream out) throws IOException {
+        processResponse(response);
+
+        HttpEntity entity = response.getEntity();
+        checkSuccessfulEntity(request, response, entity);
+
+        long written = 0;
+        try {
+            InputStream in = entity.getContent();
+            byte[] buffer = new byte[BLOB_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                written += read;
+            }
+            in.close();
+        } catch (IOException e) {
+            // don't read the rest of a large body just to reuse the connection
+            request.abort();
+            if (written == 0) {
+                throw e;
+            }
+            throw new BlobTransferException(
+                    "Download of <" + request.getURI() + "> failed after " + written + " bytes", written, e);
+        } catch (RuntimeException e) {
+            request.abort();
+            throw e;
+        }
+
+        return written;
+    }
+
+    /**
+     * @param request  the request
+     * @param response the response to the request
+     *
+     * @return response body. May be null.
+     *
+     * @throws IOException if the response indicates an error
+     */
+    @CheckForNull
+    String handleResponseForString(@Nonnull HttpUriRequest request, @Nonnull HttpResponse response)
+            throws IOException {
+        processResponse(response);
+        return checkResponse(request, response);
+    }
+
+    /**
+     * @param sObject the sObject
+     *
+     * @return an entity for a body of just the sObject's fields. The fields are read now, so later changes to the
+     * sObject don't affect the request.
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    HttpEntity getEntityForSObjectFieldsJson(@Nonnull SObject sObject) throws IOException {
+        final BodyFields fields = snapshotFields(sObject);
+        return getEntityForJson(new JsonEntity.JsonBody() {
+            @Override
+            public void writeTo(@Nonnull JsonGenerator jsonGenerator) throws IOException {
+                jsonGenerator.writeStartObject();
+                fields.writeTo(jsonGenerator);
+                jsonGenerator.writeEndObject();
+            }
+        });
+    }
+
+    /**
+     * @param sObject the sObject
+     *
+     * @return the sObject's fields as a UTF-8 JSON object
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    byte[] getSObjectFieldsJson(@Nonnull SObject sObject) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator jsonGenerator = this.objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        writeFieldsObject(jsonGenerator, sObject);
+        jsonGenerator.close();
+        return out.toByteArray();
+    }
+
+    @Nonnull
+    private HttpEntity getEntityForJson(@Nonnull JsonEntity.JsonBody body) throws IOException {
+        JsonEntity entity = new JsonEntity(this.objectMapper.getFactory(), body);
+        if (this.compression == null) {
+            return entity;
+        }
+
+        return this.compression.getRequestEntity(entity);
+    }
+
+    @Nonnull
+    private URI getUri(String pathFragment) throws IOException {
+        return getUriForPath("/services/data/v" + API_VERSION + pathFragment);
+    }
+
+    @Nonnull
+    private URI getUri(String pathFragment, NameValuePair param) throws IOException {
+        return getUri(pathFragment, Arrays.asList(param));
+    }
+
+    @Nonnull
+    private URI getUri(String pathFragment, List<NameValuePair> params) throws IOException {
+        return getUriForPath("/services/data/v" + API_VERSION + pathFragment, params);
+    }
+
+    @Nonnull
+    private URI getUriForPath(String path) throws IOException {
+        try {
+            return getUriBuilderForPath(path).build();
+        } catch (URISyntaxException e) {
+            throw new IOException("Couldn't create URI", e);
+        }
+    }
+
+    @Nonnull
+    private URI getUriForPath(String path, List<NameValuePair> params) throws IOException {
+
+        URIBuilder b = getUriBuilderForPath(path);
+
+        for (NameValuePair param : params) {
+            b.addParameter(param.getName(), param.getValue());
+        }
+
+        try {
+            return b.build();
+        } catch (URISyntaxException e) {
+            throw new IOException("Couldn't create URI", e);
+        }
+    }
+
+    @Nonnull
+    private URIBuilder getUriBuilderForPath(String path) {
+        return new URIBuilder().setScheme("https").setHost(host).setPort(443).setPath(path);
+    }
 
+    /**
+     * Request bodies are written when the request is sent, and written again if it is retried, so they need the fields
+     * as they were when the request was made. Immutable sObjects can simply be read later; the fields of others are
+     * copied into a flat array.
+     *
+     * @param sObject the sObject
+     *
+     * @return the sObject's fields as they are now
+     */
     @Nonnull
-    private final ObjectMapper objectMapper;
+    private static BodyFields snapshotFields(@Nonnull SObject sObject) {
+        if (sObject instanceof CompactSObject) {
+            return new SObjectBodyFields(sObject);
+        }
 
-    @Nonnull
-    private final HttpClient client;
+        CopiedBodyFields copy = new CopiedBodyFields();
+        sObject.forEachField(copy);
+        return copy;
+    }
 
-    HttpApiClient(@Nonnull String host, @Nonnull String oauthToken, @Nonnull ObjectMapper objectMapper,
-            @Nonnull HttpClient client) {
-        this.host = host;
-        this.oauthToken = oauthToken;
-        this.objectMapper = objectMapper;
-        this.client = client;
+    private static void writeFieldsObject(@Nonnull JsonGenerator jsonGenerator, @Nonnull SObject sObject)
+            throws IOException {
+        jsonGenerator.writeStartObject();
+        writeFields(jsonGenerator, sObject);
+        jsonGenerator.writeEndObject();
     }
 
-    @CheckForNull
-    String describeGlobal() throws IOException {
-        return executeGet("/sobjects/");
+    private static void writeFields(@Nonnull final JsonGenerator jsonGenerator, @Nonnull SObject sObject)
+            throws IOException {
+        sObject.forEachField(new FieldVisitor<IOException>() {
+            @Override
+            public void visitField(@Nonnull String name, @Nullable String value) throws IOException {
+                if (value == null) {
+                    jsonGenerator.writeNullField(name);
+                } else {
+                    jsonGenerator.writeStringField(name, value);
+                }
+            }
+        });
     }
 
-    @CheckForNull
-    String describeSObject(String sObjectType) throws IOException {
-        return executeGet("/sobjects/" + sObjectType + "/describe");
+    /**
+     * Unlike the single record resources, the collections resources need each record's type and id in the body.
+     *
+     * @param sObjects  records
+     * @param allOrNone true to roll back every record in the request if any fails
+     *
+     * @return request body
+     */
+    @Nonnull
+    private static JsonEntity.JsonBody getCollectionBody(@Nonnull List<? extends SObject> sObjects,
+            final boolean allOrNone) {
+        final List<String> types = Lists.newArrayListWithCapacity(sObjects.size());
+        final List<Id> ids = Lists.newArrayListWithCapacity(sObjects.size());
+        final List<BodyFields> fields = Lists.newArrayListWithCapacity(sObjects.size());
+
+        for (SObject sObject : sObjects) {
+            BodyFields sObjectFields = snapshotFields(sObject);
+            types.add(sObject.getType());
+            ids.add(sObjectFields.isFieldSet("Id") ? null : sObject.getId());
+            fields.add(sObjectFields);
+        }
+
+        return new JsonEntity.JsonBody() {
+            @Override
+            public void writeTo(@Nonnull JsonGenerator jsonGenerator) throws IOException {
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeBooleanField("allOrNone", allOrNone);
+                jsonGenerator.writeArrayFieldStart("records");
+
+                for (int i = 0; i < types.size(); i++) {
+                    jsonGenerator.writeStartObject();
+                    jsonGenerator.writeObjectFieldStart("attributes");
+                    jsonGenerator.writeStringField("type", types.get(i));
+                    jsonGenerator.writeEndObject();
+
+                    Id id = ids.get(i);
+                    if (id != null) {
+                        jsonGenerator.writeStringField("Id", id.getFullId());
+                    }
+
+                    fields.get(i).writeTo(jsonGenerator);
+                    jsonGenerator.writeEndObject();
+                }
+
+                jsonGenerator.writeEndArray();
+                jsonGenerator.writeEndObject();
+            }
+        };
     }
 
     @CheckForNull
-    String basicSObjectInfo(String sObjectType) throws IOException {
-        return executeGet("/sobjects/" + sObjectType);
+    private String executeRequestForString(@Nonnull String operation, @Nonnull HttpUriRequest request)
+            throws IOException {
+        return executeRequest(operation, request).getResponseBody();
     }
 
-    @CheckForNull
-    String create(SObject sObject) throws IOException {
-        HttpPost post = new HttpPost(getUri("/sobjects/" + sObject.getType() + "/"));
-        post.setEntity(getEntityForSObjectFieldsJson(sObject));
-        post.addHeader("Content-Type", UPLOAD_CONTENT_TYPE);
+    /**
+     * @param operation    the operation the request is for
+     * @param request      a GET request
+     * @param lastModified value for If-Modified-Since, or null
+     * @param eTag         value for If-None-Match, or null
+     *
+     * @return not modified if the server responded 304, otherwise the body and the values to revalidate it with later.
+     * Salesforce doesn't send Last-Modified for every resource, so the response's Date is used if it is missing.
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    private DescribeCache.Response executeConditionalRequest(@Nonnull String operation,
+            @Nonnull final HttpUriRequest request, @Nullable String lastModified, @Nullable String eTag)
+            throws IOException {
+        if (lastModified != null) {
+            request.addHeader("If-Modified-Since", lastModified);
+        }
+        if (eTag != null) {
+            request.addHeader("If-None-Match", eTag);
+        }
 
-        return executeRequestForString(post);
-    }
+        return executeWithRetries(operation, request, new ResponseProcessor<DescribeCache.Response>() {
+            @Nonnull
+            @Override
+            public DescribeCache.Response process(@Nonnull HttpResponse response) throws IOException {
+                processResponse(response);
 
-    void delete(String sObjectType, Id id) throws IOException {
-        executeRequestForString(new HttpDelete(getUri("/sobjects/" + sObjectType + "/" + id)));
-    }
+                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                    EntityUtils.consume(response.getEntity());
+                    return DescribeCache.Response.getNotModified();
+                }
 
-    @CheckForNull
-    String query(String soql) throws IOException {
-        return executeGet("/query", new BasicNameValuePair("q", soql));
-    }
+                String body = checkResponse(request, response);
 
-    @CheckForNull
-    String queryMore(RestQueryLocator queryLocator) throws IOException {
-        return executeGetForUri(getUriForPath(queryLocator.getContents()));
-    }
+                Header lastModifiedHeader = response.getFirstHeader("Last-Modified");
+                if (lastModifiedHeader == null) {
+                    lastModifiedHeader = response.getFirstHeader("Date");
+                }
+                Header eTagHeader = response.getFirstHeader("ETag");
 
-    @CheckForNull
-    String search(String sosl) throws IOException {
-        return executeGet("/search", new BasicNameValuePair("q", sosl));
+                return DescribeCache.Response.getModified(body,
+                        lastModifiedHeader == null ? null : lastModifiedHeader.getValue(),
+                        eTagHeader == null ? null : eTagHeader.getValue());
+            }
+        });
     }
 
-    @CheckForNull
-    String retrieve(String sObjectType, Id id, List<String> fields) throws IOException {
-        return executeGet("/sobjects/" + sObjectType + "/" + id,
-                new BasicNameValuePair("fields", StringUtils.join(fields, ",")));
+    @Nonnull
+    private ProcessedResponse executeRequest(@Nonnull String operation, @Nonnull final HttpUriRequest request)
+            throws IOException {
+        return executeWithRetries(operation, request, new ResponseProcessor<ProcessedResponse>() {
+            @Nonnull
+            @Override
+            public ProcessedResponse process(@Nonnull HttpResponse response) throws IOException {
+                return new ProcessedResponse(response, handleResponseForString(request, response));
+            }
+        });
     }
 
-    void update(SObject sObject) throws IOException {
-        HttpPatch patch = new HttpPatch(getUri("/sobjects/" + sObject.getType() + "/" + sObject.getId()));
-        patch.setEntity(getEntityForSObjectFieldsJson(sObject));
-        patch.addHeader("Content-Type", UPLOAD_CONTENT_TYPE);
+    @Nonnull
+    private <T> T executeRequest(@Nonnull String operation, @Nonnull final HttpUriRequest request,
+            @Nonnull final JsonResponseHandler<T> handler) throws IOException {
+        return executeWithRetries(operation, request, new ResponseProcessor<T>() {
+            @Nonnull
+            @Override
+            public T process(@Nonnull HttpResponse response) throws IOException {
+                return handleResponse(request, response, handler);
+            }
+        });
+    }
 
-        executeRequestForString(patch);
+    @Nonnull
+    private <T> T executeBufferedRequest(@Nonnull String operation, @Nonnull final HttpUriRequest request,
+            @Nonnull final BufferedResponseHandler<T> handler) throws IOException {
+        return executeWithRetries(operation, request, new ResponseProcessor<T>() {
+            @Nonnull
+            @Override
+            public T process(@Nonnull HttpResponse response) throws IOException {
+                return handleBufferedResponse(request, response, handler);
+            }
+        });
     }
 
     /**
-     * @param sObject         sObject to upsert
-     * @param externalIdField field name of external id field
+     * Send the request until it succeeds or the retrier gives up. The limiter permit is only held while a request is in
+     * flight, not while backing off. If the token is rejected, the request is sent once more with a refreshed token;
+     * that extra attempt doesn't count against the retrier. If there is a deadline, a failure caused by it passing or
+     * by the thread being interrupted is not retried.
      *
-     * @return http status code
+     * @param operation the operation the request is for, used to name its metrics
+     * @param request   the request
+     * @param processor reads the response of an attempt
+     * @param <T>       the type read from the response
      *
-     * @throws IOException on error
+     * @return the result of the first successful attempt
+     *
+     * @throws IOException the failure of the last attempt
      */
-    int upsert(SObject sObject, String externalIdField) throws IOException {
-        HttpPatch patch =
-                new HttpPatch(getUri("/sobjects/" + sObject.getType() + "/" + externalIdField + "/" +
-                        sObject.getField(externalIdField)));
-        patch.setEntity(getEntityForSObjectFieldsJson(sObject));
-        patch.addHeader("Content-Type", UPLOAD_CONTENT_TYPE);
+    @Nonnull
+    private <T> T executeWithRetries(@Nonnull String operation, @Nonnull HttpUriRequest request,
+            @Nonnull ResponseProcessor<T> processor) throws IOException {
+        prepareRequest(request);
 
-        ProcessedResponse processedResponse = executeRequest(patch);
-        return processedResponse.getHttpResponse().getStatusLine().getStatusCode();
+        String token = this.oauthToken;
+        boolean refreshedToken = false;
+        int attempt = 1;
+
+        while (true) {
+            try {
+                T result;
+                acquirePermit();
+                try {
+                    result = executeOnce(operation, request, processor);
+                } finally {
+                    releasePermit();
+                }
+
+                if (this.retrier != null) {
+                    this.retrier.onSuccess();
+                }
+                return result;
+            } catch (IOException e) {
+                if (this.deadline != null) {
+                    IOException cancellation = getCancellation(request, e);
+                    if (cancellation != null) {
+                        throw cancellation;
+                    }
+                }
+
+                if (!refreshedToken) {
+                    String refreshed = refreshRejectedToken(request, e, token);
+                    if (refreshed != null) {
+                        refreshedToken = true;
+                        token = refreshed;
+                        continue;
+                    }
+                }
+
+                if (this.retrier == null || !this.retrier.shouldRetry(request, e, attempt)) {
+                    throw e;
+                }
+
+                long backoffMillis = this.retrier.getBackoffMillis(attempt);
+                logger.debug("Attempt " + attempt + " of " + request.getMethod() + " " + request.getURI() +
+                        " failed, retrying in " + backoffMillis + "ms", e);
+                if (this.deadline != null &&
+                        TimeUnit.MILLISECONDS.toNanos(backoffMillis) >= this.deadline.getRemainingNanos()) {
+                    throw new DeadlineExceededException(
+                            "Deadline would pass before " + describe(request) + " could be retried", e);
+                }
+                sleep(backoffMillis);
+                attempt++;
+            }
+        }
     }
 
+    /**
+     * Send the request once and process the response. If there is a deadline, the request's timeouts are bounded by it,
+     * and the request is aborted if the deadline passes or the thread is interrupted while it is in flight.
+     */
     @Nonnull
-    private HttpEntity getEntityForSObjectFieldsJson(SObject sObject) throws IOException {
-        return new StringEntity(getSObjectFieldsAsJson(sObject), "UTF-8");
+    private <T> T executeOnce(@Nonnull String operation, @Nonnull HttpUriRequest request,
+            @Nonnull ResponseProcessor<T> processor) throws IOException {
+        if (this.deadline == null) {
+            return executeAndMeasure(operation, request, processor);
+        }
+
+        this.deadline.check("sending " + describe(request));
+        applyDeadlineTimeouts(request, this.deadline);
+
+        RequestWatchdog.Watch watch = RequestWatchdog.get().watch(request, this.deadline);
+        try {
+            return executeAndMeasure(operation, request, processor);
+        } finally {
+            watch.close();
+        }
     }
 
     @Nonnull
-    private String getSObjectFieldsAsJson(@Nonnull SObject sObject) throws IOException {
-        StringWriter writer = new StringWriter();
-        JsonGenerator jsonGenerator = this.objectMapper.getFactory().createGenerator(writer);
+    private <T> T executeAndMeasure(@Nonnull String operation, @Nonnull HttpUriRequest request,
+            @Nonnull ResponseProcessor<T> processor) throws IOException {
+        if (this.metrics == null) {
+            return processor.process(this.client.execute(request));
+        }
 
-        jsonGenerator.writeStartObject();
+        // discard lease time from anything else this thread has done
+        LeaseTimingConnectionManager.takeLeaseNanos();
+        long start = System.nanoTime();
+        HttpResponse response = this.client.execute(request);
+        long executed = System.nanoTime();
+        long leaseNanos = LeaseTimingConnectionManager.takeLeaseNanos();
 
-        for (Map.Entry<String, String> entry : sObject.getAllFields().entrySet()) {
-            if (entry.getValue() == null) {
-                jsonGenerator.writeNullField(entry.getKey());
-            } else {
-                jsonGenerator.writeStringField(entry.getKey(), entry.getValue());
-            }
+        try {
+            return processor.process(response);
+        } finally {
+            this.metrics.recordTimes(operation, leaseNanos, executed - start - leaseNanos,
+                    System.nanoTime() - executed);
         }
+    }
 
-        jsonGenerator.writeEndObject();
-        jsonGenerator.close();
+    /**
+     * Bound the request's connection lease, connect and socket timeouts by the time left before the deadline. The
+     * client's own timeouts still apply if they are shorter.
+     */
+    private void applyDeadlineTimeouts(@Nonnull HttpUriRequest request, @Nonnull CallDeadline callDeadline) {
+        if (!(request instanceof HttpRequestBase)) {
+            return;
+        }
 
-        writer.close();
+        RequestConfig defaults = this.client instanceof Configurable ? ((Configurable) this.client).getConfig() : null;
+        if (defaults == null) {
+            defaults = RequestConfig.DEFAULT;
+        }
 
-        return writer.toString();
+        int remaining = callDeadline.getRemainingTimeoutMillis();
+        ((HttpRequestBase) request).setConfig(RequestConfig.copy(defaults)
+                .setConnectionRequestTimeout(boundTimeout(defaults.getConnectionRequestTimeout(), remaining))
+                .setConnectTimeout(boundTimeout(defaults.getConnectTimeout(), remaining))
+                .setSocketTimeout(boundTimeout(defaults.getSocketTimeout(), remaining))
+                .build());
     }
 
-    @CheckForNull
-    private String executeGet(String pathFragment) throws IOException {
-        return executeGetForUri(getUri(pathFragment));
+    /**
+     * @param configured a timeout in ms, where 0 or less means no timeout
+     * @param remaining  ms until the deadline
+     *
+     * @return the shorter of the two
+     */
+    private static int boundTimeout(int configured, int remaining) {
+        return configured > 0 && configured < remaining ? configured : remaining;
     }
 
+    /**
+     * @param request the request that failed
+     * @param e       why it failed
+     *
+     * @return the exception to fail the call with if the failure is because the deadline passed or the thread was
+     * interrupted, or null if it is an ordinary failure
+     */
     @CheckForNull
-    private String executeGet(String pathFragment, NameValuePair param) throws IOException {
-        return executeGet(pathFragment, Arrays.asList(param));
+    private IOException getCancellation(@Nonnull HttpUriRequest request, @Nonnull IOException e) {
+        if (e instanceof DeadlineExceededException) {
+            return e;
+        }
+
+        //noinspection ConstantConditions
+        if (this.deadline.isExpired()) {
+            return this.deadline.newException("sending " + describe(request), e);
+        }
+
+        if (Thread.currentThread().isInterrupted()) {
+            if (e instanceof InterruptedIOException) {
+                return e;
+            }
+            InterruptedIOException interrupted =
+                    new InterruptedIOException("Interrupted while sending " + describe(request));
+            interrupted.initCause(e);
+            return interrupted;
+        }
+
+        return null;
     }
 
-    @CheckForNull
-    private String executeGet(String pathFragment, List<NameValuePair> params) throws IOException {
-        return executeGetForUri(getUri(pathFragment, params));
+    @Nonnull
+    private static String describe(@Nonnull HttpUriRequest request) {
+        return request.getMethod() + " " + request.getURI();
     }
 
+    /**
+     * If the failure was the token being rejected and the request can be sent again, refresh the token and put the new
+     * one on the request.
+     *
+     * @param request the request that failed
+     * @param e       why it failed
+     * @param token   the token the request was sent with
+     *
+     * @return the token the request now has, or null if it shouldn't be sent again with a refreshed token
+     *
+     * @throws IOException if the refresh failed
+     */
     @CheckForNull
-    private String executeGetForUri(URI uri) throws IOException {
-        return executeRequestForString(new HttpGet(uri));
-    }
+    String refreshRejectedToken(@Nonnull HttpUriRequest request, @Nonnull IOException e, @Nonnull String token)
+            throws IOException {
+        if (this.tokenRefresher == null || !isTokenRejected(e) || !OrgRequestRetrier.hasRepeatableEntity(request)) {
+            return null;
+        }
 
-    @Nonnull
-    private URI getUri(String pathFragment) throws IOException {
-        return getUriForPath("/services/data/v" + API_VERSION + pathFragment);
+        String refreshed = this.tokenRefresher.refresh(token);
+        request.setHeader("Authorization", "OAuth " + refreshed);
+        logger.debug("Token was rejected for " + describe(request) + ", retrying with a refreshed token");
+        return refreshed;
     }
 
-    @Nonnull
-    private URI getUri(String pathFragment, List<NameValuePair> params) throws IOException {
-        return getUriForPath("/services/data/v" + API_VERSION + pathFragment, params);
+    private static boolean isTokenRejected(IOException e) {
+        return e instanceof ApiException && ((ApiException) e).getHttpResponseCode() == 401;
     }
 
-    @Nonnull
-    private URI getUriForPath(String path) throws IOException {
+    static void sleep(long millis) throws InterruptedIOException {
         try {
-            return getUriBuilderForPath(path).build();
-        } catch (URISyntaxException e) {
-            throw new IOException("Couldn't create URI", e);
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
         }
     }
 
-    @Nonnull
-    private URI getUriForPath(String path, List<NameValuePair> params) throws IOException {
-
-        URIBuilder b = getUriBuilderForPath(path);
-
-        for (NameValuePair param : params) {
-            b.addParameter(param.getName(), param.getValue());
+    /**
+     * Wait until the org's limiter allows a request to be sent, if there is a limiter. Every successful call must be
+     * followed by a call to {@link #releasePermit()} once the request is no longer in flight.
+     *
+     * @throws IOException if the org's allowance is used up, the deadline passes or the thread is interrupted
+     */
+    void acquirePermit() throws IOException {
+        if (this.limiter == null) {
+            return;
         }
 
-        try {
-            return b.build();
-        } catch (URISyntaxException e) {
-            throw new IOException("Couldn't create URI", e);
+        if (this.deadline == null) {
+            this.limiter.acquire();
+        } else if (!this.limiter.tryAcquire(this.deadline.getRemainingNanos(), TimeUnit.NANOSECONDS)) {
+            throw this.deadline.newException("waiting to send a request", null);
         }
     }
 
-    @Nonnull
-    private URIBuilder getUriBuilderForPath(String path) {
-        return new URIBuilder().setScheme("https").setHost(host).setPort(443).setPath(path);
-    }
-
-    @CheckForNull
-    private String executeRequestForString(@Nonnull HttpUriRequest request) throws IOException {
-        return executeRequest(request).getResponseBody();
+    void releasePermit() {
+        if (this.limiter != null) {
+            this.limiter.release();
+        }
     }
 
-    @Nonnull
-    private ProcessedResponse executeRequest(HttpUriRequest request) throws IOException {
-        request.addHeader("Authorization", "OAuth " + this.oauthToken);
-        HttpResponse response = this.client.execute(request);
-
-        return new ProcessedResponse(response, checkResponse(request, response));
+    private void processResponse(@Nonnull HttpResponse response) {
+        if (this.limiter != null) {
+            this.limiter.onResponse(response);
+        }
+        if (this.metrics != null) {
+            this.metrics.wrapResponseEntity(response);
+        }
+        if (this.compression != null) {
+            this.compression.wrapResponseEntity(response);
+        }
     }
 
     /**
@@ -295,6 +1407,20 @@ final class HttpApiClient {
             return;
         }
 
+        throw getApiException(url, statusCode, statusLine.getReasonPhrase(), responseBody);
+    }
+
+    /**
+     * @param url          the url of the failed request
+     * @param statusCode   http status code of the error response
+     * @param reasonPhrase http reason phrase of the error response
+     * @param responseBody error response body, if any
+     *
+     * @return an exception describing the error
+     */
+    @Nonnull
+    ApiException getApiException(@Nonnull String url, int statusCode, @Nonnull String reasonPhrase,
+            @Nullable String responseBody) throws IOException {
         List<ApiError> errors;
         if (responseBody == null) {
             errors = Collections.emptyList();
@@ -312,38 +1438,38 @@ final class HttpApiClient {
 
         switch (statusCode) {
             case 300:
-                throw new ApiException(url, statusCode, statusLine.getReasonPhrase(), errors, responseBody,
+                return new ApiException(url, statusCode, reasonPhrase, errors, responseBody,
                         "External ID already used");
 
             case 400:
-                throw new ApiException(url, statusCode, statusLine.getReasonPhrase(), errors, responseBody,
+                return new ApiException(url, statusCode, reasonPhrase, errors, responseBody,
                         "Request could not be understood");
 
             case 401:
-                throw new ApiException(url, statusCode, statusLine.getReasonPhrase(), errors, responseBody,
+                return new ApiException(url, statusCode, reasonPhrase, errors, responseBody,
                         "Invalid session ID or Oauth token");
 
             case 403:
-                throw new ApiException(url, statusCode, statusLine.getReasonPhrase(), errors, responseBody,
+                return new ApiException(url, statusCode, reasonPhrase, errors, responseBody,
                         "Request refused; check permissions");
 
             case 404:
-                throw new ApiException(url, statusCode, statusLine.getReasonPhrase(), errors, responseBody,
+                return new ApiException(url, statusCode, reasonPhrase, errors, responseBody,
                         "Resource could not be found");
 
             case 405:
-                throw new ApiException(url, statusCode, statusLine.getReasonPhrase(), errors, responseBody,
+                return new ApiException(url, statusCode, reasonPhrase, errors, responseBody,
                         "Method not allowed for specified resource");
 
             case 415:
-                throw new ApiException(url, statusCode, statusLine.getReasonPhrase(), errors, responseBody,
+                return new ApiException(url, statusCode, reasonPhrase, errors, responseBody,
                         "Request is not in a supported format for the resource and method");
 
             case 500:
-                throw new ApiException(url, statusCode, statusLine.getReasonPhrase(), errors, responseBody,
+                return new ApiException(url, statusCode, reasonPhrase, errors, responseBody,
                         "Force.com error");
             default:
-                throw new ApiException(url, statusCode, statusLine.getReasonPhrase(), errors, responseBody,
+                return new ApiException(url, statusCode, reasonPhrase, errors, responseBody,
                         "Unclassified error");
         }
     }
@@ -375,4 +1501,213 @@ final class HttpApiClient {
             return responseBody;
         }
     }
+
+    /**
+     * The fields of a request body, fixed when the request is made.
+     */
+    private interface BodyFields {
+
+        boolean isFieldSet(@Nonnull String name);
+
+        /**
+         * @param jsonGenerator generator to write the fields to, inside an object that the caller starts and ends
+         *
+         * @throws IOException on error
+         */
+        void writeTo(@Nonnull JsonGenerator jsonGenerator) throws IOException;
+    }
+
+    /**
+     * Reads the fields of an sObject that can't change when the body is written.
+     */
+    @ThreadSafe
+    private static final class SObjectBodyFields implements BodyFields {
+
+        private final SObject sObject;
+
+        private SObjectBodyFields(@Nonnull SObject sObject) {
+            this.sObject = sObject;
+        }
+
+        @Override
+        public boolean isFieldSet(@Nonnull String name) {
+            return this.sObject.isFieldSet(name);
+        }
+
+        @Override
+        public void writeTo(@Nonnull JsonGenerator jsonGenerator) throws IOException {
+            writeFields(jsonGenerator, this.sObject);
+        }
+    }
+
+    /**
+     * A copy of an sObject's fields, filled in by forEachField().
+     */
+    @NotThreadSafe
+    private static final class CopiedBodyFields implements BodyFields, FieldVisitor<RuntimeException> {
+
+        /**
+         * each field's name followed by its value
+         */
+        private String[] namesAndValues = new String[32];
+
+        private int length = 0;
+
+        @Override
+        public void visitField(@Nonnull String name, @Nullable String value) {
+            if (this.length == this.namesAndValues.length) {
+                this.namesAndValues = Arrays.copyOf(this.namesAndValues, this.length * 2);
+            }
+            this.namesAndValues[this.length++] = name;
+            this.namesAndValues[this.length++] = value;
+        }
+
+        @Override
+        public boolean isFieldSet(@Nonnull String name) {
+            for (int i = 0; i < this.length; i += 2) {
+                if (this.namesAndValues[i].equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void writeTo(@Nonnull JsonGenerator jsonGenerator) throws IOException {
+            for (int i = 0; i < this.length; i += 2) {
+                String value = this.namesAndValues[i + 1];
+                if (value == null) {
+                    jsonGenerator.writeNullField(this.namesAndValues[i]);
+                } else {
+                    jsonGenerator.writeStringField(this.namesAndValues[i], value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the response of one attempt at a request.
+     *
+     * @param <T> the type read from the response
+     */
+    private interface ResponseProcessor<T> {
+        @Nonnull
+        T process(@Nonnull HttpResponse response) throws IOException;
+    }
+
+    @NotThreadSafe
+    static final class Builder {
+
+        @Nonnull
+        private final String host;
+
+        @Nonnull
+        private final String oauthToken;
+
+        @Nonnull
+        private final ObjectMapper objectMapper;
+
+        @Nonnull
+        private final HttpClient client;
+
+        @Nullable
+        private HttpCompression compression;
+
+        @Nullable
+        private OrgRequestLimiter limiter;
+
+        @Nullable
+        private OrgRequestRetrier retrier;
+
+        @Nullable
+        private DescribeCache describeCache;
+
+        @Nullable
+        private OrgTokenRefresher tokenRefresher;
+
+        @Nullable
+        private OrgHttpMetrics metrics;
+
+        private Builder(@Nonnull String host, @Nonnull String oauthToken, @Nonnull ObjectMapper objectMapper,
+                @Nonnull HttpClient client) {
+            this.host = host;
+            this.oauthToken = oauthToken;
+            this.objectMapper = objectMapper;
+            this.client = client;
+        }
+
+        /**
+         * @param compression gzip handling, or null to send requests uncompressed and leave responses to the client.
+         *                    If not null, the client must not do content compression itself.
+         *
+         * @return this
+         */
+        @Nonnull
+        Builder setCompression(@Nullable HttpCompression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * @param limiter limiter for requests to the org, or null to not limit them
+         *
+         * @return this
+         */
+        @Nonnull
+        Builder setLimiter(@Nullable OrgRequestLimiter limiter) {
+            this.limiter = limiter;
+            return this;
+        }
+
+        /**
+         * @param retrier retrier for requests to the org, or null to not retry them
+         *
+         * @return this
+         */
+        @Nonnull
+        Builder setRetrier(@Nullable OrgRequestRetrier retrier) {
+            this.retrier = retrier;
+            return this;
+        }
+
+        /**
+         * @param describeCache the org's describe cache, or null to not cache describes
+         *
+         * @return this
+         */
+        @Nonnull
+        Builder setDescribeCache(@Nullable DescribeCache describeCache) {
+            this.describeCache = describeCache;
+            return this;
+        }
+
+        /**
+         * @param tokenRefresher refresher for the org's token, or null to fail requests whose token is rejected
+         *
+         * @return this
+         */
+        @Nonnull
+        Builder setTokenRefresher(@Nullable OrgTokenRefresher tokenRefresher) {
+            this.tokenRefresher = tokenRefresher;
+            return this;
+        }
+
+        /**
+         * @param metrics the org's body size and time breakdown metrics, or null to not record them. If not null, the
+         *                client's connection manager should be wrapped in a LeaseTimingConnectionManager, or lease
+         *                waits will be recorded as 0.
+         *
+         * @return this
+         */
+        @Nonnull
+        Builder setMetrics(@Nullable OrgHttpMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        @Nonnull
+        HttpApiClient build() {
+            return new HttpApiClient(this);
+        }
+    }
 }
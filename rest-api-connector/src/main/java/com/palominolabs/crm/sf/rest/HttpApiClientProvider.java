@@ -24,7 +24,8 @@ import javax.annotation.Nonnull;
 interface HttpApiClientProvider {
 
     /**
-     * Each client should only be used once. Do not cache the result of this method.
+     * Clients are immutable snapshots of an org's configuration and may be shared between threads, but get a client
+     * for each operation rather than keeping one, so that configuration changes such as a new token are picked up.
      *
      * @return a client
      */
@@ -0,0 +1,342 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.CountingOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Handles gzip for HttpApiClient and counts the bytes that go over the wire. Requests are encoded as they are written
+ * and responses decoded as they are read, so a compressed body is never held in memory in either form.
+ *
+ * The HttpClient used with this must have its own content compression disabled; otherwise responses are decompressed
+ * before they get here and the wire byte counts are meaningless.
+ */
+@ThreadSafe
+final class HttpCompression {
+
+    private static final String GZIP = "gzip";
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    private final int minRequestBodySize;
+
+    /**
+     * request bodies before compression
+     */
+    private final Counter requestUncompressedBytes;
+
+    /**
+     * request bodies as sent, whether or not they were compressed
+     */
+    private final Counter requestWireBytes;
+
+    /**
+     * response bodies after decompression
+     */
+    private final Counter responseUncompressedBytes;
+
+    /**
+     * response bodies as received, whether or not they were compressed
+     */
+    private final Counter responseWireBytes;
+
+    /**
+     * @param config         gzip settings
+     * @param metricRegistry metric registry
+     * @param prefix         prefix of the org's metric names, so that each org's savings can be seen
+     */
+    HttpCompression(@Nonnull GzipConfig config, @Nonnull MetricRegistry metricRegistry, @Nonnull String prefix) {
+        this.minRequestBodySize = config.getMinRequestBodySize();
+        this.requestUncompressedBytes = metricRegistry.counter(name(prefix, "request", "uncompressedBytes"));
+        this.requestWireBytes = metricRegistry.counter(name(prefix, "request", "wireBytes"));
+        this.responseUncompressedBytes = metricRegistry.counter(name(prefix, "response", "uncompressedBytes"));
+        this.responseWireBytes = metricRegistry.counter(name(prefix, "response", "wireBytes"));
+    }
+
+    void addAcceptEncoding(@Nonnull HttpRequest request) {
+        request.addHeader("Accept-Encoding", GZIP);
+    }
+
+    /**
+     * Small bodies are sent as they are. Larger ones are compressed as they are written to the connection, so the body
+     * is never held in memory in either form.
+     *
+     * Whether to compress has to be decided before any of the body is sent. A repeatable body that doesn't know its
+     * length is written and discarded until it reaches the minimum size, which for a small body is all of it (and
+     * tells a JsonEntity its length). Any other body of unknown length is compressed if it is text.
+     *
+     * @param body uncompressed request body
+     *
+     * @return an entity that writes the body, compressed if it is large enough, and counts what it writes
+     *
+     * @throws IOException if a body of unknown length couldn't be written to find out how large it is
+     */
+    @Nonnull
+    HttpEntity getRequestEntity(@Nonnull HttpEntity body) throws IOException {
+        long length = body.getContentLength();
+        boolean gzip;
+        if (length >= 0) {
+            gzip = length >= this.minRequestBodySize;
+        } else if (body.isRepeatable()) {
+            gzip = reachesMinSize(body);
+        } else {
+            gzip = isText(body.getContentType());
+        }
+        return new CountingRequestEntity(body, gzip);
+    }
+
+    private boolean reachesMinSize(@Nonnull HttpEntity body) throws IOException {
+        try {
+            body.writeTo(new ThresholdOutputStream(this.minRequestBodySize));
+            return false;
+        } catch (ThresholdReachedException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Replace the response's entity with one that decompresses (if needed) and counts the body as it is read.
+     *
+     * @param response the response
+     */
+    void wrapResponseEntity(@Nonnull HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+
+        response.setEntity(new CountingEntity(entity, isGzip(entity.getContentEncoding())));
+    }
+
+    private static boolean isGzip(@CheckForNull Header contentEncoding) {
+        return contentEncoding != null && GZIP.equalsIgnoreCase(contentEncoding.getValue().trim());
+    }
+
+    private static boolean isText(@CheckForNull Header contentType) {
+        if (contentType == null) {
+            return false;
+        }
+
+        String mimeType = contentType.getValue().trim().toLowerCase(Locale.US);
+        return mimeType.startsWith("application/json") || mimeType.startsWith("text/");
+    }
+
+    /**
+     * Compresses (if asked to) and counts the body each time it is written, so the counts are of what was sent.
+     */
+    @NotThreadSafe
+    private final class CountingRequestEntity extends HttpEntityWrapper {
+
+        private final boolean gzip;
+
+        private CountingRequestEntity(HttpEntity wrappedEntity, boolean gzip) {
+            super(wrappedEntity);
+            this.gzip = gzip;
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            CountingOutputStream wire = new CountingOutputStream(outstream);
+            if (this.gzip) {
+                GZIPOutputStream gzipStream = new GZIPOutputStream(wire, GZIP_BUFFER_SIZE);
+                CountingOutputStream uncompressed = new CountingOutputStream(gzipStream);
+                super.writeTo(uncompressed);
+                // finish rather than close, since the connection's stream belongs to HttpClient
+                gzipStream.finish();
+                requestUncompressedBytes.inc(uncompressed.getCount());
+            } else {
+                super.writeTo(wire);
+                requestUncompressedBytes.inc(wire.getCount());
+            }
+            requestWireBytes.inc(wire.getCount());
+        }
+
+        /**
+         * The compressed form only exists while it is being written.
+         */
+        @Override
+        public InputStream getContent() throws IOException {
+            if (this.gzip) {
+                throw new UnsupportedOperationException("Compressed request bodies can only be written");
+            }
+            return super.getContent();
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return this.gzip ? new BasicHeader(HTTP.CONTENT_ENCODING, GZIP) : super.getContentEncoding();
+        }
+
+        @Override
+        public long getContentLength() {
+            return this.gzip ? -1 : super.getContentLength();
+        }
+
+        @Override
+        public boolean isChunked() {
+            return this.gzip || super.isChunked();
+        }
+    }
+
+    @NotThreadSafe
+    private final class CountingEntity extends HttpEntityWrapper {
+
+        private final boolean gzip;
+
+        /**
+         * HttpClient's entities can only be read once, so the stream is kept around for EntityUtils.consume() to close
+         */
+        @CheckForNull
+        private InputStream content;
+
+        private CountingEntity(HttpEntity wrappedEntity, boolean gzip) {
+            super(wrappedEntity);
+            this.gzip = gzip;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (this.content == null) {
+                InputStream wire = new CountingInputStream(super.getContent(), responseWireBytes);
+                this.content = this.gzip ?
+                        new CountingInputStream(new GZIPInputStream(wire), responseUncompressedBytes) :
+                        new CountingInputStream(wire, responseUncompressedBytes);
+            }
+
+            return this.content;
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            InputStream in = getContent();
+            try {
+                byte[] buf = new byte[4096];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    outstream.write(buf, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return this.gzip ? null : super.getContentEncoding();
+        }
+
+        @Override
+        public long getContentLength() {
+            return this.gzip ? -1 : super.getContentLength();
+        }
+    }
+
+    /**
+     * Discards what is written, and gives up once the threshold is reached
+     */
+    @NotThreadSafe
+    private static final class ThresholdOutputStream extends OutputStream {
+
+        private final int threshold;
+
+        private long count = 0;
+
+        private ThresholdOutputStream(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+            this.count += len;
+            if (this.count >= this.threshold) {
+                throw new ThresholdReachedException();
+            }
+        }
+    }
+
+    private static final class ThresholdReachedException extends IOException {
+    }
+
+    @NotThreadSafe
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final Counter counter;
+
+        private CountingInputStream(InputStream in, Counter counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                this.counter.inc();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                this.counter.inc(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            this.counter.inc(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.palominolabs.crm.sf.core.Id;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.math.BigInteger;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Partitions a query of one sObject type by Id. Ids of the same type share their first three characters, the key
+ * prefix, and the rest is a base 62 number that grows as records are created. The span between the first and last Id
+ * is split into ranges that are about the same size in that number, which is a good fit when records were created at a
+ * steady rate.
+ *
+ * The first partition also matches every Id before the first boundary and the last partition every Id after the last
+ * boundary, so records created after the first and last Ids were looked up are still read.
+ */
+@Immutable
+public final class IdRangePartitioner implements QueryPartitioner {
+
+    /**
+     * Salesforce Ids are base 62 with the digits in ascending character code order
+     */
+    private static final String DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    private static final BigInteger RADIX = BigInteger.valueOf(DIGITS.length());
+
+    private static final int KEY_PREFIX_LENGTH = 3;
+
+    private static final int ID_LENGTH = 15;
+
+    private final ImmutableList<String> conditions;
+
+    /**
+     * @param first      the lowest Id to be read, e.g. from {@code SELECT Id FROM Account ORDER BY Id ASC LIMIT 1}
+     * @param last       the highest Id to be read. Must have the same key prefix as first.
+     * @param partitions how many partitions to split into. There may be fewer if there are fewer Ids between first and
+     *                   last than partitions.
+     */
+    public IdRangePartitioner(@Nonnull Id first, @Nonnull Id last, int partitions) {
+        checkArgument(partitions > 0, "Partitions must be at least 1, was %s", partitions);
+        checkArgument(first.getKeyPrefix().equals(last.getKeyPrefix()),
+                "Ids must have the same key prefix, were <%s> and <%s>", first, last);
+
+        String keyPrefix = first.getKeyPrefix();
+        BigInteger low = decode(first.getIdStr());
+        BigInteger span = decode(last.getIdStr()).subtract(low).add(BigInteger.ONE);
+        checkArgument(span.signum() > 0, "First Id <%s> is after last Id <%s>", first, last);
+
+        List<String> boundaries = Lists.newArrayList();
+        for (int i = 1; i < partitions; i++) {
+            BigInteger offset = span.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(partitions));
+            if (offset.signum() == 0) {
+                continue;
+            }
+
+            String boundary = "'" + keyPrefix + encode(low.add(offset)) + "'";
+            if (boundaries.isEmpty() || !boundaries.get(boundaries.size() - 1).equals(boundary)) {
+                boundaries.add(boundary);
+            }
+        }
+
+        this.conditions = PartitionedQueries.getRangeConditions("Id", boundaries);
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getConditions() {
+        return this.conditions;
+    }
+
+    /**
+     * @param idStr 15 character id
+     *
+     * @return the number after the key prefix
+     */
+    @Nonnull
+    private static BigInteger decode(@Nonnull String idStr) {
+        BigInteger value = BigInteger.ZERO;
+        for (int i = KEY_PREFIX_LENGTH; i < ID_LENGTH; i++) {
+            int digit = DIGITS.indexOf(idStr.charAt(i));
+            checkArgument(digit >= 0, "Id <%s> has a character that isn't base 62", idStr);
+            value = value.multiply(RADIX).add(BigInteger.valueOf(digit));
+        }
+        return value;
+    }
+
+    /**
+     * @param value a number from {@link #decode(String)}
+     *
+     * @return the Id characters after the key prefix
+     */
+    @Nonnull
+    private static String encode(@Nonnull BigInteger value) {
+        char[] chars = new char[ID_LENGTH - KEY_PREFIX_LENGTH];
+        BigInteger remaining = value;
+        for (int i = chars.length - 1; i >= 0; i--) {
+            BigInteger[] quotientAndRemainder = remaining.divideAndRemainder(RADIX);
+            chars[i] = DIGITS.charAt(quotientAndRemainder[1].intValue());
+            remaining = quotientAndRemainder[0];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.io.CountingOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A request body that is generated as JSON straight onto the connection when the request is sent, rather than being
+ * built up as a String first.
+ *
+ * The body is first sent chunked, since finding its length up front would mean generating it twice. Its length is
+ * remembered once it has been generated, so a retry is sent with a Content-Length. It is generated again for every
+ * attempt at sending it, so it is repeatable.
+ */
+@NotThreadSafe
+final class JsonEntity extends AbstractHttpEntity {
+
+    private final JsonFactory jsonFactory;
+
+    private final JsonBody body;
+
+    /**
+     * -1 until the body has been generated
+     */
+    private long length = -1;
+
+    JsonEntity(@Nonnull JsonFactory jsonFactory, @Nonnull JsonBody body) {
+        this.jsonFactory = jsonFactory;
+        this.body = body;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return this.length;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return this.length < 0;
+    }
+
+    /**
+     * Only for callers that need to read the body back, e.g. to log it. Requests are sent with writeTo().
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generate(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        generate(outstream);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private void generate(OutputStream out) throws IOException {
+        CountingOutputStream countingOut = new CountingOutputStream(out);
+        JsonGenerator jsonGenerator = this.jsonFactory.createGenerator(countingOut, JsonEncoding.UTF8);
+        // the connection's stream belongs to HttpClient
+        jsonGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.body.writeTo(jsonGenerator);
+        jsonGenerator.close();
+        this.length = countingOut.getCount();
+    }
+
+    /**
+     * Writes the body of a request.
+     */
+    interface JsonBody {
+
+        /**
+         * Called each time the body is sent, and must write the same thing each time.
+         *
+         * @param jsonGenerator generator to write the body to. The caller closes it.
+         *
+         * @throws IOException on error
+         */
+        void writeTo(@Nonnull JsonGenerator jsonGenerator) throws IOException;
+    }
+}
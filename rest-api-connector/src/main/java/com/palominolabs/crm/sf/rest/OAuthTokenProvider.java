@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+
+/**
+ * Gets a new OAuth token for an org when Salesforce rejects the current one, e.g. by using a refresh token.
+ */
+@ThreadSafe
+public interface OAuthTokenProvider {
+
+    /**
+     * Only one refresh runs at a time for an org. Requests that get a 401 while it runs wait for it and then use its
+     * result.
+     *
+     * @param rejectedToken the token Salesforce rejected
+     *
+     * @return a new token
+     *
+     * @throws IOException if a token couldn't be obtained. Every request waiting on the refresh fails with it.
+     */
+    @Nonnull
+    String refreshToken(@Nonnull String rejectedToken) throws IOException;
+}
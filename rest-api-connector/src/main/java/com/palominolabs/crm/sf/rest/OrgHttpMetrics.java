@@ -0,0 +1,269 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.io.CountingOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Request and response body sizes for an org, and a breakdown of each operation's time into waiting to lease a pooled
+ * connection, the HTTP exchange up to the response headers, and reading and decoding the response body.
+ */
+@ThreadSafe
+final class OrgHttpMetrics {
+
+    private final MetricRegistry metricRegistry;
+
+    private final String prefix;
+
+    private final Histogram requestBytes;
+
+    private final Histogram responseBytes;
+
+    private final ConcurrentMap<String, OperationTimers> operationTimers =
+            new ConcurrentHashMap<String, OperationTimers>();
+
+    /**
+     * @param metricRegistry metric registry
+     * @param prefix         prefix of the org's metric names
+     */
+    OrgHttpMetrics(@Nonnull MetricRegistry metricRegistry, @Nonnull String prefix) {
+        this.metricRegistry = metricRegistry;
+        this.prefix = prefix;
+        this.requestBytes = metricRegistry.histogram(name(prefix, "requestBytes"));
+        this.responseBytes = metricRegistry.histogram(name(prefix, "responseBytes"));
+    }
+
+    /**
+     * Record the size of a request's body as it will be sent, if it has one. A body that doesn't know its length (i.e.
+     * one that is sent chunked) is replaced with one that records its size the first time it is written.
+     *
+     * @param request the request
+     */
+    void recordRequestSize(@Nonnull HttpRequest request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+
+        HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+        HttpEntity entity = enclosingRequest.getEntity();
+        if (entity == null) {
+            return;
+        }
+
+        if (entity.getContentLength() >= 0) {
+            this.requestBytes.update(entity.getContentLength());
+        } else {
+            enclosingRequest.setEntity(new SizeRecordingRequestEntity(entity));
+        }
+    }
+
+    /**
+     * Replace the response's entity with one that records the size of the body as it arrived once it has been read or
+     * closed. Must be called before the entity is decompressed.
+     *
+     * @param response the response
+     */
+    void wrapResponseEntity(@Nonnull HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            response.setEntity(new SizeRecordingEntity(entity));
+        }
+    }
+
+    /**
+     * @param operation     the operation, e.g. "query"
+     * @param leaseNanos    time spent waiting for a pooled connection
+     * @param exchangeNanos time spent sending the request and waiting for the response headers
+     * @param decodeNanos   time spent reading and decoding the response body
+     */
+    void recordTimes(@Nonnull String operation, long leaseNanos, long exchangeNanos, long decodeNanos) {
+        OperationTimers timers = getTimers(operation);
+        timers.leaseWait.update(leaseNanos, TimeUnit.NANOSECONDS);
+        timers.exchange.update(exchangeNanos, TimeUnit.NANOSECONDS);
+        timers.decode.update(decodeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Nonnull
+    private OperationTimers getTimers(String operation) {
+        OperationTimers timers = this.operationTimers.get(operation);
+        if (timers == null) {
+            OperationTimers newTimers = new OperationTimers(
+                    this.metricRegistry.timer(name(this.prefix, operation, "leaseWait")),
+                    this.metricRegistry.timer(name(this.prefix, operation, "exchange")),
+                    this.metricRegistry.timer(name(this.prefix, operation, "decode")));
+            timers = this.operationTimers.putIfAbsent(operation, newTimers);
+            if (timers == null) {
+                timers = newTimers;
+            }
+        }
+        return timers;
+    }
+
+    private static final class OperationTimers {
+        private final Timer leaseWait;
+        private final Timer exchange;
+        private final Timer decode;
+
+        private OperationTimers(Timer leaseWait, Timer exchange, Timer decode) {
+            this.leaseWait = leaseWait;
+            this.exchange = exchange;
+            this.decode = decode;
+        }
+    }
+
+    @NotThreadSafe
+    private final class SizeRecordingEntity extends HttpEntityWrapper {
+
+        /**
+         * HttpClient's entities can only be read once, so the stream is kept around for EntityUtils.consume() to close
+         */
+        @CheckForNull
+        private InputStream content;
+
+        private SizeRecordingEntity(HttpEntity wrappedEntity) {
+            super(wrappedEntity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (this.content == null) {
+                this.content = new SizeRecordingInputStream(super.getContent());
+            }
+
+            return this.content;
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            InputStream in = getContent();
+            try {
+                byte[] buf = new byte[4096];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    outstream.write(buf, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    @NotThreadSafe
+    private final class SizeRecordingRequestEntity extends HttpEntityWrapper {
+
+        private boolean recorded = false;
+
+        private SizeRecordingRequestEntity(HttpEntity wrappedEntity) {
+            super(wrappedEntity);
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            CountingOutputStream counter = new CountingOutputStream(outstream);
+            super.writeTo(counter);
+
+            if (!this.recorded) {
+                this.recorded = true;
+                requestBytes.update(counter.getCount());
+            }
+        }
+    }
+
+    /**
+     * Records the number of bytes read at the end of the stream or when it is closed, whichever comes first.
+     */
+    @NotThreadSafe
+    private final class SizeRecordingInputStream extends FilterInputStream {
+
+        private long bytes = 0;
+
+        private boolean recorded = false;
+
+        private SizeRecordingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                record();
+            } else {
+                this.bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read == -1) {
+                record();
+            } else {
+                this.bytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            this.bytes += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            record();
+            super.close();
+        }
+
+        private void record() {
+            if (!this.recorded) {
+                this.recorded = true;
+                responseBytes.update(this.bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits the requests made to one org, much like CallSemaphore does for the SOAP connector: at most a fixed number of
+ * requests in flight, started at no more than a fixed rate.
+ *
+ * Salesforce reports the org's API usage against its rolling 24 hour allowance in the Sforce-Limit-Info header of each
+ * response. Once less than {@link #THROTTLE_FRACTION} of the allowance remains, the rate is scaled down in proportion
+ * to what remains, so that the last of the allowance is spread out rather than spent in a burst. Once the allowance is
+ * used up, requests are rejected locally instead of being sent, since Salesforce would only reject them with
+ * REQUEST_LIMIT_EXCEEDED. After a pause a request is let through again to find out if usage has dropped, and the full
+ * rate comes back once the header shows enough of the allowance again.
+ *
+ * The limits can be changed with {@link #setLimits(int, double)} while requests are in flight, so that reconfiguring
+ * an org keeps its in-flight count and what the header has shown about its allowance.
+ */
+@ThreadSafe
+final class OrgRequestLimiter {
+
+    static final String LIMIT_INFO_HEADER = "Sforce-Limit-Info";
+
+    /**
+     * How long to reject requests for after the header shows the allowance is used up
+     */
+    static final long EXHAUSTED_PAUSE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    /**
+     * Fraction of the allowance below which the rate is scaled down
+     */
+    static final double THROTTLE_FRACTION = 0.1;
+
+    /**
+     * The rate is never scaled down to less than this fraction of the configured rate
+     */
+    static final double MIN_RATE_FRACTION = 0.01;
+
+    private static final Pattern API_USAGE_PATTERN = Pattern.compile("api-usage=(\\d+)/(\\d+)");
+
+    private static final Logger logger = LoggerFactory.getLogger(OrgRequestLimiter.class);
+
+    @GuardedBy("this")
+    private int maxConcurrentRequests;
+
+    /**
+     * the configured rate, before any scaling down
+     */
+    private volatile double maxRequestsPerSecond;
+
+    private final ResizableSemaphore concurrency;
+
+    private final RateLimiter rateLimiter;
+
+    private final Timer waitTimer;
+
+    private final Meter rejections;
+
+    private final Ticker ticker;
+
+    /**
+     * Ticker time until which requests are rejected, or 0
+     */
+    private volatile long rejectUntil = 0;
+
+    /**
+     * the rate rateLimiter was last set to, so that it is only changed when the scaled rate changes
+     */
+    private volatile double requestsPerSecond;
+
+    /**
+     * the most recently reported remaining allowance, or -1 if none has been reported
+     */
+    private volatile long remainingApiCalls = -1;
+
+    /**
+     * the most recently reported whole allowance, or -1 if none has been reported
+     */
+    private volatile long apiCallLimit = -1;
+
+    /**
+     * @param maxConcurrentRequests max requests in flight
+     * @param requestsPerSecond     max rate at which requests are started
+     * @param waitTimer             timer for time spent waiting to be allowed to send a request
+     * @param rejections            meter for requests rejected because the allowance is used up
+     */
+    OrgRequestLimiter(int maxConcurrentRequests, double requestsPerSecond, @Nonnull Timer waitTimer,
+            @Nonnull Meter rejections) {
+        this(maxConcurrentRequests, requestsPerSecond, waitTimer, rejections, Ticker.systemTicker());
+    }
+
+    OrgRequestLimiter(int maxConcurrentRequests, double requestsPerSecond, @Nonnull Timer waitTimer,
+            @Nonnull Meter rejections, @Nonnull Ticker ticker) {
+        checkLimits(maxConcurrentRequests, requestsPerSecond);
+
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.maxRequestsPerSecond = requestsPerSecond;
+        this.requestsPerSecond = requestsPerSecond;
+        this.concurrency = new ResizableSemaphore(maxConcurrentRequests);
+        this.rateLimiter = RateLimiter.create(requestsPerSecond);
+        this.waitTimer = waitTimer;
+        this.rejections = rejections;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Wait until a request may be sent. Every successful call must be followed by a call to {@link #release()}.
+     *
+     * @throws RequestLimitException  if the org's allowance is used up
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    void acquire() throws RequestLimitException, InterruptedIOException {
+        long rejectUntilTime = this.rejectUntil;
+        if (rejectUntilTime != 0 && this.ticker.read() - rejectUntilTime < 0) {
+            this.rejections.mark();
+            throw new RequestLimitException("The org's API request allowance is used up");
+        }
+
+        Timer.Context context = this.waitTimer.time();
+        try {
+            this.concurrency.acquire();
+            this.rateLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send a request");
+        } finally {
+            context.stop();
+        }
+    }
+
+    /**
+     * Wait until a request may be sent, but no longer than the timeout. Every successful call must be followed by a
+     * call to {@link #release()}.
+     *
+     * @param timeout the longest to wait
+     * @param unit    unit of timeout
+     *
+     * @return true if a request may be sent, false if the timeout passed first
+     *
+     * @throws RequestLimitException  if the org's allowance is used up
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    boolean tryAcquire(long timeout, @Nonnull TimeUnit unit) throws RequestLimitException, InterruptedIOException {
+        long rejectUntilTime = this.rejectUntil;
+        if (rejectUntilTime != 0 && this.ticker.read() - rejectUntilTime < 0) {
+            this.rejections.mark();
+            throw new RequestLimitException("The org's API request allowance is used up");
+        }
+
+        long start = this.ticker.read();
+        Timer.Context context = this.waitTimer.time();
+        try {
+            if (!this.concurrency.tryAcquire(timeout, unit)) {
+                return false;
+            }
+
+            long remainingNanos = unit.toNanos(timeout) - (this.ticker.read() - start);
+            if (!this.rateLimiter.tryAcquire(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS)) {
+                this.concurrency.release();
+                return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send a request");
+        } finally {
+            context.stop();
+        }
+    }
+
+    void release() {
+        this.concurrency.release();
+    }
+
+    /**
+     * Update the remaining allowance, and the rate that follows from it, from a response.
+     *
+     * @param response a response from the org
+     */
+    void onResponse(@Nonnull HttpResponse response) {
+        Header header = response.getFirstHeader(LIMIT_INFO_HEADER);
+        if (header == null) {
+            return;
+        }
+
+        Matcher matcher = API_USAGE_PATTERN.matcher(header.getValue());
+        if (!matcher.find()) {
+            logger.debug("Couldn't parse " + LIMIT_INFO_HEADER + " <" + header.getValue() + ">");
+            return;
+        }
+
+        long used = Long.parseLong(matcher.group(1));
+        long limit = Long.parseLong(matcher.group(2));
+        long remaining = Math.max(0, limit - used);
+        this.remainingApiCalls = remaining;
+        this.apiCallLimit = limit;
+
+        if (remaining == 0) {
+            this.rejectUntil = this.ticker.read() + EXHAUSTED_PAUSE_NANOS;
+        } else {
+            this.rejectUntil = 0;
+        }
+
+        if (getScaledRate(this.maxRequestsPerSecond, remaining, limit) != this.requestsPerSecond) {
+            updateRate();
+        }
+    }
+
+    /**
+     * Change the limits without losing track of the requests in flight or of the allowance. If fewer requests may now
+     * be in flight than already are, no more are let through until enough have been released.
+     *
+     * @param maxConcurrentRequests max requests in flight
+     * @param requestsPerSecond     max rate at which requests are started, before any scaling down
+     */
+    synchronized void setLimits(int maxConcurrentRequests, double requestsPerSecond) {
+        checkLimits(maxConcurrentRequests, requestsPerSecond);
+
+        int delta = maxConcurrentRequests - this.maxConcurrentRequests;
+        if (delta > 0) {
+            this.concurrency.release(delta);
+        } else if (delta < 0) {
+            this.concurrency.reducePermits(-delta);
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+
+        this.maxRequestsPerSecond = requestsPerSecond;
+        updateRate();
+    }
+
+    /**
+     * Set the rate limiter to the configured rate scaled by the latest allowance.
+     */
+    private synchronized void updateRate() {
+        long remaining = this.remainingApiCalls;
+        long limit = this.apiCallLimit;
+        double rate = remaining < 0 ? this.maxRequestsPerSecond :
+                getScaledRate(this.maxRequestsPerSecond, remaining, limit);
+        if (rate != this.requestsPerSecond) {
+            this.requestsPerSecond = rate;
+            this.rateLimiter.setRate(rate);
+        }
+    }
+
+    /**
+     * @param maxRate   the configured rate
+     * @param remaining remaining allowance
+     * @param limit     the whole allowance
+     *
+     * @return the rate to start requests at
+     */
+    private static double getScaledRate(double maxRate, long remaining, long limit) {
+        double threshold = limit * THROTTLE_FRACTION;
+        if (remaining >= threshold) {
+            return maxRate;
+        }
+
+        return Math.max(maxRate * MIN_RATE_FRACTION, maxRate * remaining / threshold);
+    }
+
+    private static void checkLimits(int maxConcurrentRequests, double requestsPerSecond) {
+        checkArgument(maxConcurrentRequests > 0, "Max concurrent requests must be at least 1, was %s",
+                maxConcurrentRequests);
+        checkArgument(requestsPerSecond > 0, "Requests per second must be positive, was %s", requestsPerSecond);
+    }
+
+    /**
+     * @return the remaining allowance as of the latest response, or -1 if it isn't known
+     */
+    long getRemainingApiCalls() {
+        return this.remainingApiCalls;
+    }
+
+    /**
+     * @return the rate requests are currently started at
+     */
+    double getRequestsPerSecond() {
+        return this.requestsPerSecond;
+    }
+
+    /**
+     * @return the most requests that may be in flight at once
+     */
+    synchronized int getMaxConcurrentRequests() {
+        return this.maxConcurrentRequests;
+    }
+
+    @Override
+    public String toString() {
+        return "OrgRequestLimiter{availablePermits=" + concurrency.availablePermits() + ", rate=" +
+                rateLimiter.getRate() + ", remainingApiCalls=" + remainingApiCalls + '}';
+    }
+
+    /**
+     * Fair, and can have permits taken away
+     */
+    private static final class ResizableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
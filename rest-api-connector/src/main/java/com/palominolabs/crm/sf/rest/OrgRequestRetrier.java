@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Counter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies a RetryPolicy to the requests for one org, and holds that org's retry budget.
+ */
+@ThreadSafe
+final class OrgRequestRetrier {
+
+    /**
+     * budget is tracked in thousandths of a retry so that fractional refills can be done atomically
+     */
+    private static final long MILLI_TOKENS_PER_RETRY = 1000;
+
+    private final RetryPolicy policy;
+
+    private final AtomicLong budgetMilliTokens;
+
+    private final long maxBudgetMilliTokens;
+
+    private final long refillMilliTokens;
+
+    private final Counter retries;
+
+    private final Counter giveUps;
+
+    private final Random random = new Random();
+
+    /**
+     * @param policy  the policy to apply
+     * @param retries counter for retries
+     * @param giveUps counter for requests that failed with a transient error but were not retried because attempts or
+     *                budget ran out
+     */
+    OrgRequestRetrier(@Nonnull RetryPolicy policy, @Nonnull Counter retries, @Nonnull Counter giveUps) {
+        this.policy = policy;
+        this.maxBudgetMilliTokens = policy.getRetryBudget() * MILLI_TOKENS_PER_RETRY;
+        this.budgetMilliTokens = new AtomicLong(this.maxBudgetMilliTokens);
+        this.refillMilliTokens = Math.round(policy.getBudgetRefillPerSuccess() * MILLI_TOKENS_PER_RETRY);
+        this.retries = retries;
+        this.giveUps = giveUps;
+    }
+
+    /**
+     * @param request the request that failed
+     * @param e       why it failed
+     * @param attempt how many times the request has been sent
+     *
+     * @return true if the request should be sent again. If so, a retry has been taken from the budget.
+     */
+    boolean shouldRetry(@Nonnull HttpUriRequest request, @Nonnull IOException e, int attempt) {
+        if (!isTransient(e) || !isRepeatable(request)) {
+            return false;
+        }
+
+        if (attempt >= this.policy.getMaxAttempts() || !takeFromBudget()) {
+            this.giveUps.inc();
+            return false;
+        }
+
+        this.retries.inc();
+        return true;
+    }
+
+    /**
+     * @param attempt how many times the request has been sent
+     *
+     * @return how long to wait before sending it again
+     */
+    long getBackoffMillis(int attempt) {
+        long bound = this.policy.getInitialBackoffMillis();
+        for (int i = 1; i < attempt && bound < this.policy.getMaxBackoffMillis(); i++) {
+            bound *= 2;
+        }
+        bound = Math.min(bound, this.policy.getMaxBackoffMillis());
+
+        if (bound <= 0) {
+            return 0;
+        }
+
+        synchronized (this.random) {
+            return (long) (this.random.nextDouble() * bound);
+        }
+    }
+
+    /**
+     * Earn back part of a retry.
+     */
+    void onSuccess() {
+        while (true) {
+            long current = this.budgetMilliTokens.get();
+            if (current >= this.maxBudgetMilliTokens) {
+                return;
+            }
+
+            long refilled = Math.min(this.maxBudgetMilliTokens, current + this.refillMilliTokens);
+            if (this.budgetMilliTokens.compareAndSet(current, refilled)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of whole retries left in the budget
+     */
+    long getRemainingBudget() {
+        return this.budgetMilliTokens.get() / MILLI_TOKENS_PER_RETRY;
+    }
+
+    private boolean takeFromBudget() {
+        while (true) {
+            long current = this.budgetMilliTokens.get();
+            if (current < MILLI_TOKENS_PER_RETRY) {
+                return false;
+            }
+
+            if (this.budgetMilliTokens.compareAndSet(current, current - MILLI_TOKENS_PER_RETRY)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param request a request
+     *
+     * @return false if the request has a body that can only be sent once, e.g. one read from a caller's stream
+     */
+    static boolean hasRepeatableEntity(@Nonnull HttpUriRequest request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return true;
+        }
+
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        return entity == null || entity.isRepeatable();
+    }
+
+    private boolean isRepeatable(HttpUriRequest request) {
+        if (!hasRepeatableEntity(request)) {
+            return false;
+        }
+
+        String method = request.getMethod();
+        if ("GET".equals(method) || "DELETE".equals(method) || "PATCH".equals(method) || "HEAD".equals(method) ||
+                "PUT".equals(method)) {
+            return true;
+        }
+
+        return this.policy.isRetryNonIdempotent();
+    }
+
+    private static boolean isTransient(IOException e) {
+        if (e instanceof ApiException) {
+            return isTransient((ApiException) e);
+        }
+
+        if (e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException) {
+            return true;
+        }
+
+        // a locally rejected request, a thread interrupt, a malformed response, a partly written download, or a problem
+        // that won't go away
+        return !(e instanceof RequestLimitException || e instanceof InterruptedIOException ||
+                e instanceof ResponseParseException || e instanceof BlobTransferException ||
+                e instanceof UnknownHostException || e instanceof SSLException ||
+                e instanceof JsonProcessingException);
+    }
+
+    private static boolean isTransient(ApiException e) {
+        int code = e.getHttpResponseCode();
+        if (code == 502 || code == 503 || code == 504) {
+            return true;
+        }
+
+        for (ApiError error : e.getErrors()) {
+            if ("SERVER_UNAVAILABLE".equals(error.getErrorCode())) {
+                return true;
+            }
+            // the concurrent request limit clears as soon as other requests finish; the total one doesn't. Without a
+            // message there's no telling which one was hit, so don't retry.
+            String message = error.getMessage();
+            if ("REQUEST_LIMIT_EXCEEDED".equals(error.getErrorCode()) && message != null &&
+                    !message.contains("TotalRequests")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
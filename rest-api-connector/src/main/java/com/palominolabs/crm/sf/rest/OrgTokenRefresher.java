@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Timer;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Refreshes one org's OAuth token so that however many requests get a 401 at once, the token provider is only asked
+ * once. The first thread to report a rejected token runs the refresh; the rest wait for it.
+ */
+@ThreadSafe
+final class OrgTokenRefresher {
+
+    private final OAuthTokenProvider tokenProvider;
+
+    private final Listener listener;
+
+    /**
+     * time taken by the token provider, and the number of refreshes
+     */
+    private final Timer refreshTimer;
+
+    /**
+     * time requests spent blocked on a refresh, whether they ran it or waited for it
+     */
+    private final Timer waitTimer;
+
+    @GuardedBy("this")
+    private String currentToken;
+
+    /**
+     * the refresh in progress, or null
+     */
+    @GuardedBy("this")
+    @CheckForNull
+    private SettableFuture<String> refresh;
+
+    /**
+     * @param tokenProvider provider of new tokens
+     * @param initialToken  the token the org is configured with
+     * @param listener      told about each new token
+     * @param refreshTimer  timer for calls to the token provider
+     * @param waitTimer     timer for time spent blocked on a refresh
+     */
+    OrgTokenRefresher(@Nonnull OAuthTokenProvider tokenProvider, @Nonnull String initialToken,
+            @Nonnull Listener listener, @Nonnull Timer refreshTimer, @Nonnull Timer waitTimer) {
+        this.tokenProvider = tokenProvider;
+        this.currentToken = initialToken;
+        this.listener = listener;
+        this.refreshTimer = refreshTimer;
+        this.waitTimer = waitTimer;
+    }
+
+    @Nonnull
+    OAuthTokenProvider getTokenProvider() {
+        return tokenProvider;
+    }
+
+    /**
+     * @param rejectedToken the token that got a 401
+     *
+     * @return the token to retry with. If the rejected token has already been replaced, that is the replacement;
+     * otherwise it is the result of a refresh.
+     *
+     * @throws IOException if the refresh failed
+     */
+    @Nonnull
+    String refresh(@Nonnull String rejectedToken) throws IOException {
+        Timer.Context waitContext = this.waitTimer.time();
+        try {
+            SettableFuture<String> future;
+            boolean runRefresh = false;
+
+            synchronized (this) {
+                if (!this.currentToken.equals(rejectedToken)) {
+                    return this.currentToken;
+                }
+
+                if (this.refresh == null) {
+                    this.refresh = SettableFuture.create();
+                    runRefresh = true;
+                }
+                future = this.refresh;
+            }
+
+            if (runRefresh) {
+                runRefresh(rejectedToken, future);
+            }
+
+            return getResult(future);
+        } finally {
+            waitContext.stop();
+        }
+    }
+
+    /**
+     * Called when the org's token is replaced other than by a refresh.
+     *
+     * @param token the org's new token
+     */
+    synchronized void setToken(@Nonnull String token) {
+        this.currentToken = token;
+    }
+
+    private void runRefresh(String rejectedToken, SettableFuture<String> future) {
+        Timer.Context refreshContext = this.refreshTimer.time();
+        try {
+            String newToken = this.tokenProvider.refreshToken(rejectedToken);
+            synchronized (this) {
+                this.currentToken = newToken;
+                this.refresh = null;
+            }
+            this.listener.tokenRefreshed(this, newToken);
+            future.set(newToken);
+        } catch (Throwable t) {
+            synchronized (this) {
+                this.refresh = null;
+            }
+            future.setException(t);
+        } finally {
+            refreshContext.stop();
+        }
+    }
+
+    @Nonnull
+    private static String getResult(SettableFuture<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the OAuth token to be refreshed");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IOException("Couldn't refresh the OAuth token", e.getCause());
+        }
+    }
+
+    /**
+     * Told about each token a refresh produces, so that later requests start out with it.
+     */
+    interface Listener {
+        /**
+         * @param refresher the refresher that ran the refresh
+         * @param newToken  the new token
+         */
+        void tokenRefreshed(@Nonnull OrgTokenRefresher refresher, @Nonnull String newToken);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Helpers for building the queries of each partition.
+ */
+@Immutable
+final class PartitionedQueries {
+
+    /**
+     * Clauses that may not follow the WHERE clause of a partitioned query: the condition could not simply be added to
+     * the WHERE clause, or the clause would apply to each partition rather than to the whole query
+     */
+    private static final ImmutableSet<String> UNSUPPORTED_CLAUSES =
+            ImmutableSet.of("WITH", "GROUP", "HAVING", "ORDER", "LIMIT", "OFFSET", "FOR", "UPDATE");
+
+    private PartitionedQueries() {
+    }
+
+    /**
+     * @param soql      a query with at most a WHERE clause after its FROM clause
+     * @param condition condition to add
+     *
+     * @return the query with the condition ANDed onto its WHERE clause
+     *
+     * @throws IllegalArgumentException if the query has a clause after FROM other than WHERE
+     */
+    @Nonnull
+    static String addCondition(@Nonnull String soql, @Nonnull String condition) {
+        int depth = 0;
+        boolean afterFrom = false;
+        int whereStart = -1;
+
+        int i = 0;
+        while (i < soql.length()) {
+            char c = soql.charAt(i);
+            if (c == '\'') {
+                i = skipStringLiteral(soql, i);
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (Character.isLetter(c) || c == '_') {
+                int wordStart = i;
+                while (i < soql.length() && (Character.isLetterOrDigit(soql.charAt(i)) || soql.charAt(i) == '_')) {
+                    i++;
+                }
+
+                if (depth == 0) {
+                    String word = soql.substring(wordStart, i).toUpperCase(Locale.US);
+                    if (!afterFrom) {
+                        afterFrom = word.equals("FROM");
+                    } else if (word.equals("WHERE") && whereStart == -1) {
+                        whereStart = wordStart;
+                    } else if (UNSUPPORTED_CLAUSES.contains(word)) {
+                        throw new IllegalArgumentException(
+                                "A partitioned query can't have a " + word + " clause <" + soql + ">");
+                    }
+                }
+                continue;
+            }
+            i++;
+        }
+
+        if (!afterFrom) {
+            throw new IllegalArgumentException("Query has no FROM clause <" + soql + ">");
+        }
+
+        if (whereStart == -1) {
+            return soql.trim() + " WHERE " + condition;
+        }
+
+        String existing = soql.substring(whereStart + "WHERE".length()).trim();
+        return soql.substring(0, whereStart) + "WHERE (" + condition + ") AND (" + existing + ")";
+    }
+
+    /**
+     * @param field      the field to partition on
+     * @param boundaries SOQL literals in ascending order, without duplicates
+     *
+     * @return a condition for the values before the first boundary, one for each range between boundaries, and one for
+     * the values from the last boundary on. Every value matches exactly one of them.
+     */
+    @Nonnull
+    static ImmutableList<String> getRangeConditions(@Nonnull String field, @Nonnull List<String> boundaries) {
+        if (boundaries.isEmpty()) {
+            // the fields partitioned on are always set
+            return ImmutableList.of(field + " != null");
+        }
+
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        builder.add(field + " < " + boundaries.get(0));
+        for (int i = 1; i < boundaries.size(); i++) {
+            builder.add(field + " >= " + boundaries.get(i - 1) + " AND " + field + " < " + boundaries.get(i));
+        }
+        builder.add(field + " >= " + boundaries.get(boundaries.size() - 1));
+        return builder.build();
+    }
+
+    /**
+     * @param soql  query
+     * @param start index of the opening quote
+     *
+     * @return the index after the closing quote
+     */
+    private static int skipStringLiteral(@Nonnull String soql, int start) {
+        int i = start + 1;
+        while (i < soql.length()) {
+            char c = soql.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '\'') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string literal in query <" + soql + ">");
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Timer;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs each partition of a query as its own query/queryMore chain. The first page of every partition is fetched before
+ * the cursor is created, so that a bad query fails right away and the total size is known. After that, up to
+ * maxConcurrency tasks on the executor each walk one partition's locators at a time and put the pages into one queue,
+ * which the reader drains in whatever order the pages arrive. As in RestQueryCursorImpl, a task takes one of pagesAhead
+ * slots before it fetches a page and the reader gives it back when it takes the page, so however many tasks there are,
+ * at most pagesAhead later pages are fetched (or being fetched) ahead of the reader.
+ */
+@NotThreadSafe
+final class PartitionedQueryCursorImpl implements RestQueryCursor {
+
+    private final int totalSize;
+
+    /**
+     * first pages of the partitions, which the reader goes through before any of the later pages
+     */
+    private final Iterator<RestQueryResult> firstPages;
+
+    /**
+     * later pages fetched in the background that the reader hasn't gotten to yet
+     */
+    private final BlockingQueue<FetchedPage> pages = new LinkedBlockingQueue<FetchedPage>();
+
+    /**
+     * one permit for each later page the fetch tasks may fetch before the reader takes it
+     */
+    private final Semaphore slots;
+
+    private final List<Future<?>> fetchTasks = Lists.newArrayList();
+
+    private final Timer pageWaitTimer;
+
+    /**
+     * read by the fetch tasks
+     */
+    private volatile boolean closed = false;
+
+    private Iterator<RestSObject> currentRecords = Collections.<RestSObject>emptyList().iterator();
+
+    /**
+     * partitions whose last page hasn't been taken from the queue yet
+     */
+    private int unfinishedPartitions;
+
+    /**
+     * @param connection     connection to query with
+     * @param queries        the query for each partition
+     * @param options        the page size to ask for, or null for the default
+     * @param executor       executor to run queries on
+     * @param maxConcurrency the most partitions to query at a time
+     * @param pagesAhead     how many later pages may be fetched before the reader gets to them
+     * @param pageWaitTimer  timer for time spent waiting for a page that hasn't been fetched yet
+     *
+     * @throws IOException if the first page of any partition can't be fetched
+     */
+    PartitionedQueryCursorImpl(@Nonnull RestConnection connection, @Nonnull List<String> queries,
+            @Nullable RestQueryOptions options, @Nonnull ExecutorService executor, int maxConcurrency, int pagesAhead,
+            @Nonnull Timer pageWaitTimer) throws IOException {
+        checkArgument(!queries.isEmpty(), "There must be at least one partition");
+        checkArgument(maxConcurrency > 0, "Max concurrency must be at least 1, was %s", maxConcurrency);
+        checkArgument(pagesAhead > 0, "Pages ahead must be at least 1, was %s", pagesAhead);
+        checkNotNull(executor);
+
+        this.slots = new Semaphore(pagesAhead);
+        this.pageWaitTimer = pageWaitTimer;
+
+        List<RestQueryResult> firstPageList = fetchFirstPages(connection, queries, options, executor, maxConcurrency);
+
+        int total = 0;
+        Queue<RestQueryLocator> locators = new ConcurrentLinkedQueue<RestQueryLocator>();
+        for (RestQueryResult firstPage : firstPageList) {
+            total += firstPage.getTotalSize();
+            if (!firstPage.isDone()) {
+                locators.add(firstPage.getQueryLocator());
+            }
+        }
+        this.totalSize = total;
+        this.firstPages = firstPageList.iterator();
+        this.unfinishedPartitions = locators.size();
+
+        for (int i = 0; i < Math.min(maxConcurrency, locators.size()); i++) {
+            this.fetchTasks.add(executor.submit(new PartitionFetcher(connection, locators)));
+        }
+    }
+
+    @Override
+    public int getTotalSize() {
+        return this.totalSize;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        while (!this.currentRecords.hasNext()) {
+            if (this.closed) {
+                return false;
+            }
+
+            if (this.firstPages.hasNext()) {
+                this.currentRecords = this.firstPages.next().getSObjects().iterator();
+                continue;
+            }
+
+            if (this.unfinishedPartitions == 0) {
+                return false;
+            }
+
+            FetchedPage page = takePage();
+
+            if (page.failure != null) {
+                close();
+                Throwables.propagateIfPossible(page.failure, IOException.class);
+                throw new IOException("Couldn't fetch the next page", page.failure);
+            }
+
+            //noinspection ConstantConditions
+            this.currentRecords = page.result.getSObjects().iterator();
+            if (page.result.isDone()) {
+                this.unfinishedPartitions--;
+            }
+        }
+
+        return true;
+    }
+
+    @Nonnull
+    @Override
+    public RestSObject next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return this.currentRecords.next();
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.unfinishedPartitions = 0;
+        this.currentRecords = Collections.<RestSObject>emptyList().iterator();
+
+        for (Future<?> fetchTask : this.fetchTasks) {
+            // interrupts fetch tasks waiting for a slot
+            fetchTask.cancel(true);
+        }
+
+        this.pages.clear();
+    }
+
+    /**
+     * Fetch the first page of every partition, with the calling thread doing its share.
+     */
+    @Nonnull
+    private static List<RestQueryResult> fetchFirstPages(@Nonnull RestConnection connection,
+            @Nonnull List<String> queries, @Nullable RestQueryOptions options, @Nonnull ExecutorService executor,
+            int maxConcurrency) throws IOException {
+        FirstPageFetcher fetcher = new FirstPageFetcher(connection, queries, options);
+
+        List<Future<Void>> futures = Lists.newArrayList();
+        boolean succeeded = false;
+        try {
+            for (int i = 1; i < Math.min(maxConcurrency, queries.size()); i++) {
+                futures.add(executor.submit(fetcher));
+            }
+
+            fetcher.call();
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            succeeded = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a query");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IOException("Query failed", e.getCause());
+        } catch (CancellationException e) {
+            throw new IOException("Query was cancelled", e);
+        } finally {
+            if (!succeeded) {
+                fetcher.stop();
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        List<RestQueryResult> firstPages = Lists.newArrayListWithCapacity(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            firstPages.add(fetcher.results.get(i));
+        }
+        return firstPages;
+    }
+
+    @Nonnull
+    private FetchedPage takePage() throws InterruptedIOException {
+        Timer.Context context = this.pageWaitTimer.time();
+        try {
+            FetchedPage page = this.pages.take();
+            this.slots.release();
+            return page;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next page");
+        } finally {
+            context.stop();
+        }
+    }
+
+    /**
+     * Either a page or the reason the next page couldn't be fetched.
+     */
+    @Immutable
+    private static final class FetchedPage {
+        @CheckForNull
+        private final RestQueryResult result;
+
+        @CheckForNull
+        private final Throwable failure;
+
+        private FetchedPage(@Nullable RestQueryResult result, @Nullable Throwable failure) {
+            this.result = result;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Runs partition queries until there are none left. Several can share the list of queries.
+     */
+    private static final class FirstPageFetcher implements Callable<Void> {
+        private final RestConnection connection;
+        private final List<String> queries;
+        @Nullable
+        private final RestQueryOptions options;
+        private final AtomicReferenceArray<RestQueryResult> results;
+        private final AtomicInteger nextQuery = new AtomicInteger();
+
+        private volatile boolean stopped = false;
+
+        private FirstPageFetcher(RestConnection connection, List<String> queries, @Nullable RestQueryOptions options) {
+            this.connection = connection;
+            this.queries = queries;
+            this.options = options;
+            this.results = new AtomicReferenceArray<RestQueryResult>(queries.size());
+        }
+
+        @Override
+        public Void call() throws IOException {
+            int query;
+            while (!this.stopped && (query = this.nextQuery.getAndIncrement()) < this.queries.size()) {
+                try {
+                    String soql = this.queries.get(query);
+                    this.results.set(query, this.options == null ? this.connection.query(soql) :
+                            this.connection.query(soql, this.options));
+                } catch (IOException e) {
+                    stop();
+                    throw e;
+                } catch (RuntimeException e) {
+                    stop();
+                    throw e;
+                }
+            }
+            return null;
+        }
+
+        void stop() {
+            this.stopped = true;
+        }
+    }
+
+    /**
+     * Walks the locators of one partition at a time until there are no partitions left. Several can share the queue of
+     * locators.
+     */
+    private final class PartitionFetcher implements Runnable {
+
+        private final RestConnection connection;
+
+        private final Queue<RestQueryLocator> locators;
+
+        private PartitionFetcher(RestConnection connection, Queue<RestQueryLocator> locators) {
+            this.connection = connection;
+            this.locators = locators;
+        }
+
+        @Override
+        public void run() {
+            try {
+                RestQueryLocator locator;
+                while (!closed && (locator = this.locators.poll()) != null) {
+                    while (locator != null && !closed) {
+                        slots.acquire();
+                        RestQueryResult page = this.connection.queryMore(locator);
+                        pages.add(new FetchedPage(page, null));
+                        locator = page.isDone() ? null : page.getQueryLocator();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // the cursor was closed; nobody is waiting for more pages
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                // anything at all, so that the reader is never left waiting for a page that won't come. The queue is
+                // unbounded, so this can't block.
+                pages.add(new FetchedPage(null, t));
+            }
+        }
+    }
+}
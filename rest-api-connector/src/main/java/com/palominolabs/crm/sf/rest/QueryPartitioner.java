@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Splits a query into partitions that can be run concurrently. Each partition is a SOQL condition that is added to the
+ * query's WHERE clause.
+ *
+ * @see RestConnection#partitionedQueryCursor(String, QueryPartitioner, RestQueryOptions, ExecutorService, int,
+ *      int)
+ */
+public interface QueryPartitioner {
+
+    /**
+     * @return one condition per partition. Every record must match exactly one of them, so that each record of the
+     * query is read once.
+     */
+    @Nonnull
+    List<String> getConditions();
+}
@@ -16,28 +16,14 @@
 
 package com.palominolabs.crm.sf.rest;
 
-import javax.annotation.Nonnull;
-import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
 
-@Immutable
-final class ConnectionConfig {
-
-    private final String host;
-
-    private final String oauthToken;
-
-    ConnectionConfig(@Nonnull String host, @Nonnull String oauthToken) {
-        this.host = host;
-        this.oauthToken = oauthToken;
-    }
-
-    @Nonnull
-    String getHost() {
-        return host;
-    }
+/**
+ * Thrown instead of sending a request when an org's request budget has been used up.
+ */
+public class RequestLimitException extends IOException {
 
-    @Nonnull
-    String getOauthToken() {
-        return oauthToken;
+    public RequestLimitException(String message) {
+        super(message);
     }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aborts in-flight requests whose deadline has passed or whose calling thread has been interrupted. Timeouts taken from
+ * the deadline bound each connect and socket read, but not a response that keeps trickling in, and a blocked socket
+ * read doesn't notice interrupts, so a single background thread checks the watched requests every {@link
+ * #CHECK_INTERVAL_MILLIS} ms. Aborting a request makes the blocked call fail and closes its connection.
+ */
+@ThreadSafe
+final class RequestWatchdog {
+
+    static final long CHECK_INTERVAL_MILLIS = 50;
+
+    private final Set<Watch> watches = Collections.newSetFromMap(new ConcurrentHashMap<Watch, Boolean>());
+
+    /**
+     * @return the watchdog shared by all clients. Its thread is started the first time this is called.
+     */
+    @Nonnull
+    static RequestWatchdog get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Watch a request sent by the current thread until the returned watch is closed.
+     *
+     * @param request  the request
+     * @param deadline the request's deadline
+     *
+     * @return a watch, which must be closed when the request is done with
+     */
+    @Nonnull
+    Watch watch(@Nonnull HttpUriRequest request, @Nonnull CallDeadline deadline) {
+        Watch watch = new Watch(request, deadline, Thread.currentThread());
+        this.watches.add(watch);
+        return watch;
+    }
+
+    /**
+     * Abort every watched request whose deadline has passed or whose thread has been interrupted.
+     */
+    void check() {
+        for (Watch watch : this.watches) {
+            if (watch.deadline.isExpired() || watch.thread.isInterrupted()) {
+                this.watches.remove(watch);
+                watch.request.abort();
+            }
+        }
+    }
+
+    final class Watch {
+        private final HttpUriRequest request;
+        private final CallDeadline deadline;
+        private final Thread thread;
+
+        private Watch(HttpUriRequest request, CallDeadline deadline, Thread thread) {
+            this.request = request;
+            this.deadline = deadline;
+            this.thread = thread;
+        }
+
+        void close() {
+            watches.remove(this);
+        }
+    }
+
+    private static final class Holder {
+        private static final RequestWatchdog INSTANCE = new RequestWatchdog();
+
+        static {
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sf-rest-watchdog-%d").build())
+                    .scheduleWithFixedDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            INSTANCE.check();
+                        }
+                    }, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.SObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Collects up to {@link #MAX_SUB_REQUESTS} operations and sends them to the composite batch resource in a single round
+ * trip. Salesforce runs the sub requests in order, each in its own transaction.
+ *
+ * Obtain one from {@link RestConnection#batch()}.
+ */
+@NotThreadSafe
+public interface RestBatch {
+
+    /**
+     * The most sub requests Salesforce accepts in one batch
+     */
+    int MAX_SUB_REQUESTS = 25;
+
+    /**
+     * Add a create. Its result will have a SaveResult.
+     *
+     * @param sObject the sObject to create
+     *
+     * @return this
+     */
+    @Nonnull
+    RestBatch create(SObject sObject);
+
+    /**
+     * Add a retrieve. Its result will have an SObject.
+     *
+     * @param sObjectType type to retrieve
+     * @param id          id to retrieve
+     * @param fields      fields to retrieve
+     *
+     * @return this
+     */
+    @Nonnull
+    RestBatch retrieve(String sObjectType, Id id, List<String> fields);
+
+    /**
+     * Add an update. Its result will have no value.
+     *
+     * @param sObject the sObject to update
+     *
+     * @return this
+     */
+    @Nonnull
+    RestBatch update(SObject sObject);
+
+    /**
+     * Add a delete. Its result will have no value.
+     *
+     * @param sObjectType type to delete
+     * @param id          id to delete
+     *
+     * @return this
+     */
+    @Nonnull
+    RestBatch delete(String sObjectType, Id id);
+
+    /**
+     * Add a basic info request. Its result will have a BasicSObjectMetadataResult.
+     *
+     * @param sObjectType type to get info for
+     *
+     * @return this
+     */
+    @Nonnull
+    RestBatch getBasicObjectInfo(String sObjectType);
+
+    /**
+     * @param haltOnError true to have Salesforce skip the remaining sub requests once one fails. Defaults to false.
+     *
+     * @return this
+     */
+    @Nonnull
+    RestBatch haltOnError(boolean haltOnError);
+
+    /**
+     * @return the number of sub requests added so far
+     */
+    int size();
+
+    /**
+     * Send the batch. A sub request failing does not make this throw; the failure is in that sub request's result.
+     *
+     * @return one result per sub request, in the order they were added
+     *
+     * @throws IOException           if the batch as a whole failed
+     * @throws IllegalStateException if the batch is empty
+     */
+    @Nonnull
+    List<RestBatchResult> execute() throws IOException;
+}
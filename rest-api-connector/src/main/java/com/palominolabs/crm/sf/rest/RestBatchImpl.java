@@ -0,0 +1,246 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.SObject;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Sub requests are built with the same HttpApiClient factory methods as the individual requests, and their results are
+ * parsed the same way RestConnectionImpl parses the individual responses.
+ */
+@NotThreadSafe
+final class RestBatchImpl implements RestBatch {
+
+    private static final JsonResponseHandler<ObjectNode> TREE_HANDLER = new JsonResponseHandler<ObjectNode>() {
+        @Nonnull
+        @Override
+        public ObjectNode handle(@Nonnull JsonParser parser) throws IOException {
+            JsonNode node = parser.readValueAsTree();
+            if (!(node instanceof ObjectNode)) {
+                throw new ResponseParseException("Got a node that wasn't an object <" + node + ">");
+            }
+            return (ObjectNode) node;
+        }
+    };
+
+    private final RestConnectionImpl connection;
+
+    private final Timer timer;
+
+    private final List<SubRequest> subRequests = Lists.newArrayList();
+
+    private boolean haltOnError = false;
+
+    RestBatchImpl(RestConnectionImpl connection, Timer timer) {
+        this.connection = connection;
+        this.timer = timer;
+    }
+
+    @Nonnull
+    @Override
+    public RestBatch create(final SObject sObject) {
+        return add(new SubRequest(sObject) {
+            @Nonnull
+            @Override
+            HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newCreateRequest(sObject);
+            }
+
+            @Override
+            Object parseResult(@Nonnull JsonNode result) throws IOException {
+                return connection.getSaveResult(result.toString());
+            }
+        });
+    }
+
+    @Nonnull
+    @Override
+    public RestBatch retrieve(final String sObjectType, final Id id, final List<String> fields) {
+        return add(new SubRequest(null) {
+            @Nonnull
+            @Override
+            HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newRetrieveRequest(sObjectType, id, fields);
+            }
+
+            @Override
+            Object parseResult(@Nonnull JsonNode result) throws IOException {
+                return SObjectJsonParser.parseSObject(result.traverse());
+            }
+        });
+    }
+
+    @Nonnull
+    @Override
+    public RestBatch update(final SObject sObject) {
+        return add(new SubRequest(sObject) {
+            @Nonnull
+            @Override
+            HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newUpdateRequest(sObject);
+            }
+        });
+    }
+
+    @Nonnull
+    @Override
+    public RestBatch delete(final String sObjectType, final Id id) {
+        return add(new SubRequest(null) {
+            @Nonnull
+            @Override
+            HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newDeleteRequest(sObjectType, id);
+            }
+        });
+    }
+
+    @Nonnull
+    @Override
+    public RestBatch getBasicObjectInfo(final String sObjectType) {
+        return add(new SubRequest(null) {
+            @Nonnull
+            @Override
+            HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException {
+                return client.newBasicSObjectInfoRequest(sObjectType);
+            }
+
+            @Override
+            Object parseResult(@Nonnull JsonNode result) throws IOException {
+                return connection.getBasicObjectInfoResult(result.toString());
+            }
+        });
+    }
+
+    @Nonnull
+    @Override
+    public RestBatch haltOnError(boolean haltOnError) {
+        this.haltOnError = haltOnError;
+        return this;
+    }
+
+    @Override
+    public int size() {
+        return this.subRequests.size();
+    }
+
+    @Nonnull
+    @Override
+    public List<RestBatchResult> execute() throws IOException {
+        checkState(!this.subRequests.isEmpty(), "No sub requests have been added");
+
+        HttpApiClient client = this.connection.getHttpApiClient();
+
+        List<HttpUriRequest> requests = Lists.newArrayList();
+        List<SObject> bodies = Lists.newArrayList();
+        for (SubRequest subRequest : this.subRequests) {
+            requests.add(subRequest.newRequest(client));
+            bodies.add(subRequest.body);
+        }
+
+        ObjectNode response;
+        Timer.Context context = this.timer.time();
+        try {
+            response = client.compositeBatch(requests, bodies, this.haltOnError, TREE_HANDLER);
+        } finally {
+            context.stop();
+        }
+
+        JsonNode resultsNode = response.get("results");
+        if (!(resultsNode instanceof ArrayNode) || resultsNode.size() != requests.size()) {
+            throw new ResponseParseException(
+                    "Expected " + requests.size() + " sub request results but got <" + resultsNode + ">");
+        }
+
+        List<RestBatchResult> results = Lists.newArrayList();
+        for (int i = 0; i < requests.size(); i++) {
+            results.add(getResult(client, requests.get(i), this.subRequests.get(i), resultsNode.get(i)));
+        }
+
+        return results;
+    }
+
+    @Nonnull
+    private static RestBatchResult getResult(HttpApiClient client, HttpUriRequest request, SubRequest subRequest,
+            JsonNode resultNode) throws IOException {
+        int statusCode = resultNode.path("statusCode").intValue();
+        JsonNode result = resultNode.get("result");
+        boolean hasBody = result != null && !result.isNull();
+
+        if (statusCode >= 200 && statusCode < 300) {
+            return RestBatchResult.getSuccess(statusCode, hasBody ? subRequest.parseResult(result) : null);
+        }
+
+        String reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(statusCode, Locale.ENGLISH);
+        return RestBatchResult.getFailure(client.getApiException(request.getURI().toString(), statusCode,
+                reason == null ? "" : reason, hasBody ? result.toString() : null));
+    }
+
+    @Nonnull
+    private RestBatch add(SubRequest subRequest) {
+        checkState(this.subRequests.size() < MAX_SUB_REQUESTS, "A batch can have at most %s sub requests",
+                MAX_SUB_REQUESTS);
+        this.subRequests.add(subRequest);
+        return this;
+    }
+
+    private abstract static class SubRequest {
+
+        /**
+         * the sObject whose fields are the request body, if any
+         */
+        @CheckForNull
+        final SObject body;
+
+        SubRequest(@Nullable SObject body) {
+            this.body = body;
+        }
+
+        @Nonnull
+        abstract HttpUriRequest newRequest(@Nonnull HttpApiClient client) throws IOException;
+
+        /**
+         * @param result the non-null result of a successful sub request
+         *
+         * @return the parsed result
+         *
+         * @throws IOException on error
+         */
+        @CheckForNull
+        Object parseResult(@Nonnull JsonNode result) throws IOException {
+            return null;
+        }
+    }
+}
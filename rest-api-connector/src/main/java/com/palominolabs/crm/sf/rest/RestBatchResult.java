@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.palominolabs.crm.sf.core.SObject;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The outcome of one sub request in a {@link RestBatch}. Which getter has a value depends on the kind of sub request;
+ * none do if the sub request failed.
+ */
+@Immutable
+public final class RestBatchResult {
+
+    private final int statusCode;
+
+    @Nullable
+    private final Object result;
+
+    @Nullable
+    private final ApiException exception;
+
+    private RestBatchResult(int statusCode, @Nullable Object result, @Nullable ApiException exception) {
+        this.statusCode = statusCode;
+        this.result = result;
+        this.exception = exception;
+    }
+
+    static RestBatchResult getSuccess(int statusCode, @Nullable Object result) {
+        return new RestBatchResult(statusCode, result, null);
+    }
+
+    static RestBatchResult getFailure(ApiException exception) {
+        return new RestBatchResult(exception.getHttpResponseCode(), null, exception);
+    }
+
+    /**
+     * @return the http status code of the sub request
+     */
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    public boolean isSuccess() {
+        return this.exception == null;
+    }
+
+    /**
+     * @return the error the sub request failed with, as the equivalent RestConnection method would have thrown it, or
+     * null if it succeeded
+     */
+    @CheckForNull
+    public ApiException getException() {
+        return this.exception;
+    }
+
+    /**
+     * @return the result of a create
+     */
+    @CheckForNull
+    public SaveResult getSaveResult() {
+        return get(SaveResult.class);
+    }
+
+    /**
+     * @return the result of a retrieve
+     */
+    @CheckForNull
+    public SObject getSObject() {
+        return get(SObject.class);
+    }
+
+    /**
+     * @return the result of a basic info request
+     */
+    @CheckForNull
+    public BasicSObjectMetadataResult getBasicObjectInfo() {
+        return get(BasicSObjectMetadataResult.class);
+    }
+
+    @CheckForNull
+    private <T> T get(Class<T> type) {
+        return type.isInstance(this.result) ? type.cast(this.result) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "RestBatchResult{statusCode=" + statusCode + ", result=" + result + ", exception=" + exception + '}';
+    }
+}
@@ -17,12 +17,21 @@
 package com.palominolabs.crm.sf.rest;
 
 import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.RecordBufferConfig;
 import com.palominolabs.crm.sf.core.SObject;
+import com.palominolabs.crm.sf.core.SpillingRecordBuffer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A RestConnection is a lightweight, threadsafe representation of the SF REST API for one specific organization. They
@@ -31,11 +40,141 @@ import java.util.List;
 @ThreadSafe
 public interface RestConnection {
 
+    /**
+     * The most records the sObject Collections resources accept in one request
+     */
+    int MAX_COLLECTION_SIZE = 200;
+
+    /**
+     * Get a connection whose calls must all finish within the timeout, starting now. Each request's connection lease,
+     * connect and socket timeouts are bounded by the time left, and a request that is still in flight when the deadline
+     * passes or the calling thread is interrupted is aborted and its connection released. For a per-call deadline, use
+     * e.g. {@code connection.withDeadline(5, TimeUnit.SECONDS).query(soql)}.
+     *
+     * @param timeout how long from now calls made with the returned connection have to finish
+     * @param unit    unit of timeout
+     *
+     * @return a connection to the same org whose calls fail with a {@link DeadlineExceededException} once the deadline
+     * passes, or an {@link java.io.InterruptedIOException} if the calling thread is interrupted. Neither is retried.
+     */
+    @Nonnull
+    RestConnection withDeadline(long timeout, @Nonnull TimeUnit unit);
+
+    /**
+     * @return a new, empty batch of sub requests to be sent in one round trip
+     */
+    @Nonnull
+    RestBatch batch();
+
     @Nonnull
     SaveResult create(SObject sObject) throws IOException;
 
+    /**
+     * Create an sObject with binary content, such as a ContentVersion, Document or Attachment, by sending its fields as
+     * JSON and the content as a separate multipart part. The content is copied from the file onto the connection a
+     * buffer at a time, so memory use doesn't depend on its size.
+     *
+     * @param sObject   the sObject to create. The blob field must not be set on it.
+     * @param blobField the blob field, e.g. VersionData or Body
+     * @param fileName  file name to send with the content
+     * @param file      file to read the content from. It is read again if the request is retried.
+     *
+     * @return the save result
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    SaveResult createWithBlob(SObject sObject, String blobField, String fileName, File file) throws IOException;
+
+    /**
+     * Like {@link #createWithBlob(SObject, String, String, File)}, but reads the content from a stream. Since a stream
+     * can only be read once, the request is neither retried nor resent with a refreshed token.
+     *
+     * @param sObject   the sObject to create. The blob field must not be set on it.
+     * @param blobField the blob field, e.g. VersionData or Body
+     * @param fileName  file name to send with the content
+     * @param content   stream to read the content from. It is read to the end but not closed.
+     * @param length    length of the content, or -1 if it isn't known, in which case the request is sent chunked
+     *
+     * @return the save result
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    SaveResult createWithBlob(SObject sObject, String blobField, String fileName, InputStream content, long length)
+            throws IOException;
+
     void delete(String sObjectType, Id id) throws IOException;
 
+    /**
+     * Create many sObjects with the sObject Collections resource. Lists of more than {@link #MAX_COLLECTION_SIZE}
+     * records are split into several requests, which may be sent concurrently.
+     *
+     * @param sObjects       the sObjects to create
+     * @param allOrNone      true to roll back every record in a request if any record in it fails. This only applies
+     *                       within each request of MAX_COLLECTION_SIZE records, not across the whole list.
+     * @param executor       executor to send requests on. May be null if maxConcurrency is 1.
+     * @param maxConcurrency the most requests to have in flight at once. The calling thread sends requests too, so at
+     *                       most maxConcurrency - 1 tasks are submitted to the executor.
+     *
+     * @return one save result per sObject, in the same order
+     *
+     * @throws IOException if any request fails. Requests that have not been sent by then are abandoned.
+     */
+    @Nonnull
+    List<SaveResult> create(List<? extends SObject> sObjects, boolean allOrNone, @Nullable ExecutorService executor,
+            int maxConcurrency) throws IOException;
+
+    /**
+     * Update many sObjects with the sObject Collections resource.
+     *
+     * @param sObjects       the sObjects to update. They must have ids.
+     * @param allOrNone      see {@link #create(List, boolean, ExecutorService, int)}
+     * @param executor       see {@link #create(List, boolean, ExecutorService, int)}
+     * @param maxConcurrency see {@link #create(List, boolean, ExecutorService, int)}
+     *
+     * @return one save result per sObject, in the same order
+     *
+     * @throws IOException if any request fails
+     */
+    @Nonnull
+    List<SaveResult> update(List<? extends SObject> sObjects, boolean allOrNone, @Nullable ExecutorService executor,
+            int maxConcurrency) throws IOException;
+
+    /**
+     * Upsert many sObjects with the sObject Collections resource.
+     *
+     * @param sObjects        the sObjects to upsert. They must all be of the same type, and have the external id field
+     *                        set.
+     * @param externalIdField field name of external id field
+     * @param allOrNone       see {@link #create(List, boolean, ExecutorService, int)}
+     * @param executor        see {@link #create(List, boolean, ExecutorService, int)}
+     * @param maxConcurrency  see {@link #create(List, boolean, ExecutorService, int)}
+     *
+     * @return one save result per sObject, in the same order
+     *
+     * @throws IOException if any request fails
+     */
+    @Nonnull
+    List<SaveResult> upsert(List<? extends SObject> sObjects, String externalIdField, boolean allOrNone,
+            @Nullable ExecutorService executor, int maxConcurrency) throws IOException;
+
+    /**
+     * Delete many records with the sObject Collections resource.
+     *
+     * @param ids            ids of the records to delete. They may be of different types.
+     * @param allOrNone      see {@link #create(List, boolean, ExecutorService, int)}
+     * @param executor       see {@link #create(List, boolean, ExecutorService, int)}
+     * @param maxConcurrency see {@link #create(List, boolean, ExecutorService, int)}
+     *
+     * @return one save result per id, in the same order
+     *
+     * @throws IOException if any request fails
+     */
+    @Nonnull
+    List<SaveResult> delete(List<Id> ids, boolean allOrNone, @Nullable ExecutorService executor, int maxConcurrency)
+            throws IOException;
+
     @Nonnull
     DescribeGlobalResult describeGlobal() throws IOException;
 
@@ -48,12 +187,140 @@ public interface RestConnection {
     @Nonnull
     RestQueryResult query(String soql) throws IOException;
 
+    /**
+     * @param soql    the query
+     * @param options the page size to ask for, and whether to decode records lazily. The result's locator carries the
+     *                options, so later pages fetched with {@link #queryMore(RestQueryLocator)} use them too.
+     *
+     * @return the first page of the query
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    RestQueryResult query(String soql, RestQueryOptions options) throws IOException;
+
+    /**
+     * @param queryLocator locator of the next page. If it came from a query with options, the page is fetched with
+     *                     them.
+     *
+     * @return the next page
+     *
+     * @throws IOException on error
+     */
     @Nonnull
     RestQueryResult queryMore(RestQueryLocator queryLocator) throws IOException;
 
+    /**
+     * Run a query and iterate over all of its records without having to call queryMore. The first page is fetched
+     * before this method returns. After that, the following pages are fetched on the executor while the caller works
+     * through the ones already fetched.
+     *
+     * @param soql       the query
+     * @param executor   executor to fetch pages on. One task is submitted per cursor, and it runs until every page has
+     *                   been fetched or the cursor is closed.
+     * @param pagesAhead the max number of pages to fetch ahead of the page being read. Must be at least 1.
+     *
+     * @return a cursor over every record of the query. Close it if it isn't read to the end.
+     *
+     * @throws IOException on error fetching the first page
+     */
+    @Nonnull
+    RestQueryCursor queryCursor(String soql, ExecutorService executor, int pagesAhead) throws IOException;
+
+    /**
+     * Like {@link #queryCursor(String, ExecutorService, int)}, but every page is fetched with the given options.
+     *
+     * @param soql       the query
+     * @param options    the page size to ask for
+     * @param executor   executor to fetch pages on
+     * @param pagesAhead the max number of pages to fetch ahead of the page being read. Must be at least 1.
+     *
+     * @return a cursor over every record of the query. Close it if it isn't read to the end.
+     *
+     * @throws IOException on error fetching the first page
+     */
+    @Nonnull
+    RestQueryCursor queryCursor(String soql, RestQueryOptions options, ExecutorService executor, int pagesAhead)
+            throws IOException;
+
+    /**
+     * Run a query and copy every record of every page into a buffer that keeps the first records on the heap in a
+     * compact binary form and spills the rest to temp files, so that a query result bigger than the heap can be
+     * iterated over as many times as needed.
+     *
+     * @param soql    the query
+     * @param options the page size to ask for, or null for the default
+     * @param config  how much of the buffer to keep on the heap, and where to put the temp files
+     *
+     * @return a buffer of every record of the query. It must be closed to delete the temp files.
+     *
+     * @throws IOException on error fetching a page or writing the temp files. The buffer is closed first.
+     */
+    @Nonnull
+    SpillingRecordBuffer<RestSObject> queryIntoBuffer(String soql, @Nullable RestQueryOptions options,
+            RecordBufferConfig config) throws IOException;
+
+    /**
+     * Split a query into partitions and run them concurrently, so that reading a large object isn't limited to one
+     * query/queryMore chain at a time. The records of all partitions are merged into one cursor, in no particular
+     * order. Each partition's requests count against the org's limits like any other, and no more partitions are run
+     * at once than the org's max concurrent requests allow.
+     *
+     * @param soql           the query. It may have a WHERE clause but no clauses after it, such as ORDER BY or LIMIT,
+     *                       since those would apply to each partition rather than to the whole query.
+     * @param partitioner    the partitions to split the query into
+     * @param options        the page size to ask for, or null for the default
+     * @param executor       executor to run the partitions on. The calling thread runs partitions too while fetching
+     *                       their first pages, so at most maxConcurrency - 1 tasks are submitted at first, and then at
+     *                       most maxConcurrency tasks, which run until every page has been fetched or the cursor is
+     *                       closed.
+     * @param maxConcurrency the most partitions to run at once
+     * @param pagesAhead     the max number of pages to fetch ahead of the page being read, across all partitions. Must
+     *                       be at least 1.
+     *
+     * @return a cursor over every record of every partition. Close it if it isn't read to the end.
+     *
+     * @throws IOException on error fetching the first page of any partition. The first pages are all fetched before
+     *                     this method returns.
+     */
+    @Nonnull
+    RestQueryCursor partitionedQueryCursor(String soql, QueryPartitioner partitioner,
+            @Nullable RestQueryOptions options, ExecutorService executor, int maxConcurrency, int pagesAhead)
+            throws IOException;
+
     @Nonnull
     SObject retrieve(String sObjectType, Id id, List<String> fields) throws IOException;
 
+    /**
+     * Download the contents of a blob field, such as ContentVersion.VersionData or Attachment.Body, a buffer at a time,
+     * so that memory use doesn't grow with the size of the blob.
+     *
+     * @param sObjectType the sObject type
+     * @param id          the record's id
+     * @param blobField   the blob field
+     * @param out         stream to write the contents to. It is not closed.
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException on error. If the download fails after some of the contents have been written, it is not
+     *                     retried and a {@link BlobTransferException} says how many bytes were written.
+     */
+    long retrieveBlob(String sObjectType, Id id, String blobField, OutputStream out) throws IOException;
+
+    /**
+     * Like {@link #retrieveBlob(String, Id, String, OutputStream)}, but writes to a channel, e.g. a FileChannel.
+     *
+     * @param sObjectType the sObject type
+     * @param id          the record's id
+     * @param blobField   the blob field
+     * @param channel     channel to write the contents to. It is not closed.
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException on error
+     */
+    long retrieveBlob(String sObjectType, Id id, String blobField, WritableByteChannel channel) throws IOException;
+
     @Nonnull
     List<SObject> search(String sosl) throws IOException;
 
@@ -15,52 +15,115 @@
  */
 package com.palominolabs.crm.sf.rest;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
 import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.RecordBufferConfig;
 import com.palominolabs.crm.sf.core.SObject;
+import com.palominolabs.crm.sf.core.SpillingRecordBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
 
 @ThreadSafe
 final class RestConnectionImpl implements RestConnection {
-    private static final String ID_KEY = "Id";
-    private static final String ATTRIBUTES_KEY = "attributes";
+
+    private static final Logger logger = LoggerFactory.getLogger(RestConnectionImpl.class);
+
+    static final JsonResponseHandler<RestQueryResult> QUERY_RESULT_HANDLER =
+            new JsonResponseHandler<RestQueryResult>() {
+                @Nonnull
+                @Override
+                public RestQueryResult handle(@Nonnull JsonParser parser) throws IOException {
+                    return SObjectJsonParser.parseQueryResult(parser);
+                }
+            };
+
+    private static final BufferedResponseHandler<RestQueryResult> LAZY_QUERY_RESULT_HANDLER =
+            new BufferedResponseHandler<RestQueryResult>() {
+                @Nonnull
+                @Override
+                public RestQueryResult handle(@Nonnull byte[] body) throws IOException {
+                    return SObjectJsonParser.parseQueryResultLazily(body);
+                }
+            };
+
+    static final JsonResponseHandler<RestSObject> SOBJECT_HANDLER = new JsonResponseHandler<RestSObject>() {
+        @Nonnull
+        @Override
+        public RestSObject handle(@Nonnull JsonParser parser) throws IOException {
+            return SObjectJsonParser.parseSObject(parser);
+        }
+    };
+
+    static final JsonResponseHandler<List<SObject>> SOBJECT_LIST_HANDLER =
+            new JsonResponseHandler<List<SObject>>() {
+                @Nonnull
+                @Override
+                public List<SObject> handle(@Nonnull JsonParser parser) throws IOException {
+                    return SObjectJsonParser.parseSObjects(parser);
+                }
+            };
 
     private final ObjectReader objectReader;
 
     private final HttpApiClientProvider httpApiClientProvider;
-    private final Timer createTimer;
-    private final Timer deleteTimer;
-    private final Timer describeGlobalTimer;
-    private final Timer describeSObjectTimer;
-    private final Timer queryTimer;
-    private final Timer queryMoreTimer;
-    private final Timer retrieveTimer;
-    private final Timer searchTimer;
-    private final Timer updateTimer;
-    private final Timer basicSObjectInfoTimer;
-    private final Timer upsertTimer;
+
+    // shared with AsyncRestConnectionImpl
+    final Timer createTimer;
+    private final Timer createWithBlobTimer;
+    final Timer deleteTimer;
+    final Timer describeGlobalTimer;
+    final Timer describeSObjectTimer;
+    final Timer queryTimer;
+    final Timer queryMoreTimer;
+    final Timer retrieveTimer;
+    private final Timer retrieveBlobTimer;
+    final Timer searchTimer;
+    final Timer updateTimer;
+    final Timer basicSObjectInfoTimer;
+    final Timer upsertTimer;
+    private final Timer queryCursorPageWaitTimer;
+    private final Timer partitionedQueryCursorPageWaitTimer;
+    private final Timer compositeBatchTimer;
+    private final Timer createCollectionTimer;
+    private final Timer updateCollectionTimer;
+    private final Timer upsertCollectionTimer;
+    private final Timer deleteCollectionTimer;
+    private final Histogram queryBatchSize;
+    private final Histogram queryRecordsPerPage;
+    private final Histogram retrieveBlobBytes;
 
     RestConnectionImpl(ObjectReader objectReader, HttpApiClientProvider httpApiClientProvider,
             MetricRegistry metricRegistry) {
         this.objectReader = objectReader;
         this.httpApiClientProvider = httpApiClientProvider;
         createTimer = metricRegistry.timer(name(RestConnectionImpl.class, "create.request"));
+        createWithBlobTimer = metricRegistry.timer(name(RestConnectionImpl.class, "createWithBlob.request"));
         deleteTimer = metricRegistry.timer(name(RestConnectionImpl.class, "delete.request"));
         describeGlobalTimer = metricRegistry.timer(name(RestConnectionImpl.class, "describeGlobal.request"));
         describeSObjectTimer = metricRegistry.timer(name(RestConnectionImpl.class, "describeSObject.request"));
@@ -68,9 +131,73 @@ final class RestConnectionImpl implements RestConnection {
         queryTimer = metricRegistry.timer(name(RestConnectionImpl.class, "query.request"));
         queryMoreTimer = metricRegistry.timer(name(RestConnectionImpl.class, "queryMore.request"));
         retrieveTimer = metricRegistry.timer(name(RestConnectionImpl.class, "retrieve.request"));
+        retrieveBlobTimer = metricRegistry.timer(name(RestConnectionImpl.class, "retrieveBlob.request"));
         searchTimer = metricRegistry.timer(name(RestConnectionImpl.class, "search.request"));
         updateTimer = metricRegistry.timer(name(RestConnectionImpl.class, "update.request"));
         upsertTimer = metricRegistry.timer(name(RestConnectionImpl.class, "upsert.request"));
+        queryCursorPageWaitTimer = metricRegistry.timer(name(RestConnectionImpl.class, "queryCursor.pageWait"));
+        partitionedQueryCursorPageWaitTimer =
+                metricRegistry.timer(name(RestConnectionImpl.class, "partitionedQueryCursor.pageWait"));
+        compositeBatchTimer = metricRegistry.timer(name(RestConnectionImpl.class, "compositeBatch.request"));
+        createCollectionTimer = metricRegistry.timer(name(RestConnectionImpl.class, "createCollection.request"));
+        updateCollectionTimer = metricRegistry.timer(name(RestConnectionImpl.class, "updateCollection.request"));
+        upsertCollectionTimer = metricRegistry.timer(name(RestConnectionImpl.class, "upsertCollection.request"));
+        deleteCollectionTimer = metricRegistry.timer(name(RestConnectionImpl.class, "deleteCollection.request"));
+        queryBatchSize = metricRegistry.histogram(name(RestConnectionImpl.class, "query.batchSize"));
+        queryRecordsPerPage = metricRegistry.histogram(name(RestConnectionImpl.class, "query.recordsPerPage"));
+        retrieveBlobBytes = metricRegistry.histogram(name(RestConnectionImpl.class, "retrieveBlob.bytes"));
+    }
+
+    /**
+     * @param original              connection to share timers with
+     * @param httpApiClientProvider provider to use instead of the original's
+     */
+    private RestConnectionImpl(RestConnectionImpl original, HttpApiClientProvider httpApiClientProvider) {
+        this.objectReader = original.objectReader;
+        this.httpApiClientProvider = httpApiClientProvider;
+        createTimer = original.createTimer;
+        createWithBlobTimer = original.createWithBlobTimer;
+        deleteTimer = original.deleteTimer;
+        describeGlobalTimer = original.describeGlobalTimer;
+        describeSObjectTimer = original.describeSObjectTimer;
+        basicSObjectInfoTimer = original.basicSObjectInfoTimer;
+        queryTimer = original.queryTimer;
+        queryMoreTimer = original.queryMoreTimer;
+        retrieveTimer = original.retrieveTimer;
+        retrieveBlobTimer = original.retrieveBlobTimer;
+        searchTimer = original.searchTimer;
+        updateTimer = original.updateTimer;
+        upsertTimer = original.upsertTimer;
+        queryCursorPageWaitTimer = original.queryCursorPageWaitTimer;
+        partitionedQueryCursorPageWaitTimer = original.partitionedQueryCursorPageWaitTimer;
+        compositeBatchTimer = original.compositeBatchTimer;
+        createCollectionTimer = original.createCollectionTimer;
+        updateCollectionTimer = original.updateCollectionTimer;
+        upsertCollectionTimer = original.upsertCollectionTimer;
+        deleteCollectionTimer = original.deleteCollectionTimer;
+        queryBatchSize = original.queryBatchSize;
+        queryRecordsPerPage = original.queryRecordsPerPage;
+        retrieveBlobBytes = original.retrieveBlobBytes;
+    }
+
+    @Override
+    @Nonnull
+    public RestConnection withDeadline(long timeout, @Nonnull TimeUnit unit) {
+        final CallDeadline deadline = new CallDeadline(timeout, unit, Ticker.systemTicker());
+
+        return new RestConnectionImpl(this, new HttpApiClientProvider() {
+            @Nonnull
+            @Override
+            public HttpApiClient getClient() {
+                return httpApiClientProvider.getClient().withDeadline(deadline);
+            }
+        });
+    }
+
+    @Override
+    @Nonnull
+    public RestBatch batch() {
+        return new RestBatchImpl(this, compositeBatchTimer);
     }
 
     @Override
@@ -85,6 +212,33 @@ final class RestConnectionImpl implements RestConnection {
         }
     }
 
+    @Override
+    @Nonnull
+    public SaveResult createWithBlob(SObject sObject, String blobField, String fileName, File file)
+            throws IOException {
+        Timer.Context context = createWithBlobTimer.time();
+
+        try {
+            return getSaveResult(this.getHttpApiClient().createWithBlob(sObject, blobField, fileName, file));
+        } finally {
+            context.stop();
+        }
+    }
+
+    @Override
+    @Nonnull
+    public SaveResult createWithBlob(SObject sObject, String blobField, String fileName, InputStream content,
+            long length) throws IOException {
+        Timer.Context context = createWithBlobTimer.time();
+
+        try {
+            return getSaveResult(
+                    this.getHttpApiClient().createWithBlob(sObject, blobField, fileName, content, length));
+        } finally {
+            context.stop();
+        }
+    }
+
     @Override
     public void delete(String sObjectType, Id id) throws IOException {
         Timer.Context context = deleteTimer.time();
@@ -95,17 +249,184 @@ final class RestConnectionImpl implements RestConnection {
         }
     }
 
+    @Override
+    @Nonnull
+    public List<SaveResult> create(List<? extends SObject> sObjects, final boolean allOrNone,
+            @Nullable ExecutorService executor, int maxConcurrency) throws IOException {
+        return SObjectCollections.saveInChunks(sObjects, new SObjectCollections.ChunkSaver<SObject>() {
+            @Nonnull
+            @Override
+            public List<SaveResult> save(@Nonnull List<SObject> chunk) throws IOException {
+                Timer.Context context = createCollectionTimer.time();
+                try {
+                    return getHttpApiClient().createCollection(chunk, allOrNone,
+                            SObjectCollections.SAVE_RESULTS_HANDLER);
+                } finally {
+                    context.stop();
+                }
+            }
+        }, executor, maxConcurrency);
+    }
+
+    @Override
+    @Nonnull
+    public List<SaveResult> update(List<? extends SObject> sObjects, final boolean allOrNone,
+            @Nullable ExecutorService executor, int maxConcurrency) throws IOException {
+        return SObjectCollections.saveInChunks(sObjects, new SObjectCollections.ChunkSaver<SObject>() {
+            @Nonnull
+            @Override
+            public List<SaveResult> save(@Nonnull List<SObject> chunk) throws IOException {
+                Timer.Context context = updateCollectionTimer.time();
+                try {
+                    return getHttpApiClient().updateCollection(chunk, allOrNone,
+                            SObjectCollections.SAVE_RESULTS_HANDLER);
+                } finally {
+                    context.stop();
+                }
+            }
+        }, executor, maxConcurrency);
+    }
+
+    @Override
+    @Nonnull
+    public List<SaveResult> upsert(List<? extends SObject> sObjects, final String externalIdField,
+            final boolean allOrNone, @Nullable ExecutorService executor, int maxConcurrency) throws IOException {
+        if (sObjects.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        final String sObjectType = sObjects.get(0).getType();
+        for (SObject sObject : sObjects) {
+            checkArgument(sObjectType.equals(sObject.getType()),
+                    "All sObjects in an upsert must have the same type, found <%s> and <%s>", sObjectType,
+                    sObject.getType());
+        }
+
+        return SObjectCollections.saveInChunks(sObjects, new SObjectCollections.ChunkSaver<SObject>() {
+            @Nonnull
+            @Override
+            public List<SaveResult> save(@Nonnull List<SObject> chunk) throws IOException {
+                Timer.Context context = upsertCollectionTimer.time();
+                try {
+                    return getHttpApiClient().upsertCollection(sObjectType, externalIdField, chunk, allOrNone,
+                            SObjectCollections.SAVE_RESULTS_HANDLER);
+                } finally {
+                    context.stop();
+                }
+            }
+        }, executor, maxConcurrency);
+    }
+
+    @Override
+    @Nonnull
+    public List<SaveResult> delete(List<Id> ids, final boolean allOrNone, @Nullable ExecutorService executor,
+            int maxConcurrency) throws IOException {
+        return SObjectCollections.saveInChunks(ids, new SObjectCollections.ChunkSaver<Id>() {
+            @Nonnull
+            @Override
+            public List<SaveResult> save(@Nonnull List<Id> chunk) throws IOException {
+                Timer.Context context = deleteCollectionTimer.time();
+                try {
+                    return getHttpApiClient().deleteCollection(chunk, allOrNone,
+                            SObjectCollections.SAVE_RESULTS_HANDLER);
+                } finally {
+                    context.stop();
+                }
+            }
+        }, executor, maxConcurrency);
+    }
+
     @Override
     @Nonnull
     public DescribeGlobalResult describeGlobal() throws IOException {
+        final HttpApiClient client = this.getHttpApiClient();
+        DescribeCache cache = client.getDescribeCache();
+        if (cache != null) {
+            return cache.get(DescribeCache.GLOBAL_KEY, DescribeGlobalResult.class,
+                    new DescribeCache.Fetcher<DescribeGlobalResult>() {
+                        @Nonnull
+                        @Override
+                        public DescribeCache.Response fetch(@Nullable String lastModified, @Nullable String eTag)
+                                throws IOException {
+                            Timer.Context context = describeGlobalTimer.time();
+                            try {
+                                return client.describeGlobal(lastModified, eTag);
+                            } finally {
+                                context.stop();
+                            }
+                        }
+
+                        @Nonnull
+                        @Override
+                        public DescribeGlobalResult parse(@Nullable String body) throws IOException {
+                            return getDescribeGlobalResult(body);
+                        }
+                    });
+        }
+
         Timer.Context context = describeGlobalTimer.time();
         String describeGlobalJson;
         try {
-            describeGlobalJson = this.getHttpApiClient().describeGlobal();
+            describeGlobalJson = client.describeGlobal();
         } finally {
             context.stop();
         }
 
+        return getDescribeGlobalResult(describeGlobalJson);
+    }
+
+    @Override
+    @Nonnull
+    public SObjectDescription describeSObject(final String sObjectType) throws IOException {
+        final HttpApiClient client = this.getHttpApiClient();
+        DescribeCache cache = client.getDescribeCache();
+        if (cache != null) {
+            return cache.get(sObjectType, SObjectDescription.class, new DescribeCache.Fetcher<SObjectDescription>() {
+                @Nonnull
+                @Override
+                public DescribeCache.Response fetch(@Nullable String lastModified, @Nullable String eTag)
+                        throws IOException {
+                    Timer.Context context = describeSObjectTimer.time();
+                    try {
+                        return client.describeSObject(sObjectType, lastModified, eTag);
+                    } finally {
+                        context.stop();
+                    }
+                }
+
+                @Nonnull
+                @Override
+                public SObjectDescription parse(@Nullable String body) throws IOException {
+                    return getSObjectDescription(body);
+                }
+            });
+        }
+
+        Timer.Context context = describeSObjectTimer.time();
+        String descrJson;
+        try {
+            descrJson = client.describeSObject(sObjectType);
+        } finally {
+            context.stop();
+        }
+        return getSObjectDescription(descrJson);
+    }
+
+    @Override
+    @Nonnull
+    public BasicSObjectMetadataResult getBasicObjectInfo(String sObjectType) throws IOException {
+        Timer.Context context = basicSObjectInfoTimer.time();
+        String jsonStr;
+        try {
+            jsonStr = this.getHttpApiClient().basicSObjectInfo(sObjectType);
+        } finally {
+            context.stop();
+        }
+        return getBasicObjectInfoResult(jsonStr);
+    }
+
+    @Nonnull
+    DescribeGlobalResult getDescribeGlobalResult(@Nullable String describeGlobalJson) throws IOException {
         ObjectNode objectNode = this.objectReader.withType(ObjectNode.class).readValue(describeGlobalJson);
         String encoding = objectNode.get("encoding").textValue();
         int maxBatchSize = objectNode.get("maxBatchSize").intValue();
@@ -124,29 +445,13 @@ final class RestConnectionImpl implements RestConnection {
         return new DescribeGlobalResult(encoding, maxBatchSize, descriptions);
     }
 
-    @Override
     @Nonnull
-    public SObjectDescription describeSObject(String sObjectType) throws IOException {
-        Timer.Context context = describeSObjectTimer.time();
-        String descrJson;
-        try {
-            descrJson = this.getHttpApiClient().describeSObject(sObjectType);
-        } finally {
-            context.stop();
-        }
+    SObjectDescription getSObjectDescription(@Nullable String descrJson) throws IOException {
         return this.objectReader.withType(SObjectDescription.class).readValue(descrJson);
     }
 
-    @Override
     @Nonnull
-    public BasicSObjectMetadataResult getBasicObjectInfo(String sObjectType) throws IOException {
-        Timer.Context context = basicSObjectInfoTimer.time();
-        String jsonStr;
-        try {
-            jsonStr = this.getHttpApiClient().basicSObjectInfo(sObjectType);
-        } finally {
-            context.stop();
-        }
+    BasicSObjectMetadataResult getBasicObjectInfoResult(@Nullable String jsonStr) throws IOException {
         ObjectNode objectNode = this.objectReader.withType(ObjectNode.class).readValue(jsonStr);
 
         BasicSObjectMetadata metadata =
@@ -154,7 +459,7 @@ final class RestConnectionImpl implements RestConnection {
 
         ArrayNode recentItems = this.objectReader.withType(ArrayNode.class).readValue(objectNode.get("recentItems"));
 
-        List<SObject> sObjects = getSObjects(recentItems.elements());
+        List<SObject> sObjects = SObjectJsonParser.parseSObjects(recentItems.traverse());
 
         return new BasicSObjectMetadataResult(metadata, sObjects);
     }
@@ -163,52 +468,173 @@ final class RestConnectionImpl implements RestConnection {
     @Nonnull
     public RestQueryResult query(String soql) throws IOException {
         Timer.Context context = queryTimer.time();
-        String json;
         try {
-            json = this.getHttpApiClient().query(soql);
+            return recordPage(this.getHttpApiClient().query(soql, QUERY_RESULT_HANDLER), null);
+        } finally {
+            context.stop();
+        }
+    }
+
+    @Override
+    @Nonnull
+    public RestQueryResult query(String soql, RestQueryOptions options) throws IOException {
+        Timer.Context context = queryTimer.time();
+        try {
+            RestQueryResult page = options.isLazyDecoding() ?
+                    this.getHttpApiClient().query(soql, options, LAZY_QUERY_RESULT_HANDLER) :
+                    this.getHttpApiClient().query(soql, options, QUERY_RESULT_HANDLER);
+            return recordPage(page, options);
         } finally {
             context.stop();
         }
-        return getQueryResult(this.objectReader.readValue(parse(json), JsonNode.class));
     }
 
     @Override
     @Nonnull
     public RestQueryResult queryMore(RestQueryLocator queryLocator) throws IOException {
         Timer.Context context = queryMoreTimer.time();
-        String json;
         try {
-            json = this.getHttpApiClient().queryMore(queryLocator);
+            RestQueryOptions options = queryLocator.getOptions();
+            RestQueryResult page = options != null && options.isLazyDecoding() ?
+                    this.getHttpApiClient().queryMore(queryLocator, LAZY_QUERY_RESULT_HANDLER) :
+                    this.getHttpApiClient().queryMore(queryLocator, QUERY_RESULT_HANDLER);
+            return recordPage(page, options);
         } finally {
             context.stop();
         }
-        return getQueryResult(this.objectReader.readValue(parse(json), JsonNode.class));
+    }
+
+    @Override
+    @Nonnull
+    public RestQueryCursor queryCursor(String soql, ExecutorService executor, int pagesAhead) throws IOException {
+        checkArgument(pagesAhead > 0, "Must fetch at least 1 page ahead, was %s", pagesAhead);
+
+        return new RestQueryCursorImpl(this, query(soql), executor, pagesAhead, queryCursorPageWaitTimer);
+    }
+
+    @Override
+    @Nonnull
+    public RestQueryCursor queryCursor(String soql, RestQueryOptions options, ExecutorService executor,
+            int pagesAhead) throws IOException {
+        checkArgument(pagesAhead > 0, "Must fetch at least 1 page ahead, was %s", pagesAhead);
+
+        return new RestQueryCursorImpl(this, query(soql, options), executor, pagesAhead, queryCursorPageWaitTimer);
+    }
+
+    @Override
+    @Nonnull
+    public SpillingRecordBuffer<RestSObject> queryIntoBuffer(String soql, @Nullable RestQueryOptions options,
+            RecordBufferConfig config) throws IOException {
+        SpillingRecordBuffer<RestSObject> buffer =
+                new SpillingRecordBuffer<RestSObject>(RestRecordCodec.INSTANCE, config);
+        boolean filled = false;
+        try {
+            RestQueryResult page = options == null ? query(soql) : query(soql, options);
+            buffer.addAll(page.getSObjects());
+
+            while (!page.isDone()) {
+                //noinspection ConstantConditions
+                page = queryMore(page.getQueryLocator());
+                buffer.addAll(page.getSObjects());
+            }
+
+            filled = true;
+            return buffer;
+        } finally {
+            if (!filled) {
+                try {
+                    buffer.close();
+                } catch (IOException e) {
+                    logger.warn("Couldn't delete the temp files of an unfinished query buffer", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    @Nonnull
+    public RestQueryCursor partitionedQueryCursor(String soql, QueryPartitioner partitioner,
+            @Nullable RestQueryOptions options, ExecutorService executor, int maxConcurrency, int pagesAhead)
+            throws IOException {
+        checkArgument(maxConcurrency > 0, "Max concurrency must be at least 1, was %s", maxConcurrency);
+
+        List<String> queries = Lists.newArrayList();
+        for (String condition : partitioner.getConditions()) {
+            queries.add(PartitionedQueries.addCondition(soql, condition));
+        }
+
+        // more partitions than the org allows requests would only wait on the limiter
+        int partitionConcurrency = Math.min(maxConcurrency, this.getHttpApiClient().getMaxConcurrentRequests());
+
+        return new PartitionedQueryCursorImpl(this, queries, options, executor, partitionConcurrency, pagesAhead,
+                partitionedQueryCursorPageWaitTimer);
+    }
+
+    /**
+     * Record the size of a page, and make sure its locator carries the query's options so the next page is fetched with
+     * them. Neither reads the page's records, so a lazily decoded page stays undecoded.
+     *
+     * @param page    a page of a query
+     * @param options the query's options, or null
+     *
+     * @return the page
+     */
+    @Nonnull
+    private RestQueryResult recordPage(@Nonnull RestQueryResult page, @Nullable RestQueryOptions options) {
+        queryRecordsPerPage.update(page.getSObjects().size());
+        if (options == null) {
+            return page;
+        }
+
+        queryBatchSize.update(options.getBatchSize());
+        RestQueryLocator locator = page.getQueryLocator();
+        if (page.isDone() || locator == null) {
+            return page;
+        }
+
+        return RestQueryResultImpl.getNotDone(page.getSObjects(), page.getTotalSize(),
+                new RestQueryLocator(locator.getContents(), options));
     }
 
     @Override
     @Nonnull
     public SObject retrieve(String sObjectType, Id id, List<String> fields) throws IOException {
         Timer.Context context = retrieveTimer.time();
-        String json;
         try {
-            json = this.getHttpApiClient().retrieve(sObjectType, id, fields);
+            return this.getHttpApiClient().retrieve(sObjectType, id, fields, SOBJECT_HANDLER);
+        } finally {
+            context.stop();
+        }
+    }
+
+    @Override
+    public long retrieveBlob(String sObjectType, Id id, String blobField, OutputStream out) throws IOException {
+        Timer.Context context = retrieveBlobTimer.time();
+        try {
+            long bytes = this.getHttpApiClient().retrieveBlob(sObjectType, id, blobField, out);
+            retrieveBlobBytes.update(bytes);
+            return bytes;
         } finally {
             context.stop();
         }
-        return getSObject(this.objectReader.readValue(parse(json), JsonNode.class));
+    }
+
+    @Override
+    public long retrieveBlob(String sObjectType, Id id, String blobField, WritableByteChannel channel)
+            throws IOException {
+        // the stream writes straight through to the channel, and closing it would close the channel
+        return retrieveBlob(sObjectType, id, blobField, Channels.newOutputStream(channel));
     }
 
     @Override
     @Nonnull
     public List<SObject> search(String sosl) throws IOException {
         Timer.Context context = searchTimer.time();
-        String json;
         try {
-            json = this.getHttpApiClient().search(sosl);
+            return this.getHttpApiClient().search(sosl, SOBJECT_LIST_HANDLER);
         } finally {
             context.stop();
         }
-        return getSObjects(this.objectReader.readValue(parse(json), ArrayNode.class).elements());
     }
 
     @Override
@@ -233,6 +659,11 @@ final class RestConnectionImpl implements RestConnection {
             context.stop();
         }
 
+        return getUpsertResult(statusCode);
+    }
+
+    @Nonnull
+    static UpsertResult getUpsertResult(int statusCode) {
         if (statusCode == 204) {
             return UpsertResult.UPDATED;
         }
@@ -245,30 +676,12 @@ final class RestConnectionImpl implements RestConnection {
     }
 
     @Nonnull
-    private HttpApiClient getHttpApiClient() {
+    HttpApiClient getHttpApiClient() {
         return this.httpApiClientProvider.getClient();
     }
 
-    /**
-     * @param elements an iterator across json elements, each of which represents an sObject
-     *
-     * @return list of SObjects
-     *
-     * @throws IOException on error
-     */
-    @Nonnull
-    private static List<SObject> getSObjects(Iterator<JsonNode> elements) throws IOException {
-        List<SObject> sObjects = Lists.newArrayList();
-        while (elements.hasNext()) {
-            JsonNode node = elements.next();
-
-            sObjects.add(getSObject(node));
-        }
-        return sObjects;
-    }
-
     @Nonnull
-    private SaveResult getSaveResult(@Nullable String saveResultJson) throws IOException {
+    SaveResult getSaveResult(@Nullable String saveResultJson) throws IOException {
         ObjectNode objectNode = this.objectReader.withType(ObjectNode.class).readValue(parse(saveResultJson));
         String id = objectNode.get("id").textValue();
         boolean success = objectNode.get("success").booleanValue();
@@ -278,151 +691,4 @@ final class RestConnectionImpl implements RestConnection {
 
         return new SaveResultImpl(new Id(id), success, errors);
     }
-
-    @Nonnull
-    private static RestSObject getSObject(JsonNode rawNode) throws IOException {
-        ObjectNode jsonNode = asObjectNode(rawNode);
-
-        ObjectNode attributes = getObjectNode(jsonNode, ATTRIBUTES_KEY);
-
-        String type = getString(attributes, "type");
-        JsonNode idNode = jsonNode.get(ID_KEY);
-        RestSObjectImpl sObject;
-        if (isNull(idNode)) {
-            sObject = RestSObjectImpl.getNew(type);
-        } else {
-            if (!idNode.isTextual()) {
-                throw new ResponseParseException("Id node <" + idNode + "> wasn't textual");
-            }
-            sObject = RestSObjectImpl.getNewWithId(type, new Id(idNode.textValue()));
-        }
-
-        jsonNode.remove(ID_KEY);
-        jsonNode.remove(ATTRIBUTES_KEY);
-
-        Iterator<String> fieldNames = jsonNode.fieldNames();
-        while (fieldNames.hasNext()) {
-            String fieldName = fieldNames.next();
-            JsonNode fieldValueNode = jsonNode.get(fieldName);
-
-            if (fieldValueNode.isNull()) {
-                // null node is a value node so handle it first
-                sObject.setField(fieldName, null);
-                continue;
-            } else if (fieldValueNode.isValueNode()) {
-                sObject.setField(fieldName, fieldValueNode.asText());
-                continue;
-            } else if (fieldValueNode.isObject()) {
-                // it could either be a subquery or a sub object at this point.
-                if (fieldValueNode.path("attributes").isObject()) {
-                    sObject.setRelationshipSubObject(fieldName, getSObject(fieldValueNode));
-                } else if (fieldValueNode.path("records").isArray()) {
-                    sObject.setRelationshipQueryResult(fieldName, getQueryResult(fieldValueNode));
-                } else {
-                    throw new ResponseParseException("Could not understand field value node: " + fieldValueNode);
-                }
-
-                continue;
-            }
-
-            throw new ResponseParseException("Unknown node type <" + fieldValueNode + ">");
-        }
-        return sObject;
-    }
-
-    @Nonnull
-    private static RestQueryResult getQueryResult(JsonNode rawNode) throws IOException {
-        ObjectNode results = asObjectNode(rawNode);
-
-        int totalSize = getInt(results, "totalSize");
-        boolean done = getBoolean(results, "done");
-
-        ArrayNode records = getArrayNode(results, "records");
-
-        List<RestSObject> sObjects = Lists.newArrayList();
-
-        Iterator<JsonNode> elements = records.elements();
-
-        while (elements.hasNext()) {
-            JsonNode recordNode = elements.next();
-            sObjects.add(getSObject(recordNode));
-        }
-
-        if (done) {
-            return RestQueryResultImpl.getDone(sObjects, totalSize);
-        }
-
-        String nextRecordsUrl = getString(results, "nextRecordsUrl");
-
-        return RestQueryResultImpl.getNotDone(sObjects, totalSize, new RestQueryLocator(nextRecordsUrl));
-    }
-
-    @Nonnull
-    private static ObjectNode asObjectNode(JsonNode jsonNode) throws ResponseParseException {
-        if (jsonNode == null) {
-            throw new ResponseParseException("Got a null object node");
-        }
-
-        if (!jsonNode.isObject()) {
-            throw new ResponseParseException("Got a node that wasn't an object <" + jsonNode + ">");
-        }
-
-        return (ObjectNode) jsonNode;
-    }
-
-    @Nonnull
-    private static String getString(ObjectNode jsonNode, String key) throws ResponseParseException {
-        JsonNode node = getNode(jsonNode, key);
-        if (!node.isTextual()) {
-            throw new ResponseParseException("Node <" + node + "> isn't text for key <" + key + ">");
-        }
-        return node.textValue();
-    }
-
-    private static int getInt(ObjectNode jsonNode, String key) throws ResponseParseException {
-        JsonNode node = getNode(jsonNode, key);
-        if (!node.isInt()) {
-            throw new ResponseParseException("Node <" + node + "> isn't int for key <" + key + ">");
-        }
-        return node.intValue();
-    }
-
-    private static boolean getBoolean(ObjectNode jsonNode, String key) throws ResponseParseException {
-        JsonNode node = getNode(jsonNode, key);
-        if (!node.isBoolean()) {
-            throw new ResponseParseException("Node <" + node + "> isn't boolean for key <" + key + ">");
-        }
-        return node.booleanValue();
-    }
-
-    @Nonnull
-    private static ArrayNode getArrayNode(ObjectNode jsonNode, String key) throws ResponseParseException {
-        JsonNode node = getNode(jsonNode, key);
-        if (!node.isArray()) {
-            throw new ResponseParseException("Node <" + node + "> isn't an array for key <" + key + ">");
-        }
-        return (ArrayNode) node;
-    }
-
-    @Nonnull
-    private static ObjectNode getObjectNode(ObjectNode jsonNode, String key) throws ResponseParseException {
-        JsonNode node = getNode(jsonNode, key);
-        if (!node.isObject()) {
-            throw new ResponseParseException("Node <" + node + "> isn't an object for key <" + key + ">");
-        }
-        return (ObjectNode) node;
-    }
-
-    @Nonnull
-    private static JsonNode getNode(ObjectNode jsonNode, String key) throws ResponseParseException {
-        JsonNode value = jsonNode.get(key);
-        if (isNull(value)) {
-            throw new ResponseParseException("Null value for key <" + key + ">");
-        }
-        return value;
-    }
-
-    private static boolean isNull(JsonNode node) {
-        return node == null || node == NullNode.instance;
-    }
 }
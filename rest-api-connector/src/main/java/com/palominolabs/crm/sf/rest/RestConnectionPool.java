@@ -18,6 +18,7 @@ package com.palominolabs.crm.sf.rest;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Executor;
 
 /**
  * Container for RestConnections. You must provide data for an org (via configureOrg) before using a connection for that
@@ -36,6 +37,20 @@ public interface RestConnectionPool<T> {
     @Nonnull
     RestConnection getRestConnection(@Nonnull T orgId);
 
+    /**
+     * @param orgId    the org id to get a connection for
+     * @param executor executor for the work that mustn't be done on the shared I/O threads: waiting until the org's
+     *                 limits allow a request to be sent, and reading each response. A request occupies one of its
+     *                 threads while it waits to be sent and again while its response is read, but not while it is in
+     *                 flight, so an executor with a bounded number of threads bounds how many responses are read at
+     *                 once.
+     *
+     * @return a non-blocking connection for that org. All async connections from a pool share a small, fixed number of
+     * I/O threads, which are started the first time this is called.
+     */
+    @Nonnull
+    AsyncRestConnection getAsyncRestConnection(@Nonnull T orgId, @Nonnull Executor executor);
+
     /**
      * @param orgId identifies the org to configure
      * @param host  the host that this org should use
@@ -44,6 +59,64 @@ public interface RestConnectionPool<T> {
      */
     void configureOrg(@Nonnull T orgId, @Nonnull String host, @Nonnull String token);
 
+    /**
+     * Configure an org and limit the requests made to it. Requests that would go over the limits wait until they can be
+     * sent. Once Salesforce reports that the org's daily API allowance is used up, requests fail with a {@link
+     * RequestLimitException} without being sent.
+     *
+     * Non-blocking connections are limited too. Their requests wait on their executor rather than on the caller.
+     *
+     * @param orgId                 identifies the org to configure
+     * @param host                  the host that this org should use
+     * @param token                 the OAuth token to use
+     * @param maxConcurrentRequests the most requests to have in flight to this org at once
+     * @param requestsPerSecond     the most requests to start per second for this org
+     */
+    void configureOrg(@Nonnull T orgId, @Nonnull String host, @Nonnull String token, int maxConcurrentRequests,
+            double requestsPerSecond);
+
+    /**
+     * Configure an org whose token is refreshed when Salesforce rejects it. When requests get a 401, one of them asks
+     * tokenProvider for a new token while the others wait, and then each of them is sent once more with the new token.
+     * Later requests start out with the new token.
+     *
+     * Non-blocking connections do not refresh the token.
+     *
+     * @param orgId         identifies the org to configure
+     * @param host          the host that this org should use
+     * @param token         the OAuth token to start with
+     * @param tokenProvider provider of new tokens
+     */
+    void configureOrg(@Nonnull T orgId, @Nonnull String host, @Nonnull String token,
+            @Nonnull OAuthTokenProvider tokenProvider);
+
+    /**
+     * Configure an org whose token is refreshed when Salesforce rejects it, and limit the requests made to it.
+     *
+     * @param orgId                 identifies the org to configure
+     * @param host                  the host that this org should use
+     * @param token                 the OAuth token to start with
+     * @param tokenProvider         provider of new tokens
+     * @param maxConcurrentRequests the most requests to have in flight to this org at once
+     * @param requestsPerSecond     the most requests to start per second for this org
+     *
+     * @see #configureOrg(Object, String, String, int, double)
+     * @see #configureOrg(Object, String, String, OAuthTokenProvider)
+     */
+    void configureOrg(@Nonnull T orgId, @Nonnull String host, @Nonnull String token,
+            @Nonnull OAuthTokenProvider tokenProvider, int maxConcurrentRequests, double requestsPerSecond);
+
+    /**
+     * Replace the OAuth token of an org that has already been configured, keeping the rest of its configuration.
+     * Requests that have already started finish with the old token; later ones use the new one.
+     *
+     * @param orgId identifies the org
+     * @param token the new OAuth token
+     *
+     * @throws IllegalStateException if the org hasn't been configured
+     */
+    void updateToken(@Nonnull T orgId, @Nonnull String token);
+
     /**
      * Since persistent HTTP connections are used, unused connections that the other side has closed will need to be
      * purged from the pool of connections. This Runnable will do that, so you should schedule it to be run
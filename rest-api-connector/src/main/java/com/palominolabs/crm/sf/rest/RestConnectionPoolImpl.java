@@ -16,38 +16,93 @@
 
 package com.palominolabs.crm.sf.rest;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.HttpHost;
 import org.apache.http.client.HttpClient;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
 @ThreadSafe
 public class RestConnectionPoolImpl<T> implements RestConnectionPool<T> {
 
     public static final int DEFAULT_IDLE_CONN_TIMEOUT = 30;
 
+    /**
+     * I/O threads shared by all AsyncRestConnections from a pool
+     */
+    public static final int ASYNC_IO_THREADS = 2;
+
     private final int idleConnTimeout;
 
     private final ObjectMapper objectMapper;
 
     private final HttpClient httpClient;
 
-    @GuardedBy("this")
-    private final Map<T, ConnectionConfig> configMap = new HashMap<T, ConnectionConfig>();
+    /**
+     * Each org's client, which holds the org's configuration. Clients are immutable, so connections read this without
+     * locking, and reconfiguring an org replaces its client in one step.
+     */
+    private final ConcurrentMap<T, HttpApiClient> clients = new ConcurrentHashMap<T, HttpApiClient>();
 
     private final MetricRegistry metricRegistry;
     private final PoolingHttpClientConnectionManager connectionManager;
 
+    /**
+     * null if gzip is not enabled
+     */
+    @Nullable
+    private final GzipConfig gzipConfig;
+
+    /**
+     * null if failed requests are not retried
+     */
+    @Nullable
+    private final RetryPolicy retryPolicy;
+
+    /**
+     * null if describes are not cached
+     */
+    @Nullable
+    private final DescribeCacheConfig describeCacheConfig;
+
+    /**
+     * Created when the first async connection is requested
+     */
+    @GuardedBy("this")
+    @Nullable
+    private CloseableHttpAsyncClient asyncClient;
+
+    @GuardedBy("this")
+    @Nullable
+    private PoolingNHttpClientConnectionManager asyncConnectionManager;
+
     /**
      * Create a new pool with default configuration.
      *
@@ -89,7 +144,7 @@ public class RestConnectionPoolImpl<T> implements RestConnectionPool<T> {
     }
 
     /**
-     * Create a new pool.
+     * Create a new pool. Use {@link #builder(MetricRegistry)} for gzip, retries and the other optional behavior.
      *
      * @param metricRegistry    metric registry
      * @param idleConnTimeout   how long an unused connection must sit idle before it is eligible for removal from the
@@ -101,33 +156,274 @@ public class RestConnectionPoolImpl<T> implements RestConnectionPool<T> {
     public RestConnectionPoolImpl(MetricRegistry metricRegistry, int idleConnTimeout,
             @Nullable HttpClientBuilder httpClientBuilder,
             @Nullable PoolingHttpClientConnectionManager connectionManager) {
-        this.metricRegistry = metricRegistry;
-        this.idleConnTimeout = idleConnTimeout;
+        this(builder(metricRegistry).setIdleConnTimeout(idleConnTimeout).setHttpClientBuilder(httpClientBuilder)
+                .setConnectionManager(connectionManager));
+    }
 
-        if (connectionManager == null) {
+    private RestConnectionPoolImpl(@Nonnull Builder builder) {
+        this.metricRegistry = builder.metricRegistry;
+        this.idleConnTimeout = builder.idleConnTimeout;
+        this.gzipConfig = builder.gzipConfig;
+        this.retryPolicy = builder.retryPolicy;
+        this.describeCacheConfig = builder.describeCacheConfig;
+
+        if (builder.connectionManager == null) {
             this.connectionManager = new PoolingHttpClientConnectionManager();
             this.connectionManager.setDefaultMaxPerRoute(20);
             this.connectionManager.setMaxTotal(60);
         } else {
-            this.connectionManager = connectionManager;
+            this.connectionManager = builder.connectionManager;
+        }
+
+        HttpClientBuilder httpClientBuilder =
+                builder.httpClientBuilder == null ? HttpClientBuilder.create() : builder.httpClientBuilder;
+        if (this.gzipConfig != null) {
+            // HttpCompression needs to see the compressed bytes
+            httpClientBuilder.disableContentCompression();
         }
+        this.httpClient =
+                httpClientBuilder.setConnectionManager(new LeaseTimingConnectionManager(this.connectionManager))
+                        .build();
 
-        HttpClientBuilder builder = httpClientBuilder == null ? HttpClientBuilder.create() : httpClientBuilder;
-        this.httpClient = builder.setConnectionManager(this.connectionManager).build();
+        for (ConnectionStat stat : ConnectionStat.values()) {
+            registerGauge(name(RestConnectionPoolImpl.class, stat.metricName), new TotalConnectionGauge(stat));
+        }
 
         objectMapper = new ObjectMapper();
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
     }
 
+    /**
+     * @param metricRegistry metric registry. Leased, pending and available connections are registered as gauges, in
+     *                       total and for each org's host, and each org's request and response body sizes and the
+     *                       time its operations spend leasing a connection, in the HTTP exchange and decoding the
+     *                       response are recorded.
+     *
+     * @return a builder for a pool with the default configuration until it is changed
+     */
+    @Nonnull
+    public static Builder builder(@Nonnull MetricRegistry metricRegistry) {
+        return new Builder(metricRegistry);
+    }
+
     @Nonnull
     @Override
-    public synchronized RestConnection getRestConnection(@Nonnull T orgId) {
+    public RestConnection getRestConnection(@Nonnull T orgId) {
         return new RestConnectionImpl(objectMapper.reader(), new PoolHttpApiClientProvider(orgId), metricRegistry);
     }
 
+    @Nonnull
+    @Override
+    public AsyncRestConnection getAsyncRestConnection(@Nonnull T orgId, @Nonnull Executor executor) {
+        PoolHttpApiClientProvider provider = new PoolHttpApiClientProvider(orgId);
+        return new AsyncRestConnectionImpl(new RestConnectionImpl(objectMapper.reader(), provider, metricRegistry),
+                provider, getAsyncClient(), executor);
+    }
+
+    /**
+     * Stop the I/O threads used by async connections, if they were started. Async connections from this pool cannot be
+     * used afterwards.
+     *
+     * @throws IOException on error
+     */
+    public synchronized void closeAsyncClient() throws IOException {
+        if (this.asyncClient != null) {
+            this.asyncClient.close();
+        }
+    }
+
+    /**
+     * Configuring is serialized so that an org's describe cache is carried over consistently; getting clients is not.
+     */
     @Override
     public synchronized void configureOrg(@Nonnull T orgId, @Nonnull String host, @Nonnull String token) {
-        this.configMap.put(orgId, new ConnectionConfig(host, token));
+        putClient(orgId, newClient(orgId, host, token, null, null));
+    }
+
+    @Override
+    public synchronized void configureOrg(@Nonnull T orgId, @Nonnull String host, @Nonnull String token,
+            int maxConcurrentRequests, double requestsPerSecond) {
+        putClient(orgId,
+                newClient(orgId, host, token, getLimiter(orgId, maxConcurrentRequests, requestsPerSecond), null));
+    }
+
+    @Override
+    public synchronized void configureOrg(@Nonnull T orgId, @Nonnull String host, @Nonnull String token,
+            @Nonnull OAuthTokenProvider tokenProvider) {
+        putClient(orgId, newClient(orgId, host, token, null, getTokenRefresher(orgId, token, tokenProvider)));
+    }
+
+    @Override
+    public synchronized void configureOrg(@Nonnull T orgId, @Nonnull String host, @Nonnull String token,
+            @Nonnull OAuthTokenProvider tokenProvider, int maxConcurrentRequests, double requestsPerSecond) {
+        putClient(orgId, newClient(orgId, host, token, getLimiter(orgId, maxConcurrentRequests, requestsPerSecond),
+                getTokenRefresher(orgId, token, tokenProvider)));
+    }
+
+    @Override
+    public void updateToken(@Nonnull T orgId, @Nonnull String token) {
+        while (true) {
+            HttpApiClient current = getClientForOrg(orgId);
+            if (this.clients.replace(orgId, current, current.withOAuthToken(token))) {
+                if (current.getTokenRefresher() != null) {
+                    current.getTokenRefresher().setToken(token);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Discard an org's cached describes, e.g. after changing its schema, so the next describe of each sObject type
+     * downloads it in full. Does nothing if describes aren't cached.
+     *
+     * @param orgId org to clear the cache for
+     */
+    public void clearDescribeCache(@Nonnull T orgId) {
+        HttpApiClient client = this.clients.get(orgId);
+        if (client != null && client.getDescribeCache() != null) {
+            client.getDescribeCache().clear();
+        }
+    }
+
+    /**
+     * The first time an org is configured, gauges for the connections to its host are registered. They follow the org
+     * if its host changes.
+     */
+    @GuardedBy("this")
+    private void putClient(@Nonnull T orgId, @Nonnull HttpApiClient client) {
+        if (this.clients.put(orgId, client) == null) {
+            for (ConnectionStat stat : ConnectionStat.values()) {
+                registerGauge(name(RestConnectionPoolImpl.class, "org", orgId.toString(), stat.metricName),
+                        new OrgConnectionGauge(orgId, stat));
+            }
+        }
+    }
+
+    /**
+     * Gauges can't be registered twice, so a gauge from another pool that uses the same registry is replaced.
+     */
+    private void registerGauge(@Nonnull String name, @Nonnull Gauge<Integer> gauge) {
+        this.metricRegistry.remove(name);
+        this.metricRegistry.register(name, gauge);
+    }
+
+    /**
+     * Whatever the org's current client has that doesn't depend on what changed is reused, so that reconfiguring an
+     * org doesn't start it over with empty caches and budgets.
+     */
+    @GuardedBy("this")
+    @Nonnull
+    private HttpApiClient newClient(@Nonnull T orgId, @Nonnull String host, @Nonnull String token,
+            @Nullable OrgRequestLimiter limiter, @Nullable OrgTokenRefresher tokenRefresher) {
+        HttpApiClient existing = this.clients.get(orgId);
+        String prefix = name(RestConnectionPoolImpl.class, "org", orgId.toString());
+
+        HttpCompression compression = null;
+        if (this.gzipConfig != null) {
+            compression = existing != null && existing.getCompression() != null ? existing.getCompression() :
+                    new HttpCompression(this.gzipConfig, this.metricRegistry, prefix);
+        }
+        OrgHttpMetrics metrics = existing != null && existing.getMetrics() != null ? existing.getMetrics() :
+                new OrgHttpMetrics(metricRegistry, prefix);
+
+        return HttpApiClient.builder(host, token, this.objectMapper, this.httpClient)
+                .setCompression(compression)
+                .setLimiter(limiter)
+                .setRetrier(getRetrier(orgId))
+                .setDescribeCache(getDescribeCache(orgId, host))
+                .setTokenRefresher(tokenRefresher)
+                .setMetrics(metrics)
+                .build();
+    }
+
+    /**
+     * @return the org's current limiter, changed to the new limits, if it has one, or a new one if not. Requests in
+     * flight under the current limiter keep counting against the limit, and a used up allowance keeps being rejected.
+     */
+    @GuardedBy("this")
+    @Nonnull
+    private OrgRequestLimiter getLimiter(@Nonnull T orgId, int maxConcurrentRequests, double requestsPerSecond) {
+        HttpApiClient existing = this.clients.get(orgId);
+        if (existing != null && existing.getLimiter() != null) {
+            OrgRequestLimiter limiter = existing.getLimiter();
+            limiter.setLimits(maxConcurrentRequests, requestsPerSecond);
+            return limiter;
+        }
+
+        return new OrgRequestLimiter(maxConcurrentRequests, requestsPerSecond,
+                metricRegistry.timer(name(RestConnectionPoolImpl.class, "org", orgId.toString(), "limiter.wait")),
+                metricRegistry.meter(name(RestConnectionPoolImpl.class, "org", orgId.toString(), "limiter.rejected")));
+    }
+
+    /**
+     * @return the org's current refresher, told about the new token, if it has one using the same token provider, or
+     * a new one if not
+     */
+    @GuardedBy("this")
+    @Nonnull
+    private OrgTokenRefresher getTokenRefresher(@Nonnull T orgId, @Nonnull String token,
+            @Nonnull OAuthTokenProvider tokenProvider) {
+        HttpApiClient existing = this.clients.get(orgId);
+        if (existing != null && existing.getTokenRefresher() != null &&
+                existing.getTokenRefresher().getTokenProvider() == tokenProvider) {
+            OrgTokenRefresher refresher = existing.getTokenRefresher();
+            refresher.setToken(token);
+            return refresher;
+        }
+
+        return new OrgTokenRefresher(tokenProvider, token, new TokenRefreshListener(orgId),
+                metricRegistry.timer(name(RestConnectionPoolImpl.class, "org", orgId.toString(), "token.refresh")),
+                metricRegistry.timer(name(RestConnectionPoolImpl.class, "org", orgId.toString(), "token.refreshWait")));
+    }
+
+    /**
+     * @param orgId org to cache describes for
+     * @param host  the host the org will use
+     *
+     * @return the org's current cache if it has one for the same host, a new one if not, or null if describes are not
+     * cached
+     */
+    @GuardedBy("this")
+    @Nullable
+    private DescribeCache getDescribeCache(@Nonnull T orgId, @Nonnull String host) {
+        if (this.describeCacheConfig == null) {
+            return null;
+        }
+
+        HttpApiClient existing = this.clients.get(orgId);
+        if (existing != null && existing.getDescribeCache() != null && existing.getHost().equals(host)) {
+            return existing.getDescribeCache();
+        }
+
+        String orgName = orgId.toString();
+        return new DescribeCache(this.describeCacheConfig, Ticker.systemTicker(),
+                metricRegistry.counter(name(RestConnectionPoolImpl.class, "org", orgName, "describeCache.hits")),
+                metricRegistry.counter(name(RestConnectionPoolImpl.class, "org", orgName, "describeCache.misses")),
+                metricRegistry.counter(
+                        name(RestConnectionPoolImpl.class, "org", orgName, "describeCache.revalidations")));
+    }
+
+    /**
+     * @param orgId org to retry requests for
+     *
+     * @return the org's current retrier if it has one, a new one if not, or null if retries are disabled
+     */
+    @GuardedBy("this")
+    @Nullable
+    private OrgRequestRetrier getRetrier(@Nonnull T orgId) {
+        if (this.retryPolicy == null) {
+            return null;
+        }
+
+        HttpApiClient existing = this.clients.get(orgId);
+        if (existing != null && existing.getRetrier() != null) {
+            return existing.getRetrier();
+        }
+
+        return new OrgRequestRetrier(this.retryPolicy,
+                metricRegistry.counter(name(RestConnectionPoolImpl.class, "org", orgId.toString(), "retry.attempts")),
+                metricRegistry.counter(name(RestConnectionPoolImpl.class, "org", orgId.toString(), "retry.giveUps")));
     }
 
     @Nonnull
@@ -137,15 +433,140 @@ public class RestConnectionPoolImpl<T> implements RestConnectionPool<T> {
     }
 
     @Nonnull
-    private synchronized HttpApiClient getClientForOrg(T orgId) {
-        ConnectionConfig connectionConfig = this.configMap.get(orgId);
+    private synchronized CloseableHttpAsyncClient getAsyncClient() {
+        if (this.asyncClient != null) {
+            return this.asyncClient;
+        }
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom().setIoThreadCount(ASYNC_IO_THREADS).build();
+        ConnectingIOReactor ioReactor;
+        try {
+            ioReactor = new DefaultConnectingIOReactor(ioReactorConfig,
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sf-rest-async-io-%d").build());
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Couldn't create I/O reactor", e);
+        }
+
+        // same limits as the default blocking connection manager
+        PoolingNHttpClientConnectionManager manager = new PoolingNHttpClientConnectionManager(ioReactor);
+        manager.setDefaultMaxPerRoute(20);
+        manager.setMaxTotal(60);
 
-        if (connectionConfig == null) {
+        CloseableHttpAsyncClient client = HttpAsyncClientBuilder.create().setConnectionManager(manager).build();
+        client.start();
+
+        this.asyncConnectionManager = manager;
+        this.asyncClient = client;
+        return client;
+    }
+
+    @Nonnull
+    private HttpApiClient getClientForOrg(T orgId) {
+        HttpApiClient client = this.clients.get(orgId);
+
+        if (client == null) {
             throw new IllegalStateException("Org <" + orgId + "> has not been configured");
         }
 
-        return new HttpApiClient(connectionConfig.getHost(), connectionConfig.getOauthToken(),
-                this.objectMapper, this.httpClient);
+        return client;
+    }
+
+    /**
+     * Puts a refreshed token into the org's client, unless the org has been reconfigured since the refresh started.
+     */
+    private class TokenRefreshListener implements OrgTokenRefresher.Listener {
+
+        private final T orgId;
+
+        private TokenRefreshListener(T orgId) {
+            this.orgId = orgId;
+        }
+
+        @Override
+        public void tokenRefreshed(@Nonnull OrgTokenRefresher refresher, @Nonnull String newToken) {
+            while (true) {
+                HttpApiClient current = clients.get(this.orgId);
+                if (current == null || current.getTokenRefresher() != refresher) {
+                    return;
+                }
+                if (clients.replace(this.orgId, current, current.withOAuthToken(newToken))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The parts of the connection pool's stats that are exposed as gauges
+     */
+    private enum ConnectionStat {
+        LEASED("connections.leased") {
+            @Override
+            int get(PoolStats stats) {
+                return stats.getLeased();
+            }
+        },
+        PENDING("connections.pending") {
+            @Override
+            int get(PoolStats stats) {
+                return stats.getPending();
+            }
+        },
+        AVAILABLE("connections.available") {
+            @Override
+            int get(PoolStats stats) {
+                return stats.getAvailable();
+            }
+        };
+
+        private final String metricName;
+
+        ConnectionStat(String metricName) {
+            this.metricName = metricName;
+        }
+
+        abstract int get(PoolStats stats);
+    }
+
+    private class TotalConnectionGauge implements Gauge<Integer> {
+
+        private final ConnectionStat stat;
+
+        private TotalConnectionGauge(ConnectionStat stat) {
+            this.stat = stat;
+        }
+
+        @Override
+        public Integer getValue() {
+            return stat.get(connectionManager.getTotalStats());
+        }
+    }
+
+    /**
+     * Reports on the route to the org's current host.
+     */
+    private class OrgConnectionGauge implements Gauge<Integer> {
+
+        private final T orgId;
+
+        private final ConnectionStat stat;
+
+        private OrgConnectionGauge(T orgId, ConnectionStat stat) {
+            this.orgId = orgId;
+            this.stat = stat;
+        }
+
+        @Override
+        public Integer getValue() {
+            HttpApiClient client = clients.get(this.orgId);
+            if (client == null) {
+                return 0;
+            }
+
+            // the route the default route planner picks for https://host:443
+            HttpRoute route = new HttpRoute(new HttpHost(client.getHost(), 443, "https"), null, true);
+            return stat.get(connectionManager.getStats(route));
+        }
     }
 
     private class PoolHttpApiClientProvider implements HttpApiClientProvider {
@@ -168,6 +589,132 @@ public class RestConnectionPoolImpl<T> implements RestConnectionPool<T> {
         public void run() {
             connectionManager.closeExpiredConnections();
             connectionManager.closeIdleConnections(idleConnTimeout, TimeUnit.SECONDS);
+
+            PoolingNHttpClientConnectionManager asyncManager;
+            synchronized (RestConnectionPoolImpl.this) {
+                asyncManager = asyncConnectionManager;
+            }
+            if (asyncManager != null) {
+                asyncManager.closeExpiredConnections();
+                asyncManager.closeIdleConnections(idleConnTimeout, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Configuration for a pool. Everything but the metric registry is optional.
+     */
+    @NotThreadSafe
+    public static final class Builder {
+
+        private final MetricRegistry metricRegistry;
+
+        private int idleConnTimeout = DEFAULT_IDLE_CONN_TIMEOUT;
+
+        @Nullable
+        private HttpClientBuilder httpClientBuilder;
+
+        @Nullable
+        private PoolingHttpClientConnectionManager connectionManager;
+
+        @Nullable
+        private GzipConfig gzipConfig;
+
+        @Nullable
+        private RetryPolicy retryPolicy;
+
+        @Nullable
+        private DescribeCacheConfig describeCacheConfig;
+
+        private Builder(@Nonnull MetricRegistry metricRegistry) {
+            this.metricRegistry = metricRegistry;
+        }
+
+        /**
+         * @param idleConnTimeout how long an unused connection must sit idle before it is eligible for removal from
+         *                        the connection pool. Defaults to {@link #DEFAULT_IDLE_CONN_TIMEOUT}.
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder setIdleConnTimeout(int idleConnTimeout) {
+            this.idleConnTimeout = idleConnTimeout;
+            return this;
+        }
+
+        /**
+         * @param httpClientBuilder an HttpClientBuilder to use, or null (the default) to use a default one. Its
+         *                          connection manager is replaced with the pool's.
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder setHttpClientBuilder(@Nullable HttpClientBuilder httpClientBuilder) {
+            this.httpClientBuilder = httpClientBuilder;
+            return this;
+        }
+
+        /**
+         * @param connectionManager a connection manager to use with the http client, or null (the default) to use
+         *                          one with 20 connections per route and 60 in total
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder setConnectionManager(@Nullable PoolingHttpClientConnectionManager connectionManager) {
+            this.connectionManager = connectionManager;
+            return this;
+        }
+
+        /**
+         * @param gzipConfig gzip settings, or null (the default) to not compress request bodies and leave response
+         *                   compression up to the http client. If not null, the http client's own content compression
+         *                   is disabled, and each org's compressed and uncompressed byte counts are recorded in the
+         *                   metric registry.
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder setGzipConfig(@Nullable GzipConfig gzipConfig) {
+            this.gzipConfig = gzipConfig;
+            return this;
+        }
+
+        /**
+         * @param retryPolicy how to retry requests that fail with transient errors, or null (the default) to not
+         *                    retry. Each org gets its own retry budget, and retries and give ups are counted per org
+         *                    in the metric registry. Non-blocking connections do not retry.
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder setRetryPolicy(@Nullable RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * @param describeCacheConfig how to cache describeGlobal() and describeSObject() results, or null (the
+         *                            default) to not cache them. Each org has its own cache, kept as long as the
+         *                            org's host doesn't change, and hits, misses and revalidations are counted per org
+         *                            in the metric registry. Non-blocking connections don't use the cache.
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder setDescribeCacheConfig(@Nullable DescribeCacheConfig describeCacheConfig) {
+            this.describeCacheConfig = describeCacheConfig;
+            return this;
+        }
+
+        /**
+         * @param <T> org id type
+         *
+         * @return a new pool
+         */
+        @Nonnull
+        public <T> RestConnectionPoolImpl<T> build() {
+            return new RestConnectionPoolImpl<T>(this);
         }
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over every record of a query, across as many pages as it takes. Later pages are fetched in the background
+ * while the current page is being read.
+ *
+ * A cursor should be used by one thread at a time, and must be closed if it is abandoned before the last record so that
+ * the background fetch stops.
+ */
+@NotThreadSafe
+public interface RestQueryCursor extends Closeable {
+
+    /**
+     * @return the total number of records the query matched
+     */
+    int getTotalSize();
+
+    /**
+     * @return true if there is another record. May block until the next page has been fetched.
+     *
+     * @throws IOException if fetching the next page failed
+     */
+    boolean hasNext() throws IOException;
+
+    /**
+     * @return the next record. May block until the next page has been fetched.
+     *
+     * @throws IOException            if fetching the next page failed
+     * @throws NoSuchElementException if there are no more records
+     */
+    @Nonnull
+    RestSObject next() throws IOException;
+
+    /**
+     * Stop fetching pages in the background and discard any that have already been fetched. Safe to call more than
+     * once.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Timer;
+import com.google.common.base.Throwables;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A single task on the supplied executor walks the query locators and puts each page into a queue for the reader. The
+ * task takes one of pagesAhead slots before it fetches each page, and the reader gives the slot back when it takes the
+ * page, so at most pagesAhead pages are fetched (or being fetched) ahead of the reader, and the task blocks until the
+ * reader catches up.
+ */
+@NotThreadSafe
+final class RestQueryCursorImpl implements RestQueryCursor {
+
+    private final int totalSize;
+
+    /**
+     * pages fetched in the background that the reader hasn't gotten to yet
+     */
+    private final BlockingQueue<FetchedPage> pages = new LinkedBlockingQueue<FetchedPage>();
+
+    /**
+     * one permit for each page the fetch task may fetch before the reader takes it
+     */
+    private final Semaphore slots;
+
+    /**
+     * the background fetch, or null if the first page was the only one
+     */
+    @Nullable
+    private final Future<?> fetchTask;
+
+    private final Timer pageWaitTimer;
+
+    /**
+     * read by the fetch task
+     */
+    private volatile boolean closed = false;
+
+    private Iterator<RestSObject> currentRecords;
+
+    /**
+     * true if there are pages after the current one
+     */
+    private boolean morePages;
+
+    /**
+     * @param connection    connection to fetch subsequent pages with
+     * @param firstPage     the first page of the query
+     * @param executor      executor to run the background fetch on
+     * @param pagesAhead    how many pages may be fetched before the reader gets to them
+     * @param pageWaitTimer timer for time spent waiting for a page that hasn't been fetched yet
+     */
+    RestQueryCursorImpl(@Nonnull RestConnection connection, @Nonnull RestQueryResult firstPage,
+            @Nonnull ExecutorService executor, int pagesAhead, @Nonnull Timer pageWaitTimer) {
+        this.totalSize = firstPage.getTotalSize();
+        this.slots = new Semaphore(pagesAhead);
+        this.pageWaitTimer = pageWaitTimer;
+        this.currentRecords = firstPage.getSObjects().iterator();
+        this.morePages = !firstPage.isDone();
+
+        if (this.morePages) {
+            this.fetchTask = executor.submit(new PageFetcher(connection, firstPage.getQueryLocator()));
+        } else {
+            this.fetchTask = null;
+        }
+    }
+
+    @Override
+    public int getTotalSize() {
+        return this.totalSize;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        while (!this.currentRecords.hasNext()) {
+            if (!this.morePages || this.closed) {
+                return false;
+            }
+
+            FetchedPage page = takePage();
+
+            if (page.failure != null) {
+                this.morePages = false;
+                Throwables.propagateIfPossible(page.failure, IOException.class);
+                throw new IOException("Couldn't fetch the next page", page.failure);
+            }
+
+            //noinspection ConstantConditions
+            this.currentRecords = page.result.getSObjects().iterator();
+            this.morePages = !page.result.isDone();
+        }
+
+        return true;
+    }
+
+    @Nonnull
+    @Override
+    public RestSObject next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return this.currentRecords.next();
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.morePages = false;
+        this.currentRecords = Collections.<RestSObject>emptyList().iterator();
+
+        if (this.fetchTask != null) {
+            // interrupts a fetch task waiting for a slot
+            this.fetchTask.cancel(true);
+        }
+
+        this.pages.clear();
+    }
+
+    @Nonnull
+    private FetchedPage takePage() throws InterruptedIOException {
+        Timer.Context context = this.pageWaitTimer.time();
+        try {
+            FetchedPage page = this.pages.take();
+            this.slots.release();
+            return page;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next page");
+        } finally {
+            context.stop();
+        }
+    }
+
+    /**
+     * Either a page or the reason the next page couldn't be fetched.
+     */
+    @Immutable
+    private static final class FetchedPage {
+        @CheckForNull
+        private final RestQueryResult result;
+
+        @CheckForNull
+        private final Throwable failure;
+
+        private FetchedPage(@Nullable RestQueryResult result, @Nullable Throwable failure) {
+            this.result = result;
+            this.failure = failure;
+        }
+    }
+
+    private final class PageFetcher implements Runnable {
+
+        private final RestConnection connection;
+
+        @Nullable
+        private RestQueryLocator locator;
+
+        private PageFetcher(RestConnection connection, @Nullable RestQueryLocator locator) {
+            this.connection = connection;
+            this.locator = locator;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (this.locator != null && !closed) {
+                    slots.acquire();
+                    RestQueryResult page = this.connection.queryMore(this.locator);
+                    pages.add(new FetchedPage(page, null));
+                    this.locator = page.isDone() ? null : page.getQueryLocator();
+                }
+            } catch (InterruptedException e) {
+                // the cursor was closed; nobody is waiting for more pages
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                // anything at all, so that the reader is never left waiting for a page that won't come. The queue is
+                // unbounded, so this can't block.
+                pages.add(new FetchedPage(null, t));
+            }
+        }
+    }
+}
@@ -16,7 +16,9 @@
 
 package com.palominolabs.crm.sf.rest;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
 /**
@@ -28,15 +30,35 @@ public final class RestQueryLocator {
     @Nonnull
     private final String contents;
 
+    /**
+     * the options of the query this locator is for, or null if it had none
+     */
+    @Nullable
+    private final RestQueryOptions options;
+
     /**
      * @param contents the raw locator string
      */
     RestQueryLocator(@Nonnull String contents) {
+        this(contents, null);
+    }
+
+    /**
+     * @param contents the raw locator string
+     * @param options  the options to fetch later pages with, or null
+     */
+    RestQueryLocator(@Nonnull String contents, @Nullable RestQueryOptions options) {
         this.contents = contents;
+        this.options = options;
     }
 
     @Nonnull
     String getContents() {
         return this.contents;
     }
+
+    @CheckForNull
+    RestQueryOptions getOptions() {
+        return this.options;
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import javax.annotation.concurrent.Immutable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Options for a REST query, sent in the Sforce-Query-Options header. Locators from a query made with options carry
+ * them, so {@link RestConnection#queryMore(RestQueryLocator)} asks for later pages the same way.
+ */
+@Immutable
+public final class RestQueryOptions {
+
+    public static final int MIN_BATCH_SIZE = 200;
+
+    public static final int MAX_BATCH_SIZE = 2000;
+
+    private final int batchSize;
+
+    private final boolean lazyDecoding;
+
+    /**
+     * @param batchSize how many records to ask for per page, from {@link #MIN_BATCH_SIZE} to {@link #MAX_BATCH_SIZE}.
+     *                  Smaller pages arrive sooner and take less memory; larger ones take fewer round trips. It is
+     *                  only a request: Salesforce may send smaller pages, e.g. when records are wide or have
+     *                  subqueries.
+     */
+    public RestQueryOptions(int batchSize) {
+        this(batchSize, false);
+    }
+
+    /**
+     * @param batchSize    see {@link #RestQueryOptions(int)}
+     * @param lazyDecoding true to keep each page as raw bytes and only decode a record when it is first accessed. A
+     *                     caller that only reads the total size, or stops after the first few records of a page, skips
+     *                     decoding the rest. The page's bytes are held until every record has been decoded, and a
+     *                     record that turns out to be malformed causes an IllegalStateException when accessed rather
+     *                     than a ResponseParseException from the query. With a query cursor, records are decoded by
+     *                     the reading thread rather than the one fetching pages.
+     */
+    public RestQueryOptions(int batchSize, boolean lazyDecoding) {
+        checkArgument(batchSize >= MIN_BATCH_SIZE && batchSize <= MAX_BATCH_SIZE,
+                "Batch size must be from %s to %s, was %s", MIN_BATCH_SIZE, MAX_BATCH_SIZE, batchSize);
+        this.batchSize = batchSize;
+        this.lazyDecoding = lazyDecoding;
+    }
+
+    /**
+     * @return the requested number of records per page
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * @return true if records are decoded when first accessed rather than when the page is read
+     */
+    public boolean isLazyDecoding() {
+        return this.lazyDecoding;
+    }
+
+    /**
+     * @return the value of the Sforce-Query-Options header
+     */
+    String getHeaderValue() {
+        return "batchSize=" + this.batchSize;
+    }
+}
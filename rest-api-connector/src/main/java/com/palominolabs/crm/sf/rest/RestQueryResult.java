@@ -35,8 +35,8 @@ public interface RestQueryResult {
     int getTotalSize();
 
     /**
-     * @return the sObjects as an unmodifiable list. The SObjects themselves are mutable so take care not to change them
-     *         unless you can guarantee that they are not being used in some other location.
+     * @return the sObjects as an unmodifiable list of immutable sObjects. If the query was made with lazy decoding (see
+     *         {@link RestQueryOptions#isLazyDecoding()}), each record is decoded when it is first accessed.
      */
     @Nonnull
     List<RestSObject> getSObjects();
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.palominolabs.crm.sf.core.FieldTable;
+import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.RecordCodec;
+import com.palominolabs.crm.sf.core.RecordInput;
+import com.palominolabs.crm.sf.core.RecordOutput;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the type, id, fields, sub objects and subquery results of a record. Subquery locators are kept, but not the
+ * options of the query they came from, just like the locators of subqueries parsed from a response.
+ */
+@Immutable
+final class RestRecordCodec implements RecordCodec<RestSObject> {
+
+    static final RestRecordCodec INSTANCE = new RestRecordCodec();
+
+    private RestRecordCodec() {
+    }
+
+    @Override
+    public void write(@Nonnull RestSObject record, @Nonnull RecordOutput output) {
+        output.writeString(record.getType());
+        output.writeId(record.getId());
+        output.writeFields(record);
+
+        Map<String, RestSObject> subObjects = record.getRelationshipSubObjects();
+        output.writeInt(subObjects.size());
+        for (Map.Entry<String, RestSObject> entry : subObjects.entrySet()) {
+            output.writeString(entry.getKey());
+            write(entry.getValue(), output);
+        }
+
+        Map<String, RestQueryResult> subqueryResults = record.getRelationshipQueryResults();
+        output.writeInt(subqueryResults.size());
+        for (Map.Entry<String, RestQueryResult> entry : subqueryResults.entrySet()) {
+            RestQueryResult result = entry.getValue();
+            output.writeString(entry.getKey());
+            output.writeBoolean(result.isDone());
+            output.writeInt(result.getTotalSize());
+            RestQueryLocator locator = result.getQueryLocator();
+            output.writeString(locator == null ? null : locator.getContents());
+
+            List<RestSObject> sObjects = result.getSObjects();
+            output.writeInt(sObjects.size());
+            for (RestSObject sObject : sObjects) {
+                write(sObject, output);
+            }
+        }
+    }
+
+    @Nonnull
+    @Override
+    public RestSObject read(@Nonnull RecordInput input) {
+        //noinspection ConstantConditions
+        String type = input.readString();
+        Id id = input.readId();
+        List<String> fieldValues = new ArrayList<String>();
+        FieldTable fieldTable = input.readFields(fieldValues);
+
+        Map<String, RestSObject> subObjects = null;
+        int subObjectCount = input.readInt();
+        if (subObjectCount > 0) {
+            subObjects = new LinkedHashMap<String, RestSObject>();
+            for (int i = 0; i < subObjectCount; i++) {
+                subObjects.put(input.readString(), read(input));
+            }
+        }
+
+        Map<String, RestQueryResult> subqueryResults = null;
+        int subqueryCount = input.readInt();
+        if (subqueryCount > 0) {
+            subqueryResults = new LinkedHashMap<String, RestQueryResult>();
+            for (int i = 0; i < subqueryCount; i++) {
+                String relationshipName = input.readString();
+                subqueryResults.put(relationshipName, readQueryResult(input));
+            }
+        }
+
+        //noinspection ConstantConditions
+        return new CompactRestSObject(type, id, fieldTable, fieldTable.getNames(), fieldValues, subqueryResults,
+                subObjects);
+    }
+
+    @Nonnull
+    private RestQueryResult readQueryResult(@Nonnull RecordInput input) {
+        boolean done = input.readBoolean();
+        int totalSize = input.readInt();
+        @Nullable String locator = input.readString();
+
+        int count = input.readInt();
+        List<RestSObject> sObjects = new ArrayList<RestSObject>(count);
+        for (int i = 0; i < count; i++) {
+            sObjects.add(read(input));
+        }
+
+        if (done || locator == null) {
+            return RestQueryResultImpl.getDone(sObjects, totalSize);
+        }
+        return RestQueryResultImpl.getNotDone(sObjects, totalSize, new RestQueryLocator(locator));
+    }
+}
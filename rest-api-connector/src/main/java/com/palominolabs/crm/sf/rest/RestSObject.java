@@ -30,4 +30,12 @@ public interface RestSObject extends SObject {
 
     @Nonnull
     public Map<String, RestSObject> getRelationshipSubObjects();
+
+    /**
+     * Query, retrieve and search results are immutable, so use this to get a copy to change and then update.
+     *
+     * @return a mutable copy of this sObject. Relationship query results and sub objects are shared, not copied.
+     */
+    @Nonnull
+    public RestSObject toMutable();
 }
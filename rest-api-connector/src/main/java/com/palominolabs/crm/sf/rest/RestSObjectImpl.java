@@ -22,6 +22,7 @@ import com.palominolabs.crm.sf.core.Id;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.Map;
 
 @ThreadSafe
 public class RestSObjectImpl extends AbstractSObject<RestQueryResult, RestSObject> implements RestSObject {
@@ -50,6 +51,23 @@ public class RestSObjectImpl extends AbstractSObject<RestQueryResult, RestSObjec
         return new RestSObjectImpl(type, id);
     }
 
+    @Nonnull
+    @Override
+    public RestSObjectImpl toMutable() {
+        Id id = getId();
+        RestSObjectImpl copy = id == null ? getNew(getType()) : getNewWithId(getType(), id);
+        copyFieldsTo(copy);
+
+        for (Map.Entry<String, RestQueryResult> entry : getRelationshipQueryResults().entrySet()) {
+            copy.setRelationshipQueryResult(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, RestSObject> entry : getRelationshipSubObjects().entrySet()) {
+            copy.setRelationshipSubObject(entry.getKey(), entry.getValue());
+        }
+
+        return copy;
+    }
+
     // expose superclass method
     void setRelationshipQueryResult(@Nonnull String relationshipName, @Nonnull RestQueryResult queryResult) {
         super.setRelationshipQueryResultInner(relationshipName, queryResult);
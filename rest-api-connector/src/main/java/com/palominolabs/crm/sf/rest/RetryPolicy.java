@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * How a RestConnectionPool retries requests that fail for reasons that are likely to be transient: dropped connections,
+ * timeouts, 502/503/504 responses and concurrent request limit errors.
+ *
+ * Requests that are safe to repeat (GET, DELETE, PATCH) are retried. POSTs such as create are not, since the first
+ * attempt may have succeeded even though its response was lost, unless retryNonIdempotent is set.
+ *
+ * Each org has a budget of retries so that an org that is failing consistently doesn't get hammered: every retry spends
+ * a token, every successful request earns back a fraction of one, and retries stop while the budget is empty.
+ */
+@Immutable
+public final class RetryPolicy {
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final boolean retryNonIdempotent;
+
+    private final int retryBudget;
+
+    private final double budgetRefillPerSuccess;
+
+    /**
+     * Up to 3 attempts, backing off from 100ms up to 5s, with a budget of 10 retries per org that refills by one for
+     * every 10 successful requests. Creates are not retried.
+     */
+    public RetryPolicy() {
+        this(3, 100, 5000, TimeUnit.MILLISECONDS, false, 10, 0.1);
+    }
+
+    /**
+     * @param maxAttempts            the most times to send a request, including the first
+     * @param initialBackoff         upper bound of the wait before the first retry. The bound doubles with each retry.
+     *                               The actual wait is random up to the bound, so that clients that failed at the same
+     *                               time don't all retry at the same time.
+     * @param maxBackoff             the most the bound can grow to
+     * @param unit                   unit of initialBackoff and maxBackoff
+     * @param retryNonIdempotent     true to retry POST requests (create, composite batch) too
+     * @param retryBudget            the most retries an org can have in reserve
+     * @param budgetRefillPerSuccess how much of a retry each successful request adds back to the org's budget
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff, TimeUnit unit,
+            boolean retryNonIdempotent, int retryBudget, double budgetRefillPerSuccess) {
+        checkArgument(maxAttempts > 0, "Max attempts must be at least 1, was %s", maxAttempts);
+        checkArgument(initialBackoff >= 0, "Initial backoff must not be negative, was %s", initialBackoff);
+        checkArgument(maxBackoff >= initialBackoff, "Max backoff must be at least the initial backoff, was %s",
+                maxBackoff);
+        checkArgument(retryBudget >= 0, "Retry budget must not be negative, was %s", retryBudget);
+        checkArgument(budgetRefillPerSuccess >= 0, "Budget refill must not be negative, was %s",
+                budgetRefillPerSuccess);
+
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = unit.toMillis(initialBackoff);
+        this.maxBackoffMillis = unit.toMillis(maxBackoff);
+        this.retryNonIdempotent = retryNonIdempotent;
+        this.retryBudget = retryBudget;
+        this.budgetRefillPerSuccess = budgetRefillPerSuccess;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public boolean isRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+
+    public int getRetryBudget() {
+        return retryBudget;
+    }
+
+    public double getBudgetRefillPerSuccess() {
+        return budgetRefillPerSuccess;
+    }
+}
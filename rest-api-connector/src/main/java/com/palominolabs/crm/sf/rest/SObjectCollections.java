@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.palominolabs.crm.sf.core.Id;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Splits writes through the sObject Collections resources into requests of at most {@link
+ * RestConnection#MAX_COLLECTION_SIZE} records and sends them, possibly concurrently.
+ */
+@Immutable
+final class SObjectCollections {
+
+    /**
+     * Parses the array of save results that all of the collections resources respond with.
+     */
+    static final JsonResponseHandler<List<SaveResult>> SAVE_RESULTS_HANDLER =
+            new JsonResponseHandler<List<SaveResult>>() {
+                @Nonnull
+                @Override
+                public List<SaveResult> handle(@Nonnull JsonParser parser) throws IOException {
+                    JsonNode node = parser.readValueAsTree();
+                    if (!(node instanceof ArrayNode)) {
+                        throw new ResponseParseException("Got a node that wasn't an array <" + node + ">");
+                    }
+
+                    List<SaveResult> saveResults = Lists.newArrayList();
+                    for (JsonNode saveResultNode : node) {
+                        saveResults.add(getSaveResult(saveResultNode));
+                    }
+                    return saveResults;
+                }
+            };
+
+    private SObjectCollections() {
+    }
+
+    /**
+     * @param <T> the type of item in a request
+     */
+    interface ChunkSaver<T> {
+        /**
+         * @param chunk at most MAX_COLLECTION_SIZE items
+         *
+         * @return one save result per item, in order
+         *
+         * @throws IOException on error
+         */
+        @Nonnull
+        List<SaveResult> save(@Nonnull List<T> chunk) throws IOException;
+    }
+
+    /**
+     * @param items          items to save
+     * @param saver          sends one chunk of items
+     * @param executor       executor to send chunks on; only needed if more than one chunk may be sent at a time
+     * @param maxConcurrency the most chunks to send at a time. The calling thread sends chunks too, so at most
+     *                       maxConcurrency - 1 tasks are submitted to the executor.
+     * @param <T>            the type of item
+     *
+     * @return one save result per item, in order
+     *
+     * @throws IOException if any chunk fails. Chunks that have not been started by then are not sent.
+     */
+    @Nonnull
+    static <T> List<SaveResult> saveInChunks(@Nonnull List<? extends T> items, @Nonnull ChunkSaver<T> saver,
+            @Nullable ExecutorService executor, int maxConcurrency) throws IOException {
+        checkArgument(maxConcurrency > 0, "Max concurrency must be at least 1, was %s", maxConcurrency);
+
+        List<List<T>> chunks =
+                Lists.partition(Collections.<T>unmodifiableList(items), RestConnection.MAX_COLLECTION_SIZE);
+        int workers = Math.min(maxConcurrency, chunks.size());
+
+        AtomicReferenceArray<List<SaveResult>> chunkResults = new AtomicReferenceArray<List<SaveResult>>(chunks.size());
+        ChunkWorker<T> worker = new ChunkWorker<T>(chunks, saver, chunkResults);
+
+        if (workers > 1) {
+            checkNotNull(executor, "An executor is needed to send %s requests concurrently", workers);
+            runConcurrently(worker, executor, workers);
+        } else {
+            worker.call();
+        }
+
+        List<SaveResult> saveResults = Lists.newArrayListWithCapacity(items.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            List<SaveResult> chunkResult = chunkResults.get(i);
+            if (chunkResult.size() != chunks.get(i).size()) {
+                throw new ResponseParseException(
+                        "Sent " + chunks.get(i).size() + " records but got " + chunkResult.size() + " results");
+            }
+            saveResults.addAll(chunkResult);
+        }
+
+        return saveResults;
+    }
+
+    private static <T> void runConcurrently(ChunkWorker<T> worker, ExecutorService executor, int workers)
+            throws IOException {
+        List<Future<Void>> futures = Lists.newArrayList();
+        boolean succeeded = false;
+        try {
+            for (int i = 1; i < workers; i++) {
+                futures.add(executor.submit(worker));
+            }
+
+            worker.call();
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            succeeded = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IOException("Request failed", e.getCause());
+        } catch (CancellationException e) {
+            throw new IOException("Request was cancelled", e);
+        } finally {
+            if (!succeeded) {
+                worker.stop();
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    @Nonnull
+    private static SaveResult getSaveResult(JsonNode node) {
+        JsonNode idNode = node.get("id");
+        Id id = idNode == null || idNode.isNull() ? null : new Id(idNode.textValue());
+
+        List<ApiError> errors = Lists.newArrayList();
+        JsonNode errorsNode = node.get("errors");
+        if (errorsNode != null) {
+            for (JsonNode errorNode : errorsNode) {
+                List<String> fields = Lists.newArrayList();
+                JsonNode fieldsNode = errorNode.get("fields");
+                if (fieldsNode != null) {
+                    for (JsonNode fieldNode : fieldsNode) {
+                        fields.add(fieldNode.textValue());
+                    }
+                }
+
+                // the collections resources call the error code "statusCode"
+                String errorCode = errorNode.has("statusCode") ? errorNode.get("statusCode").asText() :
+                        errorNode.path("errorCode").asText();
+                errors.add(ApiErrorImpl.getNew(fields, errorNode.path("message").asText(), errorCode));
+            }
+        }
+
+        return new SaveResultImpl(id, node.path("success").booleanValue(), errors);
+    }
+
+    /**
+     * Sends chunks until there are none left. Several can share the list of chunks.
+     */
+    private static final class ChunkWorker<T> implements Callable<Void> {
+        private final List<List<T>> chunks;
+        private final ChunkSaver<T> saver;
+        private final AtomicReferenceArray<List<SaveResult>> chunkResults;
+        private final AtomicInteger nextChunk = new AtomicInteger();
+
+        private volatile boolean stopped = false;
+
+        private ChunkWorker(List<List<T>> chunks, ChunkSaver<T> saver,
+                AtomicReferenceArray<List<SaveResult>> chunkResults) {
+            this.chunks = chunks;
+            this.saver = saver;
+            this.chunkResults = chunkResults;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            int chunk;
+            while (!this.stopped && (chunk = this.nextChunk.getAndIncrement()) < this.chunks.size()) {
+                try {
+                    this.chunkResults.set(chunk, this.saver.save(this.chunks.get(chunk)));
+                } catch (IOException e) {
+                    stop();
+                    throw e;
+                } catch (RuntimeException e) {
+                    stop();
+                    throw e;
+                }
+            }
+            return null;
+        }
+
+        void stop() {
+            this.stopped = true;
+        }
+    }
+}
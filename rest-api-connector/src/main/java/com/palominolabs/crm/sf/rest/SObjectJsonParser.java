@@ -0,0 +1,486 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.palominolabs.crm.sf.core.FieldTable;
+import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.LazyRecordList;
+import com.palominolabs.crm.sf.core.SObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds sObjects and query results token by token from a JsonParser, so that a response body never has to be held as
+ * a String or a JsonNode tree.
+ *
+ * Salesforce always writes the "attributes" object first in a record and "totalSize" first in a query result, which is
+ * how a nested object is identified as a sub object or a subquery result without looking ahead. Otherwise, keys may
+ * appear in any order.
+ *
+ * Each parse call shares field tables among all the records it reads (see
+ * {@link com.palominolabs.crm.sf.core.FieldTable.Cache}), so a page of records with the same fields holds only one copy
+ * of the field names.
+ *
+ * A query result can also be read lazily from a buffered page: the records array is only scanned for where each record
+ * starts, and a record is decoded from the page's bytes when it is first accessed (see {@link LazyRecordList}).
+ */
+@Immutable
+final class SObjectJsonParser {
+
+    private static final String ID_KEY = "Id";
+    private static final String ATTRIBUTES_KEY = "attributes";
+    private static final String TYPE_KEY = "type";
+
+    private static final String TOTAL_SIZE_KEY = "totalSize";
+    private static final String DONE_KEY = "done";
+    private static final String NEXT_RECORDS_URL_KEY = "nextRecordsUrl";
+    private static final String RECORDS_KEY = "records";
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private SObjectJsonParser() {
+    }
+
+    /**
+     * @param parser parser positioned before a query result object
+     *
+     * @return the query result
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    static RestQueryResult parseQueryResult(@Nonnull JsonParser parser) throws IOException {
+        startObject(parser);
+        return readQueryResultFields(parser, new FieldTable.Cache(), null);
+    }
+
+    /**
+     * Only the total size, done flag and locator are read now. The records are decoded from body as they are accessed,
+     * and body is held until all of them have been.
+     *
+     * @param body the UTF-8 bytes of a query result object. It must not be modified afterwards.
+     *
+     * @return the query result
+     *
+     * @throws IOException if the query result or its records array is malformed
+     */
+    @Nonnull
+    static RestQueryResult parseQueryResultLazily(@Nonnull byte[] body) throws IOException {
+        JsonParser parser = FACTORY.createParser(body);
+        try {
+            startObject(parser);
+            return readQueryResultFields(parser, new FieldTable.Cache(), body);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * @param parser parser positioned before an sObject
+     *
+     * @return the sObject
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    static RestSObject parseSObject(@Nonnull JsonParser parser) throws IOException {
+        startObject(parser);
+        return readSObjectFields(parser, new FieldTable.Cache());
+    }
+
+    /**
+     * @param parser parser positioned before an array of sObjects
+     *
+     * @return list of SObjects
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    static List<SObject> parseSObjects(@Nonnull JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.START_ARRAY) {
+            throw new ResponseParseException("Got a node that wasn't an array <" + token + ">");
+        }
+
+        List<SObject> sObjects = Lists.newArrayList();
+        readSObjectArray(parser, sObjects, new FieldTable.Cache());
+        return sObjects;
+    }
+
+    /**
+     * Advance past the START_OBJECT of a document.
+     *
+     * @param parser parser positioned before an object
+     *
+     * @throws IOException if the next token is not the start of an object
+     */
+    private static void startObject(JsonParser parser) throws IOException {
+        checkObjectStart(parser.nextToken());
+        parser.nextToken();
+    }
+
+    private static void checkObjectStart(@Nullable JsonToken token) throws ResponseParseException {
+        if (token == null) {
+            throw new ResponseParseException("Got a null object node");
+        }
+
+        if (token != JsonToken.START_OBJECT) {
+            throw new ResponseParseException("Got a node that wasn't an object <" + token + ">");
+        }
+    }
+
+    /**
+     * @param parser      parser positioned at the first field name (or the end) of a query result object
+     * @param fieldTables field tables of the response
+     * @param lazyBody    the bytes parser is reading, to decode records from lazily, or null to decode them now
+     *
+     * @return the query result. The parser is left at the END_OBJECT of the query result.
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    private static RestQueryResult readQueryResultFields(JsonParser parser, FieldTable.Cache fieldTables,
+            @Nullable byte[] lazyBody) throws IOException {
+        Integer totalSize = null;
+        Boolean done = null;
+        String nextRecordsUrl = null;
+        List<RestSObject> sObjects = null;
+
+        for (JsonToken token = parser.getCurrentToken(); token != JsonToken.END_OBJECT; token = parser.nextToken()) {
+            String key = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if (TOTAL_SIZE_KEY.equals(key)) {
+                if (value != JsonToken.VALUE_NUMBER_INT) {
+                    throw new ResponseParseException("Node <" + value + "> isn't int for key <" + key + ">");
+                }
+                totalSize = parser.getIntValue();
+            } else if (DONE_KEY.equals(key)) {
+                if (value != JsonToken.VALUE_TRUE && value != JsonToken.VALUE_FALSE) {
+                    throw new ResponseParseException("Node <" + value + "> isn't boolean for key <" + key + ">");
+                }
+                done = value == JsonToken.VALUE_TRUE;
+            } else if (NEXT_RECORDS_URL_KEY.equals(key)) {
+                if (value == JsonToken.VALUE_STRING) {
+                    nextRecordsUrl = parser.getText();
+                } else if (value != JsonToken.VALUE_NULL) {
+                    throw new ResponseParseException("Node <" + value + "> isn't text for key <" + key + ">");
+                }
+            } else if (RECORDS_KEY.equals(key)) {
+                if (value != JsonToken.START_ARRAY) {
+                    throw new ResponseParseException("Node <" + value + "> isn't an array for key <" + key + ">");
+                }
+                if (lazyBody == null) {
+                    sObjects = Lists.newArrayList();
+                    readSObjectArray(parser, sObjects, fieldTables);
+                } else {
+                    sObjects = skipSObjectArray(parser, lazyBody);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (totalSize == null) {
+            throw new ResponseParseException("Null value for key <" + TOTAL_SIZE_KEY + ">");
+        }
+        if (done == null) {
+            throw new ResponseParseException("Null value for key <" + DONE_KEY + ">");
+        }
+        if (sObjects == null) {
+            throw new ResponseParseException("Null value for key <" + RECORDS_KEY + ">");
+        }
+
+        if (done) {
+            return RestQueryResultImpl.getDone(sObjects, totalSize);
+        }
+
+        if (nextRecordsUrl == null) {
+            throw new ResponseParseException("Null value for key <" + NEXT_RECORDS_URL_KEY + ">");
+        }
+
+        return RestQueryResultImpl.getNotDone(sObjects, totalSize, new RestQueryLocator(nextRecordsUrl));
+    }
+
+    /**
+     * @param parser      parser positioned at the START_ARRAY of a records array. It is left at the END_ARRAY.
+     * @param sObjects    list to add the records to
+     * @param fieldTables field tables of the response
+     *
+     * @throws IOException on error
+     */
+    private static void readSObjectArray(JsonParser parser, List<? super RestSObject> sObjects,
+            FieldTable.Cache fieldTables) throws IOException {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            checkObjectStart(parser.getCurrentToken());
+            parser.nextToken();
+            sObjects.add(readSObjectFields(parser, fieldTables));
+        }
+    }
+
+    /**
+     * @param parser parser over body positioned at the START_ARRAY of a records array. It is left at the END_ARRAY.
+     * @param body   the bytes parser is reading
+     *
+     * @return the records, to be decoded from body when accessed
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    private static List<RestSObject> skipSObjectArray(JsonParser parser, byte[] body) throws IOException {
+        int[] offsets = new int[16];
+        int count = 0;
+
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            checkObjectStart(parser.getCurrentToken());
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = objectStart(body, byteOffset(parser.getTokenLocation()));
+            // still checks that the record is well formed JSON, but doesn't build any strings
+            parser.skipChildren();
+        }
+
+        return new LazyRecords(body, offsets, count);
+    }
+
+    /**
+     * Some Jackson versions report the location of a token after the first in an array as the separator before it, so
+     * this looks forward from there for the START_OBJECT itself.
+     *
+     * @param body   the bytes being parsed
+     * @param offset offset reported for a START_OBJECT token
+     *
+     * @return the offset of the token's '{'
+     *
+     * @throws ResponseParseException if there is anything other than a separator and whitespace before the '{'
+     */
+    private static int objectStart(byte[] body, int offset) throws ResponseParseException {
+        for (int i = offset; i < body.length; i++) {
+            switch (body[i]) {
+                case '{':
+                    return i;
+                case ',':
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r':
+                    continue;
+                default:
+                    throw new ResponseParseException("Expected a record at byte " + offset + " of the response");
+            }
+        }
+
+        throw new ResponseParseException("Expected a record at byte " + offset + " of the response");
+    }
+
+    /**
+     * @param location location from a parser over a byte array
+     *
+     * @return the location's offset in the array. Older Jackson versions report it as a char offset even for byte
+     * based parsers.
+     */
+    private static int byteOffset(JsonLocation location) {
+        long offset = location.getByteOffset();
+        return (int) (offset >= 0 ? offset : location.getCharOffset());
+    }
+
+    /**
+     * The sObject's type and Id must be known before it can be created, and Salesforce doesn't always write Id before
+     * the other fields (sub objects have it last), so fields are collected first and applied once the whole object has
+     * been read.
+     *
+     * @param parser      parser positioned at the first field name (or the end) of an sObject
+     * @param fieldTables field tables of the response
+     *
+     * @return the sObject. The parser is left at the END_OBJECT of the sObject.
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    private static RestSObject readSObjectFields(JsonParser parser, FieldTable.Cache fieldTables)
+            throws IOException {
+        String type = null;
+        Id id = null;
+
+        List<String> fieldNames = Lists.newArrayList();
+        List<String> fieldValues = Lists.newArrayList();
+        Map<String, RestSObject> subObjects = null;
+        Map<String, RestQueryResult> subqueryResults = null;
+
+        for (JsonToken token = parser.getCurrentToken(); token != JsonToken.END_OBJECT; token = parser.nextToken()) {
+            String fieldName = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if (ATTRIBUTES_KEY.equals(fieldName)) {
+                type = readType(parser, value);
+            } else if (ID_KEY.equals(fieldName)) {
+                if (value == JsonToken.VALUE_STRING) {
+                    id = new Id(parser.getText());
+                } else if (value != JsonToken.VALUE_NULL) {
+                    throw new ResponseParseException("Id node <" + value + "> wasn't textual");
+                }
+            } else if (value == JsonToken.START_OBJECT) {
+                // it could either be a subquery or a sub object at this point.
+                JsonToken first = parser.nextToken();
+                String firstKey = first == JsonToken.FIELD_NAME ? parser.getCurrentName() : null;
+
+                if (isQueryResultKey(firstKey)) {
+                    if (subqueryResults == null) {
+                        subqueryResults = Maps.newLinkedHashMap();
+                    }
+                    subqueryResults.put(fieldName, readQueryResultFields(parser, fieldTables, null));
+                } else {
+                    if (subObjects == null) {
+                        subObjects = Maps.newLinkedHashMap();
+                    }
+                    subObjects.put(fieldName, readSObjectFields(parser, fieldTables));
+                }
+            } else if (value == JsonToken.VALUE_NULL) {
+                fieldNames.add(fieldName);
+                fieldValues.add(null);
+            } else if (value == JsonToken.VALUE_NUMBER_FLOAT) {
+                // match the formatting a JsonNode tree would have used
+                fieldNames.add(fieldName);
+                fieldValues.add(Double.toString(parser.getDoubleValue()));
+            } else if (value != null && value.isScalarValue()) {
+                fieldNames.add(fieldName);
+                fieldValues.add(parser.getText());
+            } else {
+                throw new ResponseParseException("Unknown node type <" + value + "> for field <" + fieldName + ">");
+            }
+        }
+
+        if (type == null) {
+            throw new ResponseParseException("Null value for key <" + ATTRIBUTES_KEY + ">");
+        }
+
+        return new CompactRestSObject(type, id, fieldTables.get(fieldNames), fieldNames, fieldValues,
+                subqueryResults, subObjects);
+    }
+
+    /**
+     * @param parser parser positioned at the value of the attributes key
+     * @param value  the current token
+     *
+     * @return the type attribute. The parser is left at the END_OBJECT of the attributes.
+     *
+     * @throws IOException on error
+     */
+    @Nonnull
+    private static String readType(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            throw new ResponseParseException("Node <" + value + "> isn't an object for key <" + ATTRIBUTES_KEY + ">");
+        }
+
+        String type = null;
+        while (parser.nextToken() != JsonToken.END_OBJECT) {
+            String key = parser.getCurrentName();
+            JsonToken attrValue = parser.nextToken();
+
+            if (TYPE_KEY.equals(key)) {
+                if (attrValue != JsonToken.VALUE_STRING) {
+                    throw new ResponseParseException("Node <" + attrValue + "> isn't text for key <" + key + ">");
+                }
+                type = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (type == null) {
+            throw new ResponseParseException("Null value for key <" + TYPE_KEY + ">");
+        }
+
+        return type;
+    }
+
+    private static boolean isQueryResultKey(@Nullable String key) {
+        return TOTAL_SIZE_KEY.equals(key) || DONE_KEY.equals(key) || RECORDS_KEY.equals(key) ||
+                NEXT_RECORDS_URL_KEY.equals(key);
+    }
+
+    /**
+     * The records of a lazily read page, decoded from the page's bytes when first accessed.
+     */
+    @ThreadSafe
+    private static final class LazyRecords extends LazyRecordList<RestSObject> {
+
+        @GuardedBy("this")
+        @Nullable
+        private byte[] body;
+
+        @GuardedBy("this")
+        @Nullable
+        private int[] offsets;
+
+        /**
+         * shared by the records of the page as they are decoded
+         */
+        @GuardedBy("this")
+        @Nullable
+        private FieldTable.Cache fieldTables = new FieldTable.Cache();
+
+        /**
+         * @param body    the page
+         * @param offsets offset in body of the START_OBJECT of each record
+         * @param count   the number of records
+         */
+        private LazyRecords(byte[] body, int[] offsets, int count) {
+            super(count);
+            this.body = body;
+            this.offsets = offsets;
+        }
+
+        @Nonnull
+        @Override
+        protected RestSObject decode(int index) throws IOException {
+            //noinspection ConstantConditions
+            int offset = this.offsets[index];
+            //noinspection ConstantConditions
+            JsonParser parser = FACTORY.createParser(this.body, offset, this.body.length - offset);
+            try {
+                startObject(parser);
+                //noinspection ConstantConditions
+                return readSObjectFields(parser, this.fieldTables);
+            } finally {
+                parser.close();
+            }
+        }
+
+        @Override
+        protected void releaseSource() {
+            this.body = null;
+            this.offsets = null;
+            this.fieldTables = null;
+        }
+    }
+}
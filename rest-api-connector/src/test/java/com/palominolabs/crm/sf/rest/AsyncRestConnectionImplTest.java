@@ -0,0 +1,282 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.palominolabs.crm.sf.core.Id;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.palominolabs.crm.sf.rest.FakeHttpClient.response;
+import static com.palominolabs.testutil.ResourceUtil.readResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncRestConnectionImplTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final List<HttpUriRequest> requests = Lists.newArrayList();
+
+    private int executedTasks = 0;
+
+    @Test
+    public void testQuery() throws Exception {
+        AsyncRestConnection conn = getConnection(response(200, readResource("/apiResponses/query.json")));
+
+        RestQueryResult result = conn.query("SELECT Id, Name, Description FROM Product2").get();
+
+        assertEquals(1, result.getSObjects().size());
+        assertEquals("GenWatt Diesel 200kW", result.getSObjects().get(0).getField("Name"));
+
+        HttpUriRequest request = requests.get(0);
+        assertEquals("/services/data/v" + HttpApiClient.API_VERSION + "/query", request.getURI().getPath());
+        assertEquals("OAuth token", request.getFirstHeader("Authorization").getValue());
+
+        assertEquals(1, metricRegistry.timer(name(RestConnectionImpl.class, "query.request")).getCount());
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+        AsyncRestConnection conn = getConnection(response(201, readResource("/apiResponses/create.json")));
+
+        SaveResult saveResult = conn.create(RestSObjectImpl.getNew("Contact")).get();
+
+        assertTrue(saveResult.isSuccess());
+        assertEquals("POST", requests.get(0).getMethod());
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception {
+        AsyncRestConnection conn = getConnection(response(404,
+                "[{\"message\":\"The requested resource does not exist\",\"errorCode\":\"NOT_FOUND\"}]"));
+
+        ListenableFuture<Void> future = conn.delete("Contact", new Id("0035000000km1oh"));
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            ApiException apiException = (ApiException) e.getCause();
+            assertEquals(404, apiException.getHttpResponseCode());
+            assertEquals("NOT_FOUND", apiException.getErrors().get(0).getErrorCode());
+        }
+    }
+
+    @Test
+    public void testRequestFailure() throws Exception {
+        IOException failure = new IOException("Connection reset");
+        AsyncRestConnection conn = getConnection(failure);
+
+        try {
+            conn.search("FIND {foo}").get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+
+        assertEquals(1, metricRegistry.timer(name(RestConnectionImpl.class, "search.request")).getCount());
+    }
+
+    @Test
+    public void testResponseHandledOnExecutor() throws Exception {
+        AsyncRestConnection conn = getConnection(response(200, readResource("/apiResponses/query.json")));
+
+        conn.query("SELECT Id, Name, Description FROM Product2").get();
+
+        // one task to send the request, one to parse the response
+        assertEquals(2, executedTasks);
+    }
+
+    @Test
+    public void testLimited() throws Exception {
+        HttpResponse response = response(200, readResource("/apiResponses/query.json"));
+        response.setHeader(OrgRequestLimiter.LIMIT_INFO_HEADER, "api-usage=99/100");
+        OrgRequestLimiter limiter = new OrgRequestLimiter(1, 1000, new Timer(), new Meter());
+        AsyncRestConnection conn = getConnection(response, limiter);
+
+        // the permit is given back once each response arrives
+        conn.query("SELECT Id FROM Product2").get();
+        conn.query("SELECT Id FROM Product2").get();
+        assertEquals(2, requests.size());
+        assertEquals(1, limiter.getRemainingApiCalls());
+
+        response.setHeader(OrgRequestLimiter.LIMIT_INFO_HEADER, "api-usage=100/100");
+        conn.query("SELECT Id FROM Product2").get();
+        try {
+            conn.query("SELECT Id FROM Product2").get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestLimitException);
+        }
+        assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void testTransientFailureRetried() throws Exception {
+        OrgRequestRetrier retrier = new OrgRequestRetrier(
+                new RetryPolicy(3, 0, 0, TimeUnit.MILLISECONDS, false, 10, 0.1), new Counter(), new Counter());
+        HttpApiClient client = HttpApiClient.builder("na3.salesforce.com", "token", new ObjectMapper(),
+                HttpClients.createDefault()).setRetrier(retrier).build();
+        AsyncRestConnection conn = getConnection(client, new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) throws IOException {
+                requests.add(request);
+                if (requests.size() == 1) {
+                    return response(503, "[]");
+                }
+                return response(200, readResource("/apiResponses/query.json"));
+            }
+        });
+
+        assertEquals(1, conn.query("SELECT Id, Name, Description FROM Product2").get().getSObjects().size());
+        assertEquals(2, requests.size());
+        assertEquals(1, metricRegistry.timer(name(RestConnectionImpl.class, "query.request")).getCount());
+    }
+
+    @Test
+    public void testRejectedTokenRefreshed() throws Exception {
+        OrgTokenRefresher refresher = new OrgTokenRefresher(new OAuthTokenProvider() {
+            @Nonnull
+            @Override
+            public String refreshToken(@Nonnull String rejectedToken) {
+                return "newToken";
+            }
+        }, "token", new OrgTokenRefresher.Listener() {
+            @Override
+            public void tokenRefreshed(@Nonnull OrgTokenRefresher refresher, @Nonnull String newToken) {
+            }
+        }, new Timer(), new Timer());
+        HttpApiClient client = HttpApiClient.builder("na3.salesforce.com", "token", new ObjectMapper(),
+                HttpClients.createDefault()).setTokenRefresher(refresher).build();
+        AsyncRestConnection conn = getConnection(client, new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) throws IOException {
+                requests.add(request);
+                if ("OAuth newToken".equals(request.getFirstHeader("Authorization").getValue())) {
+                    return response(204, "");
+                }
+                return response(401, "[{\"message\":\"Session expired\",\"errorCode\":\"INVALID_SESSION_ID\"}]");
+            }
+        });
+
+        conn.delete("Contact", new Id("0035000000km1oh")).get();
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void testDescribeCached() throws Exception {
+        DescribeCache cache = new DescribeCache(new DescribeCacheConfig(10, TimeUnit.MINUTES), Ticker.systemTicker(),
+                new Counter(), new Counter(), new Counter());
+        // a cached describe is made with the blocking client
+        HttpClient httpClient = FakeHttpClient.create(new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) throws IOException {
+                requests.add(request);
+                return response(200, readResource("/apiResponses/describeGlobal.json"));
+            }
+        });
+        HttpApiClient client = HttpApiClient.builder("na3.salesforce.com", "token", new ObjectMapper(), httpClient)
+                .setDescribeCache(cache).build();
+        AsyncRestConnection conn = getConnection(client, new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) {
+                throw new AssertionError("sent with the async client");
+            }
+        });
+
+        DescribeGlobalResult result = conn.describeGlobal().get();
+        assertSame(result, conn.describeGlobal().get());
+        assertEquals(1, requests.size());
+    }
+
+    private AsyncRestConnection getConnection(Object outcome) {
+        return getConnection(outcome, null);
+    }
+
+    /**
+     * @param outcome either the HttpResponse or the IOException to complete every request with
+     * @param limiter limiter for the org, or null
+     *
+     * @return a connection whose requests are completed immediately
+     */
+    private AsyncRestConnection getConnection(final Object outcome, @Nullable OrgRequestLimiter limiter) {
+        HttpApiClient client = HttpApiClient.builder("na3.salesforce.com", "token", new ObjectMapper(),
+                HttpClients.createDefault()).setLimiter(limiter).build();
+
+        return getConnection(client, new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) throws IOException {
+                requests.add(request);
+                if (outcome instanceof HttpResponse) {
+                    return (HttpResponse) outcome;
+                }
+                throw (IOException) outcome;
+            }
+        });
+    }
+
+    /**
+     * @param client    client for the org
+     * @param responder completes every request sent with the async client
+     *
+     * @return a connection whose requests are completed immediately
+     */
+    private AsyncRestConnection getConnection(final HttpApiClient client, FakeHttpClient.Responder responder) {
+        HttpApiClientProvider provider = new HttpApiClientProvider() {
+            @Nonnull
+            @Override
+            public HttpApiClient getClient() {
+                return client;
+            }
+        };
+
+        HttpAsyncClient asyncClient = FakeHttpClient.createAsync(responder);
+
+        Executor executor = new Executor() {
+            @Override
+            public void execute(@Nonnull Runnable command) {
+                executedTasks++;
+                command.run();
+            }
+        };
+
+        return new AsyncRestConnectionImpl(new RestConnectionImpl(new ObjectMapper().reader(), provider,
+                metricRegistry), provider, asyncClient, executor);
+    }
+}
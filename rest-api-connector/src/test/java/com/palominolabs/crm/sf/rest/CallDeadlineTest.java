@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Ticker;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CallDeadlineTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private volatile HttpUriRequest lastRequest;
+
+    @Test
+    public void testDeadlineAbortsRequestInFlight() throws IOException {
+        HttpApiClient client = getClient(hangingClient(), null, null)
+                .withDeadline(new CallDeadline(200, TimeUnit.MILLISECONDS, Ticker.systemTicker()));
+
+        long start = System.nanoTime();
+        try {
+            client.describeGlobal();
+            fail();
+        } catch (DeadlineExceededException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Deadline passed while sending GET https://"));
+        }
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 200 + 10 * RequestWatchdog.CHECK_INTERVAL_MILLIS);
+        assertTrue(lastRequest.isAborted());
+
+        // timeouts are bounded by the time that was left
+        int socketTimeout = ((HttpRequestBase) lastRequest).getConfig().getSocketTimeout();
+        assertTrue("socket timeout " + socketTimeout, socketTimeout > 0 && socketTimeout <= 200);
+    }
+
+    @Test
+    public void testInterruptAbortsRequestInFlight() throws Exception {
+        final HttpApiClient client = getClient(hangingClient(), null, null)
+                .withDeadline(new CallDeadline(1, TimeUnit.MINUTES, Ticker.systemTicker()));
+        final Exception[] failure = new Exception[1];
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    client.describeGlobal();
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        thread.start();
+
+        while (requests.get() == 0) {
+            Thread.sleep(5);
+        }
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertFalse(thread.isAlive());
+        assertTrue(String.valueOf(failure[0]), failure[0] instanceof InterruptedIOException);
+        assertFalse(failure[0] instanceof DeadlineExceededException);
+        assertTrue(lastRequest.isAborted());
+    }
+
+    @Test
+    public void testExpiredDeadlineSendsNothing() throws IOException {
+        FakeTicker ticker = new FakeTicker();
+        HttpApiClient client = getClient(hangingClient(), null, null)
+                .withDeadline(new CallDeadline(1, TimeUnit.SECONDS, ticker));
+        ticker.advance(TimeUnit.SECONDS.toNanos(1));
+
+        try {
+            client.describeGlobal();
+            fail();
+        } catch (DeadlineExceededException e) {
+            // expected
+        }
+
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    public void testDoesNotBackOffPastDeadline() throws IOException {
+        HttpClient failingClient = FakeHttpClient.create(new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) throws IOException {
+                requests.incrementAndGet();
+                throw new IOException("Connection reset");
+            }
+        });
+        OrgRequestRetrier retrier = new OrgRequestRetrier(
+                new RetryPolicy(3, 10, 10, TimeUnit.SECONDS, false, 10, 0.1),
+                metricRegistry.counter("retries"), metricRegistry.counter("giveUps"));
+        HttpApiClient client = getClient(failingClient, null, retrier)
+                .withDeadline(new CallDeadline(1, TimeUnit.SECONDS, Ticker.systemTicker()));
+
+        long start = System.nanoTime();
+        try {
+            client.describeGlobal();
+            fail();
+        } catch (DeadlineExceededException e) {
+            assertEquals("Connection reset", e.getCause().getMessage());
+        }
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        // the retrier is consulted first, so backoff may happen to be short enough for a few more attempts
+        assertTrue(requests.get() >= 1);
+    }
+
+    @Test
+    public void testGivesUpWaitingForLimiter() throws IOException {
+        OrgRequestLimiter limiter = new OrgRequestLimiter(1, 1000, metricRegistry.timer("wait"),
+                metricRegistry.meter("rejected"));
+        limiter.acquire();
+
+        HttpApiClient client = getClient(hangingClient(), limiter, null)
+                .withDeadline(new CallDeadline(50, TimeUnit.MILLISECONDS, Ticker.systemTicker()));
+
+        try {
+            client.describeGlobal();
+            fail();
+        } catch (DeadlineExceededException e) {
+            assertEquals("Deadline passed while waiting to send a request", e.getMessage());
+        }
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    public void testCallWithinDeadlineSucceeds() throws IOException {
+        HttpClient okClient = FakeHttpClient.create(new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) {
+                return FakeHttpClient.response(200, "{}");
+            }
+        });
+
+        assertEquals("{}", getClient(okClient, null, null)
+                .withDeadline(new CallDeadline(1, TimeUnit.MINUTES, Ticker.systemTicker())).describeGlobal());
+    }
+
+    @Test
+    public void testWatchdogOnlyAbortsExpiredRequests() {
+        FakeTicker ticker = new FakeTicker();
+        RequestWatchdog watchdog = new RequestWatchdog();
+        HttpGet soon = new HttpGet("https://na3.salesforce.com/soon");
+        HttpGet later = new HttpGet("https://na3.salesforce.com/later");
+        HttpGet done = new HttpGet("https://na3.salesforce.com/done");
+
+        watchdog.watch(soon, new CallDeadline(1, TimeUnit.SECONDS, ticker));
+        watchdog.watch(later, new CallDeadline(1, TimeUnit.MINUTES, ticker));
+        watchdog.watch(done, new CallDeadline(1, TimeUnit.SECONDS, ticker)).close();
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(2));
+        watchdog.check();
+
+        assertTrue(soon.isAborted());
+        assertFalse(later.isAborted());
+        assertFalse(done.isAborted());
+    }
+
+    private HttpApiClient getClient(HttpClient httpClient, OrgRequestLimiter limiter, OrgRequestRetrier retrier) {
+        return HttpApiClient.builder("na3.salesforce.com", "token", new ObjectMapper(), httpClient).setLimiter(limiter)
+                .setRetrier(retrier).build();
+    }
+
+    /**
+     * @return a client whose requests never get a response, and ignore interrupts like a blocked socket read would,
+     * until they are aborted
+     */
+    private HttpClient hangingClient() {
+        return FakeHttpClient.create(new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) throws IOException {
+                lastRequest = request;
+                requests.incrementAndGet();
+                while (!request.isAborted()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+                throw new InterruptedIOException("Request aborted");
+            }
+        });
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos = TimeUnit.HOURS.toNanos(1);
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long delta) {
+            nanos += delta;
+        }
+    }
+}
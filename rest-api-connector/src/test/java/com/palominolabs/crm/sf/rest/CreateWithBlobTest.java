@@ -0,0 +1,155 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CreateWithBlobTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String UNAVAILABLE = "[{\"message\":\"down\",\"errorCode\":\"SERVER_UNAVAILABLE\"}]";
+
+    private static final String CREATED = "{\"id\":\"068D00000000pgOIAQ\",\"success\":true,\"errors\":[]}";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    /**
+     * the body of each request, as it was sent
+     */
+    private final List<String> bodies = Lists.newArrayList();
+
+    @Test
+    public void testSendsFieldsAndContentAsParts() throws IOException {
+        RestConnection connection = getConnection(201, CREATED);
+
+        SaveResult result = connection.createWithBlob(getContentVersion(), "VersionData", "report.pdf",
+                new ByteArrayInputStream("%PDF-1.4 contents".getBytes(Charsets.US_ASCII)), 17);
+
+        assertTrue(result.isSuccess());
+        assertEquals(1, bodies.size());
+
+        String body = bodies.get(0);
+        String boundary = body.substring(2, body.indexOf("\r\n"));
+        assertEquals("--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"entity_content\"\r\n" +
+                "Content-Type: application/json; charset=UTF-8\r\n\r\n" +
+                "{\"Title\":\"Report\",\"PathOnClient\":\"report.pdf\"}\r\n" +
+                "--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"VersionData\"; filename=\"report.pdf\"\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n" +
+                "%PDF-1.4 contents\r\n" +
+                "--" + boundary + "--\r\n", body);
+    }
+
+    @Test
+    public void testFileIsResentOnRetry() throws IOException {
+        File file = File.createTempFile("blob", ".txt");
+        try {
+            Files.write("file contents", file, Charsets.UTF_8);
+            RestConnection connection = getConnection(503, UNAVAILABLE);
+
+            try {
+                connection.createWithBlob(getContentVersion(), "VersionData", "report.txt", file);
+                fail();
+            } catch (ApiException e) {
+                assertEquals(503, e.getHttpResponseCode());
+            }
+
+            assertEquals(2, bodies.size());
+            assertTrue(bodies.get(0).contains("\r\n\r\nfile contents\r\n"));
+            assertTrue(bodies.get(1).contains("\r\n\r\nfile contents\r\n"));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void testStreamIsNotResent() throws IOException {
+        RestConnection connection = getConnection(503, UNAVAILABLE);
+
+        try {
+            connection.createWithBlob(getContentVersion(), "VersionData", "report.txt",
+                    new ByteArrayInputStream(new byte[]{1, 2, 3}), -1);
+            fail();
+        } catch (ApiException e) {
+            assertEquals(503, e.getHttpResponseCode());
+        }
+
+        assertEquals(1, bodies.size());
+    }
+
+    private static RestSObject getContentVersion() {
+        RestSObjectImpl contentVersion = RestSObjectImpl.getNew("ContentVersion");
+        contentVersion.setField("Title", "Report");
+        contentVersion.setField("PathOnClient", "report.pdf");
+        return contentVersion;
+    }
+
+    /**
+     * @param status       status of every response
+     * @param responseBody body of every response
+     *
+     * @return a connection whose client retries POSTs
+     */
+    private RestConnection getConnection(final int status, final String responseBody) {
+        HttpClient httpClient = FakeHttpClient.create(new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) throws IOException {
+                assertEquals("/services/data/v28.0/sobjects/ContentVersion/", request.getURI().getPath());
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ((HttpEntityEnclosingRequest) request).getEntity().writeTo(out);
+                long contentLength = ((HttpEntityEnclosingRequest) request).getEntity().getContentLength();
+                if (contentLength >= 0) {
+                    assertEquals(contentLength, out.size());
+                }
+                bodies.add(new String(out.toByteArray(), Charsets.UTF_8));
+
+                return FakeHttpClient.response(status, responseBody);
+            }
+        });
+
+        OrgRequestRetrier retrier = new OrgRequestRetrier(
+                new RetryPolicy(2, 0, 0, TimeUnit.MILLISECONDS, true, 10, 0.1),
+                metricRegistry.counter("retries"), metricRegistry.counter("giveUps"));
+
+        return new RestConnectionImpl(MAPPER.reader(), new FixedHttpApiClientProvider(
+                HttpApiClient.builder("na3.salesforce.com", "token", MAPPER, httpClient).setRetrier(retrier).build()),
+                metricRegistry);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.palominolabs.testutil.ResourceUtil.readResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DescribeCacheTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String DATE = "Fri, 18 Oct 2013 17:00:00 GMT";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    private final DescribeCache cache = new DescribeCache(new DescribeCacheConfig(10, TimeUnit.MINUTES), ticker,
+            metricRegistry.counter("hits"), metricRegistry.counter("misses"), metricRegistry.counter("revalidations"));
+
+    private final List<HttpUriRequest> requests = Lists.newArrayList();
+
+    /**
+     * true to answer conditional requests with 304
+     */
+    private boolean unchanged = true;
+
+    @Test
+    public void testHitWithinTtl() throws IOException {
+        RestConnection conn = getConnection(readResource("/apiResponses/describeSObject.json"));
+
+        SObjectDescription first = conn.describeSObject("Account");
+        ticker.advance(TimeUnit.MINUTES.toNanos(9));
+        assertSame(first, conn.describeSObject("Account"));
+
+        assertEquals(1, requests.size());
+        assertEquals(1, count("hits"));
+        assertEquals(1, count("misses"));
+    }
+
+    @Test
+    public void testRevalidateAfterTtl() throws IOException {
+        RestConnection conn = getConnection(readResource("/apiResponses/describeSObject.json"));
+
+        SObjectDescription first = conn.describeSObject("Account");
+        assertNull(requests.get(0).getFirstHeader("If-Modified-Since"));
+
+        ticker.advance(TimeUnit.MINUTES.toNanos(11));
+        assertSame(first, conn.describeSObject("Account"));
+        assertEquals(DATE, requests.get(1).getFirstHeader("If-Modified-Since").getValue());
+        assertEquals("\"abc\"", requests.get(1).getFirstHeader("If-None-Match").getValue());
+        assertEquals(1, count("revalidations"));
+
+        // a revalidated result is good for another TTL
+        ticker.advance(TimeUnit.MINUTES.toNanos(9));
+        assertSame(first, conn.describeSObject("Account"));
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void testChangedAfterTtl() throws IOException {
+        RestConnection conn = getConnection(readResource("/apiResponses/describeSObject.json"));
+
+        SObjectDescription first = conn.describeSObject("Account");
+        unchanged = false;
+        ticker.advance(TimeUnit.MINUTES.toNanos(11));
+        SObjectDescription second = conn.describeSObject("Account");
+
+        assertEquals(first.getName(), second.getName());
+        assertEquals(2, count("misses"));
+        assertEquals(0, count("revalidations"));
+    }
+
+    @Test
+    public void testKeyedByType() throws IOException {
+        RestConnection conn = getConnection(readResource("/apiResponses/describeGlobal.json"));
+
+        DescribeGlobalResult global = conn.describeGlobal();
+        assertSame(global, conn.describeGlobal());
+
+        cache.clear();
+        conn.describeGlobal();
+        assertEquals(2, requests.size());
+        assertEquals(2, count("misses"));
+    }
+
+    private long count(String name) {
+        return metricRegistry.counter(name).getCount();
+    }
+
+    /**
+     * @param responseBody body of every 200 response
+     *
+     * @return a connection that uses the cache and records its requests
+     */
+    private RestConnection getConnection(final String responseBody) {
+        HttpClient httpClient = FakeHttpClient.create(new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) {
+                requests.add(request);
+
+                Header ifModifiedSince = request.getFirstHeader("If-Modified-Since");
+                if (unchanged && ifModifiedSince != null && ifModifiedSince.getValue().equals(DATE)) {
+                    return new BasicHttpResponse(HttpVersion.HTTP_1_1, 304, "Not Modified");
+                }
+
+                HttpResponse response = FakeHttpClient.response(200, responseBody);
+                response.addHeader("Date", DATE);
+                response.addHeader("ETag", "\"abc\"");
+                return response;
+            }
+        });
+
+        final HttpApiClient client = HttpApiClient.builder("na3.salesforce.com", "token", MAPPER, httpClient)
+                .setDescribeCache(cache)
+                .build();
+
+        return new RestConnectionImpl(MAPPER.reader(), new HttpApiClientProvider() {
+            @Nonnull
+            @Override
+            public HttpApiClient getClient() {
+                return client;
+            }
+        }, new MetricRegistry());
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos = TimeUnit.HOURS.toNanos(1);
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long delta) {
+            nanos += delta;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.client.HttpAsyncClient;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Http clients that answer requests with a Responder instead of going over the network. Only the execute methods that
+ * HttpApiClient and AsyncRestConnectionImpl use are supported.
+ */
+final class FakeHttpClient {
+
+    private FakeHttpClient() {
+    }
+
+    /**
+     * @param responder answers each request
+     *
+     * @return a client whose execute(request) returns what the responder returns, or throws what it throws
+     */
+    static HttpClient create(final Responder responder) {
+        return (HttpClient) Proxy.newProxyInstance(HttpClient.class.getClassLoader(),
+                new Class<?>[]{HttpClient.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (!method.getName().equals("execute") || args.length != 1) {
+                    throw new UnsupportedOperationException(method.toString());
+                }
+                return responder.respond((HttpUriRequest) args[0]);
+            }
+        });
+    }
+
+    /**
+     * @param responder answers each request
+     *
+     * @return a client whose execute(request, callback) completes the callback with what the responder returns, or
+     * fails it with what it throws, before returning
+     */
+    static HttpAsyncClient createAsync(final Responder responder) {
+        return (HttpAsyncClient) Proxy.newProxyInstance(HttpAsyncClient.class.getClassLoader(),
+                new Class<?>[]{HttpAsyncClient.class}, new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (!method.getName().equals("execute") || args.length != 2) {
+                    throw new UnsupportedOperationException(method.toString());
+                }
+                FutureCallback<HttpResponse> callback = (FutureCallback<HttpResponse>) args[1];
+                HttpResponse response;
+                try {
+                    response = responder.respond((HttpUriRequest) args[0]);
+                } catch (IOException e) {
+                    callback.failed(e);
+                    return null;
+                }
+                callback.completed(response);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @param status status code
+     * @param body   json body
+     *
+     * @return a response with the status and body
+     */
+    static HttpResponse response(int status, String body) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "reason");
+        response.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        return response;
+    }
+
+    interface Responder {
+        HttpResponse respond(HttpUriRequest request) throws IOException;
+    }
+}
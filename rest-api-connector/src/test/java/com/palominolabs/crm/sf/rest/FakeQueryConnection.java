@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * RestConnections that answer query calls with a Queries instead of going over the network, for testing cursors.
+ */
+final class FakeQueryConnection {
+
+    private FakeQueryConnection() {
+    }
+
+    /**
+     * @param queries answers query(), query() with options and queryMore()
+     *
+     * @return a connection that supports only those methods
+     */
+    static RestConnection create(final Queries queries) {
+        return (RestConnection) Proxy.newProxyInstance(RestConnection.class.getClassLoader(),
+                new Class<?>[]{RestConnection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("query") && args.length == 1) {
+                    return queries.query((String) args[0]);
+                } else if (method.getName().equals("query") && args.length == 2) {
+                    return queries.query((String) args[0], (RestQueryOptions) args[1]);
+                } else if (method.getName().equals("queryMore")) {
+                    return queries.queryMore((RestQueryLocator) args[0]);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Override the methods a test calls; the others are unsupported.
+     */
+    abstract static class Queries {
+
+        RestQueryResult query(String soql) throws IOException {
+            throw new UnsupportedOperationException("query");
+        }
+
+        RestQueryResult query(String soql, RestQueryOptions options) throws IOException {
+            throw new UnsupportedOperationException("query");
+        }
+
+        RestQueryResult queryMore(RestQueryLocator queryLocator) throws IOException {
+            throw new UnsupportedOperationException("queryMore");
+        }
+    }
+}
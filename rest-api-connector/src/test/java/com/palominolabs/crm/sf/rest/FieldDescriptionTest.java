@@ -16,6 +16,7 @@
 
 package com.palominolabs.crm.sf.rest;
 
+import com.palominolabs.crm.sf.core.DependentPicklistIndex;
 import com.palominolabs.crm.sf.testutil.ConnectionTestSfUserProps;
 import com.palominolabs.crm.sf.testutil.TestFixtureUtils;
 import org.junit.BeforeClass;
@@ -24,6 +25,7 @@ import org.junit.Test;
 import javax.annotation.CheckForNull;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.palominolabs.crm.sf.rest.TestConnections.getRestConnection;
@@ -133,6 +135,19 @@ public class FieldDescriptionTest {
                         dependentEntry.getValidFor().get(controllerEntryIdx));
             }
         }
+
+        DependentPicklistIndex<PicklistEntry> index = depender.getDependentPicklistIndex();
+        assertSame(index, depender.getDependentPicklistIndex());
+        for (int controllerEntryIdx = 0; controllerEntryIdx < size; controllerEntryIdx++) {
+            List<PicklistEntry> validEntries = new ArrayList<PicklistEntry>();
+            for (int dependentEntryIdx = 0; dependentEntryIdx < size; dependentEntryIdx++) {
+                if (expected[dependentEntryIdx][controllerEntryIdx] == 1) {
+                    validEntries.add(depender.getPicklistValues().get(dependentEntryIdx));
+                }
+            }
+
+            assertEquals(validEntries, index.getValidEntries(controllerEntryIdx));
+        }
     }
 
     @Test
@@ -28,6 +28,7 @@ import com.palominolabs.testutil.ResourceUtil;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.StringWriter;
@@ -53,6 +54,17 @@ public class HttpApiClientTest {
             ConnectionTestSfUserProps.getPropVal("com.palominolabs.test.crm.sf.conn.org2MainUser.sfPassword");
 
 
+    /**
+     * Pretty-prints the streamed response body so it can be compared with the stored responses
+     */
+    private static final JsonResponseHandler<String> REFORMAT = new JsonResponseHandler<String>() {
+        @Nonnull
+        @Override
+        public String handle(@Nonnull JsonParser parser) throws IOException {
+            return reformatJson(parser);
+        }
+    };
+
     private static HttpApiClient client = null;
 
     @BeforeClass
@@ -149,24 +161,24 @@ public class HttpApiClientTest {
 
     @Test
     public void testQuery() throws IOException {
-        String actualJsonStr = reformatJson(
-                client.query("SELECT Id,Name,Description FROM Product2 WHERE Id = '01t50000001L5cT'"));
+        String actualJsonStr =
+                client.query("SELECT Id,Name,Description FROM Product2 WHERE Id = '01t50000001L5cT'", REFORMAT);
         assertJsonStringEquals(ResourceUtil.readResource("/apiResponses/query.json"), actualJsonStr);
     }
 
     @Test
     public void testQueryWithSubquery() throws IOException {
-        String actualJsonStr = reformatJson(
-                client.query(
-                        "SELECT Id, Name, AnnualRevenue, (SELECT Id, FirstName, Email FROM Contacts), " +
-                                " (Select Id, Subject from Tasks) FROM Account WHERE Id='0015000000WWD7b'"));
+        String actualJsonStr = client.query(
+                "SELECT Id, Name, AnnualRevenue, (SELECT Id, FirstName, Email FROM Contacts), " +
+                        " (Select Id, Subject from Tasks) FROM Account WHERE Id='0015000000WWD7b'", REFORMAT);
         assertJsonStringEquals(ResourceUtil.readResource("/apiResponses/queryWithSubquery.json"), actualJsonStr);
     }
 
     @Test
     public void testQueryWithRelationship() throws IOException {
-        String actualJsonStr = reformatJson(
-                client.query("SELECT Id, Name, Owner.Name, Owner.Id FROM Account WHERE Id='0015000000WWD7b'"));
+        String actualJsonStr =
+                client.query("SELECT Id, Name, Owner.Name, Owner.Id FROM Account WHERE Id='0015000000WWD7b'",
+                        REFORMAT);
         assertJsonStringEquals(ResourceUtil.readResource("/apiResponses/queryWithSubObject.json"), actualJsonStr);
     }
 
@@ -174,7 +186,7 @@ public class HttpApiClientTest {
     public void testQueryMoreBadQueryLocator() throws IOException {
 
         try {
-            client.queryMore(new RestQueryLocator("/services/data/v21.0/query/wrong"));
+            client.queryMore(new RestQueryLocator("/services/data/v21.0/query/wrong"), REFORMAT);
             fail();
         } catch (ApiException e) {
             assertEquals(
@@ -197,15 +209,16 @@ public class HttpApiClientTest {
 
     @Test
     public void testSearch() throws IOException {
-        String actualJsonStr = reformatJson(
-                client.search("FIND {dickenson.com} returning contact(id, phone, firstname, lastname, email)"));
+        String actualJsonStr =
+                client.search("FIND {dickenson.com} returning contact(id, phone, firstname, lastname, email)",
+                        REFORMAT);
         assertJsonStringEquals(ResourceUtil.readResource("/apiResponses/search.json"), actualJsonStr);
     }
 
     @Test
     public void testRetrieve() throws IOException {
-        String actualJsonStr = reformatJson(client.retrieve("Contact", new Id("0035000000km1oh"),
-                Arrays.asList("FirstName", "LastName")));
+        String actualJsonStr = client.retrieve("Contact", new Id("0035000000km1oh"),
+                Arrays.asList("FirstName", "LastName"), REFORMAT);
         assertJsonStringEquals(ResourceUtil.readResource("/apiResponses/retrieve.json"), actualJsonStr);
     }
 
@@ -220,11 +233,12 @@ public class HttpApiClientTest {
     private static String reformatJson(@Nullable String input) throws IOException {
         checkNotNull(input);
 
-        JsonFactory jsonFactory = new JsonFactory();
+        return reformatJson(new JsonFactory().createParser(input));
+    }
 
-        JsonParser parser = jsonFactory.createParser(input);
+    private static String reformatJson(JsonParser parser) throws IOException {
         StringWriter writer = new StringWriter();
-        JsonGenerator generator = jsonFactory.createGenerator(writer);
+        JsonGenerator generator = new JsonFactory().createGenerator(writer);
         generator.useDefaultPrettyPrinter();
 
         while (parser.nextToken() != null) {
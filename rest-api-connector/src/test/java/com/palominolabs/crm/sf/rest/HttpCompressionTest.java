@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpCompressionTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final HttpCompression compression = new HttpCompression(new GzipConfig(100), metricRegistry, "org.3");
+
+    @Test
+    public void testSmallRequestBodyNotCompressed() throws IOException {
+        HttpEntity entity = compression.getRequestEntity(
+                new ByteArrayEntity(bytes(Strings.repeat("a", 99)), ContentType.APPLICATION_JSON));
+
+        assertNull(entity.getContentEncoding());
+        assertEquals(99, entity.getContentLength());
+        assertEquals(Strings.repeat("a", 99), new String(write(entity), "UTF-8"));
+        assertEquals(99, count("request.uncompressedBytes"));
+        assertEquals(99, count("request.wireBytes"));
+    }
+
+    @Test
+    public void testLargeRequestBodyCompressed() throws IOException {
+        String json = Strings.repeat("{\"Name\":\"Acme\"}", 100);
+        HttpEntity entity =
+                compression.getRequestEntity(new ByteArrayEntity(bytes(json), ContentType.APPLICATION_JSON));
+
+        assertEquals("gzip", entity.getContentEncoding().getValue());
+        assertTrue(entity.isChunked());
+        byte[] wire = write(entity);
+        assertEquals(json, new String(gunzip(wire), "UTF-8"));
+        assertEquals(json.length(), count("request.uncompressedBytes"));
+        assertEquals(wire.length, count("request.wireBytes"));
+
+        // counted again when it is sent again
+        assertEquals(json, new String(gunzip(write(entity)), "UTF-8"));
+        assertEquals(2 * json.length(), count("request.uncompressedBytes"));
+    }
+
+    @Test
+    public void testRequestBodyOfUnknownLength() throws IOException {
+        // a repeatable body is written up to the min size to find out if it is large enough
+        JsonEntity smallJson = jsonEntity(Strings.repeat("a", 50));
+        HttpEntity small = compression.getRequestEntity(smallJson);
+        assertNull(small.getContentEncoding());
+        assertEquals(52, small.getContentLength());
+        assertEquals("\"" + Strings.repeat("a", 50) + "\"", new String(write(small), "UTF-8"));
+
+        String largeString = Strings.repeat("a", 200);
+        HttpEntity large = compression.getRequestEntity(jsonEntity(largeString));
+        assertEquals("gzip", large.getContentEncoding().getValue());
+        byte[] wire = write(large);
+        assertEquals("\"" + largeString + "\"", new String(gunzip(wire), "UTF-8"));
+
+        // any other body is compressed if it is text
+        HttpEntity text = compression.getRequestEntity(unknownLength("{}", ContentType.APPLICATION_JSON));
+        assertEquals("gzip", text.getContentEncoding().getValue());
+        byte[] textWire = write(text);
+        assertEquals("{}", new String(gunzip(textWire), "UTF-8"));
+
+        String blob = Strings.repeat("a", 1000);
+        HttpEntity binary = compression.getRequestEntity(unknownLength(blob, ContentType.APPLICATION_OCTET_STREAM));
+        assertNull(binary.getContentEncoding());
+        assertEquals(blob, new String(write(binary), "UTF-8"));
+
+        assertEquals(52 + 202 + 2 + blob.length(), count("request.uncompressedBytes"));
+        assertEquals(52 + wire.length + textWire.length + blob.length(), count("request.wireBytes"));
+    }
+
+    @Test
+    public void testCompressedResponse() throws IOException {
+        String json = Strings.repeat("{\"Name\":\"Acme\"}", 100);
+        byte[] wire = gzip(bytes(json));
+        ByteArrayEntity wireEntity = new ByteArrayEntity(wire, ContentType.APPLICATION_JSON);
+        wireEntity.setContentEncoding("gzip");
+
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(wireEntity);
+        compression.wrapResponseEntity(response);
+
+        assertNull(response.getEntity().getContentEncoding());
+        assertEquals(json, EntityUtils.toString(response.getEntity()));
+        // consuming again after the body has been read is harmless
+        EntityUtils.consume(response.getEntity());
+
+        assertEquals(json.length(), count("response.uncompressedBytes"));
+        assertEquals(wire.length, count("response.wireBytes"));
+    }
+
+    @Test
+    public void testUncompressedResponse() throws IOException {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new ByteArrayEntity(bytes("[]"), ContentType.APPLICATION_JSON));
+        compression.wrapResponseEntity(response);
+
+        assertEquals("[]", EntityUtils.toString(response.getEntity()));
+        assertEquals(2, count("response.uncompressedBytes"));
+        assertEquals(2, count("response.wireBytes"));
+    }
+
+    private long count(String name) {
+        return metricRegistry.counter(MetricRegistry.name("org.3", name)).getCount();
+    }
+
+    private static byte[] bytes(String str) throws IOException {
+        return str.getBytes("UTF-8");
+    }
+
+    private static JsonEntity jsonEntity(final String str) {
+        return new JsonEntity(new JsonFactory(), new JsonEntity.JsonBody() {
+            @Override
+            public void writeTo(@Nonnull JsonGenerator jsonGenerator) throws IOException {
+                jsonGenerator.writeString(str);
+            }
+        });
+    }
+
+    private static HttpEntity unknownLength(String str, ContentType contentType) throws IOException {
+        return new InputStreamEntity(new ByteArrayInputStream(bytes(str)), -1, contentType);
+    }
+
+    private static byte[] write(HttpEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzipStream = new GZIPOutputStream(out);
+        gzipStream.write(bytes);
+        gzipStream.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return ByteStreams.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpEntity;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonEntityTest {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    @Test
+    public void testWritesBodyChunked() throws IOException {
+        JsonEntity entity = new JsonEntity(FACTORY, new JsonEntity.JsonBody() {
+            @Override
+            public void writeTo(@Nonnull JsonGenerator jsonGenerator) throws IOException {
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeStringField("Name", "Café");
+                jsonGenerator.writeNullField("Description");
+                jsonGenerator.writeEndObject();
+            }
+        });
+
+        String json = "{\"Name\":\"Café\",\"Description\":null}";
+        assertEquals(-1, entity.getContentLength());
+        assertTrue(entity.isChunked());
+        assertEquals("application/json; charset=UTF-8", entity.getContentType().getValue());
+        assertTrue(entity.isRepeatable());
+
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.writeTo(out);
+            assertEquals(json, out.toString("UTF-8"));
+        }
+
+        // a retry knows the length
+        assertEquals(json.getBytes("UTF-8").length, entity.getContentLength());
+        assertFalse(entity.isChunked());
+
+        assertEquals(json, EntityUtils.toString(entity));
+    }
+
+    @Test
+    public void testSObjectFieldsBody() throws IOException {
+        HttpApiClient client =
+                new HttpApiClient("na3.salesforce.com", "token", new ObjectMapper(), HttpClients.createDefault());
+
+        RestSObject immutable = CompactRestSObject.builder("Contact").setField("FirstName", "Rose")
+                .setField("Email", null).build();
+        assertEquals("{\"FirstName\":\"Rose\",\"Email\":null}",
+                EntityUtils.toString(client.getEntityForSObjectFieldsJson(immutable)));
+
+        // the fields of a mutable sObject are read when the entity is made, not when it is written
+        RestSObject mutable = RestSObjectImpl.getNew("Contact");
+        mutable.setField("FirstName", "Rose");
+        mutable.setField("Email", null);
+        HttpEntity entity = client.getEntityForSObjectFieldsJson(mutable);
+        mutable.setField("FirstName", "Liz");
+        mutable.setField("LastName", "Tyler");
+        String json = EntityUtils.toString(entity);
+        assertTrue(json, json.equals("{\"FirstName\":\"Rose\",\"Email\":null}") ||
+                json.equals("{\"Email\":null,\"FirstName\":\"Rose\"}"));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.palominolabs.crm.sf.core.SObject;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrgHttpMetricsTest {
+
+    private static final String PREFIX = "org.3";
+
+    private static final String RESPONSE = "{\"id\":\"0015000000WWD7bAAH\",\"errors\":[],\"success\":true}";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test
+    public void testRecordsBodySizesAndTimes() throws IOException {
+        HttpApiClient client = getClient(RESPONSE);
+
+        SObject account = RestSObjectImpl.getNew("Account");
+        account.setField("Name", "Example");
+        client.create(account);
+
+        assertEquals(1, metricRegistry.histogram(PREFIX + ".requestBytes").getCount());
+        assertEquals("{\"Name\":\"Example\"}".length(),
+                metricRegistry.histogram(PREFIX + ".requestBytes").getSnapshot().getMax());
+        assertEquals(1, metricRegistry.histogram(PREFIX + ".responseBytes").getCount());
+        assertEquals(RESPONSE.length(), metricRegistry.histogram(PREFIX + ".responseBytes").getSnapshot().getMax());
+
+        assertEquals(1, metricRegistry.timer(PREFIX + ".create.leaseWait").getCount());
+        assertEquals(1, metricRegistry.timer(PREFIX + ".create.exchange").getCount());
+        assertEquals(1, metricRegistry.timer(PREFIX + ".create.decode").getCount());
+        assertEquals(0, metricRegistry.timer(PREFIX + ".query.exchange").getCount());
+    }
+
+    @Test
+    public void testRequestsWithoutBodiesAreNotRecorded() throws IOException {
+        HttpApiClient client = getClient("{}");
+
+        client.describeGlobal();
+
+        assertEquals(0, metricRegistry.histogram(PREFIX + ".requestBytes").getCount());
+        assertEquals(1, metricRegistry.histogram(PREFIX + ".responseBytes").getCount());
+        assertEquals(1, metricRegistry.timer(PREFIX + ".describeGlobal.decode").getCount());
+    }
+
+    @Test
+    public void testLeaseWaitIsTimedPerThread() throws Exception {
+        HttpClientConnectionManager delegate = (HttpClientConnectionManager) Proxy.newProxyInstance(
+                HttpClientConnectionManager.class.getClassLoader(), new Class<?>[]{HttpClientConnectionManager.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (!method.getName().equals("requestConnection")) {
+                            throw new UnsupportedOperationException(method.toString());
+                        }
+                        return slowConnectionRequest();
+                    }
+                });
+
+        LeaseTimingConnectionManager manager = new LeaseTimingConnectionManager(delegate);
+        LeaseTimingConnectionManager.takeLeaseNanos();
+
+        manager.requestConnection(new HttpRoute(new HttpHost("na3.salesforce.com", 443, "https")), null)
+                .get(1, TimeUnit.SECONDS);
+
+        assertTrue(LeaseTimingConnectionManager.takeLeaseNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, LeaseTimingConnectionManager.takeLeaseNanos());
+    }
+
+    private HttpApiClient getClient(final String responseBody) {
+        HttpClient httpClient = FakeHttpClient.create(new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) throws IOException {
+                // send the body, as a real client would; chunked bodies are only measured as they're written
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+                    if (entity != null) {
+                        entity.writeTo(ByteStreams.nullOutputStream());
+                    }
+                }
+                return FakeHttpClient.response(200, responseBody);
+            }
+        });
+
+        return HttpApiClient.builder("na3.salesforce.com", "token", new ObjectMapper(), httpClient)
+                .setMetrics(new OrgHttpMetrics(metricRegistry, PREFIX)).build();
+    }
+
+    private static ConnectionRequest slowConnectionRequest() {
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException {
+                Thread.sleep(20);
+                return null;
+            }
+
+            @Override
+            public boolean cancel() {
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Ticker;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OrgRequestLimiterTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final Timer waitTimer = metricRegistry.timer("wait");
+
+    private final Meter rejections = metricRegistry.meter("rejected");
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    private final OrgRequestLimiter limiter = new OrgRequestLimiter(2, 1000, waitTimer, rejections, ticker);
+
+    @Test
+    public void testAcquireAndRelease() throws IOException {
+        limiter.acquire();
+        limiter.acquire();
+        limiter.release();
+        limiter.acquire();
+        limiter.release();
+        limiter.release();
+
+        assertEquals(3, waitTimer.getCount());
+    }
+
+    @Test
+    public void testRemainingFromHeader() throws IOException {
+        limiter.onResponse(response("api-usage=25/15000"));
+
+        assertEquals(14975, limiter.getRemainingApiCalls());
+    }
+
+    @Test
+    public void testRejectsWhenAllowanceUsedUp() throws IOException {
+        limiter.onResponse(response("api-usage=15000/15000"));
+
+        try {
+            limiter.acquire();
+            fail();
+        } catch (RequestLimitException e) {
+            assertEquals(1, rejections.getCount());
+        }
+
+        // lets a request through after the pause to see if usage has dropped
+        ticker.advance(OrgRequestLimiter.EXHAUSTED_PAUSE_NANOS);
+        limiter.acquire();
+        limiter.onResponse(response("api-usage=14990/15000"));
+        limiter.release();
+
+        limiter.acquire();
+        limiter.release();
+        assertEquals(1, rejections.getCount());
+    }
+
+    @Test
+    public void testRateScaledDownAsAllowanceRunsOut() {
+        limiter.onResponse(response("api-usage=25/15000"));
+        assertEquals(1000, limiter.getRequestsPerSecond(), 0.001);
+
+        // at the threshold of 1500 remaining, still the full rate
+        limiter.onResponse(response("api-usage=13500/15000"));
+        assertEquals(1000, limiter.getRequestsPerSecond(), 0.001);
+
+        limiter.onResponse(response("api-usage=14250/15000"));
+        assertEquals(500, limiter.getRequestsPerSecond(), 0.001);
+
+        limiter.onResponse(response("api-usage=14999/15000"));
+        assertEquals(1000 * OrgRequestLimiter.MIN_RATE_FRACTION, limiter.getRequestsPerSecond(), 0.001);
+
+        // usage dropped as the 24 hour window moved on
+        limiter.onResponse(response("api-usage=9000/15000"));
+        assertEquals(1000, limiter.getRequestsPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testScaledRateSlowsRequests() throws IOException {
+        OrgRequestLimiter slowLimiter = new OrgRequestLimiter(1, 20, waitTimer, rejections, ticker);
+        slowLimiter.onResponse(response("api-usage=14925/15000"));
+        assertEquals(1, slowLimiter.getRequestsPerSecond(), 0.001);
+
+        slowLimiter.acquire();
+        slowLimiter.release();
+        long start = System.nanoTime();
+        slowLimiter.acquire();
+        slowLimiter.release();
+        assertTrue(System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void testSetLimitsKeepsRequestsInFlight() throws IOException {
+        limiter.acquire();
+        limiter.acquire();
+
+        limiter.setLimits(1, 1000);
+        assertEquals(1, limiter.getMaxConcurrentRequests());
+        assertFalse(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+
+        // one of the two from before is still in flight, which is as many as are now allowed
+        limiter.release();
+        assertFalse(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+        limiter.release();
+        assertTrue(limiter.tryAcquire(1, TimeUnit.SECONDS));
+        limiter.release();
+
+        limiter.setLimits(3, 1000);
+        limiter.acquire();
+        limiter.acquire();
+        limiter.acquire();
+        assertFalse(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSetLimitsKeepsAllowance() throws IOException {
+        limiter.onResponse(response("api-usage=14250/15000"));
+        assertEquals(500, limiter.getRequestsPerSecond(), 0.001);
+
+        limiter.setLimits(2, 200);
+        assertEquals(100, limiter.getRequestsPerSecond(), 0.001);
+        assertEquals(750, limiter.getRemainingApiCalls());
+
+        limiter.onResponse(response("api-usage=15000/15000"));
+        limiter.setLimits(2, 1000);
+        try {
+            limiter.acquire();
+            fail();
+        } catch (RequestLimitException e) {
+            assertEquals(1, rejections.getCount());
+        }
+    }
+
+    @Test
+    public void testUnparseableHeaderIgnored() {
+        limiter.onResponse(response("per-app-api-usage"));
+
+        assertEquals(-1, limiter.getRemainingApiCalls());
+    }
+
+    private static HttpResponse response(String limitInfo) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.addHeader(OrgRequestLimiter.LIMIT_INFO_HEADER, limitInfo);
+        return response;
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos = TimeUnit.HOURS.toNanos(1);
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long delta) {
+            nanos += delta;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OrgRequestRetrierTest {
+
+    private static final HttpUriRequest GET = new HttpGet("https://na3.salesforce.com/services/data/v28.0/sobjects");
+
+    private static final HttpUriRequest POST = new HttpPost("https://na3.salesforce.com/services/data/v28.0/sobjects");
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final Counter retries = metricRegistry.counter("retries");
+
+    private final Counter giveUps = metricRegistry.counter("giveUps");
+
+    @Test
+    public void testRetriesConnectionFailures() {
+        OrgRequestRetrier retrier = retrier(new RetryPolicy());
+
+        assertTrue(retrier.shouldRetry(GET, new IOException("Connection reset"), 1));
+        assertTrue(retrier.shouldRetry(GET, new SocketTimeoutException(), 2));
+        assertFalse(retrier.shouldRetry(GET, new IOException("Connection reset"), 3));
+
+        assertEquals(2, retries.getCount());
+        assertEquals(1, giveUps.getCount());
+    }
+
+    @Test
+    public void testDoesNotRetryPermanentFailures() {
+        OrgRequestRetrier retrier = retrier(new RetryPolicy());
+
+        assertFalse(retrier.shouldRetry(GET, apiException(400, "MALFORMED_QUERY", "unexpected token"), 1));
+        assertFalse(retrier.shouldRetry(GET,
+                apiException(403, "REQUEST_LIMIT_EXCEEDED", "TotalRequests Limit exceeded."), 1));
+        // Jackson leaves a missing message null
+        assertFalse(retrier.shouldRetry(GET, apiException(403, "REQUEST_LIMIT_EXCEEDED", null), 1));
+        assertFalse(retrier.shouldRetry(GET, new RequestLimitException("Daily API allowance used up"), 1));
+        assertFalse(retrier.shouldRetry(GET, new InterruptedIOException(), 1));
+        assertFalse(retrier.shouldRetry(GET, new ResponseParseException("bad"), 1));
+
+        assertEquals(0, retries.getCount());
+        assertEquals(0, giveUps.getCount());
+    }
+
+    @Test
+    public void testRetriesTransientApiFailures() {
+        OrgRequestRetrier retrier = retrier(new RetryPolicy(10, 0, 0, TimeUnit.MILLISECONDS, false, 10, 0));
+
+        assertTrue(retrier.shouldRetry(GET, apiException(503, "SERVER_UNAVAILABLE", "down for maintenance"), 1));
+        assertTrue(retrier.shouldRetry(GET, apiException(502, "UNKNOWN", "bad gateway"), 1));
+        assertTrue(retrier.shouldRetry(GET, apiException(403, "REQUEST_LIMIT_EXCEEDED",
+                "ConcurrentPerOrgLongTxn Limit exceeded."), 1));
+    }
+
+    @Test
+    public void testPostOnlyRetriedWhenEnabled() {
+        assertFalse(retrier(new RetryPolicy()).shouldRetry(POST, new IOException(), 1));
+        assertTrue(retrier(new RetryPolicy()).shouldRetry(new HttpDelete("https://na3.salesforce.com/"),
+                new IOException(), 1));
+        assertTrue(retrier(new RetryPolicy(3, 0, 0, TimeUnit.MILLISECONDS, true, 10, 0))
+                .shouldRetry(POST, new IOException(), 1));
+    }
+
+    @Test
+    public void testBudget() {
+        OrgRequestRetrier retrier = retrier(new RetryPolicy(10, 0, 0, TimeUnit.MILLISECONDS, false, 2, 0.5));
+
+        assertTrue(retrier.shouldRetry(GET, new IOException(), 1));
+        assertTrue(retrier.shouldRetry(GET, new IOException(), 1));
+        assertFalse(retrier.shouldRetry(GET, new IOException(), 1));
+        assertEquals(0, retrier.getRemainingBudget());
+        assertEquals(1, giveUps.getCount());
+
+        retrier.onSuccess();
+        assertFalse(retrier.shouldRetry(GET, new IOException(), 1));
+        retrier.onSuccess();
+        assertTrue(retrier.shouldRetry(GET, new IOException(), 1));
+
+        for (int i = 0; i < 10; i++) {
+            retrier.onSuccess();
+        }
+        assertEquals(2, retrier.getRemainingBudget());
+    }
+
+    @Test
+    public void testBackoffIsBounded() {
+        OrgRequestRetrier retrier = retrier(new RetryPolicy(10, 100, 1000, TimeUnit.MILLISECONDS, false, 10, 0));
+
+        for (int i = 0; i < 100; i++) {
+            long first = retrier.getBackoffMillis(1);
+            assertTrue(first >= 0 && first < 100);
+            long third = retrier.getBackoffMillis(3);
+            assertTrue(third >= 0 && third < 400);
+            long tenth = retrier.getBackoffMillis(10);
+            assertTrue(tenth >= 0 && tenth < 1000);
+        }
+    }
+
+    private OrgRequestRetrier retrier(RetryPolicy policy) {
+        return new OrgRequestRetrier(policy, retries, giveUps);
+    }
+
+    private static ApiException apiException(int status, String errorCode, String message) {
+        return new ApiException("https://na3.salesforce.com/", status, "reason",
+                Collections.singletonList(ApiErrorImpl.getNew(Collections.<String>emptyList(), message, errorCode)),
+                null, "Bad response");
+    }
+}
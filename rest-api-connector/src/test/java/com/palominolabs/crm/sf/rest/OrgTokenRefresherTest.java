@@ -0,0 +1,243 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OrgTokenRefresherTest {
+
+    private static final String INVALID_SESSION =
+            "[{\"message\":\"Session expired or invalid\",\"errorCode\":\"INVALID_SESSION_ID\"}]";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final Timer refreshTimer = metricRegistry.timer("refresh");
+
+    private final Timer waitTimer = metricRegistry.timer("refreshWait");
+
+    private final List<String> refreshedTokens = Collections.synchronizedList(Lists.<String>newArrayList());
+
+    private final OrgTokenRefresher.Listener listener = new OrgTokenRefresher.Listener() {
+        @Override
+        public void tokenRefreshed(@Nonnull OrgTokenRefresher refresher, @Nonnull String newToken) {
+            refreshedTokens.add(newToken);
+        }
+    };
+
+    @Test
+    public void testConcurrentRejectionsShareOneRefresh() throws Exception {
+        final int threads = 8;
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch refreshStarted = new CountDownLatch(1);
+        final CountDownLatch finishRefresh = new CountDownLatch(1);
+
+        final OrgTokenRefresher refresher = refresher(new OAuthTokenProvider() {
+            @Nonnull
+            @Override
+            public String refreshToken(@Nonnull String rejectedToken) throws IOException {
+                calls.incrementAndGet();
+                refreshStarted.countDown();
+                try {
+                    finishRefresh.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "new";
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = Lists.newArrayList();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return refresher.refresh("old");
+                    }
+                }));
+            }
+
+            assertTrue(refreshStarted.await(10, TimeUnit.SECONDS));
+            // give the other threads a chance to join the refresh that's in progress
+            Thread.sleep(100);
+            finishRefresh.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("new", result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(Lists.newArrayList("new"), refreshedTokens);
+        assertEquals(1, refreshTimer.getCount());
+        assertEquals(threads, waitTimer.getCount());
+    }
+
+    @Test
+    public void testTokenThatWasAlreadyReplacedIsNotRefreshedAgain() throws IOException {
+        CountingProvider provider = new CountingProvider();
+        OrgTokenRefresher refresher = refresher(provider);
+
+        assertEquals("token-1", refresher.refresh("old"));
+        // a request that was sent with the old token before the refresh finished
+        assertEquals("token-1", refresher.refresh("old"));
+        assertEquals(1, provider.calls);
+
+        assertEquals("token-2", refresher.refresh("token-1"));
+        assertEquals(2, provider.calls);
+    }
+
+    @Test
+    public void testSetTokenReplacesCurrentToken() throws IOException {
+        CountingProvider provider = new CountingProvider();
+        OrgTokenRefresher refresher = refresher(provider);
+
+        refresher.setToken("updated");
+
+        assertEquals("updated", refresher.refresh("old"));
+        assertEquals(0, provider.calls);
+    }
+
+    @Test
+    public void testFailedRefreshIsNotRemembered() throws IOException {
+        final AtomicInteger calls = new AtomicInteger();
+        OrgTokenRefresher refresher = refresher(new OAuthTokenProvider() {
+            @Nonnull
+            @Override
+            public String refreshToken(@Nonnull String rejectedToken) throws IOException {
+                if (calls.incrementAndGet() == 1) {
+                    throw new IOException("Refresh token revoked");
+                }
+                return "new";
+            }
+        });
+
+        try {
+            refresher.refresh("old");
+            fail();
+        } catch (IOException e) {
+            assertEquals("Refresh token revoked", e.getMessage());
+        }
+
+        assertEquals("new", refresher.refresh("old"));
+        assertEquals(2, calls.get());
+        assertEquals(Lists.newArrayList("new"), refreshedTokens);
+    }
+
+    @Test
+    public void testRequestIsResentOnceWithRefreshedToken() throws IOException {
+        final List<String> authorizations = Lists.newArrayList();
+        HttpApiClient client = getClient(new CountingProvider(), authorizations, 1);
+
+        assertEquals("{}", client.describeGlobal());
+        assertEquals(Lists.newArrayList("OAuth old", "OAuth token-1"), authorizations);
+    }
+
+    @Test
+    public void testRequestIsOnlyResentOnce() throws IOException {
+        final List<String> authorizations = Lists.newArrayList();
+        CountingProvider provider = new CountingProvider();
+        HttpApiClient client = getClient(provider, authorizations, Integer.MAX_VALUE);
+
+        try {
+            client.describeGlobal();
+            fail();
+        } catch (ApiException e) {
+            assertEquals(401, e.getHttpResponseCode());
+        }
+
+        assertEquals(Lists.newArrayList("OAuth old", "OAuth token-1"), authorizations);
+        assertEquals(1, provider.calls);
+    }
+
+    @Test
+    public void testRefresherIsKeptWhenTokenIsReplaced() {
+        HttpApiClient client = getClient(new CountingProvider(), Lists.<String>newArrayList(), 0);
+
+        assertSame(client.getTokenRefresher(), client.withOAuthToken("other").getTokenRefresher());
+    }
+
+    private OrgTokenRefresher refresher(OAuthTokenProvider provider) {
+        return new OrgTokenRefresher(provider, "old", listener, refreshTimer, waitTimer);
+    }
+
+    /**
+     * @param provider       token provider
+     * @param authorizations list to add the Authorization header of each request to
+     * @param rejections     how many requests get a 401 before requests succeed
+     *
+     * @return a client whose token starts out as "old"
+     */
+    private HttpApiClient getClient(OAuthTokenProvider provider, final List<String> authorizations,
+            final int rejections) {
+        HttpClient httpClient = FakeHttpClient.create(new FakeHttpClient.Responder() {
+            private int requests = 0;
+
+            @Override
+            public HttpResponse respond(HttpUriRequest request) {
+                assertEquals(1, request.getHeaders("Authorization").length);
+                authorizations.add(request.getFirstHeader("Authorization").getValue());
+
+                if (requests++ < rejections) {
+                    return FakeHttpClient.response(401, INVALID_SESSION);
+                }
+                return FakeHttpClient.response(200, "{}");
+            }
+        });
+
+        return HttpApiClient.builder("na3.salesforce.com", "old", new ObjectMapper(), httpClient)
+                .setTokenRefresher(refresher(provider)).build();
+    }
+
+    private static class CountingProvider implements OAuthTokenProvider {
+        private int calls = 0;
+
+        @Nonnull
+        @Override
+        public String refreshToken(@Nonnull String rejectedToken) {
+            calls++;
+            return "token-" + calls;
+        }
+    }
+}
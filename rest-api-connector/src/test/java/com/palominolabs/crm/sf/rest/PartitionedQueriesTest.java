@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.google.common.collect.ImmutableList;
+import com.palominolabs.crm.sf.core.Id;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PartitionedQueriesTest {
+
+    @Test
+    public void testAddConditionWithoutWhere() {
+        assertEquals("SELECT Id FROM Account WHERE Id < 'x'",
+                PartitionedQueries.addCondition("SELECT Id FROM Account ", "Id < 'x'"));
+    }
+
+    @Test
+    public void testAddConditionToWhere() {
+        assertEquals("SELECT Id FROM Account WHERE (Id < 'x') AND (Name = 'a' OR Name = 'b')",
+                PartitionedQueries.addCondition("SELECT Id FROM Account where Name = 'a' OR Name = 'b'", "Id < 'x'"));
+    }
+
+    @Test
+    public void testAddConditionSkipsSubqueriesAndStrings() {
+        assertEquals("SELECT Id, (SELECT Id FROM Contacts WHERE Email != null) FROM Account " +
+                "WHERE (Id < 'x') AND (Name = 'where \\' limit 1')",
+                PartitionedQueries.addCondition("SELECT Id, (SELECT Id FROM Contacts WHERE Email != null) FROM " +
+                        "Account WHERE Name = 'where \\' limit 1'", "Id < 'x'"));
+    }
+
+    @Test
+    public void testAddConditionRejectsLimit() {
+        try {
+            PartitionedQueries.addCondition("SELECT Id FROM Account WHERE Name != null LIMIT 10", "Id < 'x'");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("A partitioned query can't have a LIMIT clause " +
+                    "<SELECT Id FROM Account WHERE Name != null LIMIT 10>", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testIdRanges() {
+        List<String> conditions =
+                new IdRangePartitioner(new Id("001000000000000"), new Id("001000000000007"), 4).getConditions();
+
+        assertEquals(ImmutableList.of("Id < '001000000000002'",
+                "Id >= '001000000000002' AND Id < '001000000000004'",
+                "Id >= '001000000000004' AND Id < '001000000000006'",
+                "Id >= '001000000000006'"), conditions);
+    }
+
+    @Test
+    public void testIdRangesCarryAcrossDigits() {
+        List<String> conditions =
+                new IdRangePartitioner(new Id("001000000000000"), new Id("0010000000000zz"), 2).getConditions();
+
+        // 62 * 62 / 2 = 31 * 62, and 31 is 'V'
+        assertEquals(ImmutableList.of("Id < '0010000000000V0'", "Id >= '0010000000000V0'"), conditions);
+    }
+
+    @Test
+    public void testIdRangesNarrowerThanPartitions() {
+        List<String> conditions =
+                new IdRangePartitioner(new Id("001000000000000"), new Id("001000000000000"), 4).getConditions();
+
+        assertEquals(ImmutableList.of("Id != null"), conditions);
+    }
+
+    @Test
+    public void testIdRangesNeedSameKeyPrefix() {
+        try {
+            new IdRangePartitioner(new Id("001000000000000"), new Id("003000000000000"), 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Ids must have the same key prefix, were <001000000000000> and <003000000000000>",
+                    e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCreatedDateWindows() {
+        // 2013-01-01T00:00:00Z to 2013-01-01T00:00:03Z
+        List<String> conditions =
+                new CreatedDateWindowPartitioner(new Date(1356998400000L), new Date(1356998403000L), 3)
+                        .getConditions();
+
+        assertEquals(ImmutableList.of("CreatedDate < 2013-01-01T00:00:01Z",
+                "CreatedDate >= 2013-01-01T00:00:01Z AND CreatedDate < 2013-01-01T00:00:02Z",
+                "CreatedDate >= 2013-01-01T00:00:02Z"), conditions);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class PartitionedQueryCursorImplTest {
+
+    private final Timer timer = new MetricRegistry().timer("pageWait");
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testMergesPartitions() throws IOException {
+        Map<String, RestQueryResult> pages = new ConcurrentHashMap<String, RestQueryResult>();
+        pages.put("q1", RestQueryResultImpl.getNotDone(records("a"), 3, new RestQueryLocator("/1b")));
+        pages.put("/1b", RestQueryResultImpl.getNotDone(records("b"), 3, new RestQueryLocator("/1c")));
+        pages.put("/1c", RestQueryResultImpl.getDone(records("c"), 3));
+        pages.put("q2", RestQueryResultImpl.getDone(records("d", "e"), 2));
+        pages.put("q3", RestQueryResultImpl.getNotDone(records(), 1, new RestQueryLocator("/3b")));
+        pages.put("/3b", RestQueryResultImpl.getDone(records("f"), 1));
+
+        RestQueryCursor cursor = new PartitionedQueryCursorImpl(pages(pages), ImmutableList.of("q1", "q2", "q3"), null,
+                executor, 2, 1, timer);
+
+        assertEquals(6, cursor.getTotalSize());
+
+        List<String> names = Lists.newArrayList();
+        while (cursor.hasNext()) {
+            names.add(cursor.next().getField("Name"));
+        }
+
+        assertEquals(6, names.size());
+        assertEquals(Sets.newHashSet("a", "b", "c", "d", "e", "f"), Sets.newHashSet(names));
+        // first pages come first, in partition order
+        assertEquals(ImmutableList.of("a", "d", "e"), names.subList(0, 3));
+    }
+
+    @Test
+    public void testFirstPageFailure() throws IOException {
+        Map<String, RestQueryResult> pages = new ConcurrentHashMap<String, RestQueryResult>();
+        pages.put("q1", RestQueryResultImpl.getDone(records("a"), 1));
+
+        try {
+            new PartitionedQueryCursorImpl(pages(pages), ImmutableList.of("q1", "q2"), null, executor, 2, 1, timer);
+            fail();
+        } catch (IOException e) {
+            assertEquals("No page for q2", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLaterPageFailureIsRethrown() throws IOException {
+        Map<String, RestQueryResult> pages = new ConcurrentHashMap<String, RestQueryResult>();
+        pages.put("q1", RestQueryResultImpl.getNotDone(records("a"), 2, new RestQueryLocator("/missing")));
+
+        RestQueryCursor cursor =
+                new PartitionedQueryCursorImpl(pages(pages), ImmutableList.of("q1"), null, executor, 2, 1, timer);
+
+        assertEquals("a", cursor.next().getField("Name"));
+        try {
+            cursor.hasNext();
+            fail();
+        } catch (IOException e) {
+            assertEquals("No page for /missing", e.getMessage());
+        }
+        assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void testFetchesAtMostPagesAheadAcrossPartitions() throws Exception {
+        final AtomicInteger fetched = new AtomicInteger();
+        // every partition goes on forever
+        RestConnection connection = FakeQueryConnection.create(new FakeQueryConnection.Queries() {
+            @Override
+            RestQueryResult query(String soql) {
+                return RestQueryResultImpl.getNotDone(records(soql), 100, new RestQueryLocator("/" + soql));
+            }
+
+            @Override
+            RestQueryResult queryMore(RestQueryLocator queryLocator) {
+                fetched.incrementAndGet();
+                return RestQueryResultImpl.getNotDone(records("later"), 100, queryLocator);
+            }
+        });
+
+        RestQueryCursor cursor = new PartitionedQueryCursorImpl(connection, ImmutableList.of("q1", "q2", "q3"), null,
+                executor, 3, 2, timer);
+
+        waitForFetches(fetched, 2);
+        Thread.sleep(100);
+        assertEquals(2, fetched.get());
+
+        // the first pages don't come from the queue
+        for (int i = 0; i < 3; i++) {
+            cursor.next();
+        }
+        Thread.sleep(100);
+        assertEquals(2, fetched.get());
+
+        assertEquals("later", cursor.next().getField("Name"));
+        waitForFetches(fetched, 3);
+        Thread.sleep(100);
+        assertEquals(3, fetched.get());
+
+        cursor.close();
+    }
+
+    @Test
+    public void testPassesOptions() throws IOException {
+        final Set<String> queriesWithOptions = Sets.newConcurrentHashSet();
+        RestConnection connection = FakeQueryConnection.create(new FakeQueryConnection.Queries() {
+            @Override
+            RestQueryResult query(String soql, RestQueryOptions options) {
+                queriesWithOptions.add(soql);
+                return RestQueryResultImpl.getDone(records(), 0);
+            }
+        });
+
+        RestQueryCursor cursor = new PartitionedQueryCursorImpl(connection, ImmutableList.of("q1", "q2"),
+                new RestQueryOptions(500), executor, 2, 1, timer);
+
+        assertFalse(cursor.hasNext());
+        assertEquals(Sets.newHashSet("q1", "q2"), queriesWithOptions);
+    }
+
+    private static void waitForFetches(AtomicInteger fetched, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fetched.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static List<RestSObject> records(String... names) {
+        List<RestSObject> records = Lists.newArrayList();
+        for (String name : names) {
+            RestSObjectImpl sObject = RestSObjectImpl.getNew("Account");
+            sObject.setField("Name", name);
+            records.add(sObject);
+        }
+        return records;
+    }
+
+    /**
+     * @param pages the pages that query should return by soql, and that queryMore should return by locator
+     *
+     * @return a connection that only supports query without options and queryMore
+     */
+    private static RestConnection pages(final Map<String, RestQueryResult> pages) {
+        return FakeQueryConnection.create(new FakeQueryConnection.Queries() {
+            @Override
+            RestQueryResult query(String soql) throws IOException {
+                return getPage(soql);
+            }
+
+            @Override
+            RestQueryResult queryMore(RestQueryLocator queryLocator) throws IOException {
+                return getPage(queryLocator.getContents());
+            }
+
+            private RestQueryResult getPage(String key) throws IOException {
+                RestQueryResult page = pages.get(key);
+                if (page == null) {
+                    throw new IOException("No page for " + key);
+                }
+                return page;
+            }
+        });
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.palominolabs.crm.sf.core.Id;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RestBatchImplTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final List<HttpEntityEnclosingRequest> requests = Lists.newArrayList();
+
+    @Test
+    public void testBatch() throws Exception {
+        RestConnection conn = getConnection("{\"hasErrors\":true,\"results\":[" +
+                "{\"statusCode\":201,\"result\":{\"id\":\"0035000000km1oh\",\"success\":true,\"errors\":[]}}," +
+                "{\"statusCode\":200,\"result\":{\"attributes\":{\"type\":\"Contact\"},\"Id\":\"0035000000km1oh\"," +
+                "\"FirstName\":\"Rose\"}}," +
+                "{\"statusCode\":404,\"result\":[{\"errorCode\":\"NOT_FOUND\",\"message\":\"not found\"}]}," +
+                "{\"statusCode\":204,\"result\":null}]}");
+
+        RestSObject contact = RestSObjectImpl.getNew("Contact");
+        contact.setField("FirstName", "Rose");
+        RestSObject update = RestSObjectImpl.getNewWithId("Contact", new Id("0035000000km1oh"));
+        update.setField("LastName", "Gonzalez");
+
+        List<RestBatchResult> results = conn.batch()
+                .create(contact)
+                .retrieve("Contact", new Id("0035000000km1oh"), Arrays.asList("FirstName"))
+                .delete("Contact", new Id("0035000000km1oi"))
+                .update(update)
+                .execute();
+
+        assertEquals(4, results.size());
+
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(new Id("0035000000km1oh"), results.get(0).getSaveResult().getId());
+
+        assertEquals("Rose", results.get(1).getSObject().getField("FirstName"));
+        assertNull(results.get(1).getSaveResult());
+
+        assertFalse(results.get(2).isSuccess());
+        assertEquals(404, results.get(2).getStatusCode());
+        assertEquals("NOT_FOUND", results.get(2).getException().getErrors().get(0).getErrorCode());
+
+        assertTrue(results.get(3).isSuccess());
+        assertNull(results.get(3).getSObject());
+
+        HttpEntityEnclosingRequest request = requests.get(0);
+        assertEquals("/services/data/v" + HttpApiClient.COMPOSITE_API_VERSION + "/composite/batch",
+                ((HttpUriRequest) request).getURI().getPath());
+
+        JsonNode body = MAPPER.readTree(EntityUtils.toString(request.getEntity()));
+        assertFalse(body.get("haltOnError").booleanValue());
+        JsonNode subRequests = body.get("batchRequests");
+        assertEquals(4, subRequests.size());
+        assertEquals("POST", subRequests.get(0).get("method").textValue());
+        assertEquals("v" + HttpApiClient.API_VERSION + "/sobjects/Contact/", subRequests.get(0).get("url").textValue());
+        assertEquals("Rose", subRequests.get(0).get("richInput").get("FirstName").textValue());
+        assertEquals("v" + HttpApiClient.API_VERSION + "/sobjects/Contact/0035000000km1oh?fields=FirstName",
+                subRequests.get(1).get("url").textValue());
+        assertNull(subRequests.get(1).get("richInput"));
+        assertEquals("PATCH", subRequests.get(3).get("method").textValue());
+        assertEquals("Gonzalez", subRequests.get(3).get("richInput").get("LastName").textValue());
+    }
+
+    @Test
+    public void testTooManySubRequests() {
+        RestBatch batch = getConnection("{}").batch();
+        for (int i = 0; i < RestBatch.MAX_SUB_REQUESTS; i++) {
+            batch.getBasicObjectInfo("Account");
+        }
+
+        try {
+            batch.getBasicObjectInfo("Account");
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("A batch can have at most 25 sub requests", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testEmptyBatch() throws Exception {
+        try {
+            getConnection("{}").batch().execute();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("No sub requests have been added", e.getMessage());
+        }
+    }
+
+    /**
+     * @param responseBody body of the response to every request
+     *
+     * @return a connection that records its requests
+     */
+    private RestConnection getConnection(final String responseBody) {
+        HttpClient httpClient = FakeHttpClient.create(new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) {
+                requests.add((HttpEntityEnclosingRequest) request);
+
+                return FakeHttpClient.response(200, responseBody);
+            }
+        });
+
+        final HttpApiClient client = new HttpApiClient("na3.salesforce.com", "token", MAPPER, httpClient);
+
+        return new RestConnectionImpl(MAPPER.reader(), new HttpApiClientProvider() {
+            @Nonnull
+            @Override
+            public HttpApiClient getClient() {
+                return client;
+            }
+        }, new MetricRegistry());
+    }
+}
@@ -264,7 +264,7 @@ public class RestConnectionImplTest {
 
         assertTrue(initialQueryResults.size() > 1);
 
-        SObject sObj = initialQueryResults.get(0);
+        SObject sObj = initialQueryResults.get(0).toMutable();
 
         Id id = sObj.getId();
         assertNotNull(id);
@@ -282,7 +282,7 @@ public class RestConnectionImplTest {
 
         assertEquals(1, postUpdateQueryResults.size());
 
-        SObject postUpdateSObj = postUpdateQueryResults.get(0);
+        SObject postUpdateSObj = postUpdateQueryResults.get(0).toMutable();
         assertEquals(origName + "xyz", postUpdateSObj.getField("Name"));
 
         postUpdateSObj.setField("Name", origName);
@@ -305,7 +305,7 @@ public class RestConnectionImplTest {
 
         assertEquals(1, initialQueryResults.size());
 
-        SObject sObj = initialQueryResults.get(0);
+        SObject sObj = initialQueryResults.get(0).toMutable();
 
         // get the Name of the first id, add xyz to it, then remove it
 
@@ -338,7 +338,7 @@ public class RestConnectionImplTest {
     @Test
     public void testUpdateWithFieldsToNull() throws IOException {
         Id id = new Id("0065000000FgGSp");
-        SObject sObj = conn.retrieve("Opportunity", id, Arrays.asList("Amount", "Id"));
+        SObject sObj = ((RestSObject) conn.retrieve("Opportunity", id, Arrays.asList("Amount", "Id"))).toMutable();
 
         String fname = "Amount";
         String origValue = "350000.0";
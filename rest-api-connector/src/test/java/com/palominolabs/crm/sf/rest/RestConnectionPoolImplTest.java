@@ -22,15 +22,22 @@ import com.palominolabs.crm.sf.soap.BindingConfig;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import static com.palominolabs.crm.sf.rest.HttpApiClientTest.PASSWORD;
 import static com.palominolabs.crm.sf.rest.HttpApiClientTest.USER;
 import static com.palominolabs.crm.sf.rest.TestConnections.getBindingConfig;
 import static com.palominolabs.crm.sf.testutil.TestMetricRegistry.METRIC_REGISTRY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class RestConnectionPoolImplTest {
@@ -52,6 +59,105 @@ public class RestConnectionPoolImplTest {
         }
     }
 
+    @Test
+    public void testUpdateTokenKeepsConfiguration() {
+        pool = RestConnectionPoolImpl.builder(METRIC_REGISTRY)
+                .setDescribeCacheConfig(new DescribeCacheConfig(1, TimeUnit.HOURS))
+                .build();
+        pool.configureOrg(3, "na3.salesforce.com", "token1");
+        RestConnectionImpl conn = (RestConnectionImpl) pool.getRestConnection(3);
+
+        HttpApiClient before = conn.getHttpApiClient();
+        assertSame(before, conn.getHttpApiClient());
+
+        pool.updateToken(3, "token2");
+        HttpApiClient after = conn.getHttpApiClient();
+        assertNotSame(before, after);
+        assertEquals("na3.salesforce.com", after.getHost());
+        assertSame(before.getDescribeCache(), after.getDescribeCache());
+
+        // same host keeps the describe cache, a different one doesn't
+        pool.configureOrg(3, "na3.salesforce.com", "token3");
+        assertSame(before.getDescribeCache(), conn.getHttpApiClient().getDescribeCache());
+        pool.configureOrg(3, "na4.salesforce.com", "token4");
+        assertNotSame(before.getDescribeCache(), conn.getHttpApiClient().getDescribeCache());
+    }
+
+    @Test
+    public void testRefreshedTokenReplacesClient() throws IOException {
+        OAuthTokenProvider tokenProvider = new OAuthTokenProvider() {
+            @Nonnull
+            @Override
+            public String refreshToken(@Nonnull String rejectedToken) {
+                return rejectedToken + "-refreshed";
+            }
+        };
+        pool.configureOrg(3, "na3.salesforce.com", "token1", tokenProvider);
+        RestConnectionImpl conn = (RestConnectionImpl) pool.getRestConnection(3);
+
+        HttpApiClient before = conn.getHttpApiClient();
+        OrgTokenRefresher refresher = before.getTokenRefresher();
+        assertNotNull(refresher);
+
+        assertEquals("token1-refreshed", refresher.refresh("token1"));
+        HttpApiClient after = conn.getHttpApiClient();
+        assertNotSame(before, after);
+        assertSame(refresher, after.getTokenRefresher());
+
+        // reconfiguring with the same provider keeps the refresher, and a token from before doesn't get refreshed
+        pool.configureOrg(3, "na3.salesforce.com", "token2", tokenProvider);
+        HttpApiClient reconfigured = conn.getHttpApiClient();
+        assertSame(refresher, reconfigured.getTokenRefresher());
+        assertEquals("token2", refresher.refresh("token1-refreshed"));
+        assertSame(reconfigured, conn.getHttpApiClient());
+    }
+
+    @Test
+    public void testReconfigureKeepsPermitsInFlight() throws IOException {
+        pool.configureOrg(3, "na3.salesforce.com", "token1", 2, 1000);
+        RestConnectionImpl conn = (RestConnectionImpl) pool.getRestConnection(3);
+        OrgRequestLimiter limiter = conn.getHttpApiClient().getLimiter();
+        assertNotNull(limiter);
+        limiter.acquire();
+        limiter.acquire();
+
+        pool.configureOrg(3, "na3.salesforce.com", "token2", 1, 1000);
+        HttpApiClient reconfigured = conn.getHttpApiClient();
+        assertSame(limiter, reconfigured.getLimiter());
+        assertEquals(1, reconfigured.getMaxConcurrentRequests());
+        assertFalse(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+
+        limiter.release();
+        limiter.release();
+        assertTrue(limiter.tryAcquire(1, TimeUnit.SECONDS));
+        limiter.release();
+    }
+
+    @Test
+    public void testRegistersConnectionGauges() {
+        pool.configureOrg(3, "na3.salesforce.com", "token1");
+        pool.configureOrg(3, "na4.salesforce.com", "token2");
+
+        String prefix = RestConnectionPoolImpl.class.getName();
+        for (String stat : Arrays.asList("leased", "pending", "available")) {
+            assertEquals(0, METRIC_REGISTRY.getGauges().get(prefix + ".connections." + stat).getValue());
+            assertEquals(0, METRIC_REGISTRY.getGauges().get(prefix + ".org.3.connections." + stat).getValue());
+        }
+
+        // a second pool on the same registry takes over the gauges
+        new RestConnectionPoolImpl<Integer>(METRIC_REGISTRY).configureOrg(3, "na3.salesforce.com", "token1");
+    }
+
+    @Test
+    public void testCantUpdateTokenOfUnconfiguredOrg() {
+        try {
+            this.pool.updateToken(3, "token");
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Org <3> has not been configured", e.getMessage());
+        }
+    }
+
     @Test
     public void testCanUseConfiguredPool() throws com.palominolabs.crm.sf.soap.ApiException, IOException {
 
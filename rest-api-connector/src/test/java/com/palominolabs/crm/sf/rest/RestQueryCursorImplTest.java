@@ -0,0 +1,215 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RestQueryCursorImplTest {
+
+    private final Timer timer = new MetricRegistry().timer("pageWait");
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSinglePage() throws IOException {
+        RestQueryResult first = RestQueryResultImpl.getDone(records("a", "b"), 2);
+
+        RestQueryCursor cursor =
+                new RestQueryCursorImpl(pages(new ConcurrentHashMap<String, RestQueryResult>()), first, executor, 1,
+                        timer);
+
+        assertEquals(2, cursor.getTotalSize());
+        assertEquals("a", cursor.next().getField("Name"));
+        assertEquals("b", cursor.next().getField("Name"));
+        assertFalse(cursor.hasNext());
+        assertEquals(0, timer.getCount());
+    }
+
+    @Test
+    public void testFollowsLocators() throws IOException {
+        Map<String, RestQueryResult> more = new ConcurrentHashMap<String, RestQueryResult>();
+        more.put("/2", RestQueryResultImpl.getNotDone(records("c"), 5, new RestQueryLocator("/3")));
+        more.put("/3", RestQueryResultImpl.getNotDone(records(), 5, new RestQueryLocator("/4")));
+        more.put("/4", RestQueryResultImpl.getDone(records("d", "e"), 5));
+        RestQueryResult first = RestQueryResultImpl.getNotDone(records("a", "b"), 5, new RestQueryLocator("/2"));
+
+        RestQueryCursor cursor = new RestQueryCursorImpl(pages(more), first, executor, 1, timer);
+
+        List<String> names = Lists.newArrayList();
+        while (cursor.hasNext()) {
+            names.add(cursor.next().getField("Name"));
+        }
+
+        assertEquals(Lists.newArrayList("a", "b", "c", "d", "e"), names);
+
+        try {
+            cursor.next();
+            fail();
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFetchFailureIsRethrown() throws IOException {
+        RestQueryResult first = RestQueryResultImpl.getNotDone(records("a"), 2, new RestQueryLocator("/missing"));
+
+        RestQueryCursor cursor =
+                new RestQueryCursorImpl(pages(new ConcurrentHashMap<String, RestQueryResult>()), first, executor, 1,
+                        timer);
+
+        assertEquals("a", cursor.next().getField("Name"));
+        try {
+            cursor.hasNext();
+            fail();
+        } catch (IOException e) {
+            assertEquals("No page for /missing", e.getMessage());
+        }
+        assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void testFetchErrorIsRethrown() throws IOException {
+        RestQueryResult first = RestQueryResultImpl.getNotDone(records("a"), 2, new RestQueryLocator("/2"));
+
+        RestQueryCursor cursor = new RestQueryCursorImpl(FakeQueryConnection.create(new FakeQueryConnection.Queries() {
+            @Override
+            RestQueryResult queryMore(RestQueryLocator queryLocator) {
+                throw new AssertionError("bad page");
+            }
+        }), first, executor, 1, timer);
+
+        assertEquals("a", cursor.next().getField("Name"));
+        try {
+            cursor.hasNext();
+            fail();
+        } catch (AssertionError e) {
+            assertEquals("bad page", e.getMessage());
+        }
+        assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void testFetchesAtMostPagesAhead() throws Exception {
+        final AtomicInteger fetched = new AtomicInteger();
+        RestQueryResult first = RestQueryResultImpl.getNotDone(records("0"), 100, new RestQueryLocator("1"));
+
+        RestQueryCursor cursor = new RestQueryCursorImpl(FakeQueryConnection.create(new FakeQueryConnection.Queries() {
+            @Override
+            RestQueryResult queryMore(RestQueryLocator queryLocator) {
+                fetched.incrementAndGet();
+                String locator = queryLocator.getContents();
+                return RestQueryResultImpl.getNotDone(records(locator), 100, new RestQueryLocator(
+                        Integer.toString(Integer.parseInt(locator) + 1)));
+            }
+        }), first, executor, 3, timer);
+
+        waitForFetches(fetched, 3);
+        Thread.sleep(100);
+        assertEquals(3, fetched.get());
+
+        // reading the first page doesn't free a slot; moving on to the second does
+        assertEquals("0", cursor.next().getField("Name"));
+        Thread.sleep(100);
+        assertEquals(3, fetched.get());
+
+        assertEquals("1", cursor.next().getField("Name"));
+        waitForFetches(fetched, 4);
+        Thread.sleep(100);
+        assertEquals(4, fetched.get());
+
+        cursor.close();
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        RestQueryResult first = RestQueryResultImpl.getNotDone(records("a"), 2, new RestQueryLocator("/2"));
+        Map<String, RestQueryResult> more = new ConcurrentHashMap<String, RestQueryResult>();
+        more.put("/2", RestQueryResultImpl.getDone(records("b"), 2));
+
+        RestQueryCursor cursor = new RestQueryCursorImpl(pages(more), first, executor, 1, timer);
+
+        assertTrue(cursor.hasNext());
+        cursor.close();
+        assertFalse(cursor.hasNext());
+        cursor.close();
+    }
+
+    private static List<RestSObject> records(String... names) {
+        List<RestSObject> records = Lists.newArrayList();
+        for (String name : names) {
+            RestSObjectImpl sObject = RestSObjectImpl.getNew("Account");
+            sObject.setField("Name", name);
+            records.add(sObject);
+        }
+        return records;
+    }
+
+    private static void waitForFetches(AtomicInteger fetched, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fetched.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * @param pages the pages that queryMore should return, by locator
+     *
+     * @return a connection that only supports queryMore
+     */
+    private static RestConnection pages(final Map<String, RestQueryResult> pages) {
+        return FakeQueryConnection.create(new FakeQueryConnection.Queries() {
+            @Override
+            RestQueryResult queryMore(RestQueryLocator queryLocator) throws IOException {
+                RestQueryResult page = pages.get(queryLocator.getContents());
+                if (page == null) {
+                    throw new IOException("No page for " + queryLocator.getContents());
+                }
+                return page;
+            }
+        });
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.LazyRecordList;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RestQueryOptionsTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String FIRST_PAGE = "{\"totalSize\":3,\"done\":false," +
+            "\"nextRecordsUrl\":\"/services/data/v28.0/query/01gD-200\",\"records\":[" +
+            "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"0015000000WWD7bAAH\"}," +
+            "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"0015000000WWD7cAAH\"}]}";
+
+    private static final String LAST_PAGE = "{\"totalSize\":3,\"done\":true,\"records\":[" +
+            "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"0015000000WWD7dAAH\"}]}";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final List<HttpUriRequest> requests = Lists.newArrayList();
+
+    @Test
+    public void testBatchSizeIsSentForEveryPage() throws IOException {
+        RestConnection connection = getConnection();
+
+        RestQueryResult first = connection.query("SELECT Id FROM Account", new RestQueryOptions(200));
+        RestQueryResult last = connection.queryMore(first.getQueryLocator());
+
+        assertEquals(2, first.getSObjects().size());
+        assertTrue(last.isDone());
+        assertEquals(2, requests.size());
+        for (HttpUriRequest request : requests) {
+            assertEquals("batchSize=200", request.getFirstHeader("Sforce-Query-Options").getValue());
+        }
+        assertEquals("/services/data/v28.0/query/01gD-200", requests.get(1).getURI().getPath());
+
+        assertEquals(2, metricRegistry.histogram(RestConnectionImpl.class.getName() + ".query.batchSize").getCount());
+        assertEquals(2,
+                metricRegistry.histogram(RestConnectionImpl.class.getName() + ".query.recordsPerPage").getCount());
+    }
+
+    @Test
+    public void testLazyDecodingCarriesToLaterPages() throws IOException {
+        RestConnection connection = getConnection();
+
+        RestQueryResult first = connection.query("SELECT Id FROM Account", new RestQueryOptions(200, true));
+        assertTrue(first.getQueryLocator().getOptions().isLazyDecoding());
+        RestQueryResult last = connection.queryMore(first.getQueryLocator());
+
+        assertTrue(first.getSObjects() instanceof LazyRecordList);
+        assertTrue(last.getSObjects() instanceof LazyRecordList);
+        assertEquals(new Id("0015000000WWD7c"), first.getSObjects().get(1).getId());
+        assertEquals(new Id("0015000000WWD7d"), last.getSObjects().get(0).getId());
+        for (HttpUriRequest request : requests) {
+            assertEquals("batchSize=200", request.getFirstHeader("Sforce-Query-Options").getValue());
+        }
+    }
+
+    @Test
+    public void testNoOptionsSendsNoHeader() throws IOException {
+        RestConnection connection = getConnection();
+
+        connection.queryMore(connection.query("SELECT Id FROM Account").getQueryLocator());
+
+        for (HttpUriRequest request : requests) {
+            assertNull(request.getFirstHeader("Sforce-Query-Options"));
+        }
+        assertEquals(0, metricRegistry.histogram(RestConnectionImpl.class.getName() + ".query.batchSize").getCount());
+        assertEquals(2,
+                metricRegistry.histogram(RestConnectionImpl.class.getName() + ".query.recordsPerPage").getCount());
+    }
+
+    @Test
+    public void testBatchSizeMustBeInRange() {
+        new RestQueryOptions(RestQueryOptions.MIN_BATCH_SIZE);
+        new RestQueryOptions(RestQueryOptions.MAX_BATCH_SIZE);
+
+        for (int batchSize : new int[]{199, 2001}) {
+            try {
+                new RestQueryOptions(batchSize);
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertEquals("Batch size must be from 200 to 2000, was " + batchSize, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return a connection that gets FIRST_PAGE for a query and LAST_PAGE for a queryMore
+     */
+    private RestConnection getConnection() {
+        HttpClient httpClient = FakeHttpClient.create(new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) {
+                requests.add(request);
+
+                return FakeHttpClient.response(200,
+                        request.getURI().getPath().endsWith("/query") ? FIRST_PAGE : LAST_PAGE);
+            }
+        });
+
+        return new RestConnectionImpl(MAPPER.reader(), new FixedHttpApiClientProvider(
+                new HttpApiClient("na3.salesforce.com", "token", MAPPER, httpClient)), metricRegistry);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.palominolabs.crm.sf.core.RecordBufferConfig;
+import com.palominolabs.crm.sf.core.SpillingRecordBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.palominolabs.testutil.ResourceUtil.readResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RestRecordCodecTest {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (String resource : new String[]{"/apiResponses/query.json", "/apiResponses/queryWithSubquery.json",
+                "/apiResponses/queryWithSubObject.json"}) {
+            List<RestSObject> expected = SObjectJsonParser.parseQueryResult(
+                    FACTORY.createParser(readResource(resource))).getSObjects();
+
+            // small enough that all but the first record or so are spilled
+            SpillingRecordBuffer<RestSObject> buffer =
+                    new SpillingRecordBuffer<RestSObject>(RestRecordCodec.INSTANCE, new RecordBufferConfig(100, null));
+            try {
+                buffer.addAll(expected);
+                buffer.addAll(expected);
+
+                List<RestSObject> actual = new ArrayList<RestSObject>();
+                for (RestSObject sObject : buffer) {
+                    actual.add(sObject);
+                }
+
+                assertEquals(expected.size() * 2, actual.size());
+                for (int i = 0; i < actual.size(); i++) {
+                    assertSObjectEquals(expected.get(i % expected.size()), actual.get(i));
+                }
+            } finally {
+                buffer.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSubqueryLocator() throws IOException {
+        RestSObject account = SObjectJsonParser.parseSObject(FACTORY.createParser(
+                "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"0015000000WWD7b\",\"Contacts\":{\"totalSize\":3000," +
+                        "\"done\":false,\"nextRecordsUrl\":\"/services/data/v28.0/query/01gD-2000\",\"records\":[]}}"));
+
+        SpillingRecordBuffer<RestSObject> buffer =
+                new SpillingRecordBuffer<RestSObject>(RestRecordCodec.INSTANCE, new RecordBufferConfig(0, null));
+        try {
+            buffer.add(account);
+            Iterator<RestSObject> iterator = buffer.iterator();
+            RestQueryResult contacts = iterator.next().getRelationshipQueryResults().get("Contacts");
+            assertFalse(iterator.hasNext());
+
+            assertFalse(contacts.isDone());
+            assertEquals(3000, contacts.getTotalSize());
+            assertNotNull(contacts.getQueryLocator());
+            assertEquals("/services/data/v28.0/query/01gD-2000", contacts.getQueryLocator().getContents());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    private static void assertSObjectEquals(RestSObject expected, RestSObject actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getAllFields(), actual.getAllFields());
+
+        Map<String, RestSObject> expectedSubObjects = expected.getRelationshipSubObjects();
+        assertEquals(expectedSubObjects.keySet(), actual.getRelationshipSubObjects().keySet());
+        for (Map.Entry<String, RestSObject> entry : expectedSubObjects.entrySet()) {
+            assertSObjectEquals(entry.getValue(), actual.getRelationshipSubObjects().get(entry.getKey()));
+        }
+
+        Map<String, RestQueryResult> expectedSubqueries = expected.getRelationshipQueryResults();
+        assertEquals(expectedSubqueries.keySet(), actual.getRelationshipQueryResults().keySet());
+        for (Map.Entry<String, RestQueryResult> entry : expectedSubqueries.entrySet()) {
+            RestQueryResult expectedResult = entry.getValue();
+            RestQueryResult actualResult = actual.getRelationshipQueryResults().get(entry.getKey());
+            assertEquals(expectedResult.isDone(), actualResult.isDone());
+            assertEquals(expectedResult.getTotalSize(), actualResult.getTotalSize());
+            assertNull(actualResult.getQueryLocator());
+            assertEquals(expectedResult.getSObjects().size(), actualResult.getSObjects().size());
+            for (int i = 0; i < expectedResult.getSObjects().size(); i++) {
+                assertSObjectEquals(expectedResult.getSObjects().get(i), actualResult.getSObjects().get(i));
+            }
+        }
+    }
+}
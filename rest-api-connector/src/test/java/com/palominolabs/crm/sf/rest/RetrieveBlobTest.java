@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.palominolabs.crm.sf.core.Id;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RetrieveBlobTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final Id ID = new Id("068D00000000pgOIAQ");
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Test
+    public void testCopiesBlob() throws IOException {
+        final byte[] blob = getBlob(100000);
+        RestConnection connection = getConnection(new ResponseFactory() {
+            @Override
+            public HttpResponse getResponse(HttpUriRequest request) {
+                assertEquals("/services/data/v28.0/sobjects/ContentVersion/068D00000000pgO/VersionData",
+                        request.getURI().getPath());
+                HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+                response.setEntity(new ByteArrayEntity(blob, ContentType.APPLICATION_OCTET_STREAM));
+                return response;
+            }
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(blob.length, connection.retrieveBlob("ContentVersion", ID, "VersionData", out));
+        assertArrayEquals(blob, out.toByteArray());
+
+        ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+        assertEquals(blob.length,
+                connection.retrieveBlob("ContentVersion", ID, "VersionData", Channels.newChannel(channelOut)));
+        assertArrayEquals(blob, channelOut.toByteArray());
+
+        assertEquals(2,
+                metricRegistry.histogram(RestConnectionImpl.class.getName() + ".retrieveBlob.bytes").getCount());
+    }
+
+    @Test
+    public void testErrorResponse() throws IOException {
+        RestConnection connection = getConnection(new ResponseFactory() {
+            @Override
+            public HttpResponse getResponse(HttpUriRequest request) throws IOException {
+                HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 404, "Not Found");
+                response.setEntity(new StringEntity(
+                        "[{\"message\":\"The requested resource does not exist\",\"errorCode\":\"NOT_FOUND\"}]",
+                        ContentType.APPLICATION_JSON));
+                return response;
+            }
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            connection.retrieveBlob("ContentVersion", ID, "VersionData", out);
+            fail();
+        } catch (ApiException e) {
+            assertEquals(404, e.getHttpResponseCode());
+            assertEquals("NOT_FOUND", e.getErrors().get(0).getErrorCode());
+        }
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    public void testFailureAfterWritingIsNotRetried() throws IOException {
+        final byte[] blob = getBlob(20000);
+        RestConnection connection = getConnection(new ResponseFactory() {
+            @Override
+            public HttpResponse getResponse(HttpUriRequest request) {
+                HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+                response.setEntity(failingEntity(blob));
+                return response;
+            }
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            connection.retrieveBlob("ContentVersion", ID, "VersionData", out);
+            fail();
+        } catch (BlobTransferException e) {
+            assertEquals(blob.length, e.getBytesTransferred());
+            assertEquals("Connection reset", e.getCause().getMessage());
+        }
+        assertEquals(1, requests.get());
+        assertArrayEquals(blob, out.toByteArray());
+    }
+
+    private static byte[] getBlob(int length) {
+        byte[] blob = new byte[length];
+        for (int i = 0; i < blob.length; i++) {
+            blob[i] = (byte) i;
+        }
+        return blob;
+    }
+
+    /**
+     * @param contents what to read before failing
+     *
+     * @return an entity whose stream fails after the contents have been read
+     */
+    private static HttpEntity failingEntity(final byte[] contents) {
+        return new InputStreamEntity(new InputStream() {
+            private int position = 0;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position == contents.length) {
+                    throw new IOException("Connection reset");
+                }
+                int count = Math.min(len, contents.length - position);
+                System.arraycopy(contents, position, b, off, count);
+                position += count;
+                return count;
+            }
+        }, ContentType.APPLICATION_OCTET_STREAM);
+    }
+
+    private interface ResponseFactory {
+        HttpResponse getResponse(HttpUriRequest request) throws IOException;
+    }
+
+    /**
+     * @param responses makes the response to each request
+     *
+     * @return a connection whose client retries transient failures
+     */
+    private RestConnection getConnection(final ResponseFactory responses) {
+        HttpClient httpClient = FakeHttpClient.create(new FakeHttpClient.Responder() {
+            @Override
+            public HttpResponse respond(HttpUriRequest request) throws IOException {
+                requests.incrementAndGet();
+                return responses.getResponse(request);
+            }
+        });
+
+        OrgRequestRetrier retrier = new OrgRequestRetrier(
+                new RetryPolicy(3, 0, 0, TimeUnit.MILLISECONDS, false, 10, 0.1),
+                metricRegistry.counter("retries"), metricRegistry.counter("giveUps"));
+
+        return new RestConnectionImpl(MAPPER.reader(), new FixedHttpApiClientProvider(
+                HttpApiClient.builder("na3.salesforce.com", "token", MAPPER, httpClient).setRetrier(retrier).build()),
+                metricRegistry);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.palominolabs.crm.sf.core.Id;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SObjectCollectionsTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testChunksInOrder() throws IOException {
+        final List<Integer> chunkSizes = Collections.synchronizedList(Lists.<Integer>newArrayList());
+
+        List<SaveResult> results = SObjectCollections.saveInChunks(ids(450), new SObjectCollections.ChunkSaver<Id>() {
+            @Nonnull
+            @Override
+            public List<SaveResult> save(@Nonnull List<Id> chunk) throws IOException {
+                chunkSizes.add(chunk.size());
+                List<SaveResult> results = Lists.newArrayList();
+                for (Id id : chunk) {
+                    results.add(new SaveResultImpl(id, true, Collections.<ApiError>emptyList()));
+                }
+                return results;
+            }
+        }, executor, 4);
+
+        assertEquals(450, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(id(i), results.get(i).getId());
+        }
+
+        Collections.sort(chunkSizes);
+        assertEquals(Lists.newArrayList(50, 200, 200), chunkSizes);
+    }
+
+    @Test
+    public void testChunkFailure() {
+        try {
+            SObjectCollections.saveInChunks(ids(600), new SObjectCollections.ChunkSaver<Id>() {
+                @Nonnull
+                @Override
+                public List<SaveResult> save(@Nonnull List<Id> chunk) throws IOException {
+                    throw new IOException("boom");
+                }
+            }, executor, 2);
+            fail();
+        } catch (IOException e) {
+            assertEquals("boom", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testNoExecutorForSingleChunk() throws IOException {
+        List<SaveResult> results = SObjectCollections.saveInChunks(ids(2), new SObjectCollections.ChunkSaver<Id>() {
+            @Nonnull
+            @Override
+            public List<SaveResult> save(@Nonnull List<Id> chunk) throws IOException {
+                return Lists.<SaveResult>newArrayList(new SaveResultImpl(chunk.get(0), true,
+                        Collections.<ApiError>emptyList()), new SaveResultImpl(chunk.get(1), true,
+                        Collections.<ApiError>emptyList()));
+            }
+        }, null, 10);
+
+        assertEquals(2, results.size());
+    }
+
+    @Test
+    public void testParseSaveResults() throws IOException {
+        List<SaveResult> results = SObjectCollections.SAVE_RESULTS_HANDLER.handle(new ObjectMapper().getFactory()
+                .createParser("[{\"id\":\"001RM000003oLnnYAE\",\"success\":true,\"errors\":[]}," +
+                        "{\"success\":false,\"errors\":[{\"statusCode\":\"REQUIRED_FIELD_MISSING\"," +
+                        "\"message\":\"Required fields are missing: [Name]\",\"fields\":[\"Name\"]}]}]"));
+
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(new Id("001RM000003oLnnYAE"), results.get(0).getId());
+
+        assertFalse(results.get(1).isSuccess());
+        assertNull(results.get(1).getId());
+        ApiError error = results.get(1).getErrors().get(0);
+        assertEquals("REQUIRED_FIELD_MISSING", error.getErrorCode());
+        assertEquals(Lists.newArrayList("Name"), error.getFields());
+    }
+
+    private static List<Id> ids(int count) {
+        List<Id> ids = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            ids.add(id(i));
+        }
+        return ids;
+    }
+
+    private static Id id(int i) {
+        return new Id(String.format("001%012d", i));
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.rest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.base.Charsets;
+import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.SObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static com.palominolabs.testutil.ResourceUtil.readResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SObjectJsonParserTest {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    @Test
+    public void testQuery() throws IOException {
+        RestQueryResult result = SObjectJsonParser.parseQueryResult(parser(readResource("/apiResponses/query.json")));
+
+        assertTrue(result.isDone());
+        assertNull(result.getQueryLocator());
+        assertEquals(1, result.getTotalSize());
+        assertEquals(1, result.getSObjects().size());
+
+        SObject object = result.getSObjects().get(0);
+        assertEquals(new Id("01t50000001L5cT"), object.getId());
+        assertEquals("Product2", object.getType());
+        assertEquals("GenWatt Diesel 200kW", object.getField("Name"));
+        assertTrue(object.isFieldSet("Description"));
+        assertNull(object.getField("Description"));
+        assertEquals(2, object.getAllFields().size());
+    }
+
+    @Test
+    public void testQueryWithSubquery() throws IOException {
+        RestQueryResult result =
+                SObjectJsonParser.parseQueryResult(parser(readResource("/apiResponses/queryWithSubquery.json")));
+
+        RestSObject account = result.getSObjects().get(0);
+        assertEquals("Account", account.getType());
+        assertEquals(new Id("0015000000WWD7b"), account.getId());
+
+        // empty subqueries are null fields, just like with the tree based parsing
+        assertTrue(account.isFieldSet("Tasks"));
+        assertNull(account.getField("Tasks"));
+        assertTrue(account.isFieldSet("AnnualRevenue"));
+
+        assertEquals(1, account.getRelationshipQueryResults().size());
+        RestQueryResult contacts = account.getRelationshipQueryResults().get("Contacts");
+        assertTrue(contacts.isDone());
+        assertEquals(2, contacts.getTotalSize());
+
+        List<RestSObject> contactObjects = contacts.getSObjects();
+        assertEquals(2, contactObjects.size());
+        assertEquals("Contact", contactObjects.get(0).getType());
+        assertEquals(new Id("0035000000km1ov"), contactObjects.get(0).getId());
+        assertEquals("Tom", contactObjects.get(0).getField("FirstName"));
+        assertEquals("ldcruz@uog.com", contactObjects.get(1).getField("Email"));
+    }
+
+    @Test
+    public void testQueryWithSubObject() throws IOException {
+        RestQueryResult result =
+                SObjectJsonParser.parseQueryResult(parser(readResource("/apiResponses/queryWithSubObject.json")));
+
+        RestSObject account = result.getSObjects().get(0);
+        assertEquals(1, account.getRelationshipSubObjects().size());
+        assertFalse(account.isFieldSet("Owner"));
+
+        RestSObject owner = account.getRelationshipSubObjects().get("Owner");
+        assertNotNull(owner);
+        assertEquals("User", owner.getType());
+        // Id comes after the other fields in sub objects
+        assertEquals(new Id("00550000001gvBO"), owner.getId());
+        assertEquals("sftestorg3 mpierce", owner.getField("Name"));
+    }
+
+    @Test
+    public void testQueryNotDone() throws IOException {
+        RestQueryResult result = SObjectJsonParser.parseQueryResult(parser(
+                "{\"totalSize\":3000,\"done\":false,\"nextRecordsUrl\":\"/services/data/v28.0/query/01gD-2000\"," +
+                        "\"records\":[]}"));
+
+        assertFalse(result.isDone());
+        assertEquals(3000, result.getTotalSize());
+        assertEquals(0, result.getSObjects().size());
+        assertNotNull(result.getQueryLocator());
+        assertEquals("/services/data/v28.0/query/01gD-2000", result.getQueryLocator().getContents());
+    }
+
+    @Test
+    public void testLazyQueryMatchesEager() throws IOException {
+        for (String resource : new String[]{"/apiResponses/query.json", "/apiResponses/queryWithSubquery.json",
+                "/apiResponses/queryWithSubObject.json"}) {
+            String json = readResource(resource);
+            RestQueryResult eager = SObjectJsonParser.parseQueryResult(parser(json));
+            RestQueryResult lazy = SObjectJsonParser.parseQueryResultLazily(json.getBytes(Charsets.UTF_8));
+
+            assertEquals(eager.isDone(), lazy.isDone());
+            assertEquals(eager.getTotalSize(), lazy.getTotalSize());
+            assertEquals(eager.getSObjects().size(), lazy.getSObjects().size());
+
+            for (int i = 0; i < eager.getSObjects().size(); i++) {
+                RestSObject expected = eager.getSObjects().get(i);
+                RestSObject actual = lazy.getSObjects().get(i);
+                assertEquals(expected.getType(), actual.getType());
+                assertEquals(expected.getId(), actual.getId());
+                assertEquals(expected.getAllFields(), actual.getAllFields());
+                assertEquals(expected.getRelationshipQueryResults().keySet(),
+                        actual.getRelationshipQueryResults().keySet());
+                assertEquals(expected.getRelationshipSubObjects().keySet(),
+                        actual.getRelationshipSubObjects().keySet());
+            }
+        }
+    }
+
+    @Test
+    public void testLazyQueryOnlyDecodesAccessedRecords() throws IOException {
+        // the second record has no attributes, which is only noticed when it is decoded
+        RestQueryResult result = SObjectJsonParser.parseQueryResultLazily(
+                ("{\"totalSize\":3000,\"done\":false,\"nextRecordsUrl\":\"/services/data/v28.0/query/01gD-2000\"," +
+                        "\"records\":[{\"attributes\":{\"type\":\"Contact\"},\"Id\":\"0035000000km1oh\"," +
+                        "\"FirstName\":\"Ros\u00e9\"},{\"Id\":\"0035000000km1ov\"}]}").getBytes(Charsets.UTF_8));
+
+        assertFalse(result.isDone());
+        assertEquals(3000, result.getTotalSize());
+        assertEquals("/services/data/v28.0/query/01gD-2000", result.getQueryLocator().getContents());
+        assertEquals(2, result.getSObjects().size());
+
+        RestSObject first = result.getSObjects().get(0);
+        assertEquals(new Id("0035000000km1oh"), first.getId());
+        assertEquals("Ros\u00e9", first.getField("FirstName"));
+        assertSame(first, result.getSObjects().get(0));
+
+        try {
+            result.getSObjects().get(1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Null value for key <attributes>", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testLazyQueryWithWhitespaceBetweenRecords() throws IOException {
+        RestQueryResult result = SObjectJsonParser.parseQueryResultLazily(
+                ("{\"totalSize\":3,\"done\":true,\"records\":[\n" +
+                        "  {\"attributes\":{\"type\":\"Contact\"},\"Id\":\"0035000000km1oh\"} ,\n" +
+                        "  {\"attributes\":{\"type\":\"Contact\"},\"Id\":\"0035000000km1ov\"},\r\n" +
+                        "\t{\"attributes\":{\"type\":\"Contact\"},\"Id\":\"0035000000km1p0\"}\n]}")
+                        .getBytes(Charsets.UTF_8));
+
+        assertEquals(new Id("0035000000km1p0"), result.getSObjects().get(2).getId());
+        assertEquals(new Id("0035000000km1ov"), result.getSObjects().get(1).getId());
+        assertEquals(new Id("0035000000km1oh"), result.getSObjects().get(0).getId());
+    }
+
+    @Test
+    public void testLazyQueryMalformedPage() throws IOException {
+        try {
+            SObjectJsonParser.parseQueryResultLazily(
+                    "{\"totalSize\":1,\"done\":true,\"records\":[{\"Id\":]}".getBytes(Charsets.UTF_8));
+            fail();
+        } catch (JsonParseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRetrieve() throws IOException {
+        RestSObject contact = SObjectJsonParser.parseSObject(parser(readResource("/apiResponses/retrieve.json")));
+
+        assertEquals(new Id("0035000000km1oh"), contact.getId());
+        assertEquals("Contact", contact.getType());
+        assertEquals("Rose", contact.getField("FirstName"));
+        assertEquals("Gonzalez", contact.getField("LastName"));
+        assertEquals(2, contact.getAllFields().size());
+    }
+
+    @Test
+    public void testSearch() throws IOException {
+        List<SObject> sObjects = SObjectJsonParser.parseSObjects(parser(readResource("/apiResponses/search.json")));
+
+        assertEquals(1, sObjects.size());
+        assertEquals("a_young@dickenson.com", sObjects.get(0).getField("Email"));
+        assertEquals(4, sObjects.get(0).getAllFields().size());
+    }
+
+    @Test
+    public void testParsedSObjectsAreImmutable() throws IOException {
+        RestSObject contact = SObjectJsonParser.parseSObject(parser(readResource("/apiResponses/retrieve.json")));
+
+        try {
+            contact.setField("FirstName", "Liz");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        RestSObject copy = contact.toMutable();
+        copy.setField("FirstName", "Liz");
+
+        assertEquals("Liz", copy.getField("FirstName"));
+        assertEquals("Rose", contact.getField("FirstName"));
+        assertEquals(contact.getId(), copy.getId());
+        assertEquals(contact.getField("LastName"), copy.getField("LastName"));
+    }
+
+    @Test
+    public void testScalarFieldsAsText() throws IOException {
+        RestSObject sObject = SObjectJsonParser.parseSObject(parser(
+                "{\"attributes\":{\"type\":\"Opportunity\"},\"Amount\":350000.0,\"Count__c\":12," +
+                        "\"IsClosed\":false}"));
+
+        assertNull(sObject.getId());
+        assertEquals("350000.0", sObject.getField("Amount"));
+        assertEquals("12", sObject.getField("Count__c"));
+        assertEquals("false", sObject.getField("IsClosed"));
+    }
+
+    @Test
+    public void testMissingAttributes() throws IOException {
+        try {
+            SObjectJsonParser.parseSObject(parser("{\"Id\":\"0035000000km1oh\"}"));
+            fail();
+        } catch (ResponseParseException e) {
+            assertEquals("Null value for key <attributes>", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testNotAnObject() throws IOException {
+        try {
+            SObjectJsonParser.parseQueryResult(parser("[]"));
+            fail();
+        } catch (ResponseParseException e) {
+            assertEquals("Got a node that wasn't an object <START_ARRAY>", e.getMessage());
+        }
+    }
+
+    private static JsonParser parser(String json) throws IOException {
+        return FACTORY.createParser(json);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.soap;
+
+import com.palominolabs.crm.sf.core.CompactSObject;
+import com.palominolabs.crm.sf.core.FieldTable;
+import com.palominolabs.crm.sf.core.Id;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sObjects returned by queries, retrieves and searches. Records from the same call result share field tables.
+ */
+@Immutable
+public final class CompactPartnerSObject extends CompactSObject<PartnerQueryResult, PartnerSObject>
+        implements PartnerSObject {
+
+    CompactPartnerSObject(@Nonnull String type, @Nullable Id id, @Nonnull FieldTable fieldTable,
+            @Nonnull List<String> fieldNames, @Nonnull List<String> fieldValues,
+            @Nullable Map<String, PartnerQueryResult> relationshipQueryResults,
+            @Nullable Map<String, PartnerSObject> relationshipSubObjects) {
+        super(type, id, fieldTable, fieldNames, fieldValues, relationshipQueryResults, relationshipSubObjects);
+    }
+
+    private CompactPartnerSObject(@Nonnull Builder builder) {
+        super(builder);
+    }
+
+    /**
+     * @param type the sf type string
+     *
+     * @return builder for an sObject with a null id
+     */
+    @Nonnull
+    public static Builder builder(@Nonnull String type) {
+        return new Builder(type, null);
+    }
+
+    /**
+     * @param type the sf type string
+     * @param id   the id of the object
+     *
+     * @return builder for an sObject with the given id
+     */
+    @Nonnull
+    public static Builder builder(@Nonnull String type, @Nonnull Id id) {
+        return new Builder(type, id);
+    }
+
+    /**
+     * Relationship query results and sub objects are shared with this object, not copied.
+     *
+     * @return a mutable copy
+     */
+    @Nonnull
+    @Override
+    public PartnerSObjectImpl toMutable() {
+        Id id = getId();
+        PartnerSObjectImpl copy =
+                id == null ? PartnerSObjectImpl.getNew(getType()) : PartnerSObjectImpl.getNewWithId(getType(), id);
+        copyFieldsTo(copy);
+
+        for (Map.Entry<String, PartnerQueryResult> entry : getRelationshipQueryResults().entrySet()) {
+            copy.setRelationshipQueryResult(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, PartnerSObject> entry : getRelationshipSubObjects().entrySet()) {
+            copy.setRelationshipSubObject(entry.getKey(), entry.getValue());
+        }
+
+        return copy;
+    }
+
+    @NotThreadSafe
+    public static final class Builder
+            extends CompactSObject.Builder<PartnerQueryResult, PartnerSObject, CompactPartnerSObject> {
+
+        private Builder(@Nonnull String type, @Nullable Id id) {
+            super(type, id);
+        }
+
+        @Nonnull
+        @Override
+        public CompactPartnerSObject build() {
+            return new CompactPartnerSObject(this);
+        }
+    }
+}
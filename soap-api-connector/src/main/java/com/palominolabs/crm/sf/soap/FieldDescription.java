@@ -16,6 +16,9 @@
 
 package com.palominolabs.crm.sf.soap;
 
+import com.google.common.base.Function;
+import com.palominolabs.crm.sf.core.DependentPicklistIndex;
+import com.palominolabs.crm.sf.core.ImmutableBitSet;
 import com.palominolabs.crm.sf.soap.jaxwsstub.partner.FieldType;
 import com.palominolabs.crm.sf.soap.jaxwsstub.partner.FieldTypeType;
 import com.palominolabs.crm.sf.soap.jaxwsstub.partner.PicklistEntryType;
@@ -35,11 +38,32 @@ import java.util.List;
 @Immutable
 public final class FieldDescription {
 
+    private static final Function<PicklistEntry, ImmutableBitSet> VALID_FOR =
+            new Function<PicklistEntry, ImmutableBitSet>() {
+                @Override
+                public ImmutableBitSet apply(PicklistEntry entry) {
+                    return entry.getValidFor();
+                }
+            };
+
     /**
      * Underlying auto-generated class
      */
     private final FieldType stubField;
 
+    /**
+     * Converted from the stub on first use. Two threads may both convert them, which is harmless since the result is
+     * immutable.
+     */
+    @Nullable
+    private transient volatile List<PicklistEntry> picklistValues;
+
+    /**
+     * built on first use, like picklistValues
+     */
+    @Nullable
+    private transient volatile DependentPicklistIndex<PicklistEntry> dependentPicklistIndex;
+
     /**
      * The provided FieldType object MUST NOT BE MODIFIED after it is passed to this constructor. Using it in the
      * constructor must be an ownership change.
@@ -152,6 +176,11 @@ public final class FieldDescription {
      */
     @Nonnull
     public List<PicklistEntry> getPicklistValues() {
+        List<PicklistEntry> values = this.picklistValues;
+        if (values != null) {
+            return values;
+        }
+
         List<PicklistEntry> entries = new ArrayList<PicklistEntry>();
 
         // the stub returns an empty list if the underlying value is null
@@ -160,7 +189,26 @@ public final class FieldDescription {
             entries.add(entry);
         }
 
-        return Collections.unmodifiableList(entries);
+        values = Collections.unmodifiableList(entries);
+        this.picklistValues = values;
+        return values;
+    }
+
+    /**
+     * Which picklist values are valid for each value of the controlling field (see {@link #getControllerName()}), so
+     * that they can be looked up without checking the validFor bits of every entry. Built the first time it's needed
+     * and kept for the life of this description.
+     *
+     * @return the index. Empty if this isn't a dependent picklist.
+     */
+    @Nonnull
+    public DependentPicklistIndex<PicklistEntry> getDependentPicklistIndex() {
+        DependentPicklistIndex<PicklistEntry> index = this.dependentPicklistIndex;
+        if (index == null) {
+            index = DependentPicklistIndex.of(getPicklistValues(), VALID_FOR);
+            this.dependentPicklistIndex = index;
+        }
+        return index;
     }
 
     /**
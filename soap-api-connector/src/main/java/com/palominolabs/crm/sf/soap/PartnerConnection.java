@@ -17,7 +17,9 @@
 package com.palominolabs.crm.sf.soap;
 
 import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.RecordBufferConfig;
 import com.palominolabs.crm.sf.core.SObject;
+import com.palominolabs.crm.sf.core.SpillingRecordBuffer;
 import org.joda.time.DateTime;
 
 import javax.annotation.Nonnull;
@@ -209,6 +211,22 @@ public interface PartnerConnection {
     @Nonnull
     PartnerQueryResult queryMore(@Nonnull PartnerQueryLocator locator) throws ApiException;
 
+    /**
+     * Run a query and copy every record of every page into a buffer that keeps the first records on the heap in a
+     * compact binary form and spills the rest to temp files, so that a query result bigger than the heap can be
+     * iterated over as many times as needed.
+     *
+     * @param queryStr the SOQL query
+     * @param config   how much of the buffer to keep on the heap, and where to put the temp files
+     *
+     * @return a buffer of every record of the query. It must be closed to delete the temp files.
+     *
+     * @throws ApiException on failure, including failure to write the temp files. The buffer is closed first.
+     */
+    @Nonnull
+    SpillingRecordBuffer<PartnerSObject> queryIntoBuffer(@Nonnull String queryStr, @Nonnull RecordBufferConfig config)
+            throws ApiException;
+
     /**
      * If you do not have sufficient access for a certain Id or if the Id is invalid, null will be returned in the list
      * in the position for that Id.
@@ -20,7 +20,9 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.RecordBufferConfig;
 import com.palominolabs.crm.sf.core.SObject;
+import com.palominolabs.crm.sf.core.SpillingRecordBuffer;
 import com.palominolabs.crm.sf.soap.jaxwsstub.partner.ApiQueryFault;
 import com.palominolabs.crm.sf.soap.jaxwsstub.partner.Create;
 import com.palominolabs.crm.sf.soap.jaxwsstub.partner.CreateResponse;
@@ -78,6 +80,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.ws.WebServiceException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -374,6 +377,38 @@ final class PartnerConnectionImpl extends AbstractSalesforceConnection implement
         return qResult;
     }
 
+    @Nonnull
+    @Override
+    public synchronized SpillingRecordBuffer<PartnerSObject> queryIntoBuffer(@Nonnull String queryStr,
+            @Nonnull RecordBufferConfig config) throws ApiException {
+        SpillingRecordBuffer<PartnerSObject> buffer =
+                new SpillingRecordBuffer<PartnerSObject>(PartnerRecordCodec.INSTANCE, config);
+        boolean filled = false;
+        try {
+            PartnerQueryResult page = query(queryStr);
+            buffer.addAll(page.getSObjects());
+
+            while (!page.isDone()) {
+                //noinspection ConstantConditions
+                page = queryMore(page.getQueryLocator());
+                buffer.addAll(page.getSObjects());
+            }
+
+            filled = true;
+            return buffer;
+        } catch (IOException e) {
+            throw ApiException.getNewWithCause("Couldn't buffer the query results", this.getUsername(), e);
+        } finally {
+            if (!filled) {
+                try {
+                    buffer.close();
+                } catch (IOException e) {
+                    logger.warn("Couldn't delete the temp files of an unfinished query buffer", e);
+                }
+            }
+        }
+    }
+
     @Nonnull
     @Override
     public synchronized List<SObject> retrieve(@Nonnull String sObjectType, @Nonnull List<Id> ids,
@@ -481,7 +516,7 @@ final class PartnerConnectionImpl extends AbstractSalesforceConnection implement
                 }
 
                 // update fields with the latest ones
-                inProgressCopy.setAllFields(retrievedCopy.getAllFields());
+                retrievedCopy.copyFieldsTo(inProgressCopy);
             }
         }
 
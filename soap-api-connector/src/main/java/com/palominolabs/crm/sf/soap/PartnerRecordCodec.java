@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2013. Palomino Labs (http://palominolabs.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palominolabs.crm.sf.soap;
+
+import com.palominolabs.crm.sf.core.FieldTable;
+import com.palominolabs.crm.sf.core.Id;
+import com.palominolabs.crm.sf.core.RecordCodec;
+import com.palominolabs.crm.sf.core.RecordInput;
+import com.palominolabs.crm.sf.core.RecordOutput;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the type, id, fields, sub objects and subquery results of a record, including the locators of subqueries that
+ * aren't done.
+ */
+@Immutable
+final class PartnerRecordCodec implements RecordCodec<PartnerSObject> {
+
+    static final PartnerRecordCodec INSTANCE = new PartnerRecordCodec();
+
+    private PartnerRecordCodec() {
+    }
+
+    @Override
+    public void write(@Nonnull PartnerSObject record, @Nonnull RecordOutput output) {
+        output.writeString(record.getType());
+        output.writeId(record.getId());
+        output.writeFields(record);
+
+        Map<String, PartnerSObject> subObjects = record.getRelationshipSubObjects();
+        output.writeInt(subObjects.size());
+        for (Map.Entry<String, PartnerSObject> entry : subObjects.entrySet()) {
+            output.writeString(entry.getKey());
+            write(entry.getValue(), output);
+        }
+
+        Map<String, PartnerQueryResult> subqueryResults = record.getRelationshipQueryResults();
+        output.writeInt(subqueryResults.size());
+        for (Map.Entry<String, PartnerQueryResult> entry : subqueryResults.entrySet()) {
+            PartnerQueryResult result = entry.getValue();
+            output.writeString(entry.getKey());
+            output.writeBoolean(result.isDone());
+            output.writeInt(result.getTotalSize());
+            PartnerQueryLocator locator = result.getQueryLocator();
+            output.writeString(locator == null ? null : locator.getContents());
+
+            List<PartnerSObject> sObjects = result.getSObjects();
+            output.writeInt(sObjects.size());
+            for (PartnerSObject sObject : sObjects) {
+                write(sObject, output);
+            }
+        }
+    }
+
+    @Nonnull
+    @Override
+    public PartnerSObject read(@Nonnull RecordInput input) {
+        //noinspection ConstantConditions
+        String type = input.readString();
+        Id id = input.readId();
+        List<String> fieldValues = new ArrayList<String>();
+        FieldTable fieldTable = input.readFields(fieldValues);
+
+        Map<String, PartnerSObject> subObjects = null;
+        int subObjectCount = input.readInt();
+        if (subObjectCount > 0) {
+            subObjects = new LinkedHashMap<String, PartnerSObject>();
+            for (int i = 0; i < subObjectCount; i++) {
+                subObjects.put(input.readString(), read(input));
+            }
+        }
+
+        Map<String, PartnerQueryResult> subqueryResults = null;
+        int subqueryCount = input.readInt();
+        if (subqueryCount > 0) {
+            subqueryResults = new LinkedHashMap<String, PartnerQueryResult>();
+            for (int i = 0; i < subqueryCount; i++) {
+                String relationshipName = input.readString();
+                subqueryResults.put(relationshipName, readQueryResult(input));
+            }
+        }
+
+        //noinspection ConstantConditions
+        return new CompactPartnerSObject(type, id, fieldTable, fieldTable.getNames(), fieldValues, subqueryResults,
+                subObjects);
+    }
+
+    @Nonnull
+    private PartnerQueryResult readQueryResult(@Nonnull RecordInput input) {
+        boolean done = input.readBoolean();
+        int totalSize = input.readInt();
+        @Nullable String locator = input.readString();
+
+        int count = input.readInt();
+        List<PartnerSObject> sObjects = new ArrayList<PartnerSObject>(count);
+        for (int i = 0; i < count; i++) {
+            sObjects.add(read(input));
+        }
+
+        if (done || locator == null) {
+            return PartnerQueryResultImpl.getDone(sObjects, totalSize);
+        }
+        return PartnerQueryResultImpl.getNotDone(sObjects, totalSize, new PartnerQueryLocator(locator));
+    }
+}
@@ -28,4 +28,12 @@ public interface PartnerSObject extends SObject {
 
     @Nonnull
     public Map<String, PartnerSObject> getRelationshipSubObjects();
+
+    /**
+     * Query and retrieve results are immutable, so use this to get a copy to change and then update.
+     *
+     * @return a mutable copy of this sObject. Relationship query results and sub objects are shared, not copied.
+     */
+    @Nonnull
+    public PartnerSObject toMutable();
 }
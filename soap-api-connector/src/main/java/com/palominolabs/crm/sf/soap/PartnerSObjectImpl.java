@@ -22,6 +22,7 @@ import com.palominolabs.crm.sf.core.Id;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.Map;
 
 @ThreadSafe
 public final class PartnerSObjectImpl extends AbstractSObject<PartnerQueryResult, PartnerSObject> implements PartnerSObject {
@@ -55,6 +56,23 @@ public final class PartnerSObjectImpl extends AbstractSObject<PartnerQueryResult
         return new PartnerSObjectImpl(type, id);
     }
 
+    @Nonnull
+    @Override
+    public PartnerSObjectImpl toMutable() {
+        Id id = getId();
+        PartnerSObjectImpl copy = id == null ? getNew(getType()) : getNewWithId(getType(), id);
+        copyFieldsTo(copy);
+
+        for (Map.Entry<String, PartnerQueryResult> entry : getRelationshipQueryResults().entrySet()) {
+            copy.setRelationshipQueryResult(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, PartnerSObject> entry : getRelationshipSubObjects().entrySet()) {
+            copy.setRelationshipSubObject(entry.getKey(), entry.getValue());
+        }
+
+        return copy;
+    }
+
     // expose superclass method
     void setRelationshipQueryResult(@Nonnull String relationshipName, @Nonnull PartnerQueryResult queryResult) {
         setRelationshipQueryResultInner(relationshipName, queryResult);
@@ -16,6 +16,8 @@
 
 package com.palominolabs.crm.sf.soap;
 
+import com.palominolabs.crm.sf.core.FieldTable;
+import com.palominolabs.crm.sf.core.FieldVisitor;
 import com.palominolabs.crm.sf.core.Id;
 import com.palominolabs.crm.sf.core.SObject;
 import org.w3c.dom.DOMException;
@@ -32,8 +34,9 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Contains convenience methods for manipulating SObjects.
@@ -54,6 +57,7 @@ final class SObjects {
      * Convert an individual SObject stub into a facade SObject.
      *
      * @param stubSObject the stub sobject to convert
+     * @param fieldTables field tables of the call result
      *
      * @return SObject, or null if the input was null
      *
@@ -61,24 +65,23 @@ final class SObjects {
      */
     @Nullable
     private static PartnerSObject convertStubSObjectToFacadeSObject(
-            @Nullable com.palominolabs.crm.sf.soap.jaxwsstub.partner.SObject stubSObject)
-            throws SObjectConversionException {
+            @Nullable com.palominolabs.crm.sf.soap.jaxwsstub.partner.SObject stubSObject,
+            @Nonnull FieldTable.Cache fieldTables) throws SObjectConversionException {
 
         if (stubSObject == null) {
             return null;
         }
 
-        PartnerSObjectImpl newSObject;
-
         // if the sobject was queried with Id, create the facade sobject with an id
-        if (stubSObject.getId() == null) {
-            newSObject = PartnerSObjectImpl.getNew(stubSObject.getType());
-        } else {
-            newSObject = PartnerSObjectImpl.getNewWithId(stubSObject.getType(), new Id(stubSObject.getId()));
-        }
+        Id id = stubSObject.getId() == null ? null : new Id(stubSObject.getId());
 
         List<Object> fields = stubSObject.getAny();
 
+        List<String> fieldNames = new ArrayList<String>(fields.size());
+        List<String> fieldValues = new ArrayList<String>(fields.size());
+        Map<String, PartnerQueryResult> subqueryResults = null;
+        Map<String, PartnerSObject> subObjects = null;
+
         // see http://wiki.apexdevnet.com/index.php/PartnerQuery
 
 
@@ -112,19 +115,23 @@ final class SObjects {
             String fieldName = xmlElt.getLocalName();
 
             if ("QueryResult".equals(xsiTypeValue)) {
-                PartnerQueryResult subqueryResult = parseQueryResult(xmlElt);
-                newSObject.setRelationshipQueryResult(fieldName, subqueryResult);
+                if (subqueryResults == null) {
+                    subqueryResults = new HashMap<String, PartnerQueryResult>();
+                }
+                subqueryResults.put(fieldName, parseQueryResult(xmlElt, fieldTables));
             } else if ("sf:sObject".equals(xsiTypeValue)) {
-                PartnerSObject subObj = parseSObject(xmlElt, fieldName);
-                newSObject.setRelationshipSubObject(fieldName, subObj);
+                if (subObjects == null) {
+                    subObjects = new HashMap<String, PartnerSObject>();
+                }
+                subObjects.put(fieldName, parseSObject(xmlElt, fieldName, fieldTables));
             } else {
-                String fieldValue = extractFieldValue(xmlElt);
-
-                newSObject.setField(fieldName, fieldValue);
+                fieldNames.add(fieldName);
+                fieldValues.add(extractFieldValue(xmlElt));
             }
         }
 
-        return newSObject;
+        return new CompactPartnerSObject(stubSObject.getType(), id, fieldTables.get(fieldNames), fieldNames,
+                fieldValues, subqueryResults, subObjects);
     }
 
     /**
@@ -147,14 +154,16 @@ final class SObjects {
     }
 
     /**
-     * @param qrElement the dom node that is the root of the query result
+     * @param qrElement   the dom node that is the root of the query result
+     * @param fieldTables field tables of the call result
      *
      * @return a QueryResult
      *
      * @throws SObjectConversionException if the data cannot be extracted from the xml
      */
     @Nonnull
-    private static PartnerQueryResult parseQueryResult(@Nonnull Element qrElement) throws SObjectConversionException {
+    private static PartnerQueryResult parseQueryResult(@Nonnull Element qrElement,
+            @Nonnull FieldTable.Cache fieldTables) throws SObjectConversionException {
 
         /*
        QR structure:
@@ -249,7 +258,7 @@ final class SObjects {
 
         // the last node is "size", not an SObject
         for (int i = 2; i < childNodes.getLength() - 1; i++) {
-            sObjects.add(parseSObject(childNodes.item(i), "records"));
+            sObjects.add(parseSObject(childNodes.item(i), "records", fieldTables));
         }
 
         Node sizeNode = childNodes.item(childNodes.getLength() - 1);
@@ -306,7 +315,8 @@ final class SObjects {
         return (Element) node;
     }
 
-    private static PartnerSObject parseSObject(@Nonnull Node sObjectNode, String expectedNodeLocalName) throws SObjectConversionException {
+    private static PartnerSObject parseSObject(@Nonnull Node sObjectNode, String expectedNodeLocalName,
+            @Nonnull FieldTable.Cache fieldTables) throws SObjectConversionException {
         Element sObjElt = checkNodeIsElement(sObjectNode, expectedNodeLocalName);
 
         String parentNodeTypeStr = sObjElt.getAttribute("xsi:type");
@@ -346,24 +356,26 @@ final class SObjects {
         Node fieldsToNullOrId = sObjChildNodes.item(1);
         Element idElt = checkNodeIsElement(fieldsToNullOrId, "Id");
 
-        PartnerSObject sObj;
+        Id id;
         if ("true".equals(idElt.getAttribute("xsi:nil"))) {
             // id is null
-            sObj = PartnerSObjectImpl.getNew(sObjTypeStr);
+            id = null;
         } else {
-            Id id = new Id(idElt.getTextContent());
-            sObj = PartnerSObjectImpl.getNewWithId(sObjTypeStr, id);
+            id = new Id(idElt.getTextContent());
         }
 
+        List<String> fieldNames = new ArrayList<String>(sObjChildNodes.getLength());
+        List<String> fieldValues = new ArrayList<String>(sObjChildNodes.getLength());
+
         for (int i = 2; i < sObjChildNodes.getLength(); i++) {
             Node fieldNode = sObjChildNodes.item(i);
 
-            String fieldName = fieldNode.getLocalName();
-            String fieldValue = extractFieldValue(fieldNode);
-            sObj.setField(fieldName, fieldValue);
+            fieldNames.add(fieldNode.getLocalName());
+            fieldValues.add(extractFieldValue(fieldNode));
         }
 
-        return sObj;
+        return new CompactPartnerSObject(sObjTypeStr, id, fieldTables.get(fieldNames), fieldNames, fieldValues, null,
+                null);
     }
 
     /**
@@ -379,7 +391,7 @@ final class SObjects {
     static com.palominolabs.crm.sf.soap.jaxwsstub.partner.SObject convertFacadeSObjectToStubSObject(
             @Nonnull SObject facadeSObject) throws SObjectConversionException {
 
-        com.palominolabs.crm.sf.soap.jaxwsstub.partner.SObject stub =
+        final com.palominolabs.crm.sf.soap.jaxwsstub.partner.SObject stub =
                 new com.palominolabs.crm.sf.soap.jaxwsstub.partner.SObject();
 
         if (facadeSObject.getId() == null) {
@@ -390,30 +402,26 @@ final class SObjects {
 
         stub.setType(facadeSObject.getType());
 
-        List<Object> stubFields = stub.getAny();
+        final List<Object> stubFields = stub.getAny();
 
-        Document doc = DOC_FACTORY.newDocument();
+        final Document doc = DOC_FACTORY.newDocument();
 
         // create an Element for each field containing a Node that has the value
 
-        Iterator<String> fieldNameIter = facadeSObject.getAllFields().keySet().iterator();
-
-        Element fieldElt;
-        Node valueNode;
-
-        String fieldName;
-        String value;
-        while (fieldNameIter.hasNext()) {
-            fieldName = fieldNameIter.next();
-            value = facadeSObject.getField(fieldName);
+        facadeSObject.forEachField(new FieldVisitor<SObjectConversionException>() {
+            @Override
+            public void visitField(@Nonnull String fieldName, @Nullable String value)
+                    throws SObjectConversionException {
+                if (value == null) {
+                    stub.getFieldsToNull().add(fieldName);
+                    return;
+                }
 
-            if (value == null) {
-                stub.getFieldsToNull().add(fieldName);
-            } else {
+                Element fieldElt;
                 try {
                     fieldElt = doc.createElement(fieldName);
 
-                    valueNode = doc.createTextNode(value);
+                    Node valueNode = doc.createTextNode(value);
 
                     fieldElt.appendChild(valueNode);
                 } catch (DOMException e) {
@@ -423,7 +431,7 @@ final class SObjects {
                 }
                 stubFields.add(fieldElt);
             }
-        }
+        });
 
         return stub;
     }
@@ -444,8 +452,10 @@ final class SObjects {
 
         List<PartnerSObject> sObjects = new ArrayList<PartnerSObject>();
 
+        // the records of one call result share field tables
+        FieldTable.Cache fieldTables = new FieldTable.Cache();
         for (com.palominolabs.crm.sf.soap.jaxwsstub.partner.SObject stub : stubSObjects) {
-            sObjects.add(convertStubSObjectToFacadeSObject(stub));
+            sObjects.add(convertStubSObjectToFacadeSObject(stub, fieldTables));
         }
 
         return sObjects;
@@ -16,12 +16,14 @@
 
 package com.palominolabs.crm.sf.soap;
 
+import com.palominolabs.crm.sf.core.DependentPicklistIndex;
 import com.palominolabs.crm.sf.soap.jaxwsstub.partner.FieldType;
 import com.palominolabs.crm.sf.soap.jaxwsstub.partner.FieldTypeType;
 import com.palominolabs.crm.sf.soap.jaxwsstub.partner.SoapTypeType;
 import com.palominolabs.crm.sf.testutil.TestFixtureUtils;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.palominolabs.crm.sf.testutil.ConnectionTestSfUserProps.getPropVal;
@@ -167,6 +169,19 @@ public class FieldDescriptionTest {
                         dependentEntry.getValidFor().get(controllerEntryIdx));
             }
         }
+
+        DependentPicklistIndex<PicklistEntry> index = depender.getDependentPicklistIndex();
+        assertSame(index, depender.getDependentPicklistIndex());
+        for (int controllerEntryIdx = 0; controllerEntryIdx < size; controllerEntryIdx++) {
+            List<PicklistEntry> validEntries = new ArrayList<PicklistEntry>();
+            for (int dependentEntryIdx = 0; dependentEntryIdx < size; dependentEntryIdx++) {
+                if (expected[dependentEntryIdx][controllerEntryIdx] == 1) {
+                    validEntries.add(depender.getPicklistValues().get(dependentEntryIdx));
+                }
+            }
+
+            assertEquals(validEntries, index.getValidEntries(controllerEntryIdx));
+        }
     }
 
     @Test
@@ -652,7 +652,7 @@ public class PartnerConnectionImplTest {
 
         assertTrue(initialQueryResults.size() > 1);
 
-        SObject sObj = initialQueryResults.get(0);
+        SObject sObj = initialQueryResults.get(0).toMutable();
 
         Id id = sObj.getId();
 
@@ -679,7 +679,7 @@ public class PartnerConnectionImplTest {
 
         assertEquals(1, postUpdateQueryResults.size());
 
-        SObject postUpdateSObj = postUpdateQueryResults.get(0);
+        SObject postUpdateSObj = postUpdateQueryResults.get(0).toMutable();
         assertEquals(origName + "xyz", postUpdateSObj.getField("Name"));
 
         postUpdateSObj.setField("Name", origName);
@@ -704,7 +704,7 @@ public class PartnerConnectionImplTest {
 
         assertEquals(1, initialQueryResults.size());
 
-        SObject sObj = initialQueryResults.get(0);
+        SObject sObj = initialQueryResults.get(0).toMutable();
 
         // get the Name of the first id, add xyz to it, then remove it
 
@@ -757,7 +757,7 @@ public class PartnerConnectionImplTest {
 
         assertEquals(1, initialQueryResults.size());
 
-        SObject sObj = initialQueryResults.get(0);
+        SObject sObj = initialQueryResults.get(0).toMutable();
 
         Id id = sObj.getId();
 
@@ -786,7 +786,7 @@ public class PartnerConnectionImplTest {
 
         assertEquals(1, postUpdateQueryResults.size());
 
-        SObject postUpdateSObj = postUpdateQueryResults.get(0);
+        SObject postUpdateSObj = postUpdateQueryResults.get(0).toMutable();
         assertEquals(origName + badFieldSuffix, postUpdateSObj.getField("Name"));
 
         // set the name back to the original
@@ -843,7 +843,7 @@ public class PartnerConnectionImplTest {
         List<Id> idList = Collections.singletonList(new Id("0065000000FgGSp"));
         List<SObject> sObjs = this.conn.retrieve("Opportunity", idList, Arrays.asList("Amount", "Id"));
 
-        SObject sObj = sObjs.get(0);
+        SObject sObj = ((PartnerSObject) sObjs.get(0)).toMutable();
 
         String fname = "Amount";
         String origValue = "350000.0";
@@ -868,7 +868,7 @@ public class PartnerConnectionImplTest {
         } finally {
             sObj.setField(fname, origValue);
 
-            List<SaveResult> resultList = this.conn.update(sObjs);
+            List<SaveResult> resultList = this.conn.update(Collections.singletonList(sObj));
             assertTrue(resultList.get(0).isSuccess());
 
             List<SObject> sObjsWithBirthday = this.conn.retrieve("Opportunity", idList, Arrays.asList("Amount", "Id"));